@@ -48,11 +48,14 @@ import org.jumpmind.db.util.BasicDataSourceFactory;
 import org.jumpmind.properties.TypedProperties;
 import org.jumpmind.security.SecurityServiceFactory;
 import org.jumpmind.security.SecurityServiceFactory.SecurityServiceType;
+import org.jumpmind.symmetric.common.Constants;
 import org.jumpmind.symmetric.common.ParameterConstants;
 import org.jumpmind.symmetric.common.SystemConstants;
 import org.jumpmind.symmetric.db.ISymmetricDialect;
 import org.jumpmind.symmetric.db.JdbcSymmetricDialectFactory;
+import org.jumpmind.symmetric.io.stage.IStagingCodec;
 import org.jumpmind.symmetric.io.stage.IStagingManager;
+import org.jumpmind.symmetric.io.stage.StagingCodecs;
 import org.jumpmind.symmetric.io.stage.StagingManager;
 import org.jumpmind.symmetric.job.IJobManager;
 import org.jumpmind.symmetric.job.JobManager;
@@ -331,7 +334,12 @@ public class ClientSymmetricEngine extends AbstractSymmetricEngine {
     @Override
     protected IStagingManager createStagingManager() {
         String directory = parameterService.getTempDirectory();
-        return new StagingManager(directory);
+        IStagingCodec codec = StagingCodecs.create(
+                parameterService.getString(ParameterConstants.STAGING_COMPRESSION_CODEC),
+                parameterService.getInt(ParameterConstants.STAGING_COMPRESSION_LEVEL, 1));
+        return new StagingManager(directory, codec,
+                parameterService.getLong(ParameterConstants.STAGING_MEMORY_BUDGET_BYTES, 0),
+                Constants.STAGING_CATEGORY_OUTGOING, Constants.STAGING_CATEGORY_INCOMING);
     }
 
     protected static void waitForAvailableDatabase(DataSource dataSource) {
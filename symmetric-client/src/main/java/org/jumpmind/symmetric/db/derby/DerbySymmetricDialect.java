@@ -20,8 +20,11 @@
  */
 package org.jumpmind.symmetric.db.derby;
 
+import java.util.List;
+
 import org.jumpmind.db.platform.IDatabasePlatform;
 import org.jumpmind.db.sql.ISqlTransaction;
+import org.jumpmind.db.sql.mapper.StringMapper;
 import org.jumpmind.db.util.BinaryEncoding;
 import org.jumpmind.symmetric.db.AbstractSymmetricDialect;
 import org.jumpmind.symmetric.db.ISymmetricDialect;
@@ -49,6 +52,12 @@ public class DerbySymmetricDialect extends AbstractSymmetricDialect implements I
                 "select count(*) from sys.systriggers where triggername = ?",
                 new Object[] { triggerName.toUpperCase() }) > 0;
     }
+
+    @Override
+    protected List<String> getTriggerNamesOnPlatform(String catalog, String schema) {
+        return platform.getSqlTemplate().query("select triggername from sys.systriggers",
+                new StringMapper());
+    }
     
     @Override
     public void createRequiredDatabaseObjects() {
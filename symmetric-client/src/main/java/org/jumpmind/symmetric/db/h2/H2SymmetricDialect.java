@@ -63,6 +63,15 @@ public class H2SymmetricDialect extends AbstractEmbeddedSymmetricDialect impleme
         return exists;
     }
 
+    @Override
+    protected List<String> getTriggerNamesOnPlatform(String catalogName, String schemaName) {
+        return platform.getSqlTemplate().query(
+                "select T.TRIGGER_NAME from INFORMATION_SCHEMA.TRIGGERS T WHERE (T.TRIGGER_CATALOG=? or ? is null) and (T.TRIGGER_SCHEMA=? or ? is null) "
+                        + "and exists (select 1 from INFORMATION_SCHEMA.TABLES C WHERE C.TABLE_NAME = concat(T.TRIGGER_NAME, '_CONFIG') "
+                        + "and C.TABLE_CATALOG = T.TRIGGER_CATALOG and C.TABLE_SCHEMA = T.TRIGGER_SCHEMA)",
+                new StringMapper(), catalogName, catalogName, schemaName, schemaName);
+    }
+
     @Override
     public void removeTrigger(StringBuilder sqlBuffer, String catalogName, String schemaName, String triggerName,
             String tableName) {
@@ -20,8 +20,11 @@
  */
 package org.jumpmind.symmetric.db.hsqldb2;
 
+import java.util.List;
+
 import org.jumpmind.db.platform.IDatabasePlatform;
 import org.jumpmind.db.sql.ISqlTransaction;
+import org.jumpmind.db.sql.mapper.StringMapper;
 import org.jumpmind.db.util.BinaryEncoding;
 import org.jumpmind.symmetric.common.ParameterConstants;
 import org.jumpmind.symmetric.db.AbstractSymmetricDialect;
@@ -49,6 +52,12 @@ public class HsqlDb2SymmetricDialect extends AbstractSymmetricDialect implements
         return exists;
     }
 
+    @Override
+    protected List<String> getTriggerNamesOnPlatform(String catalogName, String schemaName) {
+        return platform.getSqlTemplate().query("select TRIGGER_NAME from INFORMATION_SCHEMA.TRIGGERS",
+                new StringMapper());
+    }
+
     @Override
     public void removeTrigger(StringBuilder sqlBuffer, String catalogName, String schemaName,
             String triggerName, String tableName) {
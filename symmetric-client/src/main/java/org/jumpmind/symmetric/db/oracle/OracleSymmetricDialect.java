@@ -22,6 +22,7 @@ package org.jumpmind.symmetric.db.oracle;
 
 import java.text.ParseException;
 import java.util.Date;
+import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.time.DateUtils;
@@ -29,6 +30,7 @@ import org.jumpmind.db.model.Table;
 import org.jumpmind.db.platform.IDatabasePlatform;
 import org.jumpmind.db.sql.ISqlTransaction;
 import org.jumpmind.db.sql.SqlException;
+import org.jumpmind.db.sql.mapper.StringMapper;
 import org.jumpmind.db.util.BinaryEncoding;
 import org.jumpmind.symmetric.common.ParameterConstants;
 import org.jumpmind.symmetric.db.AbstractSymmetricDialect;
@@ -82,6 +84,13 @@ public class OracleSymmetricDialect extends AbstractSymmetricDialect implements
         return platform.getSqlTemplate().queryForInt("select count(*) " + SQL_SELECT_TRIGGERS,
                 new Object[] { triggerName, tableName }) > 0;                
     }    
+
+    @Override
+    protected List<String> getTriggerNamesOnPlatform(String catalogName, String schema) {
+        return platform.getSqlTemplate().query(
+                "select trigger_name from ALL_TRIGGERS where owner in (SELECT sys_context('USERENV', 'CURRENT_SCHEMA') FROM dual)",
+                new StringMapper());
+    }
     
     @Override
     protected String getDropTriggerSql(StringBuilder sqlBuffer, String catalogName,
@@ -21,10 +21,12 @@
 package org.jumpmind.symmetric.db.postgresql;
 
 import java.sql.Types;
+import java.util.List;
 
 import org.jumpmind.db.model.Table;
 import org.jumpmind.db.platform.IDatabasePlatform;
 import org.jumpmind.db.sql.ISqlTransaction;
+import org.jumpmind.db.sql.mapper.StringMapper;
 import org.jumpmind.db.util.BinaryEncoding;
 import org.jumpmind.symmetric.SymmetricException;
 import org.jumpmind.symmetric.common.ParameterConstants;
@@ -159,6 +161,16 @@ public class PostgreSqlSymmetricDialect extends AbstractSymmetricDialect impleme
                         + "and routine_schema = ?", new Object[] { "f" + triggerName.toLowerCase(),
                         schema == null ? platform.getDefaultSchema() : schema }) > 0;
     }
+
+    @Override
+    protected List<String> getTriggerNamesOnPlatform(String catalogName, String schema) {
+        schema = schema == null ? platform.getDefaultSchema() : schema;
+        return platform.getSqlTemplate().query(
+                "select trigger_name from information_schema.triggers where trigger_schema = ? "
+                        + "union select substr(routine_name, 2) from information_schema.routines "
+                        + "where routine_schema = ? and routine_name like 'f%'",
+                new StringMapper(), schema, schema);
+    }
     
     @Override
     public void removeTrigger(StringBuilder sqlBuffer, String catalogName, String schemaName,
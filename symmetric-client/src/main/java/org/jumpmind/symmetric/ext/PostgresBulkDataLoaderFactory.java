@@ -43,6 +43,7 @@ public class PostgresBulkDataLoaderFactory implements IDataLoaderFactory, ISymme
         IBuiltInExtensionPoint {
 
     private int maxRowsBeforeFlush;
+    private boolean mergeChanges;
     private NativeJdbcExtractor jdbcExtractor;
 
     public PostgresBulkDataLoaderFactory() {
@@ -58,12 +59,14 @@ public class PostgresBulkDataLoaderFactory implements IDataLoaderFactory, ISymme
             List<IDatabaseWriterErrorHandler> errorHandlers,
             List<? extends Conflict> conflictSettings, List<ResolvedData> resolvedData) {
         return new PostgresBulkDatabaseWriter(symmetricDialect.getPlatform(), jdbcExtractor,
-                maxRowsBeforeFlush);
+                maxRowsBeforeFlush, mergeChanges);
     }
 
     public void setSymmetricEngine(ISymmetricEngine engine) {
         this.maxRowsBeforeFlush = engine.getParameterService().getInt(
                 "postgres.bulk.load.max.rows.before.flush", 10000);
+        this.mergeChanges = engine.getParameterService().is(
+                "postgres.bulk.load.merge", false);
     }
 
     public boolean isPlatformSupported(IDatabasePlatform platform) {
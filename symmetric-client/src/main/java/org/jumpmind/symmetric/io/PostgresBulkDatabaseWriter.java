@@ -45,8 +45,24 @@ import org.postgresql.copy.CopyManager;
 import org.postgresql.core.BaseConnection;
 import org.springframework.jdbc.support.nativejdbc.NativeJdbcExtractor;
 
+/**
+ * Loads inserts with the Postgres COPY command. When merging is enabled, the
+ * first update or delete for a table switches the rest of that table's rows
+ * to a temporary staging table, also loaded with COPY. The staged rows are
+ * applied to the target table with a few set based statements, where the
+ * last change to a primary key wins. Merged rows do not go through conflict
+ * detection, so an update of a missing row inserts it and an insert of an
+ * existing row updates it. Merging is off unless postgres.bulk.load.merge is
+ * set.
+ */
 public class PostgresBulkDatabaseWriter extends DefaultDatabaseWriter {
 
+    protected static final String STAGE_TABLE = "sym_bulk_load_stage";
+
+    protected static final String STAGE_SEQ_COLUMN = "sym_bulk_seq";
+
+    protected static final String STAGE_OP_COLUMN = "sym_bulk_op";
+
     protected NativeJdbcExtractor jdbcExtractor;
 
     protected int maxRowsBeforeFlush;
@@ -59,11 +75,25 @@ public class PostgresBulkDatabaseWriter extends DefaultDatabaseWriter {
 
     protected boolean needsBinaryConversion;
 
+    protected boolean mergeChanges;
+
+    protected boolean staging;
+
+    protected int stagedRows;
+
+    protected long stageSequence;
+
     public PostgresBulkDatabaseWriter(IDatabasePlatform platform,
             NativeJdbcExtractor jdbcExtractor, int maxRowsBeforeFlush) {
+        this(platform, jdbcExtractor, maxRowsBeforeFlush, false);
+    }
+
+    public PostgresBulkDatabaseWriter(IDatabasePlatform platform,
+            NativeJdbcExtractor jdbcExtractor, int maxRowsBeforeFlush, boolean mergeChanges) {
         super(platform);
         this.jdbcExtractor = jdbcExtractor;
         this.maxRowsBeforeFlush = maxRowsBeforeFlush;
+        this.mergeChanges = mergeChanges;
     }
 
     public void write(CsvData data) {
@@ -71,48 +101,260 @@ public class PostgresBulkDatabaseWriter extends DefaultDatabaseWriter {
 
         switch (dataEventType) {
             case INSERT:
-                startCopy();
-                statistics.get(batch).increment(DataWriterStatisticConstants.STATEMENTCOUNT);
-                statistics.get(batch).increment(DataWriterStatisticConstants.LINENUMBER);
-                statistics.get(batch).startTimer(DataWriterStatisticConstants.DATABASEMILLIS);
-                try {
-                    String[] parsedData = data.getParsedData(CsvData.ROW_DATA);
-                    if (needsBinaryConversion) {
-                        Column[] columns = targetTable.getColumns();
-                        for (int i = 0; i < columns.length; i++) {
-                            if (columns[i].isOfBinaryType() && parsedData[i] != null) {
-                                if (batch.getBinaryEncoding().equals(BinaryEncoding.HEX)) {
-                                    parsedData[i] = encode(Hex.decodeHex(parsedData[i].toCharArray()));
-                                } else if (batch.getBinaryEncoding().equals(BinaryEncoding.BASE64)) {
-                                    parsedData[i] = encode(Base64.decodeBase64(parsedData[i].getBytes()));
-                                }
-                            }
-                        }
-                    }
-                    String formattedData = CsvUtils.escapeCsvData(parsedData, '\n', '\'', CsvWriter.ESCAPE_MODE_DOUBLED);
-                    byte[] dataToLoad = formattedData.getBytes();
-                    copyIn.writeToCopy(dataToLoad, 0, dataToLoad.length);
-                    loadedRows++;
-                } catch (Exception ex) {
-                    throw getPlatform().getSqlTemplate().translate(ex);
-                } finally {
-                    statistics.get(batch).stopTimer(DataWriterStatisticConstants.DATABASEMILLIS);
+                if (staging) {
+                    stage(data);
+                } else {
+                    copy(data.getParsedData(CsvData.ROW_DATA));
                 }
                 break;
             case UPDATE:
             case DELETE:
+                if (isStageable(data)) {
+                    if (!staging) {
+                        startStaging();
+                    }
+                    stage(data);
+                } else {
+                    writeRowByRow(data);
+                }
+                break;
             default:
-                endCopy();
-                super.write(data);
+                writeRowByRow(data);
                 break;
         }
 
         if (loadedRows >= maxRowsBeforeFlush) {
-            flush();
+            if (staging) {
+                applyStagedChanges();
+            } else {
+                flush();
+            }
             loadedRows = 0;
         }
     }
 
+    /**
+     * Rows that cannot be loaded with COPY are written with JDBC after the
+     * rows that were copied or staged so far are applied.
+     */
+    protected void writeRowByRow(CsvData data) {
+        endCopy();
+        applyStagedChanges();
+        super.write(data);
+    }
+
+    /**
+     * Write one row to the active COPY. The values for the columns of the
+     * target table are the last values in the row.
+     */
+    protected void copy(String[] parsedData) {
+        startCopy();
+        statistics.get(batch).increment(DataWriterStatisticConstants.STATEMENTCOUNT);
+        statistics.get(batch).increment(DataWriterStatisticConstants.LINENUMBER);
+        statistics.get(batch).startTimer(DataWriterStatisticConstants.DATABASEMILLIS);
+        try {
+            if (needsBinaryConversion) {
+                Column[] columns = targetTable.getColumns();
+                int offset = parsedData.length - columns.length;
+                for (int i = 0; i < columns.length; i++) {
+                    int index = i + offset;
+                    if (columns[i].isOfBinaryType() && parsedData[index] != null) {
+                        if (batch.getBinaryEncoding().equals(BinaryEncoding.HEX)) {
+                            parsedData[index] = encode(Hex.decodeHex(parsedData[index].toCharArray()));
+                        } else if (batch.getBinaryEncoding().equals(BinaryEncoding.BASE64)) {
+                            parsedData[index] = encode(Base64.decodeBase64(parsedData[index].getBytes()));
+                        }
+                    }
+                }
+            }
+            String formattedData = CsvUtils.escapeCsvData(parsedData, '\n', '\'', CsvWriter.ESCAPE_MODE_DOUBLED);
+            byte[] dataToLoad = formattedData.getBytes();
+            copyIn.writeToCopy(dataToLoad, 0, dataToLoad.length);
+            loadedRows++;
+        } catch (Exception ex) {
+            throw getPlatform().getSqlTemplate().translate(ex);
+        } finally {
+            statistics.get(batch).stopTimer(DataWriterStatisticConstants.DATABASEMILLIS);
+        }
+    }
+
+    /**
+     * Updates and deletes can be staged when the table has a primary key. An
+     * update that changes the primary key is applied row by row.
+     */
+    protected boolean isStageable(CsvData data) {
+        if (!mergeChanges || targetTable == null || targetTable.getPrimaryKeyColumnCount() == 0) {
+            return false;
+        } else if (data.getDataEventType() == DataEventType.DELETE) {
+            return data.getParsedData(CsvData.PK_DATA) != null;
+        } else {
+            String[] rowData = data.getParsedData(CsvData.ROW_DATA);
+            if (rowData == null) {
+                return false;
+            }
+            Column[] columns = targetTable.getColumns();
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].isPrimaryKey()
+                        && !StringUtils.equals(rowData[i], getPkDataFor(data, columns[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    protected void stage(CsvData data) {
+        Column[] columns = targetTable.getColumns();
+        String[] stagedData = new String[columns.length + 2];
+        stagedData[0] = Long.toString(++stageSequence);
+        DataEventType dataEventType = data.getDataEventType();
+        if (dataEventType == DataEventType.DELETE) {
+            stagedData[1] = "D";
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].isPrimaryKey()) {
+                    stagedData[i + 2] = getPkDataFor(data, columns[i]);
+                }
+            }
+        } else {
+            stagedData[1] = dataEventType == DataEventType.INSERT ? "I" : "U";
+            System.arraycopy(data.getParsedData(CsvData.ROW_DATA), 0, stagedData, 2,
+                    columns.length);
+        }
+        copy(stagedData);
+        stagedRows++;
+    }
+
+    /**
+     * The staging table is created from the target table so it has the same
+     * column types, but none of its constraints.
+     */
+    protected void startStaging() {
+        endCopy();
+        StringBuilder sql = new StringBuilder("create temporary table ").append(STAGE_TABLE);
+        sql.append(" as select cast(0 as bigint) as ").append(STAGE_SEQ_COLUMN);
+        sql.append(", cast('I' as char(1)) as ").append(STAGE_OP_COLUMN).append(", ");
+        appendColumns(sql, null, targetTable.getColumns());
+        sql.append(" from ").append(getQualifiedTargetTableName()).append(" where 1=0");
+        execute("drop table if exists " + STAGE_TABLE);
+        execute(sql.toString());
+        staging = true;
+        stagedRows = 0;
+    }
+
+    /**
+     * Only the last change staged for each primary key is kept. Deletes are
+     * applied first, then rows that exist are updated and the rest are
+     * inserted.
+     */
+    protected void applyStagedChanges() {
+        if (staging && (stagedRows > 0 || copyIn != null)) {
+            endCopy();
+            Column[] columns = targetTable.getColumns();
+            Column[] pkColumns = targetTable.getPrimaryKeyColumns();
+            Column[] nonPkColumns = targetTable.getNonPrimaryKeyColumns();
+            String tableName = getQualifiedTargetTableName();
+            String quote = platform.getDatabaseInfo().getDelimiterToken();
+
+            StringBuilder sql = new StringBuilder("delete from ").append(STAGE_TABLE);
+            sql.append(" s using ").append(STAGE_TABLE).append(" n where ");
+            appendKeyMatch(sql, "s", "n", pkColumns);
+            sql.append(" and s.").append(STAGE_SEQ_COLUMN).append(" < n.").append(STAGE_SEQ_COLUMN);
+            execute(sql.toString());
+
+            sql = new StringBuilder("delete from ").append(tableName).append(" t using ");
+            sql.append(STAGE_TABLE).append(" s where ");
+            appendKeyMatch(sql, "t", "s", pkColumns);
+            sql.append(" and s.").append(STAGE_OP_COLUMN).append(" = 'D'");
+            statistics.get(batch).increment(DataWriterStatisticConstants.DELETECOUNT,
+                    execute(sql.toString()));
+
+            if (nonPkColumns.length > 0) {
+                sql = new StringBuilder("update ").append(tableName).append(" t set ");
+                for (int i = 0; i < nonPkColumns.length; i++) {
+                    if (i > 0) {
+                        sql.append(", ");
+                    }
+                    String columnName = quote + nonPkColumns[i].getName() + quote;
+                    sql.append(columnName).append(" = s.").append(columnName);
+                }
+                sql.append(" from ").append(STAGE_TABLE).append(" s where ");
+                appendKeyMatch(sql, "t", "s", pkColumns);
+                sql.append(" and s.").append(STAGE_OP_COLUMN).append(" <> 'D'");
+                statistics.get(batch).increment(DataWriterStatisticConstants.UPDATECOUNT,
+                        execute(sql.toString()));
+            }
+
+            sql = new StringBuilder("insert into ").append(tableName).append(" (");
+            appendColumns(sql, null, columns);
+            sql.append(") select ");
+            appendColumns(sql, "s", columns);
+            sql.append(" from ").append(STAGE_TABLE).append(" s where s.").append(STAGE_OP_COLUMN);
+            sql.append(" <> 'D' and not exists (select 1 from ").append(tableName).append(" t where ");
+            appendKeyMatch(sql, "t", "s", pkColumns);
+            sql.append(")");
+            statistics.get(batch).increment(DataWriterStatisticConstants.INSERTCOUNT,
+                    execute(sql.toString()));
+
+            execute("truncate table " + STAGE_TABLE);
+            stagedRows = 0;
+        }
+    }
+
+    protected void endStaging() {
+        if (staging) {
+            try {
+                applyStagedChanges();
+                execute("drop table " + STAGE_TABLE);
+            } finally {
+                staging = false;
+            }
+        }
+    }
+
+    protected int execute(String sql) {
+        statistics.get(batch).startTimer(DataWriterStatisticConstants.DATABASEMILLIS);
+        try {
+            if (log.isDebugEnabled()) {
+                log.debug("bulk merge using: {}", sql);
+            }
+            return transaction.execute(sql);
+        } finally {
+            statistics.get(batch).stopTimer(DataWriterStatisticConstants.DATABASEMILLIS);
+        }
+    }
+
+    protected String getQualifiedTargetTableName() {
+        DatabaseInfo dbInfo = platform.getDatabaseInfo();
+        return targetTable.getQualifiedTableName(dbInfo.getDelimiterToken(),
+                dbInfo.getCatalogSeparator(), dbInfo.getSchemaSeparator());
+    }
+
+    protected void appendColumns(StringBuilder sql, String alias, Column[] columns) {
+        String quote = platform.getDatabaseInfo().getDelimiterToken();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            if (alias != null) {
+                sql.append(alias).append(".");
+            }
+            sql.append(quote).append(columns[i].getName()).append(quote);
+        }
+    }
+
+    protected void appendKeyMatch(StringBuilder sql, String alias1, String alias2,
+            Column[] pkColumns) {
+        String quote = platform.getDatabaseInfo().getDelimiterToken();
+        for (int i = 0; i < pkColumns.length; i++) {
+            if (i > 0) {
+                sql.append(" and ");
+            }
+            String columnName = quote + pkColumns[i].getName() + quote;
+            sql.append(alias1).append(".").append(columnName).append(" = ");
+            sql.append(alias2).append(".").append(columnName);
+        }
+    }
+
     protected void flush() {
         if (copyIn != null) {
             statistics.get(batch).startTimer(DataWriterStatisticConstants.DATABASEMILLIS);
@@ -143,7 +385,7 @@ public class PostgresBulkDatabaseWriter extends DefaultDatabaseWriter {
     protected void startCopy() {
         if (copyIn == null && targetTable != null) {
             try {
-                String sql = createCopyMgrSql();
+                String sql = staging ? createStageCopyMgrSql() : createCopyMgrSql();
                 if (log.isDebugEnabled()) {
                     log.debug("starting bulk copy using: {}", sql);
                 }
@@ -200,6 +442,7 @@ public class PostgresBulkDatabaseWriter extends DefaultDatabaseWriter {
     public void end(Table table) {
         try {
             endCopy();
+            endStaging();
         } finally {
             super.end(table);
         }
@@ -215,7 +458,22 @@ public class PostgresBulkDatabaseWriter extends DefaultDatabaseWriter {
                 copyIn = null;
             }
         }
+        boolean wasStaging = staging;
+        staging = false;
         super.end(batch, inError);
+        if (wasStaging) {
+            /*
+             * The staging table may have been created before an early commit,
+             * in which case the rollback leaves it and its rows behind for
+             * the next batch on this connection
+             */
+            try {
+                transaction.execute("drop table if exists " + STAGE_TABLE);
+                transaction.commit();
+            } catch (RuntimeException ex) {
+                log.warn("Failed to drop the bulk load staging table. {}", ex.getMessage());
+            }
+        }
     }
 
     private String createCopyMgrSql() {
@@ -241,6 +499,14 @@ public class PostgresBulkDatabaseWriter extends DefaultDatabaseWriter {
         sql.append("FROM STDIN with delimiter ',' csv quote ''''");
         return sql.toString();
     }
+
+    private String createStageCopyMgrSql() {
+        StringBuilder sql = new StringBuilder("COPY ").append(STAGE_TABLE).append("(");
+        sql.append(STAGE_SEQ_COLUMN).append(",").append(STAGE_OP_COLUMN).append(",");
+        appendColumns(sql, null, targetTable.getColumns());
+        sql.append(")FROM STDIN with delimiter ',' csv quote ''''");
+        return sql.toString();
+    }
     
     protected String encode(byte[] byteData) {
         StringBuilder sb = new StringBuilder();
@@ -44,9 +44,12 @@ public class StageManagementJob extends AbstractJob {
     @Override
     void doJob(boolean force) throws Exception {
         if (stagingManager != null) {
+            engine.getDataExtractorService().releaseStagedCommonBatches();
             stagingManager.clean(engine.getParameterService()
                     .getLong(ParameterConstants.STREAM_TO_FILE_TIME_TO_LIVE_MS));
         }
+        engine.getFileSyncService().cleanSignatures(engine.getParameterService()
+                .getLong(ParameterConstants.STREAM_TO_FILE_TIME_TO_LIVE_MS));
     }
 
 }
@@ -20,6 +20,7 @@
  */
 package org.jumpmind.symmetric.io.data.writer;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.jumpmind.db.DbTestUtils;
@@ -29,6 +30,8 @@ import org.jumpmind.db.platform.postgresql.PostgreSqlDatabasePlatform;
 import org.jumpmind.db.util.BasicDataSourcePropertyConstants;
 import org.jumpmind.symmetric.io.PostgresBulkDatabaseWriter;
 import org.jumpmind.symmetric.io.data.CsvData;
+import org.jumpmind.symmetric.io.data.DataEventType;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -55,6 +58,39 @@ public class PostgresBulkDatabaseWriterTest extends AbstractBulkDatabaseWriterTe
     public void testInsertWithNonEscaped() {
     }
 
+    @Test
+    public void testMergeUpdatesAndDeletes() {
+        if (shouldTestRun(platform)) {
+            platform.getSqlTemplate().update("truncate table " + getTestTable());
+            String[] keep = { getNextId(), "keep", "keep", "keep", "keep", "2007-01-02 00:00:00.000",
+                    "2007-02-03 04:05:06.000", "0", "1", "1.1", "-0.1", encode("keep") };
+            String[] removed = { getNextId(), "removed", "removed", "removed", "removed",
+                    "2007-01-02 00:00:00.000", "2007-02-03 04:05:06.000", "0", "2", "2.2", "-0.2",
+                    encode("removed") };
+            List<CsvData> data = new ArrayList<CsvData>();
+            data.add(new CsvData(DataEventType.INSERT, keep.clone()));
+            data.add(new CsvData(DataEventType.INSERT, removed.clone()));
+            String[] updated = keep.clone();
+            updated[1] = "first update";
+            data.add(new CsvData(DataEventType.UPDATE, new String[] { keep[0] }, updated.clone()));
+            data.add(new CsvData(DataEventType.DELETE, new String[] { removed[0] }, null));
+            updated[1] = "second update";
+            data.add(new CsvData(DataEventType.UPDATE, new String[] { keep[0] }, updated.clone()));
+            String[] missing = { getNextId(), "missing", "missing", "missing", "missing",
+                    "2007-01-02 00:00:00.000", "2007-02-03 04:05:06.000", "1", "3", "3.3", "-0.3",
+                    encode("missing") };
+            data.add(new CsvData(DataEventType.UPDATE, new String[] { missing[0] }, missing.clone()));
+
+            Table table = platform.getTableFromCache(getTestTable(), false);
+            writeData(new PostgresBulkDatabaseWriter(platform, new CommonsDbcpNativeJdbcExtractor(),
+                    1000, true), new TableCsvData(table, data));
+
+            Assert.assertEquals(2, countRows(getTestTable()));
+            assertTestTableEquals(keep[0], updated);
+            assertTestTableEquals(missing[0], missing);
+        }
+    }
+
     protected boolean shouldTestRun(IDatabasePlatform platform) {
         return platform != null && platform instanceof PostgreSqlDatabasePlatform;
     }
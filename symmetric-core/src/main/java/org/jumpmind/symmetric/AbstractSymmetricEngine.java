@@ -279,6 +279,10 @@ abstract public class AbstractSymmetricEngine implements ISymmetricEngine {
          
         this.platform.setMetadataIgnoreCase(this.parameterService
                 .is(ParameterConstants.DB_METADATA_IGNORE_CASE));
+        this.platform.setMetadataBulkRead(this.parameterService
+                .is(ParameterConstants.DB_METADATA_BULK_READ, false));
+        this.platform.setMetadataReadThreadCount(this.parameterService
+                .getInt(ParameterConstants.DB_METADATA_READ_THREADS, 4));
         this.platform.setClearCacheModelTimeoutInMs(parameterService
                 .getLong(ParameterConstants.CACHE_TIMEOUT_TABLES_IN_MS));
 
@@ -302,7 +306,7 @@ abstract public class AbstractSymmetricEngine implements ISymmetricEngine {
         this.concurrentConnectionManager = new ConcurrentConnectionManager(parameterService,
                 statisticManager);
         this.purgeService = new PurgeService(parameterService, symmetricDialect, clusterService,
-                statisticManager);
+                statisticManager, nodeService);
         this.transformService = new TransformService(parameterService, symmetricDialect,
                 configurationService, extensionService);
         this.loadFilterService = new LoadFilterService(parameterService, symmetricDialect,
@@ -729,6 +733,10 @@ abstract public class AbstractSymmetricEngine implements ISymmetricEngine {
         if (pushService != null) {
             pushService.stop();
         }
+
+        if (dataExtractorService != null) {
+            dataExtractorService.stop();
+        }
         
         if (dataLoaderService != null) {
             dataLoaderService.stop();
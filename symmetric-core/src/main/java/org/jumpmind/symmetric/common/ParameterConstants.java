@@ -96,6 +96,7 @@ final public class ParameterConstants {
     public final static String AUTO_CONFIGURE_DATABASE = "auto.config.database";
     public final static String AUTO_SYNC_TRIGGERS = "auto.sync.triggers";
     public final static String AUTO_SYNC_TRIGGERS_AT_STARTUP = "auto.sync.triggers.at.startup";
+    public final static String AUTO_SYNC_TRIGGERS_INCREMENTAL = "auto.sync.triggers.incremental";
     public final static String AUTO_SYNC_TRIGGERS_AFTER_CONFIG_CHANGED = "auto.sync.triggers.after.config.change";
     public final static String AUTO_SYNC_TRIGGERS_AFTER_CONFIG_LOADED = "auto.sync.triggers.after.config.loaded";
     public final static String AUTO_REFRESH_AFTER_CONFIG_CHANGED = "auto.refresh.after.config.changes.detected";
@@ -127,6 +128,15 @@ final public class ParameterConstants {
     public final static String STREAM_TO_FILE_ENABLED = "stream.to.file.enabled";
     public final static String STREAM_TO_FILE_THRESHOLD = "stream.to.file.threshold.bytes";
     public final static String STREAM_TO_FILE_TIME_TO_LIVE_MS = "stream.to.file.ttl.ms";
+    public final static String STREAM_TO_FILE_ZERO_COPY_ENABLED = "stream.to.file.zero.copy.enabled";
+    public final static String STAGING_COMPRESSION_CODEC = "staging.compression.codec";
+    public final static String STAGING_COMPRESSION_LEVEL = "staging.compression.level";
+    public final static String STAGING_MEMORY_BUDGET_BYTES = "staging.memory.budget.bytes";
+
+    public final static String EXTRACT_AHEAD_MAX_BATCHES = "extract.ahead.max.batches";
+    public final static String EXTRACT_AHEAD_MAX_BYTES = "extract.ahead.max.bytes";
+    public final static String EXTRACT_COMMON_BATCH_FAN_OUT_ENABLED = "extract.common.batch.fan.out.enabled";
+    public final static String EXTRACT_COMMON_BATCH_FAN_OUT_MAX_HOLD_MS = "extract.common.batch.fan.out.max.hold.ms";
 
     public final static String PARAMETER_REFRESH_PERIOD_IN_MS = "parameter.reload.timeout.ms";
 
@@ -145,6 +155,11 @@ final public class ParameterConstants {
     public final static String ROUTING_DATA_READER_ORDER_BY_DATA_ID_ENABLED = "routing.data.reader.order.by.gap.id.enabled";
     public final static String ROUTING_DATA_READER_THRESHOLD_GAPS_TO_USE_GREATER_QUERY = "routing.data.reader.threshold.gaps.to.use.greater.than.query";
     public final static String ROUTING_LOG_STATS_ON_BATCH_ERROR = "routing.log.stats.on.batch.error";
+    public final static String ROUTING_MAX_CHANNELS_IN_PARALLEL = "routing.max.channels.in.parallel";
+    public final static String ROUTING_USE_FAST_GAP_DETECTOR = "routing.use.fast.gap.detector";
+    public final static String ROUTING_SUBSELECT_BATCH_SIZE = "routing.subselect.batch.size";
+    public final static String ROUTING_SUBSELECT_CACHE_SIZE = "routing.subselect.cache.size";
+    public final static String ROUTING_SUBSELECT_CACHE_TTL_MS = "routing.subselect.cache.ttl.ms";
 
     public final static String INCOMING_BATCH_SKIP_DUPLICATE_BATCHES_ENABLED = "incoming.batches.skip.duplicates";
     @Deprecated
@@ -163,6 +178,9 @@ final public class ParameterConstants {
     public final static String DATA_LOADER_SLEEP_TIME_AFTER_EARLY_COMMIT = "dataloader.sleep.time.after.early.commit";
     public final static String DATA_LOADER_TREAT_DATETIME_AS_VARCHAR = "db.treat.date.time.as.varchar.enabled";
     public final static String DATA_LOADER_USE_PRIMARY_KEYS_FROM_SOURCE = "dataloader.use.primary.keys.from.source";
+    public final static String DATA_LOADER_PARALLEL_THREADS = "dataloader.parallel.threads";
+    public final static String DATA_LOADER_PARALLEL_WAIT_TIMEOUT_MS = "dataloader.parallel.wait.timeout.ms";
+    public final static String DATA_LOADER_PARALLEL_MAX_THREADS = "dataloader.parallel.max.threads";
 
     public final static String DATA_RELOAD_IS_BATCH_INSERT_TRANSACTIONAL = "datareload.batch.insert.transactional";
 
@@ -207,6 +225,8 @@ final public class ParameterConstants {
     public final static String TRIGGER_CREATE_BEFORE_INITIAL_LOAD = "trigger.create.before.initial.load.enabled";
 
     public final static String DB_METADATA_IGNORE_CASE = "db.metadata.ignore.case";
+    public final static String DB_METADATA_BULK_READ = "db.metadata.bulk.read";
+    public final static String DB_METADATA_READ_THREADS = "db.metadata.read.threads";
     public final static String DB_NATIVE_EXTRACTOR = "db.native.extractor";
     public final static String DB_QUERY_TIMEOUT_SECS = "db.sql.query.timeout.seconds";
     public final static String DB_FETCH_SIZE = "db.jdbc.streaming.results.fetch.size";
@@ -234,6 +254,10 @@ final public class ParameterConstants {
     public final static String PURGE_MAX_NUMBER_OF_DATA_IDS = "job.purge.max.num.data.to.delete.in.tx";
     public final static String PURGE_MAX_NUMBER_OF_BATCH_IDS = "job.purge.max.num.batches.to.delete.in.tx";
     public final static String PURGE_MAX_NUMBER_OF_EVENT_BATCH_IDS = "job.purge.max.num.data.event.batches.to.delete.in.tx";
+    public final static String PURGE_THREAD_COUNT = "job.purge.thread.count";
+    public final static String PURGE_TARGET_DELETE_TIME_MS = "job.purge.target.delete.time.ms";
+    public final static String PURGE_MAX_ROWS_PER_SECOND = "job.purge.max.rows.per.second";
+    public final static String PURGE_PAUSE_WHEN_UNROUTED_DATA_EXCEEDS = "job.purge.pause.when.unrouted.data.exceeds";
 
     public final static String JMX_LINE_FEED = "jmx.line.feed";
 
@@ -260,6 +284,8 @@ final public class ParameterConstants {
 
     public final static String SEQUENCE_TIMEOUT_MS = "sequence.timeout.ms";
 
+    public final static String SEQUENCE_BLOCK_SIZE = "sequence.block.size";
+
     public final static String REST_API_ENABLED = "rest.api.enable";
 
     public final static String REST_HEARTBEAT_ON_PULL = "rest.api.heartbeat.on.pull";
@@ -270,10 +296,24 @@ final public class ParameterConstants {
 
     public final static String FILE_SYNC_LOCK_WAIT_MS = "file.sync.lock.wait.ms";
 
+    public final static String FILE_SYNC_TRACK_RECONCILE_PERIOD_MS = "file.sync.track.reconcile.period.ms";
+
+    public final static String FILE_SYNC_DELTA_ENABLED = "file.sync.delta.enabled";
+
+    public final static String FILE_SYNC_DELTA_MIN_FILE_SIZE = "file.sync.delta.min.file.size";
+
+    public final static String FILE_SYNC_DELTA_BLOCK_SIZE = "file.sync.delta.block.size";
+
     public final static String BSH_LOAD_FILTER_HANDLES_MISSING_TABLES = "bsh.load.filter.handles.missing.tables";
     
     public final static String BSH_TRANSFORM_GLOBAL_SCRIPT = "bsh.transform.global.script";
     
+    public final static String TRANSFORM_LOOKUP_CACHE_SIZE = "transform.lookup.cache.size";
+    
+    public final static String TRANSFORM_LOOKUP_CACHE_TIME_MS = "transform.lookup.cache.time.ms";
+    
+    public final static String TRANSFORM_LOOKUP_CACHE_PRELOAD_MAX_ROWS = "transform.lookup.cache.preload.max.rows";
+    
     public final static String MSSQL_ROW_LEVEL_LOCKS_ONLY = "mssql.allow.only.row.level.locks.on.runtime.tables";
     
     public final static String MSSQL_USE_NTYPES_FOR_SYNC = "mssql.use.ntypes.for.sync";
@@ -29,6 +29,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.commons.lang.StringUtils;
 import org.jumpmind.db.model.Column;
@@ -196,6 +197,29 @@ abstract public class AbstractSymmetricDialect implements ISymmetricDialect {
         }
     }
     
+    public Set<String> getTriggerNames(String catalogName, String schema) {
+        try {
+            List<String> names = getTriggerNamesOnPlatform(catalogName, schema);
+            if (names != null) {
+                Set<String> triggerNames = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+                triggerNames.addAll(names);
+                return triggerNames;
+            }
+        } catch (Exception ex) {
+            log.warn("Could not list the triggers in {}.  Each trigger will be checked instead.  {}",
+                    Table.getFullyQualifiedTablePrefix(catalogName, schema), ex.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Dialects that can list the triggers of a catalog and schema with one
+     * query override this.
+     */
+    protected List<String> getTriggerNamesOnPlatform(String catalogName, String schema) {
+        return null;
+    }
+
     public abstract void dropRequiredDatabaseObjects();
     
     public abstract void createRequiredDatabaseObjects();
@@ -58,6 +58,13 @@ public interface ISymmetricDialect {
 
     public boolean doesTriggerExist(String catalogName, String schema, String tableName, String triggerName);
 
+    /**
+     * @return the names of the triggers in a catalog and schema, compared
+     *         without case, or null if this dialect cannot list them with one
+     *         query
+     */
+    public Set<String> getTriggerNames(String catalogName, String schema);
+
     public void verifyDatabaseIsCompatible();
 
     public void initTablesAndDatabaseObjects();
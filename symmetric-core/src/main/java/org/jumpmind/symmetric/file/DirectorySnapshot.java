@@ -21,8 +21,10 @@
 package org.jumpmind.symmetric.file;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.jumpmind.symmetric.model.FileSnapshot;
@@ -44,61 +46,36 @@ public class DirectorySnapshot extends ArrayList<FileSnapshot> {
         this.fileTriggerRouter = fileTriggerRouter;
     }
 
-    protected void merge(DirectorySnapshot snapshot) {
-        Set<FileSnapshot> toAdd = new HashSet<FileSnapshot>();
-        Set<FileSnapshot> toRemove = new HashSet<FileSnapshot>();
-        for (FileSnapshot fileChange : snapshot) {
-            for (FileSnapshot file : this) {
-                if (fileChange.getFileName().equals(file.getFileName())) {
-                    toRemove.add(file);
-                    if (fileChange.getLastEventType() == LastEventType.MODIFY) {
-                        toAdd.add(fileChange);
-                    }
-                }
-            }
-        }
-
-        for (FileSnapshot fileChange : toRemove) {
-            if (fileChange.getLastEventType() == LastEventType.CREATE) {
-                toAdd.add(fileChange);
-            }
-        }
-
-        this.removeAll(toRemove);
-        this.addAll(toAdd);
-    }
-
     protected DirectorySnapshot diff(DirectorySnapshot anotherSnapshot) {
         DirectorySnapshot differences = new DirectorySnapshot(anotherSnapshot.getFileTriggerRouter());
+        Map<String, FileSnapshot> files = new HashMap<String, FileSnapshot>(size());
+        for (FileSnapshot file : this) {
+            files.put(getKey(file), file);
+        }
+
+        Set<String> anotherFiles = new HashSet<String>(anotherSnapshot.size());
         for (FileSnapshot anotherFile : anotherSnapshot) {
-            boolean found = false;
-            for (FileSnapshot file : this) {
-                if (anotherFile.sameFile(file)) {
-                    found = true;
-                    if ((file.getLastEventType() == LastEventType.MODIFY || 
-                            file.getLastEventType() == LastEventType.CREATE)
-                            && anotherFile.getLastEventType() == LastEventType.CREATE) {
-                        file.setLastEventType(LastEventType.MODIFY);
-                        anotherFile.setLastEventType(LastEventType.MODIFY);
-                    }
-                    if (!anotherFile.equals(file)) {
-                        differences.add(anotherFile);
-                    }
+            String key = getKey(anotherFile);
+            anotherFiles.add(key);
+            FileSnapshot file = files.get(key);
+            if (file != null) {
+                if ((file.getLastEventType() == LastEventType.MODIFY || 
+                        file.getLastEventType() == LastEventType.CREATE)
+                        && anotherFile.getLastEventType() == LastEventType.CREATE) {
+                    file.setLastEventType(LastEventType.MODIFY);
+                    anotherFile.setLastEventType(LastEventType.MODIFY);
                 }
-            }
-            if (!found) {
+                if (!anotherFile.equals(file)) {
+                    differences.add(anotherFile);
+                }
+            } else {
                 differences.add(anotherFile);
             }
         }
 
         for (FileSnapshot file : this) {
-            boolean found = false;
-            for (FileSnapshot anotherFile : anotherSnapshot) {
-                if (anotherFile.sameFile(file)) {
-                    found = true;
-                }
-            }
-            if (file.getLastEventType() != LastEventType.DELETE && !found) {
+            if (file.getLastEventType() != LastEventType.DELETE
+                    && !anotherFiles.contains(getKey(file))) {
                 FileSnapshot copy = new FileSnapshot(file);
                 copy.setLastEventType(LastEventType.DELETE);
                 differences.add(copy);
@@ -106,6 +83,10 @@ public class DirectorySnapshot extends ArrayList<FileSnapshot> {
         }
         return differences;
     }
+
+    protected String getKey(FileSnapshot file) {
+        return file.getRelativeDir() + "/" + file.getFileName();
+    }
     
     public FileTriggerRouter getFileTriggerRouter() {
         return fileTriggerRouter;
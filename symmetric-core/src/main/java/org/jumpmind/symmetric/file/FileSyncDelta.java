@@ -0,0 +1,502 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.jumpmind.exception.IoException;
+
+/**
+ * Block level deltas between two versions of a file, in the style of rsync.
+ * The signature of the old version has a weak rolling checksum and a strong
+ * hash for each block. A delta of the new version is made by sliding a
+ * window over it and looking up each window's checksums in the signature.
+ * The delta copies the blocks that match from the old version and carries
+ * the rest of the bytes literally.
+ */
+final public class FileSyncDelta {
+
+    private static final int MAGIC = 0x53594d44;
+
+    private static final byte COPY = 'C';
+
+    private static final byte LITERAL = 'L';
+
+    private static final byte END = 'E';
+
+    private FileSyncDelta() {
+    }
+
+    public static class Signature {
+
+        long batchId;
+
+        long length;
+
+        long crc32Checksum;
+
+        int blockSize;
+
+        int[] weakChecksums;
+
+        byte[][] strongChecksums;
+
+        public long getBatchId() {
+            return batchId;
+        }
+
+        public void setBatchId(long batchId) {
+            this.batchId = batchId;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getCrc32Checksum() {
+            return crc32Checksum;
+        }
+
+        public int getBlockSize() {
+            return blockSize;
+        }
+
+        public int getBlockCount() {
+            return weakChecksums.length;
+        }
+
+        public void write(File file) {
+            DataOutputStream out = null;
+            try {
+                file.getParentFile().mkdirs();
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+                out.writeInt(MAGIC);
+                out.writeLong(batchId);
+                out.writeLong(length);
+                out.writeLong(crc32Checksum);
+                out.writeInt(blockSize);
+                out.writeInt(weakChecksums.length);
+                for (int i = 0; i < weakChecksums.length; i++) {
+                    out.writeInt(weakChecksums[i]);
+                    out.write(strongChecksums[i]);
+                }
+            } catch (IOException e) {
+                throw new IoException(e);
+            } finally {
+                IOUtils.closeQuietly(out);
+            }
+        }
+
+        /**
+         * @return the signature stored in the file, or null if the file does
+         *         not exist or is not a signature
+         */
+        public static Signature read(File file) {
+            if (!file.exists()) {
+                return null;
+            }
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                if (in.readInt() != MAGIC) {
+                    return null;
+                }
+                Signature signature = new Signature();
+                signature.batchId = in.readLong();
+                signature.length = in.readLong();
+                signature.crc32Checksum = in.readLong();
+                signature.blockSize = in.readInt();
+                int blockCount = in.readInt();
+                signature.weakChecksums = new int[blockCount];
+                signature.strongChecksums = new byte[blockCount][];
+                for (int i = 0; i < blockCount; i++) {
+                    signature.weakChecksums[i] = in.readInt();
+                    signature.strongChecksums[i] = new byte[16];
+                    in.readFully(signature.strongChecksums[i]);
+                }
+                return signature;
+            } catch (EOFException e) {
+                return null;
+            } catch (IOException e) {
+                throw new IoException(e);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+    }
+
+    public static Signature createSignature(File file, int blockSize) {
+        SignatureOutputStream signature = new SignatureOutputStream(blockSize);
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            IOUtils.copy(in, signature);
+        } catch (IOException e) {
+            throw new IoException(e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return signature.getSignature();
+    }
+
+    /**
+     * Builds the signature of the bytes written to it, so that a file can be
+     * signed in the same pass that sends it.
+     */
+    public static class SignatureOutputStream extends OutputStream {
+
+        int blockSize;
+
+        byte[] block;
+
+        int blockLength;
+
+        long length;
+
+        CRC32 crc = new CRC32();
+
+        MessageDigest digest = newDigest();
+
+        List<Integer> weakChecksums = new ArrayList<Integer>();
+
+        List<byte[]> strongChecksums = new ArrayList<byte[]>();
+
+        public SignatureOutputStream(int blockSize) {
+            this.blockSize = blockSize;
+            this.block = new byte[blockSize];
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) {
+            crc.update(buffer, offset, count);
+            length += count;
+            while (count > 0) {
+                int length = Math.min(count, blockSize - blockLength);
+                System.arraycopy(buffer, offset, block, blockLength, length);
+                blockLength += length;
+                offset += length;
+                count -= length;
+                if (blockLength == blockSize) {
+                    weakChecksums.add(weakChecksum(block, 0, blockSize));
+                    digest.update(block, 0, blockSize);
+                    strongChecksums.add(digest.digest());
+                    blockLength = 0;
+                }
+            }
+        }
+
+        /**
+         * @return the signature of the bytes written so far. A last block
+         *         that is not full is only part of the length and checksum.
+         */
+        public Signature getSignature() {
+            Signature signature = new Signature();
+            signature.blockSize = blockSize;
+            signature.length = length;
+            signature.crc32Checksum = crc.getValue();
+            signature.weakChecksums = new int[weakChecksums.size()];
+            for (int i = 0; i < weakChecksums.size(); i++) {
+                signature.weakChecksums[i] = weakChecksums.get(i);
+            }
+            signature.strongChecksums = strongChecksums.toArray(new byte[strongChecksums.size()][]);
+            return signature;
+        }
+    }
+
+    /**
+     * Write the delta that turns the file described by the signature into the
+     * new file.
+     */
+    public static void writeDelta(Signature signature, File newFile, OutputStream os) {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(newFile);
+            writeDelta(signature, in, os);
+        } catch (IOException e) {
+            throw new IoException(e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Write the delta that turns the file described by the signature into the
+     * bytes read from the stream. The stream is read to the end.
+     */
+    public static void writeDelta(Signature signature, InputStream in, OutputStream os) {
+        int blockSize = signature.blockSize;
+        Map<Integer, List<Integer>> blocksByWeakChecksum = new HashMap<Integer, List<Integer>>();
+        for (int i = 0; i < signature.weakChecksums.length; i++) {
+            List<Integer> blocks = blocksByWeakChecksum.get(signature.weakChecksums[i]);
+            if (blocks == null) {
+                blocks = new ArrayList<Integer>(1);
+                blocksByWeakChecksum.put(signature.weakChecksums[i], blocks);
+            }
+            blocks.add(i);
+        }
+
+        MessageDigest digest = newDigest();
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+            out.writeInt(MAGIC);
+            out.writeInt(blockSize);
+            byte[] buffer = new byte[Math.max(blockSize * 8, 65536)];
+            int length = IOUtils.read(in, buffer);
+            boolean eof = length < buffer.length;
+            int position = 0;
+            int literalStart = 0;
+            int a = 0, b = 0;
+            boolean rolling = false;
+            int copyStart = -1, copyCount = 0;
+            while (true) {
+                if (position + blockSize >= length && !eof) {
+                    if (literalStart < position) {
+                        writeCopy(out, copyStart, copyCount);
+                        copyCount = 0;
+                        writeLiteral(out, buffer, literalStart, position - literalStart);
+                    }
+                    System.arraycopy(buffer, position, buffer, 0, length - position);
+                    length -= position;
+                    position = 0;
+                    literalStart = 0;
+                    int read = IOUtils.read(in, buffer, length, buffer.length - length);
+                    eof = read < buffer.length - length;
+                    length += read;
+                }
+                if (position + blockSize > length) {
+                    break;
+                }
+                if (!rolling) {
+                    a = 0;
+                    b = 0;
+                    for (int i = 0; i < blockSize; i++) {
+                        int value = buffer[position + i] & 0xff;
+                        a += value;
+                        b += (blockSize - i) * value;
+                    }
+                    a &= 0xffff;
+                    b &= 0xffff;
+                    rolling = true;
+                }
+
+                int matchedBlock = -1;
+                List<Integer> blocks = blocksByWeakChecksum.get((b << 16) | a);
+                if (blocks != null) {
+                    digest.update(buffer, position, blockSize);
+                    byte[] strongChecksum = digest.digest();
+                    for (Integer block : blocks) {
+                        if (Arrays.equals(strongChecksum, signature.strongChecksums[block])) {
+                            matchedBlock = block;
+                            break;
+                        }
+                    }
+                }
+
+                if (matchedBlock >= 0) {
+                    if (literalStart < position) {
+                        writeCopy(out, copyStart, copyCount);
+                        copyCount = 0;
+                        writeLiteral(out, buffer, literalStart, position - literalStart);
+                    }
+                    if (copyCount > 0 && copyStart + copyCount == matchedBlock) {
+                        copyCount++;
+                    } else {
+                        writeCopy(out, copyStart, copyCount);
+                        copyStart = matchedBlock;
+                        copyCount = 1;
+                    }
+                    position += blockSize;
+                    literalStart = position;
+                    rolling = false;
+                } else if (position + blockSize < length) {
+                    if (copyCount > 0) {
+                        writeCopy(out, copyStart, copyCount);
+                        copyCount = 0;
+                    }
+                    int out1 = buffer[position] & 0xff;
+                    int in1 = buffer[position + blockSize] & 0xff;
+                    a = (a - out1 + in1) & 0xffff;
+                    b = (b - blockSize * out1 + a) & 0xffff;
+                    position++;
+                } else {
+                    break;
+                }
+            }
+            writeCopy(out, copyStart, copyCount);
+            writeLiteral(out, buffer, literalStart, length - literalStart);
+            out.writeByte(END);
+            out.flush();
+        } catch (IOException e) {
+            throw new IoException(e);
+        }
+    }
+
+    /**
+     * Apply a delta to the old version of a file to write the new version.
+     */
+    public static void applyDelta(File oldFile, InputStream deltaStream, OutputStream os) {
+        RandomAccessFile basis = null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(deltaStream));
+            if (in.readInt() != MAGIC) {
+                throw new IoException("The file sync delta is not valid");
+            }
+            int blockSize = in.readInt();
+            basis = new RandomAccessFile(oldFile, "r");
+            byte[] buffer = new byte[Math.max(blockSize, 65536)];
+            byte op;
+            while ((op = in.readByte()) != END) {
+                if (op == COPY) {
+                    long offset = (long) in.readInt() * blockSize;
+                    long remaining = (long) in.readInt() * blockSize;
+                    basis.seek(offset);
+                    while (remaining > 0) {
+                        int length = (int) Math.min(buffer.length, remaining);
+                        basis.readFully(buffer, 0, length);
+                        os.write(buffer, 0, length);
+                        remaining -= length;
+                    }
+                } else if (op == LITERAL) {
+                    int remaining = in.readInt();
+                    while (remaining > 0) {
+                        int length = Math.min(buffer.length, remaining);
+                        in.readFully(buffer, 0, length);
+                        os.write(buffer, 0, length);
+                        remaining -= length;
+                    }
+                } else {
+                    throw new IoException("The file sync delta is not valid");
+                }
+            }
+            os.flush();
+        } catch (IOException e) {
+            throw new IoException(e);
+        } finally {
+            if (basis != null) {
+                try {
+                    basis.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Used by the sync script on the target to patch a file. The target file
+     * must be the version the delta was made from. The patched file must
+     * match the checksum of the new version before it replaces the target
+     * file.
+     */
+    public static void patch(File targetFile, File deltaFile, long oldCrc32Checksum,
+            long newCrc32Checksum, long lastModified) {
+        try {
+            if (!targetFile.isFile()
+                    || FileUtils.checksumCRC32(targetFile) != oldCrc32Checksum) {
+                throw new FileConflictException(targetFile.getName()
+                        + " is not the version the file sync delta was made from.  It will be sent in full when the batch is retried");
+            }
+            File patchedFile = new File(targetFile.getParentFile(), "." + targetFile.getName()
+                    + ".patch");
+            InputStream in = new FileInputStream(deltaFile);
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(patchedFile));
+            try {
+                applyDelta(targetFile, in, out);
+            } finally {
+                IOUtils.closeQuietly(in);
+                IOUtils.closeQuietly(out);
+            }
+            if (FileUtils.checksumCRC32(patchedFile) != newCrc32Checksum) {
+                FileUtils.deleteQuietly(patchedFile);
+                throw new FileConflictException(targetFile.getName()
+                        + " did not match the checksum of the source file after the file sync delta was applied");
+            }
+            patchedFile.setLastModified(lastModified);
+            if (!targetFile.delete() || !patchedFile.renameTo(targetFile)) {
+                FileUtils.copyFile(patchedFile, targetFile, true);
+                FileUtils.deleteQuietly(patchedFile);
+            }
+        } catch (IOException e) {
+            throw new IoException(e);
+        }
+    }
+
+    protected static int weakChecksum(byte[] buffer, int offset, int length) {
+        int a = 0, b = 0;
+        for (int i = 0; i < length; i++) {
+            int value = buffer[offset + i] & 0xff;
+            a += value;
+            b += (length - i) * value;
+        }
+        return ((b & 0xffff) << 16) | (a & 0xffff);
+    }
+
+    private static void writeCopy(DataOutputStream out, int block, int count) throws IOException {
+        if (count > 0) {
+            out.writeByte(COPY);
+            out.writeInt(block);
+            out.writeInt(count);
+        }
+    }
+
+    private static void writeLiteral(DataOutputStream out, byte[] buffer, int offset, int length)
+            throws IOException {
+        if (length > 0) {
+            out.writeByte(LITERAL);
+            out.writeInt(length);
+            out.write(buffer, offset, length);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
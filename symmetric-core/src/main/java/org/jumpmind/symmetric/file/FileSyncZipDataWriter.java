@@ -22,7 +22,9 @@ package org.jumpmind.symmetric.file;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -30,7 +32,9 @@ import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.TeeInputStream;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 import org.jumpmind.db.model.Table;
@@ -57,6 +61,12 @@ public class FileSyncZipDataWriter implements IDataWriter {
 
     static final Logger log = LoggerFactory.getLogger(FileSyncZipDataWriter.class);
 
+    /**
+     * The directory under the signature directory where the signatures of a
+     * batch wait for the batch to be acknowledged
+     */
+    public static final String PENDING_SIGNATURE_DIR = ".pending";
+
     protected long byteCount;
     protected long maxBytesToSync;
     protected IFileSyncService fileSyncService;
@@ -68,6 +78,12 @@ public class FileSyncZipDataWriter implements IDataWriter {
     protected List<FileSnapshot> snapshotEvents;
     protected DataContext context;
     protected INodeService nodeService;
+    protected boolean deltaEnabled;
+    protected long deltaMinFileSize;
+    protected int deltaBlockSize = 4096;
+    protected File signatureDirectory;
+    protected boolean fullFilesOnly;
+    protected Map<File, FileSyncDelta.Signature> sentSignatures = new HashMap<File, FileSyncDelta.Signature>();
 
     public FileSyncZipDataWriter(long maxBytesToSync, IFileSyncService fileSyncService,
             INodeService nodeService, IStagedResource stagedResource) {
@@ -202,6 +218,39 @@ public class FileSyncZipDataWriter implements IDataWriter {
                             command.append(fileTrigger.getBeforeCopyScript()).append("\n");
                         }
                                                                         
+                        LastEventType previousEventForEntry = entries.get(entryName.toString());
+                        boolean process = true;
+                        if (previousEventForEntry != null) {
+                            if ((previousEventForEntry == eventType)
+                                    || (previousEventForEntry == LastEventType.CREATE && eventType == LastEventType.MODIFY)) {
+                                process = false;
+                            }
+                        }
+
+                        /*
+                         * The signature of the version last sent to the
+                         * target is kept so that a modified file can be sent
+                         * as the blocks that changed
+                         */
+                        File signatureFile = getSignatureFile(snapshot);
+                        boolean signFile = process && eventType != LastEventType.DELETE
+                                && isDeltaCandidate(file);
+                        FileSyncDelta.Signature oldSignature = null;
+                        FileSyncDelta.SignatureOutputStream newSignature = null;
+                        File deltaFile = null;
+                        if (signFile && eventType == LastEventType.MODIFY && !fullFilesOnly) {
+                            oldSignature = getLastSignature(signatureFile);
+                            if (oldSignature != null
+                                    && oldSignature.getBatchId() < batch.getBatchId()
+                                    && oldSignature.getBlockSize() == deltaBlockSize) {
+                                newSignature = new FileSyncDelta.SignatureOutputStream(deltaBlockSize);
+                                deltaFile = createDelta(file, oldSignature, newSignature);
+                                if (deltaFile == null) {
+                                    newSignature = null;
+                                }
+                            }
+                        }
+
                         command.append("if (processFile) {\n");
                         String targetFile = "targetBaseDir + \"/\" + targetRelativeDir + \"/\" + targetFileName"; 
                         
@@ -246,11 +295,21 @@ public class FileSyncZipDataWriter implements IDataWriter {
                                     } 
                                     
                                     command.append("  if (processFile) {\n");
-                                    command.append("    if (sourceFile.isDirectory()) {\n");
-                                    command.append("      org.apache.commons.io.FileUtils.copyDirectory(sourceFile, targetFile, true);\n");                                    
-                                    command.append("    } else {\n");
-                                    command.append("      org.apache.commons.io.FileUtils.copyFile(sourceFile, targetFile, true);\n");                                    
-                                    command.append("    }\n");
+                                    if (deltaFile != null) {
+                                        String deltaEntryName = getDeltaEntryName(entryName.toString());
+                                        command.append("    org.jumpmind.symmetric.file.FileSyncDelta.patch(targetFile, new java.io.File(batchDir + \"");
+                                        command.append(StringEscapeUtils.escapeJava(deltaEntryName
+                                                .substring(deltaEntryName.indexOf("/"))));
+                                        command.append("\"), ").append(oldSignature.getCrc32Checksum()).append("L, ");
+                                        command.append(newSignature.getSignature().getCrc32Checksum()).append("L, ");
+                                        command.append(file.lastModified()).append("L);\n");
+                                    } else {
+                                        command.append("    if (sourceFile.isDirectory()) {\n");
+                                        command.append("      org.apache.commons.io.FileUtils.copyDirectory(sourceFile, targetFile, true);\n");
+                                        command.append("    } else {\n");
+                                        command.append("      org.apache.commons.io.FileUtils.copyFile(sourceFile, targetFile, true);\n");
+                                        command.append("    }\n");
+                                    }
                                     command.append("  }\n");
                                     command.append("  fileList.put(").append(targetFile)
                                             .append(",\"");
@@ -274,26 +333,34 @@ public class FileSyncZipDataWriter implements IDataWriter {
                             command.append(fileTrigger.getAfterCopyScript()).append("\n");
                         }
 
-                        LastEventType previousEventForEntry = entries.get(entryName.toString());
-                        boolean process = true;
-                        if (previousEventForEntry != null) {
-                            if ((previousEventForEntry == eventType)
-                                    || (previousEventForEntry == LastEventType.CREATE && eventType == LastEventType.MODIFY)) {
-                                process = false;
-                            }
-                        }
-                        
-                        
                         if (process) {
                             if (eventType != LastEventType.DELETE) {
-                                if (file.exists()) {
+                                if (deltaFile != null) {
+                                    byteCount += deltaFile.length();
+                                    ZipEntry entry = new ZipEntry(getDeltaEntryName(entryName.toString()));
+                                    entry.setSize(deltaFile.length());
+                                    zos.putNextEntry(entry);
+                                    FileInputStream fis = new FileInputStream(deltaFile);
+                                    try {
+                                        IOUtils.copy(fis, zos);
+                                    } finally {
+                                        IOUtils.closeQuietly(fis);
+                                        FileUtils.deleteQuietly(deltaFile);
+                                    }
+                                    zos.closeEntry();
+                                    entries.put(entryName.toString(), eventType);
+                                } else if (file.exists()) {
                                     byteCount += file.length();
                                     ZipEntry entry = new ZipEntry(entryName.toString());
                                     entry.setSize(file.length());
                                     entry.setTime(file.lastModified());
                                     zos.putNextEntry(entry);
                                     if (file.isFile()) {
-                                        FileInputStream fis = new FileInputStream(file);
+                                        InputStream fis = new FileInputStream(file);
+                                        if (signFile) {
+                                            newSignature = new FileSyncDelta.SignatureOutputStream(deltaBlockSize);
+                                            fis = new TeeInputStream(fis, newSignature);
+                                        }
                                         try {
                                             IOUtils.copy(fis, zos);
                                         } finally {
@@ -307,6 +374,15 @@ public class FileSyncZipDataWriter implements IDataWriter {
                                             "Could not find the {} file to package for synchronization.  Skipping it.",
                                             file.getAbsolutePath());
                                 }
+                                if (newSignature != null) {
+                                    FileSyncDelta.Signature signature = newSignature.getSignature();
+                                    signature.setBatchId(batch.getBatchId());
+                                    signature.write(getPendingSignatureFile(snapshot));
+                                    sentSignatures.put(signatureFile, signature);
+                                }
+                            } else if (signatureFile != null) {
+                                FileUtils.deleteQuietly(signatureFile);
+                                sentSignatures.remove(signatureFile);
                             }
 
                             command.append("}\n\n");
@@ -354,6 +430,116 @@ public class FileSyncZipDataWriter implements IDataWriter {
         }
     }
 
+    protected boolean isDeltaCandidate(File file) {
+        return deltaEnabled && signatureDirectory != null && file.isFile()
+                && file.length() >= deltaMinFileSize;
+    }
+
+    /**
+     * @return the file with the signature of the version of the file that the
+     *         target node acknowledged last
+     */
+    protected File getSignatureFile(FileSnapshot snapshot) {
+        if (signatureDirectory != null) {
+            return new File(signatureDirectory, getSignaturePath(snapshot));
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @return the file with the signature of the version of the file sent in
+     *         the current batch, which replaces the signature file when the
+     *         batch is acknowledged
+     */
+    protected File getPendingSignatureFile(FileSnapshot snapshot) {
+        return new File(signatureDirectory, PENDING_SIGNATURE_DIR + "/" + batch.getBatchId()
+                + "/" + getSignaturePath(snapshot));
+    }
+
+    protected String getSignaturePath(FileSnapshot snapshot) {
+        StringBuilder path = new StringBuilder(batch.getTargetNodeId());
+        path.append("/").append(snapshot.getTriggerId());
+        path.append("/").append(snapshot.getRouterId());
+        path.append("/").append(snapshot.getRelativeDir());
+        path.append("/").append(snapshot.getFileName()).append(".sig");
+        return path.toString();
+    }
+
+    /**
+     * A file sent by an earlier batch in the same payload is patched on the
+     * target before this batch is loaded, so its signature is used before
+     * the one that was acknowledged.
+     */
+    protected FileSyncDelta.Signature getLastSignature(File signatureFile) {
+        FileSyncDelta.Signature signature = sentSignatures.get(signatureFile);
+        if (signature == null) {
+            signature = FileSyncDelta.Signature.read(signatureFile);
+        }
+        return signature;
+    }
+
+    protected String getDeltaEntryName(String entryName) {
+        int index = entryName.indexOf("/");
+        return entryName.substring(0, index) + "/.symmetric-delta" + entryName.substring(index);
+    }
+
+    /**
+     * @param newSignature
+     *            is given the bytes of the file as the delta is made, so the
+     *            checksum in the sync script is of the same version as the
+     *            delta
+     * @return a file with the delta from the old signature to the file, or
+     *         null if the delta would not be smaller than the file
+     */
+    protected File createDelta(File file, FileSyncDelta.Signature oldSignature,
+            FileSyncDelta.SignatureOutputStream newSignature) throws IOException {
+        signatureDirectory.mkdirs();
+        File deltaFile = File.createTempFile("filesync", ".delta", signatureDirectory);
+        InputStream fis = new TeeInputStream(new FileInputStream(file), newSignature);
+        FileOutputStream fos = new FileOutputStream(deltaFile);
+        try {
+            FileSyncDelta.writeDelta(oldSignature, fis, fos);
+        } finally {
+            IOUtils.closeQuietly(fis);
+            IOUtils.closeQuietly(fos);
+        }
+        if (deltaFile.length() < newSignature.getSignature().getLength()) {
+            log.debug("Sending {} as a delta of {} bytes instead of {} bytes",
+                    new Object[] { file.getAbsolutePath(), deltaFile.length(),
+                            newSignature.getSignature().getLength() });
+            return deltaFile;
+        } else {
+            FileUtils.deleteQuietly(deltaFile);
+            return null;
+        }
+    }
+
+    public void setDeltaEnabled(boolean deltaEnabled) {
+        this.deltaEnabled = deltaEnabled;
+    }
+
+    public void setDeltaMinFileSize(long deltaMinFileSize) {
+        this.deltaMinFileSize = deltaMinFileSize;
+    }
+
+    public void setDeltaBlockSize(int deltaBlockSize) {
+        this.deltaBlockSize = deltaBlockSize;
+    }
+
+    public void setSignatureDirectory(File signatureDirectory) {
+        this.signatureDirectory = signatureDirectory;
+    }
+
+    /**
+     * Send whole files for the next batch, which is done when the batch is
+     * being retried and the target might not have the version of a file that
+     * was last sent.
+     */
+    public void setFullFilesOnly(boolean fullFilesOnly) {
+        this.fullFilesOnly = fullFilesOnly;
+    }
+
     public boolean readyToSend() {
         return byteCount > maxBytesToSync;
     }
@@ -21,48 +21,45 @@
 package org.jumpmind.symmetric.file;
 
 import java.io.File;
-import java.io.IOException;
 
 import org.apache.commons.io.monitor.FileAlterationListenerAdaptor;
 import org.apache.commons.io.monitor.FileAlterationObserver;
-import org.jumpmind.exception.IoException;
 import org.jumpmind.symmetric.model.FileSnapshot;
 import org.jumpmind.symmetric.model.FileSnapshot.LastEventType;
 import org.jumpmind.symmetric.model.FileTriggerRouter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Tracks the changes to the files selected by a {@link FileTriggerRouter}. The
+ * tracker keeps the state of the directory tree in memory, so it can be kept
+ * between runs and each call to {@link #trackChanges()} only needs to compare
+ * the tree with that state.
+ */
 public class FileTriggerTracker {
 
     final protected Logger log = LoggerFactory.getLogger(getClass());
 
     private FileTriggerRouter fileTriggerRouter;
     private FileAlterationObserver fileObserver;
-    private DirectorySnapshot lastSnapshot;
     private DirectorySnapshot changesSinceLastSnapshot;
     private SnapshotUpdater currentListener;
+    private long createTime = System.currentTimeMillis();
 
     public FileTriggerTracker(FileTriggerRouter fileTriggerRouter, DirectorySnapshot lastSnapshot) {
         this.fileTriggerRouter = fileTriggerRouter;
 
         changesSinceLastSnapshot = new DirectorySnapshot(fileTriggerRouter);
-        fileObserver = new FileAlterationObserver(fileTriggerRouter.getFileTrigger().getBaseDir(),
-                fileTriggerRouter.getFileTrigger().createIOFileFilter());
         currentListener = new SnapshotUpdater(changesSinceLastSnapshot);
-        fileObserver.addListener(currentListener);
         try {
-            fileObserver.initialize();
             if (lastSnapshot == null) {
                 lastSnapshot = new DirectorySnapshot(fileTriggerRouter);
             }
-            this.lastSnapshot = lastSnapshot;
             DirectorySnapshot currentSnapshot = new DirectorySnapshot(fileTriggerRouter);
             takeFullSnapshot(currentSnapshot);
             changesSinceLastSnapshot.addAll(lastSnapshot.diff(currentSnapshot));
         } catch (RuntimeException e) {
             throw e;
-        } catch (IOException e) {
-            throw new IoException(e);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -83,17 +80,37 @@ public class FileTriggerTracker {
         fileObserver.addListener(newListener);
         fileObserver.removeListener(currentListener);
         currentListener = newListener;
-        lastSnapshot.merge(changes);
         return changes;
     }
 
+    public FileTriggerRouter getFileTriggerRouter() {
+        return fileTriggerRouter;
+    }
+
+    public long getCreateTime() {
+        return createTime;
+    }
+
+    /**
+     * Update the snapshot with every file in the directory spec. The first
+     * check of a new observer reports every file as created, so one pass over
+     * the directory tree takes the snapshot and initializes the observer. The
+     * new observer then replaces the one that tracks changes. The old observer
+     * is checked one last time first, so no change since the last call to
+     * {@link #trackChanges()} is lost. A change made while the snapshot is
+     * taken may be reported twice.
+     */
     synchronized protected void takeFullSnapshot(DirectorySnapshot snapshot) {
-        // update the snapshot with every file in the directory spec
         FileAlterationObserver observer = new FileAlterationObserver(fileTriggerRouter
                 .getFileTrigger().getBaseDir(), fileTriggerRouter.getFileTrigger()
                 .createIOFileFilter());
-        observer.addListener(new SnapshotUpdater(snapshot));
+        SnapshotUpdater fullSnapshotListener = new SnapshotUpdater(snapshot);
+        observer.addListener(fullSnapshotListener);
         observer.checkAndNotify();
+        observer.removeListener(fullSnapshotListener);
+        pollForChanges();
+        observer.addListener(currentListener);
+        fileObserver = observer;
     }
 
     class SnapshotUpdater extends FileAlterationListenerAdaptor {
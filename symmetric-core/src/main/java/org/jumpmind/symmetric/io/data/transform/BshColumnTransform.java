@@ -31,6 +31,7 @@ import static org.jumpmind.symmetric.common.Constants.DATA_CONTEXT_TARGET_NODE_G
 import static org.jumpmind.symmetric.common.Constants.DATA_CONTEXT_TARGET_NODE_ID;
 
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
@@ -38,6 +39,7 @@ import org.jumpmind.db.platform.IDatabasePlatform;
 import org.jumpmind.extension.IBuiltInExtensionPoint;
 import org.jumpmind.symmetric.common.Constants;
 import org.jumpmind.symmetric.common.ParameterConstants;
+import org.jumpmind.symmetric.io.data.Batch;
 import org.jumpmind.symmetric.io.data.DataContext;
 import org.jumpmind.symmetric.model.Data;
 import org.jumpmind.symmetric.service.IParameterService;
@@ -45,6 +47,7 @@ import org.jumpmind.util.Context;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import bsh.BshMethod;
 import bsh.Interpreter;
 import bsh.TargetError;
 
@@ -54,6 +57,18 @@ public class BshColumnTransform implements ISingleValueColumnTransform, IBuiltIn
 
     final String INTERPRETER_KEY = String.format("%d.BshInterpreter", hashCode());
 
+    final String COMPILED_SCRIPTS_KEY = String.format("%d.BshCompiledScripts", hashCode());
+
+    final String GLOBAL_SCRIPT_KEY = String.format("%d.BshGlobalScript", hashCode());
+
+    final String GLOBAL_SCRIPT_BATCH_KEY = String.format("%d.BshGlobalScriptBatch", hashCode());
+
+    final String UPPER_CASE_NAMES_KEY = String.format("%d.BshUpperCaseNames", hashCode());
+
+    static final Object[] NO_ARGS = new Object[0];
+
+    static final Class<?>[] NO_ARG_TYPES = new Class<?>[0];
+
     public static final String NAME = "bsh";
 
     IParameterService parameterService;
@@ -99,38 +114,15 @@ public class BshColumnTransform implements ISingleValueColumnTransform, IBuiltIn
                 interpreter.set("sourceCatalogName", csvData.getTriggerHistory().getSourceCatalogName());
                 interpreter.set("sourceTableName", csvData.getTriggerHistory().getSourceTableName());
             }  
-            for (String columnName : sourceValues.keySet()) {
-                interpreter.set(columnName.toUpperCase(), sourceValues.get(columnName));
-                interpreter.set(columnName, sourceValues.get(columnName));
-            }
-           
-            String transformExpression = column.getTransformExpression();
-            String globalScript = parameterService.getString(ParameterConstants.BSH_TRANSFORM_GLOBAL_SCRIPT);
-            String methodName = String.format("transform_%d()",
-                    Math.abs(transformExpression.hashCode() + (globalScript == null ? 0 : globalScript.hashCode())));
-            if (context.get(methodName) == null) {
-                interpreter.set("log", log);
-                interpreter.set("sqlTemplate", platform.getSqlTemplate());
-                interpreter.set("context", context);
-                interpreter.set("bshContext", bshContext);
-                interpreter.set(DATA_CONTEXT_ENGINE, context.get(DATA_CONTEXT_ENGINE));            
-                interpreter.set(DATA_CONTEXT_TARGET_NODE, context.get(DATA_CONTEXT_TARGET_NODE));
-                interpreter.set(DATA_CONTEXT_TARGET_NODE_ID, context.get(DATA_CONTEXT_TARGET_NODE_ID));
-                interpreter.set(DATA_CONTEXT_TARGET_NODE_GROUP_ID, context.get(DATA_CONTEXT_TARGET_NODE_GROUP_ID));
-                interpreter.set(DATA_CONTEXT_TARGET_NODE_EXTERNAL_ID, context.get(DATA_CONTEXT_TARGET_NODE_EXTERNAL_ID));            
-                interpreter.set(DATA_CONTEXT_SOURCE_NODE, context.get(DATA_CONTEXT_SOURCE_NODE));
-                interpreter.set(DATA_CONTEXT_SOURCE_NODE_ID, context.get(DATA_CONTEXT_SOURCE_NODE_ID));                                                    
-                interpreter.set(DATA_CONTEXT_SOURCE_NODE_GROUP_ID, context.get(DATA_CONTEXT_SOURCE_NODE_GROUP_ID));                                                    
-                interpreter.set(DATA_CONTEXT_SOURCE_NODE_EXTERNAL_ID, context.get(DATA_CONTEXT_SOURCE_NODE_EXTERNAL_ID));
-                
-                if (StringUtils.isNotBlank(globalScript)) {
-                    interpreter.eval(globalScript);
-                }
-                interpreter.eval(String.format("%s {\n%s\n}", methodName, transformExpression));
-                context.put(methodName, Boolean.TRUE);
+            Map<String, String> upperCaseNames = getUpperCaseNames(context);
+            for (Map.Entry<String, String> entry : sourceValues.entrySet()) {
+                String columnName = entry.getKey();
+                interpreter.set(getUpperCaseName(upperCaseNames, columnName), entry.getValue());
+                interpreter.set(columnName, entry.getValue());
             }
 
-            Object result = interpreter.eval(methodName);            
+            BshMethod method = getCompiledMethod(platform, context, interpreter, column);
+            Object result = method.invoke(NO_ARGS, interpreter);
             
             if (csvData != null && csvData.getTriggerHistory() != null) {
                 interpreter.unset("sourceSchemaName");
@@ -139,7 +131,7 @@ public class BshColumnTransform implements ISingleValueColumnTransform, IBuiltIn
             }
             
             for (String columnName : sourceValues.keySet()) {
-                interpreter.unset(columnName.toUpperCase());
+                interpreter.unset(getUpperCaseName(upperCaseNames, columnName));
                 interpreter.unset(columnName);
             }
             
@@ -171,6 +163,90 @@ public class BshColumnTransform implements ISingleValueColumnTransform, IBuiltIn
         }
     }
 
+    /**
+     * Returns the script for the column as a method that was declared in the
+     * interpreter the first time the column was transformed in this context.
+     * The method is invoked directly so the script is only parsed once. It is
+     * declared again when the transform expression or the global script
+     * changes.
+     */
+    protected BshMethod getCompiledMethod(IDatabasePlatform platform, DataContext context,
+            Interpreter interpreter, TransformColumn column) throws Exception {
+        @SuppressWarnings("unchecked")
+        Map<TransformColumn, CompiledScript> compiledScripts = (Map<TransformColumn, CompiledScript>) context
+                .get(COMPILED_SCRIPTS_KEY);
+        if (compiledScripts == null) {
+            compiledScripts = new IdentityHashMap<TransformColumn, CompiledScript>();
+            context.put(COMPILED_SCRIPTS_KEY, compiledScripts);
+        }
+
+        String globalScript = getGlobalScript(context);
+        String transformExpression = column.getTransformExpression();
+        CompiledScript compiledScript = compiledScripts.get(column);
+        if (compiledScript == null || !StringUtils.equals(compiledScript.globalScript, globalScript)
+                || !StringUtils.equals(compiledScript.transformExpression, transformExpression)) {
+            String methodName = String.format("transform_%d",
+                    Math.abs(transformExpression.hashCode() + (globalScript == null ? 0 : globalScript.hashCode())));
+            BshMethod method = interpreter.getNameSpace().getMethod(methodName, NO_ARG_TYPES);
+            if (method == null) {
+                interpreter.set("log", log);
+                interpreter.set("sqlTemplate", platform.getSqlTemplate());
+                interpreter.set("context", context);
+                interpreter.set("bshContext", bshContext);
+                interpreter.set(DATA_CONTEXT_ENGINE, context.get(DATA_CONTEXT_ENGINE));            
+                interpreter.set(DATA_CONTEXT_TARGET_NODE, context.get(DATA_CONTEXT_TARGET_NODE));
+                interpreter.set(DATA_CONTEXT_TARGET_NODE_ID, context.get(DATA_CONTEXT_TARGET_NODE_ID));
+                interpreter.set(DATA_CONTEXT_TARGET_NODE_GROUP_ID, context.get(DATA_CONTEXT_TARGET_NODE_GROUP_ID));
+                interpreter.set(DATA_CONTEXT_TARGET_NODE_EXTERNAL_ID, context.get(DATA_CONTEXT_TARGET_NODE_EXTERNAL_ID));            
+                interpreter.set(DATA_CONTEXT_SOURCE_NODE, context.get(DATA_CONTEXT_SOURCE_NODE));
+                interpreter.set(DATA_CONTEXT_SOURCE_NODE_ID, context.get(DATA_CONTEXT_SOURCE_NODE_ID));                                                    
+                interpreter.set(DATA_CONTEXT_SOURCE_NODE_GROUP_ID, context.get(DATA_CONTEXT_SOURCE_NODE_GROUP_ID));                                                    
+                interpreter.set(DATA_CONTEXT_SOURCE_NODE_EXTERNAL_ID, context.get(DATA_CONTEXT_SOURCE_NODE_EXTERNAL_ID));
+                
+                if (StringUtils.isNotBlank(globalScript)) {
+                    interpreter.eval(globalScript);
+                }
+                interpreter.eval(String.format("%s() {\n%s\n}", methodName, transformExpression));
+                method = interpreter.getNameSpace().getMethod(methodName, NO_ARG_TYPES);
+            }
+            compiledScript = new CompiledScript(transformExpression, globalScript, method);
+            compiledScripts.put(column, compiledScript);
+        }
+        return compiledScript.method;
+    }
+
+    /**
+     * The global script parameter is read once per batch instead of for every
+     * row.
+     */
+    protected String getGlobalScript(DataContext context) {
+        Batch batch = context.getBatch();
+        if (!context.getContext().containsKey(GLOBAL_SCRIPT_BATCH_KEY) || context.get(GLOBAL_SCRIPT_BATCH_KEY) != batch) {
+            context.put(GLOBAL_SCRIPT_KEY, parameterService.getString(ParameterConstants.BSH_TRANSFORM_GLOBAL_SCRIPT));
+            context.put(GLOBAL_SCRIPT_BATCH_KEY, batch);
+        }
+        return (String) context.get(GLOBAL_SCRIPT_KEY);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Map<String, String> getUpperCaseNames(Context context) {
+        Map<String, String> upperCaseNames = (Map<String, String>) context.get(UPPER_CASE_NAMES_KEY);
+        if (upperCaseNames == null) {
+            upperCaseNames = new HashMap<String, String>();
+            context.put(UPPER_CASE_NAMES_KEY, upperCaseNames);
+        }
+        return upperCaseNames;
+    }
+
+    protected String getUpperCaseName(Map<String, String> upperCaseNames, String columnName) {
+        String upperCaseName = upperCaseNames.get(columnName);
+        if (upperCaseName == null) {
+            upperCaseName = columnName.toUpperCase();
+            upperCaseNames.put(columnName, upperCaseName);
+        }
+        return upperCaseName;
+    }
+
     protected Interpreter getInterpreter(Context context) {
         Interpreter interpreter = (Interpreter) context.get(INTERPRETER_KEY);
         if (interpreter == null) {
@@ -180,4 +256,19 @@ public class BshColumnTransform implements ISingleValueColumnTransform, IBuiltIn
         return interpreter;
     }
 
+    static class CompiledScript {
+
+        String transformExpression;
+
+        String globalScript;
+
+        BshMethod method;
+
+        CompiledScript(String transformExpression, String globalScript, BshMethod method) {
+            this.transformExpression = transformExpression;
+            this.globalScript = globalScript;
+            this.method = method;
+        }
+    }
+
 }
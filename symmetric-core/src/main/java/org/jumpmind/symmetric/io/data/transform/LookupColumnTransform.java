@@ -22,19 +22,35 @@ package org.jumpmind.symmetric.io.data.transform;
 
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import org.apache.commons.lang.StringUtils;
 import org.jumpmind.db.platform.IDatabasePlatform;
+import org.jumpmind.db.sql.ISqlRowMapper;
 import org.jumpmind.db.sql.ISqlTransaction;
+import org.jumpmind.db.sql.InvalidSqlException;
+import org.jumpmind.db.sql.NamedParameterUtils;
+import org.jumpmind.db.sql.ParsedSql;
+import org.jumpmind.db.sql.Row;
 import org.jumpmind.db.sql.mapper.StringMapper;
 import org.jumpmind.extension.IBuiltInExtensionPoint;
 import org.jumpmind.symmetric.common.Constants;
+import org.jumpmind.symmetric.common.ParameterConstants;
+import org.jumpmind.symmetric.io.data.Batch;
 import org.jumpmind.symmetric.io.data.DataContext;
+import org.jumpmind.symmetric.io.data.IDataWriter;
+import org.jumpmind.symmetric.io.data.writer.DataWriterStatisticConstants;
 import org.jumpmind.symmetric.model.Data;
+import org.jumpmind.symmetric.service.IParameterService;
 import org.jumpmind.util.FormatUtils;
-import org.jumpmind.util.LinkedCaseInsensitiveMap;
+import org.jumpmind.util.Statistics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,6 +62,35 @@ public class LookupColumnTransform implements ISingleValueColumnTransform, IBuil
 
     protected static final StringMapper lookupColumnRowMapper = new StringMapper();
 
+    protected static final ISqlRowMapper<Row> preloadRowMapper = new ISqlRowMapper<Row>() {
+        public Row mapRow(Row row) {
+            return row;
+        }
+    };
+
+    /*
+     * A lookup of one column from a table by one key column can be preloaded
+     * by selecting the key and value columns from the whole table.
+     */
+    protected static final Pattern PRELOAD_PATTERN = Pattern.compile(
+            "\\s*select\\s+([\\w\\.\"`\\[\\]]+)\\s+from\\s+([\\w\\.\"`\\[\\]]+)\\s+where\\s+([\\w\\.\"`\\[\\]]+)\\s*=\\s*:\\w+\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    protected static final String PRELOAD_KEY = "lookup_key";
+
+    protected static final String PRELOAD_VALUE = "lookup_value";
+
+    protected IParameterService parameterService;
+
+    protected Map<TransformColumn, Lookup> lookups = new WeakHashMap<TransformColumn, Lookup>();
+
+    public LookupColumnTransform() {
+    }
+
+    public LookupColumnTransform(IParameterService parameterService) {
+        this.parameterService = parameterService;
+    }
+
     public String getName() {
         return NAME;
     }
@@ -61,35 +106,59 @@ public class LookupColumnTransform implements ISingleValueColumnTransform, IBuil
     public String transform(IDatabasePlatform platform, DataContext context,
             TransformColumn column, TransformedData data, Map<String, String> sourceValues,
             String newValue, String oldValue) throws IgnoreColumnException, IgnoreRowException {
-        
-        String sql = doTokenReplacementOnSql(context, column.getTransformExpression());
-        
+
+        String expression = column.getTransformExpression();
+
         String lookupValue = null;
 
-        if (StringUtils.isNotBlank(sql)) {
-            ISqlTransaction transaction = context.findTransaction();
-            List<String> values = null;
-            if (transaction != null) {
-                values = transaction.query(sql, lookupColumnRowMapper, new LinkedCaseInsensitiveMap<Object>(
-                        sourceValues));
-            } else {
-                values = platform.getSqlTemplate().query(sql, lookupColumnRowMapper,
-                        new LinkedCaseInsensitiveMap<Object>(sourceValues));
-            }
-
-            int rowCount = values.size();
-
-            if (rowCount == 1) {
-                lookupValue = values.get(0);
-            } else if (rowCount > 1) {
-                lookupValue = values.get(0);
-                log.warn(
-                        "Expected a single row, but returned multiple rows from lookup for target column {} on transform {} ",
-                        column.getTargetColumnName(), column.getTransformId());
-            } else if (values.size() == 0) {
-                log.info(
-                        "Expected a single row, but returned no rows from lookup for target column {} on transform {}",
-                        column.getTargetColumnName(), column.getTransformId());
+        if (isNotBlank(expression)) {
+            Lookup lookup = getLookup(column, expression);
+            String sql = lookup.hasTokens ? doTokenReplacementOnSql(context, expression) : expression;
+            LookupStatement statement = lookup.getStatement(context.getBatch(), sql);
+            Object[] args = statement.getArgs(sourceValues);
+            Statistics stats = getStatistics(context);
+
+            boolean found = false;
+            if (lookup.cacheSize > 0) {
+                if (statement.isPreloadNeeded(lookup)) {
+                    statement.setPreloaded(preload(platform, context, statement, lookup, stats));
+                }
+                CachedValue cached = statement.get(lookup, args);
+                if (cached != null) {
+                    found = true;
+                    lookupValue = cached.value;
+                    if (stats != null) {
+                        stats.increment(DataWriterStatisticConstants.LOOKUPCACHEHITCOUNT);
+                    }
+                }
+            }
+
+            if (!found) {
+                long ts = System.currentTimeMillis();
+                List<String> values = query(platform, context, statement.sql, args);
+                if (stats != null) {
+                    stats.increment(DataWriterStatisticConstants.LOOKUPCOUNT);
+                    stats.increment(DataWriterStatisticConstants.LOOKUPMILLIS, System.currentTimeMillis() - ts);
+                }
+
+                int rowCount = values.size();
+
+                if (rowCount == 1) {
+                    lookupValue = values.get(0);
+                } else if (rowCount > 1) {
+                    lookupValue = values.get(0);
+                    log.warn(
+                            "Expected a single row, but returned multiple rows from lookup for target column {} on transform {} ",
+                            column.getTargetColumnName(), column.getTransformId());
+                } else if (values.size() == 0) {
+                    log.info(
+                            "Expected a single row, but returned no rows from lookup for target column {} on transform {}",
+                            column.getTargetColumnName(), column.getTransformId());
+                }
+
+                if (rowCount > 0 && lookup.cacheSize > 0) {
+                    statement.put(lookup, args, lookupValue);
+                }
             }
         } else {
             log.warn(
@@ -98,7 +167,81 @@ public class LookupColumnTransform implements ISingleValueColumnTransform, IBuil
         }
         return lookupValue;
     }
-    
+
+    protected Lookup getLookup(TransformColumn column, String expression) {
+        synchronized (lookups) {
+            Lookup lookup = lookups.get(column);
+            if (lookup == null || !expression.equals(lookup.expression)) {
+                lookup = new Lookup(expression);
+                lookups.put(column, lookup);
+            }
+            return lookup;
+        }
+    }
+
+    protected List<String> query(IDatabasePlatform platform, DataContext context, String sql,
+            Object[] args) {
+        ISqlTransaction transaction = context.findTransaction();
+        if (transaction != null) {
+            return transaction.query(sql, lookupColumnRowMapper, args, null);
+        } else {
+            return platform.getSqlTemplate().query(sql, lookupColumnRowMapper, args, null);
+        }
+    }
+
+    protected Map<String, String> preload(IDatabasePlatform platform, DataContext context,
+            LookupStatement statement, Lookup lookup, Statistics stats) {
+        long ts = System.currentTimeMillis();
+        ISqlTransaction transaction = context.findTransaction();
+        int rowCount = transaction != null ? transaction.queryForInt(statement.preloadCountSql)
+                : platform.getSqlTemplate().queryForInt(statement.preloadCountSql);
+        Map<String, String> preloaded = null;
+        if (rowCount <= lookup.preloadMaxRows) {
+            List<Row> rows = transaction != null ? transaction.query(statement.preloadSql,
+                    preloadRowMapper, null, null) : platform.getSqlTemplate().query(
+                    statement.preloadSql, preloadRowMapper);
+            preloaded = new HashMap<String, String>(rows.size());
+            for (Row row : rows) {
+                Object key = row.get(PRELOAD_KEY);
+                Object value = row.get(PRELOAD_VALUE);
+                if (key != null && !(key instanceof String)) {
+                    /*
+                     * Only character keys are matched in memory. The database
+                     * compares other types by value, which a string compare
+                     * of the source value would not do.
+                     */
+                    log.debug("Not preloading lookup '{}' because its key is not a character column",
+                            statement.sql);
+                    preloaded = null;
+                    break;
+                }
+                if (key != null && !preloaded.containsKey(key)) {
+                    preloaded.put((String) key, value != null ? value.toString() : null);
+                }
+            }
+            if (preloaded != null) {
+                log.debug("Preloaded {} rows for lookup '{}'", preloaded.size(), statement.sql);
+            }
+        } else {
+            log.debug("Not preloading lookup '{}' because the table has {} rows", statement.sql, rowCount);
+        }
+        if (stats != null) {
+            stats.increment(DataWriterStatisticConstants.LOOKUPCOUNT);
+            stats.increment(DataWriterStatisticConstants.LOOKUPMILLIS, System.currentTimeMillis() - ts);
+        }
+        return preloaded;
+    }
+
+    protected Statistics getStatistics(DataContext context) {
+        IDataWriter writer = context.getWriter();
+        Batch batch = context.getBatch();
+        if (writer != null && batch != null && writer.getStatistics() != null) {
+            return writer.getStatistics().get(batch);
+        } else {
+            return null;
+        }
+    }
+
     protected String doTokenReplacementOnSql(DataContext context, String sql) {
         if (isNotBlank(sql)) {
             Data csvData = (Data) context.get(Constants.DATA_CONTEXT_CURRENT_CSV_DATA);
@@ -116,4 +259,171 @@ public class LookupColumnTransform implements ISingleValueColumnTransform, IBuil
         return sql;
     }
 
+    /**
+     * The prepared statements and cache settings for one lookup transform
+     * column. The settings are read again for each batch.
+     */
+    protected class Lookup {
+
+        String expression;
+
+        boolean hasTokens;
+
+        int cacheSize;
+
+        long cacheTimeMs;
+
+        int preloadMaxRows;
+
+        Batch lastBatch;
+
+        boolean settingsLoaded;
+
+        Map<String, LookupStatement> statements = new HashMap<String, LookupStatement>();
+
+        Lookup(String expression) {
+            this.expression = expression;
+            this.hasTokens = expression.contains("$(");
+        }
+
+        synchronized LookupStatement getStatement(Batch batch, String sql) {
+            if (!settingsLoaded || batch != lastBatch) {
+                if (parameterService != null) {
+                    cacheSize = parameterService.getInt(ParameterConstants.TRANSFORM_LOOKUP_CACHE_SIZE);
+                    cacheTimeMs = parameterService.getLong(ParameterConstants.TRANSFORM_LOOKUP_CACHE_TIME_MS);
+                    preloadMaxRows = parameterService.getInt(ParameterConstants.TRANSFORM_LOOKUP_CACHE_PRELOAD_MAX_ROWS);
+                }
+                settingsLoaded = true;
+                lastBatch = batch;
+            }
+            LookupStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = new LookupStatement(sql);
+                statements.put(sql, statement);
+            }
+            return statement;
+        }
+    }
+
+    /**
+     * Lookup SQL with its named parameters replaced by placeholders, and the
+     * values it has returned.
+     */
+    protected static class LookupStatement {
+
+        String sql;
+
+        String[] parameterNames;
+
+        String preloadSql;
+
+        String preloadCountSql;
+
+        Map<Object, CachedValue> cache = new LinkedHashMap<Object, CachedValue>(16, 0.75f, true);
+
+        Map<String, String> preloaded;
+
+        long preloadTime;
+
+        LookupStatement(String lookupSql) {
+            ParsedSql parsedSql = NamedParameterUtils.parseSqlStatement(lookupSql);
+            List<String> names = parsedSql.getParameterNames();
+            parameterNames = names.toArray(new String[names.size()]);
+            Map<String, Object> placeholders = new HashMap<String, Object>();
+            for (String name : parameterNames) {
+                placeholders.put(name, null);
+            }
+            sql = NamedParameterUtils.substituteNamedParameters(parsedSql, placeholders);
+
+            Matcher matcher = PRELOAD_PATTERN.matcher(lookupSql);
+            if (parameterNames.length == 1 && matcher.matches()) {
+                String from = " from " + matcher.group(2);
+                preloadSql = "select " + matcher.group(3) + " as " + PRELOAD_KEY + ", "
+                        + matcher.group(1) + " as " + PRELOAD_VALUE + from;
+                preloadCountSql = "select count(*)" + from;
+            }
+        }
+
+        Object[] getArgs(Map<String, String> sourceValues) {
+            Object[] args = new Object[parameterNames.length];
+            for (int i = 0; i < parameterNames.length; i++) {
+                String name = parameterNames[i];
+                if (sourceValues.containsKey(name)) {
+                    args[i] = sourceValues.get(name);
+                } else {
+                    boolean found = false;
+                    for (Map.Entry<String, String> entry : sourceValues.entrySet()) {
+                        if (name.equalsIgnoreCase(entry.getKey())) {
+                            args[i] = entry.getValue();
+                            found = true;
+                            break;
+                        }
+                    }
+                    if (!found) {
+                        throw new InvalidSqlException(
+                                "The parameter map passed in did not contain a key for the named parameter %s in the SQL:\n %s",
+                                name, sql);
+                    }
+                }
+            }
+            return args;
+        }
+
+        synchronized boolean isPreloadNeeded(Lookup lookup) {
+            long now = System.currentTimeMillis();
+            if (preloadSql != null && lookup.preloadMaxRows > 0 && now - preloadTime > lookup.cacheTimeMs) {
+                preloadTime = now;
+                preloaded = null;
+                return true;
+            } else if (lookup.preloadMaxRows <= 0) {
+                preloaded = null;
+            }
+            return false;
+        }
+
+        synchronized void setPreloaded(Map<String, String> preloaded) {
+            this.preloaded = preloaded;
+        }
+
+        synchronized CachedValue get(Lookup lookup, Object[] args) {
+            if (preloaded != null && args[0] != null && preloaded.containsKey(args[0])) {
+                return new CachedValue(preloaded.get(args[0]));
+            }
+            Object key = getKey(args);
+            CachedValue cached = cache.get(key);
+            if (cached != null) {
+                if (System.currentTimeMillis() - cached.time <= lookup.cacheTimeMs) {
+                    return cached;
+                } else {
+                    cache.remove(key);
+                }
+            }
+            return null;
+        }
+
+        synchronized void put(Lookup lookup, Object[] args, String value) {
+            cache.put(getKey(args), new CachedValue(value));
+            Iterator<CachedValue> iterator = cache.values().iterator();
+            while (cache.size() > lookup.cacheSize && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+
+        protected Object getKey(Object[] args) {
+            return args.length == 1 ? args[0] : Arrays.asList(args);
+        }
+    }
+
+    protected static class CachedValue {
+
+        String value;
+
+        long time = System.currentTimeMillis();
+
+        CachedValue(String value) {
+            this.value = value;
+        }
+    }
+
 }
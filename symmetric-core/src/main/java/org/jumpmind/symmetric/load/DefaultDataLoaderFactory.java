@@ -66,31 +66,8 @@ public class DefaultDataLoaderFactory implements IDataLoaderFactory, IBuiltInExt
             List<IDatabaseWriterFilter> filters, List<IDatabaseWriterErrorHandler> errorHandlers,
             List<? extends Conflict> conflictSettings, List<ResolvedData> resolvedData) {
         DefaultDatabaseWriter writer = new DefaultDatabaseWriter(symmetricDialect.getPlatform(),
-                new DefaultTransformWriterConflictResolver(transformWriter) {
-                    @Override
-                    protected void beforeResolutionAttempt(Conflict conflict) {
-                        if (conflict.getPingBack() != PingBack.OFF) {
-                            DefaultDatabaseWriter writer = transformWriter
-                                    .getNestedWriterOfType(DefaultDatabaseWriter.class);
-                            ISqlTransaction transaction = writer.getTransaction();
-                            if (transaction != null) {
-                                symmetricDialect.enableSyncTriggers(transaction);
-                            }
-                        }
-                    }
-
-                    @Override
-                    protected void afterResolutionAttempt(Conflict conflict) {
-                        if (conflict.getPingBack() == PingBack.SINGLE_ROW) {
-                            DefaultDatabaseWriter writer = transformWriter
-                                    .getNestedWriterOfType(DefaultDatabaseWriter.class);
-                            ISqlTransaction transaction = writer.getTransaction();
-                            if (transaction != null) {
-                                symmetricDialect.disableSyncTriggers(transaction, sourceNodeId);
-                            }
-                        }
-                    }
-                }, buildDatabaseWriterSettings(filters, errorHandlers, conflictSettings,
+                new PingBackConflictResolver(sourceNodeId, symmetricDialect, transformWriter),
+                buildDatabaseWriterSettings(filters, errorHandlers, conflictSettings,
                         resolvedData));
         return writer;
     }
@@ -153,4 +130,58 @@ public class DefaultDataLoaderFactory implements IDataLoaderFactory, IBuiltInExt
         return settings;
     }
 
+    /**
+     * Turns the sync triggers back on while a conflict with a ping back is
+     * resolved. The transaction is taken from the writer nested in the
+     * {@link TransformWriter} unless a writer is set.
+     */
+    protected static class PingBackConflictResolver extends DefaultTransformWriterConflictResolver {
+
+        protected String sourceNodeId;
+
+        protected ISymmetricDialect symmetricDialect;
+
+        protected DefaultDatabaseWriter writer;
+
+        public PingBackConflictResolver(String sourceNodeId, ISymmetricDialect symmetricDialect,
+                TransformWriter transformWriter) {
+            super(transformWriter);
+            this.sourceNodeId = sourceNodeId;
+            this.symmetricDialect = symmetricDialect;
+        }
+
+        public void setWriter(DefaultDatabaseWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        protected void beforeResolutionAttempt(Conflict conflict) {
+            if (conflict.getPingBack() != PingBack.OFF) {
+                ISqlTransaction transaction = getTransaction();
+                if (transaction != null) {
+                    symmetricDialect.enableSyncTriggers(transaction);
+                }
+            }
+        }
+
+        @Override
+        protected void afterResolutionAttempt(Conflict conflict) {
+            if (conflict.getPingBack() == PingBack.SINGLE_ROW) {
+                ISqlTransaction transaction = getTransaction();
+                if (transaction != null) {
+                    symmetricDialect.disableSyncTriggers(transaction, sourceNodeId);
+                }
+            }
+        }
+
+        protected ISqlTransaction getTransaction() {
+            DefaultDatabaseWriter writer = this.writer;
+            if (writer == null) {
+                writer = transformWriter.getNestedWriterOfType(DefaultDatabaseWriter.class);
+            }
+            return writer != null ? writer.getTransaction() : null;
+        }
+
+    }
+
 }
@@ -0,0 +1,188 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.load;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jumpmind.db.model.Table;
+import org.jumpmind.db.platform.IDatabasePlatform;
+import org.jumpmind.symmetric.common.Constants;
+import org.jumpmind.symmetric.common.ParameterConstants;
+import org.jumpmind.symmetric.db.ISymmetricDialect;
+import org.jumpmind.symmetric.io.data.Batch;
+import org.jumpmind.symmetric.io.data.DataContext;
+import org.jumpmind.symmetric.io.data.IDataWriter;
+import org.jumpmind.symmetric.io.data.writer.Conflict;
+import org.jumpmind.symmetric.io.data.writer.DefaultDatabaseWriter;
+import org.jumpmind.symmetric.io.data.writer.IDatabaseWriterErrorHandler;
+import org.jumpmind.symmetric.io.data.writer.IDatabaseWriterFilter;
+import org.jumpmind.symmetric.io.data.writer.ParallelDatabaseWriter;
+import org.jumpmind.symmetric.io.data.writer.ResolvedData;
+import org.jumpmind.symmetric.io.data.writer.TransformWriter;
+import org.jumpmind.symmetric.service.IParameterService;
+
+/**
+ * Loads batches with a {@link ParallelDatabaseWriter}. A channel opts in by
+ * setting its data loader type to <code>parallel</code>, which is meant for
+ * reload and initial load channels that carry large batches of rows.
+ * <p>
+ * A batch that fails while it is split across lanes is loaded by a single
+ * lane when it is retried.
+ * <p>
+ * The lanes of all batches run on one pool of at most
+ * dataloader.parallel.max.threads threads. A batch that starts when the pool
+ * is used up is loaded by a single lane.
+ */
+public class ParallelDataLoaderFactory extends DefaultDataLoaderFactory {
+
+    protected final static int MAX_SERIAL_BATCHES = 1000;
+
+    protected Map<String, Boolean> serialBatches = Collections
+            .synchronizedMap(new LinkedHashMap<String, Boolean>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > MAX_SERIAL_BATCHES;
+                }
+            });
+
+    protected ThreadPoolExecutor laneThreads;
+
+    public ParallelDataLoaderFactory() {
+    }
+
+    public ParallelDataLoaderFactory(IParameterService parameterService) {
+        super(parameterService);
+    }
+
+    @Override
+    public String getTypeName() {
+        return "parallel";
+    }
+
+    @Override
+    public IDataWriter getDataWriter(final String sourceNodeId,
+            final ISymmetricDialect symmetricDialect, final TransformWriter transformWriter,
+            List<IDatabaseWriterFilter> filters, List<IDatabaseWriterErrorHandler> errorHandlers,
+            List<? extends Conflict> conflictSettings, List<ResolvedData> resolvedData) {
+        final String tablePrefix = parameterService.getTablePrefix().toLowerCase() + "_";
+        return new ParallelDatabaseWriter(symmetricDialect.getPlatform(),
+                new PingBackConflictResolver(sourceNodeId, symmetricDialect, transformWriter),
+                buildDatabaseWriterSettings(filters, errorHandlers, conflictSettings, resolvedData),
+                parameterService.getInt(ParameterConstants.DATA_LOADER_PARALLEL_THREADS),
+                parameterService.getLong(ParameterConstants.DATA_LOADER_PARALLEL_WAIT_TIMEOUT_MS),
+                getLaneThreads()) {
+
+            @Override
+            protected boolean isParallelApplyEnabled(Batch batch) {
+                return super.isParallelApplyEnabled(batch)
+                        && !serialBatches.containsKey(batch.getNodeBatchId());
+            }
+
+            @Override
+            protected boolean isParallelApplyEnabled(Table table) {
+                return !table.getName().toLowerCase().startsWith(tablePrefix);
+            }
+
+            @Override
+            protected void parallelApplyFailed(Batch batch) {
+                serialBatches.put(batch.getNodeBatchId(), Boolean.TRUE);
+            }
+
+            @Override
+            protected void initWorkerContext(DataContext context, DataContext workerContext) {
+                super.initWorkerContext(context, workerContext);
+                for (String key : new String[] { Constants.DATA_CONTEXT_ENGINE,
+                        Constants.DATA_CONTEXT_SOURCE_NODE, Constants.DATA_CONTEXT_TARGET_NODE }) {
+                    workerContext.put(key, context.get(key));
+                }
+            }
+
+            @Override
+            protected DefaultDatabaseWriter createWorkerWriter() {
+                /*
+                 * A conflict can transform the row again. The lane does that
+                 * on its own copy of the transform writer because the one
+                 * this writer is nested in is changed by the loading thread
+                 */
+                PingBackConflictResolver conflictResolver = new PingBackConflictResolver(
+                        sourceNodeId, symmetricDialect, transformWriter.copy());
+                DefaultDatabaseWriter writer = new WorkerDatabaseWriter(platform,
+                        conflictResolver, writerSettings) {
+                    @Override
+                    public void open(DataContext context) {
+                        super.open(context);
+                        symmetricDialect.disableSyncTriggers(transaction, sourceNodeId);
+                    }
+
+                    @Override
+                    public void close() {
+                        if (transaction != null) {
+                            symmetricDialect.enableSyncTriggers(transaction);
+                        }
+                        super.close();
+                    }
+                };
+                conflictResolver.setWriter(writer);
+                return writer;
+            }
+        };
+    }
+
+    protected synchronized ExecutorService getLaneThreads() {
+        if (laneThreads == null) {
+            laneThreads = new ThreadPoolExecutor(0,
+                    Math.max(1, parameterService.getInt(ParameterConstants.DATA_LOADER_PARALLEL_MAX_THREADS)),
+                    60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                        final AtomicInteger threadNumber = new AtomicInteger(1);
+                        final String namePrefix = parameterService.getEngineName().toLowerCase()
+                                + "-data-load-lane-";
+
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r);
+                            t.setName(namePrefix + threadNumber.getAndIncrement());
+                            t.setDaemon(false);
+                            if (t.getPriority() != Thread.NORM_PRIORITY) {
+                                t.setPriority(Thread.NORM_PRIORITY);
+                            }
+                            return t;
+                        }
+                    });
+        }
+        return laneThreads;
+    }
+
+    @Override
+    public boolean isPlatformSupported(IDatabasePlatform platform) {
+        return true;
+    }
+
+}
@@ -245,6 +245,8 @@ public class ProcessInfo implements Serializable, Comparable<ProcessInfo>, Clone
                 return null;
             case EXTRACT_FOR_PUSH:
                 return key.getTargetNodeId();
+            case EXTRACT_AHEAD:
+                return key.getTargetNodeId();
             case PULL_JOB:
                 return key.getSourceNodeId();
             case LOAD_FROM_PUSH:
@@ -1,7 +1,7 @@
 package org.jumpmind.symmetric.model;
 
 public enum ProcessType {
-    ANY, EXTRACT_FOR_PUSH, TRANSFER_TO, TRANSFER_FROM, PULL_JOB, LOAD_FROM_PUSH, PULL_HANDLER, REST_PULL_HANLDER, ROUTER_JOB, INSERT_LOAD_EVENTS, GAP_DETECT, ROUTER_READER, MANUAL_LOAD, FILE_SYNC_PULL_JOB, FILE_SYNC_PUSH_JOB, FILE_SYNC_PULL_HANDLER, FILE_SYNC_PUSH_HANDLER, INITIAL_LOAD_EXTRACT_JOB;
+    ANY, EXTRACT_FOR_PUSH, TRANSFER_TO, TRANSFER_FROM, PULL_JOB, LOAD_FROM_PUSH, PULL_HANDLER, REST_PULL_HANLDER, ROUTER_JOB, INSERT_LOAD_EVENTS, GAP_DETECT, ROUTER_READER, MANUAL_LOAD, FILE_SYNC_PULL_JOB, FILE_SYNC_PUSH_JOB, FILE_SYNC_PULL_HANDLER, FILE_SYNC_PUSH_HANDLER, INITIAL_LOAD_EXTRACT_JOB, PURGE, EXTRACT_AHEAD;
 
     public String toString() {
         switch (this) {
@@ -41,6 +41,10 @@ public enum ProcessType {
                 return "Inserting Load Events";
             case INITIAL_LOAD_EXTRACT_JOB:
                 return "Initial Load Extractor";
+            case PURGE:
+                return "Purge";
+            case EXTRACT_AHEAD:
+                return "Extract Ahead";
             default:
                 return name();
         }
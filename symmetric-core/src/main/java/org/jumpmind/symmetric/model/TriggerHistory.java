@@ -87,6 +87,13 @@ public class TriggerHistory implements Serializable {
      */
     private long triggerTemplateHash;
 
+    /**
+     * This is a fingerprint of the table structure read with bulk catalog
+     * queries. It is used to skip tables that have not changed when
+     * synchronizing triggers. Zero means the fingerprint is not known.
+     */
+    private long tableFingerprint;
+
     private TriggerReBuildReason lastTriggerBuildReason;
 
     public TriggerHistory() {
@@ -184,6 +191,14 @@ public class TriggerHistory implements Serializable {
         this.tableHash = tableHash;
     }
 
+    public long getTableFingerprint() {
+        return tableFingerprint;
+    }
+
+    public void setTableFingerprint(long tableFingerprint) {
+        this.tableFingerprint = tableFingerprint;
+    }
+
     public String getFullyQualifiedSourceTableName() {
         return Table.getFullyQualifiedTableName(sourceCatalogName, sourceSchemaName, sourceTableName);
     }
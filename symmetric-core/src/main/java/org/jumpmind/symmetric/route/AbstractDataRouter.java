@@ -43,7 +43,7 @@ import org.slf4j.LoggerFactory;
  */
 public abstract class AbstractDataRouter implements IDataRouter {
 
-    private static final String OLD_ = "OLD_";
+    protected static final String OLD_ = "OLD_";
 
     protected Logger log = LoggerFactory.getLogger(getClass());
 
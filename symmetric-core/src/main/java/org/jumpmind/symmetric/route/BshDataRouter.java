@@ -22,19 +22,29 @@ package org.jumpmind.symmetric.route;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.lang.StringUtils;
 import org.jumpmind.extension.IBuiltInExtensionPoint;
 import org.jumpmind.symmetric.ISymmetricEngine;
+import org.jumpmind.symmetric.db.ISymmetricDialect;
+import org.jumpmind.symmetric.io.data.DataEventType;
 import org.jumpmind.symmetric.model.DataMetaData;
 import org.jumpmind.symmetric.model.Node;
+import org.jumpmind.symmetric.model.TriggerHistory;
 import org.jumpmind.symmetric.model.TriggerRouter;
 
+import bsh.BshMethod;
 import bsh.EvalError;
 import bsh.Interpreter;
+import bsh.NameSpace;
+import bsh.Primitive;
 import bsh.TargetError;
+import bsh.UtilEvalError;
 
 /**
  * This data router is invoked when the router_type is 'bsh'. The
@@ -47,6 +57,16 @@ import bsh.TargetError;
  * using upper case. Also bound to the interpreter is a {@link Collection} of
  * targetNodes. The script is expected to add the the list of target nodes a
  * list of the node_ids that should be routed to.
+ * <P/>
+ * The first row that uses a router expression is evaluated directly on the
+ * interpreter. If that evaluation declares no new variables or methods, the
+ * expression is declared as a scripted method on the interpreter of each
+ * routing context so that it is parsed once per context, not once per row.
+ * Expressions that do declare variables or methods keep being evaluated
+ * directly so that state they keep between rows is not made local to a
+ * method. A script that only declares its state on some rows should declare
+ * it on every row (for example with <code>if (count == void) { count = 0; }</code>)
+ * to be detected.
  */
 public class BshDataRouter extends AbstractDataRouter implements IBuiltInExtensionPoint {
 
@@ -54,6 +74,19 @@ public class BshDataRouter extends AbstractDataRouter implements IBuiltInExtensi
 
     final String INTERPRETER_KEY = String.format("%d.BshInterpreter", hashCode());
 
+    final String METHODS_KEY = String.format("%d.BshMethods", hashCode());
+
+    final String COLUMN_NAMES_KEY = String.format("%d.BshColumnNames", hashCode());
+
+    final String NODE_IDS_KEY = String.format("%d.BshNodeIds", hashCode());
+
+    /**
+     * Whether an expression declared variables or methods when it was first
+     * evaluated. This is a property of the script, so it is kept for the life
+     * of the router instead of for a single routing context.
+     */
+    protected Map<String, Boolean> keepsState = new ConcurrentHashMap<String, Boolean>();
+
     public BshDataRouter(ISymmetricEngine engine) {
         this.engine = engine;
     }
@@ -64,13 +97,20 @@ public class BshDataRouter extends AbstractDataRouter implements IBuiltInExtensi
         try {
             long ts = System.currentTimeMillis();
             Interpreter interpreter = getInterpreter(context);
+            String expression = dataMetaData.getRouter().getRouterExpression();
+            BshMethod method = getMethod(context, interpreter, expression);
             context.incrementStat(System.currentTimeMillis() - ts, "bsh.init.ms");
             HashSet<String> targetNodes = new HashSet<String>();
             ts = System.currentTimeMillis();
-            bind(interpreter, dataMetaData, nodes, targetNodes, initialLoad);
+            bind(context, interpreter, dataMetaData, nodes, targetNodes, initialLoad);
             context.incrementStat(System.currentTimeMillis() - ts, "bsh.bind.ms");
             ts = System.currentTimeMillis();
-            Object returnValue = interpreter.eval(dataMetaData.getRouter().getRouterExpression());
+            Object returnValue = null;
+            if (method != null) {
+                returnValue = Primitive.unwrap(method.invoke(new Object[0], interpreter));
+            } else {
+                returnValue = evalExpression(interpreter, expression);
+            }
             context.incrementStat(System.currentTimeMillis() - ts, "bsh.eval.ms");
             return eval(returnValue, nodes, targetNodes);
         } catch (EvalError e) {            
@@ -87,15 +127,78 @@ public class BshDataRouter extends AbstractDataRouter implements IBuiltInExtensi
         }
     }
 
-    protected Interpreter getInterpreter(SimpleRouterContext context) {
+    protected Interpreter getInterpreter(SimpleRouterContext context) throws EvalError {
         Interpreter interpreter = (Interpreter) context.getContextCache().get(INTERPRETER_KEY);
         if (interpreter == null) {
             interpreter = new Interpreter();
+            interpreter.set("log", log);
+            interpreter.set("engine", engine);
+            interpreter.set("identityNodeId", engine.getNodeService().findIdentityNodeId());
             context.getContextCache().put(INTERPRETER_KEY, interpreter);
         }
         return interpreter;
     }
 
+    /**
+     * Evaluate the router expression directly on the interpreter. The first
+     * time an expression is evaluated, the variables and methods of the
+     * interpreter are compared before and after to find out if the script
+     * keeps state between rows.
+     */
+    protected Object evalExpression(Interpreter interpreter, String expression)
+            throws EvalError {
+        if (keepsState.containsKey(expression)) {
+            return interpreter.eval(expression);
+        }
+        NameSpace nameSpace = interpreter.getNameSpace();
+        int variableCount = nameSpace.getVariableNames().length;
+        int methodCount = nameSpace.getMethodNames().length;
+        Object returnValue = interpreter.eval(expression);
+        keepsState.put(expression, nameSpace.getVariableNames().length > variableCount
+                || nameSpace.getMethodNames().length > methodCount);
+        return returnValue;
+    }
+
+    /**
+     * Declare the router expression as a method on the interpreter so the
+     * parsed script can be invoked for each row. The body keeps the same
+     * semantics as evaluating the expression: the value of the last statement
+     * is returned unless the script returns explicitly. Null is returned, and
+     * the expression is evaluated directly, if the expression has not been
+     * evaluated yet, if it keeps state between rows or if it cannot be
+     * declared as a method.
+     */
+    protected BshMethod getMethod(SimpleRouterContext context, Interpreter interpreter,
+            String expression) {
+        @SuppressWarnings("unchecked")
+        Map<String, BshMethod> methods = (Map<String, BshMethod>) context.getContextCache().get(
+                METHODS_KEY);
+        if (methods == null) {
+            methods = new HashMap<String, BshMethod>();
+            context.getContextCache().put(METHODS_KEY, methods);
+        }
+
+        Boolean stateful = keepsState.get(expression);
+        if (stateful == null || stateful) {
+            return null;
+        }
+
+        if (!methods.containsKey(expression)) {
+            String methodName = "routerExpression" + methods.size();
+            BshMethod method = null;
+            try {
+                interpreter.eval(methodName + "() {\n" + expression + "\n;\n}");
+                method = interpreter.getNameSpace().getMethod(methodName, new Class<?>[0]);
+            } catch (EvalError e) {
+                log.debug("Could not declare router expression as a method.  It will be evaluated for each row.  {}", e.getMessage());
+            } catch (UtilEvalError e) {
+                log.debug("Could not declare router expression as a method.  It will be evaluated for each row.  {}", e.getMessage());
+            }
+            methods.put(expression, method);
+        }
+        return methods.get(expression);
+    }
+
     protected Set<String> eval(Object value, Set<Node> nodes, Set<String> targetNodes) {
         targetNodes.remove(null);
         if (targetNodes.size() > 0) {
@@ -120,21 +223,161 @@ public class BshDataRouter extends AbstractDataRouter implements IBuiltInExtensi
         }
     }
 
-    protected void bind(Interpreter interpreter, DataMetaData dataMetaData, Set<Node> nodes,
-            Set<String> targetNodes, boolean initialLoad) throws EvalError {
-        interpreter.set("log", log);
+    protected void bind(SimpleRouterContext context, Interpreter interpreter,
+            DataMetaData dataMetaData, Set<Node> nodes, Set<String> targetNodes,
+            boolean initialLoad) throws EvalError {
         interpreter.set("initialLoad", initialLoad);
         interpreter.set("dataMetaData", dataMetaData);
         interpreter.set("nodes", nodes);
-        interpreter.set("nodeIds", toNodeIds(nodes, null));
-        interpreter.set("identityNodeId", engine.getNodeService().findIdentityNodeId());
+        interpreter.set("nodeIds", new HashSet<String>(getNodeIds(context, nodes)));
         interpreter.set("targetNodes", targetNodes);
-        interpreter.set("engine", engine);
-        Map<String, Object> params = getDataObjectMap(dataMetaData, engine.getSymmetricDialect(),
-                true);
-        if (params != null) {
-            for (String param : params.keySet()) {
-                interpreter.set(param, params.get(param));
+        bindColumns(interpreter, dataMetaData, getColumnNames(context, dataMetaData));
+    }
+
+    /**
+     * The node ids for the set of nodes that was last routed to. The sets of
+     * available nodes are cached for a routing context, so this is usually
+     * only built once per trigger router.
+     */
+    protected Set<String> getNodeIds(SimpleRouterContext context, Set<Node> nodes) {
+        Object[] nodeIds = (Object[]) context.getContextCache().get(NODE_IDS_KEY);
+        if (nodeIds == null || nodeIds[0] != nodes) {
+            nodeIds = new Object[] { nodes, toNodeIds(nodes, null) };
+            context.getContextCache().put(NODE_IDS_KEY, nodeIds);
+        }
+        @SuppressWarnings("unchecked")
+        Set<String> ids = (Set<String>) nodeIds[1];
+        return ids;
+    }
+
+    protected ColumnNames getColumnNames(SimpleRouterContext context, DataMetaData dataMetaData) {
+        @SuppressWarnings("unchecked")
+        Map<Integer, ColumnNames> columnNamesByHistoryId = (Map<Integer, ColumnNames>) context
+                .getContextCache().get(COLUMN_NAMES_KEY);
+        if (columnNamesByHistoryId == null) {
+            columnNamesByHistoryId = new HashMap<Integer, ColumnNames>();
+            context.getContextCache().put(COLUMN_NAMES_KEY, columnNamesByHistoryId);
+        }
+        TriggerHistory triggerHistory = dataMetaData.getTriggerHistory();
+        ColumnNames columnNames = columnNamesByHistoryId.get(triggerHistory.getTriggerHistoryId());
+        if (columnNames == null) {
+            columnNames = new ColumnNames(triggerHistory);
+            columnNamesByHistoryId.put(triggerHistory.getTriggerHistoryId(), columnNames);
+        }
+        return columnNames;
+    }
+
+    /**
+     * Binds the same variables as {@link #getDataObjectMap(DataMetaData, ISymmetricDialect, boolean)}
+     * would return, without building a map for each row.
+     */
+    protected void bindColumns(Interpreter interpreter, DataMetaData dataMetaData,
+            ColumnNames columnNames) throws EvalError {
+        ISymmetricDialect symmetricDialect = engine.getSymmetricDialect();
+        DataEventType dml = dataMetaData.getData().getDataEventType();
+        boolean bound = false;
+        switch (dml) {
+            case UPDATE:
+                bound = bindValues(interpreter, dataMetaData, symmetricDialect,
+                        columnNames.columnNames, columnNames.upperCaseNames, dataMetaData
+                                .getData().toParsedRowData());
+                bound |= bindValues(interpreter, dataMetaData, symmetricDialect,
+                        columnNames.columnNames, columnNames.oldNames, dataMetaData.getData()
+                                .toParsedOldData());
+                break;
+            case INSERT:
+                bound = bindValues(interpreter, dataMetaData, symmetricDialect,
+                        columnNames.columnNames, columnNames.upperCaseNames, dataMetaData
+                                .getData().toParsedRowData());
+                for (int i = 0; i < columnNames.oldNames.length; i++) {
+                    interpreter.set(columnNames.oldNames[i], null);
+                    interpreter.set(columnNames.oldCapturedCaseNames[i], null);
+                }
+                bound |= columnNames.oldNames.length > 0;
+                break;
+            case DELETE:
+                String[] oldData = dataMetaData.getData().toParsedOldData();
+                bound = bindValues(interpreter, dataMetaData, symmetricDialect,
+                        columnNames.columnNames, columnNames.upperCaseNames, oldData);
+                bound |= bindValues(interpreter, dataMetaData, symmetricDialect,
+                        columnNames.columnNames, columnNames.oldNames, oldData);
+                if (!bound) {
+                    bound = bindValues(interpreter, dataMetaData, symmetricDialect,
+                            columnNames.pkColumnNames, columnNames.upperCasePkNames,
+                            dataMetaData.getData().toParsedPkData());
+                }
+                break;
+            default:
+                if (StringUtils.isNotBlank(dataMetaData.getData().getExternalData())) {
+                    interpreter.set("EXTERNAL_DATA", dataMetaData.getData().getExternalData());
+                }
+                return;
+        }
+
+        if (!bound) {
+            String[] pkData = dataMetaData.getData().toParsedPkData();
+            if (pkData != null) {
+                testColumnNamesMatchValues(dataMetaData, symmetricDialect,
+                        columnNames.pkColumnNames, pkData);
+                for (int i = 0; i < columnNames.upperCasePkNames.length; i++) {
+                    interpreter.set(columnNames.upperCasePkNames[i], pkData[i]);
+                }
+            }
+        }
+
+        String externalData = dataMetaData.getData().getExternalData();
+        interpreter.set("EXTERNAL_DATA", StringUtils.isNotBlank(externalData) ? externalData : null);
+    }
+
+    protected boolean bindValues(Interpreter interpreter, DataMetaData dataMetaData,
+            ISymmetricDialect symmetricDialect, String[] columnNames, String[] variableNames,
+            String[] rowData) throws EvalError {
+        if (rowData != null && columnNames.length > 0) {
+            Object[] objects = symmetricDialect.getPlatform().getObjectValues(
+                    symmetricDialect.getBinaryEncoding(), dataMetaData.getTable(), columnNames,
+                    rowData);
+            testColumnNamesMatchValues(dataMetaData, symmetricDialect, columnNames, objects);
+            for (int i = 0; i < variableNames.length; i++) {
+                interpreter.set(variableNames[i], objects[i]);
+            }
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * The variable names that column values are bound to for one version of a
+     * trigger.
+     */
+    static class ColumnNames {
+
+        String[] columnNames;
+
+        String[] upperCaseNames;
+
+        String[] oldNames;
+
+        String[] oldCapturedCaseNames;
+
+        String[] pkColumnNames;
+
+        String[] upperCasePkNames;
+
+        ColumnNames(TriggerHistory triggerHistory) {
+            columnNames = triggerHistory.getParsedColumnNames();
+            upperCaseNames = new String[columnNames.length];
+            oldNames = new String[columnNames.length];
+            oldCapturedCaseNames = new String[columnNames.length];
+            for (int i = 0; i < columnNames.length; i++) {
+                upperCaseNames[i] = columnNames[i].toUpperCase();
+                oldNames[i] = OLD_ + upperCaseNames[i];
+                oldCapturedCaseNames[i] = OLD_ + columnNames[i];
+            }
+            pkColumnNames = triggerHistory.getParsedPkColumnNames();
+            upperCasePkNames = new String[pkColumnNames.length];
+            for (int i = 0; i < pkColumnNames.length; i++) {
+                upperCasePkNames[i] = pkColumnNames[i].toUpperCase();
             }
         }
     }
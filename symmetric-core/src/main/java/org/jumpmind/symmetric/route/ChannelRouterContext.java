@@ -24,8 +24,11 @@ import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -72,6 +75,13 @@ public class ChannelRouterContext extends SimpleRouterContext {
     private long peekAheadFillCount;
     private long maxPeekAheadQueueSize;
     private List<DataGap> dataGaps = new ArrayList<DataGap>();
+    private IDataToRouteReader dataReader;
+    private LinkedList<Data> peekAheadData = new LinkedList<Data>();
+    private boolean endOfData = false;
+    private boolean trackDataIds = false;
+    private long[] dataIds;
+    private int dataIdCount;
+    private int committedDataIdCount;
     private Set<String> transactions = new HashSet<String>();
 
     public ChannelRouterContext(String nodeId, NodeChannel channel, ISqlTransaction transaction)
@@ -81,6 +91,48 @@ public class ChannelRouterContext extends SimpleRouterContext {
         this.sqlTransaction.setInBatchMode(true);
     }
 
+    public void setDataReader(IDataToRouteReader dataReader) {
+        this.dataReader = dataReader;
+    }
+
+    /**
+     * Take the next {@link Data} to route from the data reader. Data that was
+     * already peeked at is returned first.
+     * 
+     * @return null when there is no more data to route
+     */
+    public Data takeData() throws InterruptedException {
+        if (peekAheadData.size() > 0) {
+            return peekAheadData.removeFirst();
+        } else if (!endOfData && dataReader != null) {
+            Data data = dataReader.take();
+            endOfData = data == null;
+            return data;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Look at the data that will be routed next without taking it. Used by
+     * routers that can route a number of rows with one query.
+     * 
+     * @return up to count rows of data. Fewer are returned when the reader
+     *         runs out of data.
+     */
+    public List<Data> peekAheadData(int count) throws InterruptedException {
+        while (peekAheadData.size() < count && !endOfData && dataReader != null) {
+            Data data = dataReader.take();
+            if (data != null) {
+                peekAheadData.add(data);
+            } else {
+                endOfData = true;
+            }
+        }
+        return Collections.unmodifiableList(peekAheadData.subList(0,
+                Math.min(count, peekAheadData.size())));
+    }
+
     public List<DataEvent> getDataEventList() {
         return dataEventsToSend;
     }
@@ -91,6 +143,34 @@ public class ChannelRouterContext extends SimpleRouterContext {
 
     public void addDataEvent(long dataId, long batchId, String routerId) {
         dataEventsToSend.add(new DataEvent(dataId, batchId, routerId));
+        if (trackDataIds && (dataIdCount == 0 || dataIds[dataIdCount - 1] != dataId)) {
+            if (dataIds == null) {
+                dataIds = new long[256];
+            } else if (dataIdCount == dataIds.length) {
+                dataIds = Arrays.copyOf(dataIds, dataIdCount * 2);
+            }
+            dataIds[dataIdCount++] = dataId;
+        }
+    }
+
+    /**
+     * Only collect the ids of routed data when the gap detector keeps track of
+     * them.
+     */
+    public void setTrackDataIds(boolean trackDataIds) {
+        this.trackDataIds = trackDataIds;
+    }
+
+    public boolean isTrackDataIds() {
+        return trackDataIds;
+    }
+
+    /**
+     * @return the ids of data that had data events committed by this context.
+     *         Empty unless data ids are being tracked.
+     */
+    public long[] getDataIds() {
+        return dataIds == null ? new long[0] : Arrays.copyOf(dataIds, committedDataIdCount);
     }
 
     public Map<String, OutgoingBatch> getBatchesByNodes() {
@@ -104,6 +184,7 @@ public class ChannelRouterContext extends SimpleRouterContext {
     public void commit() {
         try {
             sqlTransaction.commit();
+            committedDataIdCount = dataIdCount;
         } finally {
             clearState();
         }
@@ -116,6 +197,7 @@ public class ChannelRouterContext extends SimpleRouterContext {
         this.batchesByNodes.clear();
         this.availableNodes.clear();
         this.dataEventsToSend.clear();
+        this.dataIdCount = this.committedDataIdCount;
     }
 
     public void rollback() {
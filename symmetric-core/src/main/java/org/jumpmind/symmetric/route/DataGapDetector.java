@@ -77,9 +77,10 @@ public class DataGapDetector {
     
     /**
      * Always make sure sym_data_gap is up to date to make sure that we don't
-     * dual route data.
+     * dual route data.  Synchronized because channels that are routed in
+     * parallel may each request gap detection.
      */
-    public void beforeRouting() {
+    synchronized public void beforeRouting() {
         long printStats = System.currentTimeMillis();
         ProcessInfo processInfo = this.statisticManager.newProcessInfo(new ProcessInfoKey(
                 nodeService.findIdentityNodeId(), null, ProcessType.GAP_DETECT));
@@ -227,6 +228,41 @@ public class DataGapDetector {
 
     }
 
+    /**
+     * Called after all channels have been routed.
+     */
+    public void afterRouting() {
+    }
+
+    /**
+     * @return true if this detector needs the ids of routed data passed to
+     *         {@link #addDataIds(long[])}
+     */
+    public boolean isTrackingDataIds() {
+        return false;
+    }
+
+    /**
+     * Record data ids that have data events committed for them. Used by
+     * detectors that keep track of gaps between routing runs.
+     */
+    public void addDataIds(long[] dataIds) {
+    }
+
+    /**
+     * @return the current list of gaps if they are being tracked in memory.
+     *         null if the gaps need to be read from the database.
+     */
+    public List<DataGap> getDataGaps() {
+        return null;
+    }
+
+    /**
+     * Request that the next detection check all gaps against the database.
+     */
+    public void setFullGapAnalysis(boolean fullGapAnalysis) {
+    }
+
     protected boolean isDataGapExpired(long dataId, long databaseTime) {
         long gapTimoutInMs = parameterService
                 .getLong(ParameterConstants.ROUTING_STALE_DATA_ID_GAP_TIME);
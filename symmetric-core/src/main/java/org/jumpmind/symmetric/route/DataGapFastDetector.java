@@ -0,0 +1,308 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.route;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.jumpmind.db.sql.ISqlTransaction;
+import org.jumpmind.symmetric.common.ParameterConstants;
+import org.jumpmind.symmetric.db.ISymmetricDialect;
+import org.jumpmind.symmetric.model.DataGap;
+import org.jumpmind.symmetric.model.ProcessInfo;
+import org.jumpmind.symmetric.model.ProcessInfo.Status;
+import org.jumpmind.symmetric.model.ProcessInfoKey;
+import org.jumpmind.symmetric.model.ProcessType;
+import org.jumpmind.symmetric.service.IDataService;
+import org.jumpmind.symmetric.service.INodeService;
+import org.jumpmind.symmetric.service.IParameterService;
+import org.jumpmind.symmetric.service.IRouterService;
+import org.jumpmind.symmetric.statistic.IStatisticManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link DataGapDetector} that keeps the list of gaps in memory between
+ * routing runs. The data ids that have data events committed for them are
+ * handed to the detector by the router, so gaps can be updated without
+ * querying sym_data_event. Only the gaps that changed are written back to
+ * sym_data_gap. All gaps are checked against the database at startup and
+ * whenever a full analysis is requested.
+ */
+public class DataGapFastDetector extends DataGapDetector {
+
+    private static final Logger log = LoggerFactory.getLogger(DataGapFastDetector.class);
+
+    protected List<DataGap> gaps;
+
+    protected long[] dataIds = new long[0];
+
+    protected int dataIdCount;
+
+    protected final Object dataIdsLock = new Object();
+
+    protected boolean fullGapAnalysis = true;
+
+    public DataGapFastDetector(IDataService dataService, IParameterService parameterService,
+            ISymmetricDialect symmetricDialect, IRouterService routerService,
+            IStatisticManager statisticManager, INodeService nodeService) {
+        super(dataService, parameterService, symmetricDialect, routerService, statisticManager,
+                nodeService);
+    }
+
+    @Override
+    synchronized public void beforeRouting() {
+        if (fullGapAnalysis || gaps == null || gaps.size() == 0) {
+            try {
+                super.beforeRouting();
+                gaps = dataService.findDataGaps();
+                fullGapAnalysis = false;
+            } catch (RuntimeException ex) {
+                gaps = null;
+                throw ex;
+            }
+        } else {
+            fixGaps();
+        }
+    }
+
+    @Override
+    synchronized public void afterRouting() {
+        if (gaps != null) {
+            fixGaps();
+        }
+    }
+
+    @Override
+    public boolean isTrackingDataIds() {
+        return true;
+    }
+
+    @Override
+    public void addDataIds(long[] dataIds) {
+        if (dataIds != null && dataIds.length > 0) {
+            synchronized (dataIdsLock) {
+                if (dataIdCount + dataIds.length > this.dataIds.length) {
+                    this.dataIds = Arrays.copyOf(this.dataIds,
+                            Math.max(dataIdCount + dataIds.length, this.dataIds.length * 2));
+                }
+                System.arraycopy(dataIds, 0, this.dataIds, dataIdCount, dataIds.length);
+                dataIdCount += dataIds.length;
+            }
+        }
+    }
+
+    @Override
+    synchronized public List<DataGap> getDataGaps() {
+        return gaps == null ? null : new ArrayList<DataGap>(gaps);
+    }
+
+    @Override
+    synchronized public void setFullGapAnalysis(boolean fullGapAnalysis) {
+        this.fullGapAnalysis = fullGapAnalysis;
+    }
+
+    synchronized public boolean isFullGapAnalysis() {
+        return fullGapAnalysis;
+    }
+
+    /**
+     * Split the in memory gaps using the data ids that have been routed since
+     * the last time gaps were fixed, then save the differences.
+     */
+    protected void fixGaps() {
+        long[] ids = null;
+        synchronized (dataIdsLock) {
+            ids = Arrays.copyOf(dataIds, dataIdCount);
+            dataIds = new long[0];
+            dataIdCount = 0;
+        }
+
+        ProcessInfo processInfo = this.statisticManager.newProcessInfo(new ProcessInfoKey(
+                nodeService.findIdentityNodeId(), null, ProcessType.GAP_DETECT));
+        try {
+            long ts = System.currentTimeMillis();
+            processInfo.setStatus(Status.PROCESSING);
+            Arrays.sort(ids);
+
+            final int dataIdIncrementBy = parameterService
+                    .getInt(ParameterConstants.DATA_ID_INCREMENT_BY);
+            final long maxDataToSelect = parameterService
+                    .getInt(ParameterConstants.ROUTING_LARGEST_GAP_SIZE);
+
+            List<DataGap> gapsToDelete = new ArrayList<DataGap>();
+            List<DataGap> gapsToInsert = new ArrayList<DataGap>();
+            List<DataGap> newGaps = new ArrayList<DataGap>(gaps.size());
+            long lastDataId = -1;
+            int index = 0;
+            for (int i = 0; i < gaps.size(); i++) {
+                final DataGap dataGap = gaps.get(i);
+                final boolean lastGap = i == gaps.size() - 1;
+                List<DataGap> splitGaps = new ArrayList<DataGap>();
+                lastDataId = -1;
+
+                while (index < ids.length && ids[index] < dataGap.getStartId()) {
+                    index++;
+                }
+
+                while (index < ids.length && ids[index] <= dataGap.getEndId()) {
+                    long dataId = ids[index++];
+                    processInfo.incrementCurrentDataCount();
+                    if (lastDataId == -1 && dataGap.getStartId() + dataIdIncrementBy <= dataId) {
+                        // there was a new gap at the start
+                        splitGaps.add(new DataGap(dataGap.getStartId(), dataId - 1));
+                    } else if (lastDataId != -1 && lastDataId + dataIdIncrementBy != dataId
+                            && lastDataId != dataId) {
+                        // found a gap somewhere in the existing gap
+                        splitGaps.add(new DataGap(lastDataId + 1, dataId - 1));
+                    }
+                    lastDataId = dataId;
+                }
+
+                /* if we found data in the gap */
+                if (lastDataId != -1) {
+                    if (!lastGap && lastDataId + dataIdIncrementBy <= dataGap.getEndId()) {
+                        splitGaps.add(new DataGap(lastDataId + dataIdIncrementBy, dataGap
+                                .getEndId()));
+                    }
+                    gapsToDelete.add(dataGap);
+                    gapsToInsert.addAll(splitGaps);
+                    newGaps.addAll(splitGaps);
+
+                /*
+                 * if we did not find data in the gap and it was not the last
+                 * gap
+                 */
+                } else if (!lastGap && isDataGapExpired(dataGap)) {
+                    gapsToDelete.add(dataGap);
+                } else {
+                    newGaps.add(dataGap);
+                }
+            }
+
+            if (lastDataId != -1) {
+                DataGap newLastGap = new DataGap(lastDataId + 1, lastDataId + maxDataToSelect);
+                gapsToInsert.add(newLastGap);
+                newGaps.add(newLastGap);
+            }
+
+            if (gapsToDelete.size() > 0 || gapsToInsert.size() > 0) {
+                saveDataGaps(gapsToDelete, gapsToInsert);
+            }
+            gaps = newGaps;
+
+            long updateTimeInMs = System.currentTimeMillis() - ts;
+            if (updateTimeInMs > 10000) {
+                log.info("Detecting gaps took {} ms", updateTimeInMs);
+            }
+            log.debug(
+                    "Fixed gaps using {} data ids.  Inserted {} new gaps and deleted {} gaps.  There are {} gaps",
+                    new Object[] { ids.length, gapsToInsert.size(), gapsToDelete.size(),
+                            gaps.size() });
+            processInfo.setStatus(Status.OK);
+        } catch (RuntimeException ex) {
+            processInfo.setStatus(Status.ERROR);
+            addDataIds(ids);
+            fullGapAnalysis = true;
+            throw ex;
+        }
+    }
+
+    protected void saveDataGaps(List<DataGap> gapsToDelete, List<DataGap> gapsToInsert) {
+        ISqlTransaction transaction = null;
+        try {
+            transaction = symmetricDialect.getPlatform().getSqlTemplate().startSqlTransaction();
+            transaction.setInBatchMode(true);
+            dataService.deleteDataGaps(transaction, gapsToDelete);
+            dataService.insertDataGaps(transaction, gapsToInsert);
+            transaction.commit();
+        } catch (Error ex) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            throw ex;
+        } catch (RuntimeException ex) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            throw ex;
+        } finally {
+            if (transaction != null) {
+                transaction.close();
+            }
+        }
+    }
+
+    /**
+     * An empty gap is skipped once it has been in memory longer than the stale
+     * gap time, or, for databases with transaction views, once there are no
+     * transactions pending that started before the gap was created. The
+     * database is only consulted for gaps that are old enough to qualify.
+     */
+    protected boolean isDataGapExpired(DataGap dataGap) {
+        Date createTime = dataGap.getCreateTime();
+        if (createTime == null) {
+            return false;
+        }
+        long gapAgeInMs = System.currentTimeMillis() - createTime.getTime();
+        boolean expired = false;
+        if (symmetricDialect.supportsTransactionViews()) {
+            long transactionViewClockSyncThresholdInMs = parameterService.getLong(
+                    ParameterConstants.DBDIALECT_ORACLE_TRANSACTION_VIEW_CLOCK_SYNC_THRESHOLD_MS,
+                    60000);
+            expired = gapAgeInMs > transactionViewClockSyncThresholdInMs
+                    && dataService.countDataInRange(dataGap.getStartId() - 1,
+                            dataGap.getEndId() + 1) == 0
+                    && !symmetricDialect.areDatabaseTransactionsPendingSince(createTime.getTime()
+                            + transactionViewClockSyncThresholdInMs);
+            if (expired) {
+                if (dataGap.getStartId() == dataGap.getEndId()) {
+                    log.info(
+                            "Found a gap in data_id at {}.  Skipping it because there are no pending transactions in the database",
+                            dataGap.getStartId());
+                } else {
+                    log.info(
+                            "Found a gap in data_id from {} to {}.  Skipping it because there are no pending transactions in the database",
+                            dataGap.getStartId(), dataGap.getEndId());
+                }
+            }
+        } else {
+            expired = gapAgeInMs > parameterService
+                    .getLong(ParameterConstants.ROUTING_STALE_DATA_ID_GAP_TIME)
+                    && dataService.countDataInRange(dataGap.getStartId() - 1,
+                            dataGap.getEndId() + 1) == 0;
+            if (expired) {
+                if (dataGap.getStartId() == dataGap.getEndId()) {
+                    log.info("Found a gap in data_id at {}.  Skipping it because the gap expired",
+                            dataGap.getStartId());
+                } else {
+                    log.info(
+                            "Found a gap in data_id from {} to {}.  Skipping it because the gap expired",
+                            dataGap.getStartId(), dataGap.getEndId());
+                }
+            }
+        }
+        return expired;
+    }
+
+}
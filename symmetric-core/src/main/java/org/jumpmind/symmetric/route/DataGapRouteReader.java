@@ -25,11 +25,11 @@ import static org.apache.commons.lang.StringUtils.isNotBlank;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -90,7 +90,7 @@ public class DataGapRouteReader implements IDataToRouteReader {
     
     protected String lastTransactionId = null;
     
-    protected static Map<String, Boolean> lastSelectUsedGreaterThanQueryByEngineName = new HashMap<String, Boolean>(); 
+    protected static Map<String, Boolean> lastSelectUsedGreaterThanQueryByEngineName = new ConcurrentHashMap<String, Boolean>(); 
 
     public DataGapRouteReader(ChannelRouterContext context, ISymmetricEngine engine) {
         this.engine = engine;
@@ -127,7 +127,7 @@ public class DataGapRouteReader implements IDataToRouteReader {
         ISqlReadCursor<Data> cursor = null;
         processInfo = engine.getStatisticManager().newProcessInfo(
                 new ProcessInfoKey(engine.getNodeService().findIdentityNodeId(), null,
-                        ProcessType.ROUTER_READER));
+                        ProcessType.ROUTER_READER, context.getChannel().getChannelId()));
         processInfo.setCurrentChannelId(context.getChannel().getChannelId());
         try {
             int lastPeekAheadIndex = 0;
@@ -265,9 +265,14 @@ public class DataGapRouteReader implements IDataToRouteReader {
         
         int maxGapsBeforeGreaterThanQuery = parameterService.getInt(ParameterConstants.ROUTING_DATA_READER_THRESHOLD_GAPS_TO_USE_GREATER_QUERY, 100);
 
-        this.dataGaps = engine.getDataService().findDataGaps();
-        if (this.dataGaps != null) {
-            context.setDataGaps(new ArrayList<DataGap>(this.dataGaps));
+        if (context.getDataGaps() != null && context.getDataGaps().size() > 0) {
+            /* the gap detector is tracking gaps in memory */
+            this.dataGaps = new ArrayList<DataGap>(context.getDataGaps());
+        } else {
+            this.dataGaps = engine.getDataService().findDataGaps();
+            if (this.dataGaps != null) {
+                context.setDataGaps(new ArrayList<DataGap>(this.dataGaps));
+            }
         }
                 
         boolean useGreaterThanDataId = false;
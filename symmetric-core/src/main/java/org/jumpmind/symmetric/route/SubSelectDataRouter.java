@@ -20,28 +20,40 @@
  */
 package org.jumpmind.symmetric.route;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang.StringUtils;
 import org.jumpmind.db.sql.ISqlTemplate;
 import org.jumpmind.db.sql.InvalidSqlException;
+import org.jumpmind.db.sql.NamedParameterUtils;
+import org.jumpmind.db.sql.ParsedSql;
+import org.jumpmind.db.sql.Row;
 import org.jumpmind.db.sql.mapper.StringMapper;
 import org.jumpmind.extension.IBuiltInExtensionPoint;
+import org.jumpmind.symmetric.common.ParameterConstants;
 import org.jumpmind.symmetric.db.ISymmetricDialect;
+import org.jumpmind.symmetric.model.Data;
 import org.jumpmind.symmetric.model.DataMetaData;
 import org.jumpmind.symmetric.model.Node;
+import org.jumpmind.symmetric.model.Router;
 import org.jumpmind.symmetric.model.TriggerRouter;
+import org.jumpmind.symmetric.service.IParameterService;
 import org.jumpmind.util.FormatUtils;
 
 /**
  * This data router is invoked when the router_type is 'subselect'. The
  * router_expression is always a SQL expression that is used to find the list of
- * nodes a row of data will be routed to. This router should never be used for
- * high throughput tables because it makes a call back to the database for each
- * row that is routed.
+ * nodes a row of data will be routed to. Unless batching or caching is
+ * enabled, this router should not be used for high throughput tables because it
+ * makes a call back to the database for each row that is routed.
  * <P/>
  * The query that is used to select the nodes is as follows:
  * <P/>
@@ -59,34 +71,59 @@ import org.jumpmind.util.FormatUtils;
  * <code>
  * c.external_id in (select home_store from employee where employee_id in (:EMPLOYEE_ID, :OLD_EMPLOYEE_ID))
  * </code>
+ * <P/>
+ * When routing.subselect.batch.size is greater than one, the rows that are
+ * read ahead for routing are resolved in chunks using one query per chunk.
+ * When routing.subselect.cache.size is greater than zero, the nodes that were
+ * selected are cached by the values that were bound to the query.
  */
 public class SubSelectDataRouter extends AbstractDataRouter implements IBuiltInExtensionPoint {
 
-    private static final String SQL = "select c.node_id from $(prefixName)_node c where c.node_group_id=:NODE_GROUP_ID and c.sync_enabled=1 and ";
+    private static final String SELECT = "select c.node_id";
+
+    private static final String SQL = SELECT + " from $(prefixName)_node c where c.node_group_id=:NODE_GROUP_ID and c.sync_enabled=1 and ";
+
+    private static final String ROW_INDEX = "router_row_index";
+
+    final String RESULTS_KEY = String.format("%d.SubSelectResults", hashCode());
 
     private ISymmetricDialect symmetricDialect;
 
+    private IParameterService parameterService;
+
+    private Map<String, ParsedSql> parsedSqlCache = new ConcurrentHashMap<String, ParsedSql>();
+
+    private Map<List<Object>, CachedNodeIds> nodeIdCache;
+
+    private int nodeIdCacheSize = -1;
+
+    private AtomicLong cacheHits = new AtomicLong();
+
+    private AtomicLong cacheMisses = new AtomicLong();
+
     public SubSelectDataRouter(ISymmetricDialect symmetricDialect) {
+        this(symmetricDialect, null);
+    }
+
+    public SubSelectDataRouter(ISymmetricDialect symmetricDialect,
+            IParameterService parameterService) {
         this.symmetricDialect = symmetricDialect;
+        this.parameterService = parameterService;
     }
 
     public Set<String> routeToNodes(SimpleRouterContext routingContext, DataMetaData dataMetaData,
             Set<Node> nodes, boolean initialLoad, boolean initialLoadSelectUsed, TriggerRouter triggerRouter) {
-        String sql = FormatUtils.replaceToken(SQL, "prefixName", symmetricDialect.getTablePrefix(),
-                true);
         String subSelect = dataMetaData.getRouter().getRouterExpression();
         Set<String> nodeIds = null;
         if (!StringUtils.isBlank(subSelect) && !initialLoadSelectUsed) {
             try {
-                Map<String, Object> sqlParams = getDataObjectMap(dataMetaData, symmetricDialect, true);
-                sqlParams.put("NODE_GROUP_ID", dataMetaData.getRouter().getNodeGroupLink()
-                        .getTargetNodeGroupId());
-                sqlParams.put("EXTERNAL_DATA", dataMetaData.getData().getExternalData());
-                ISqlTemplate template = symmetricDialect.getPlatform().getSqlTemplate();
-                List<String> ids = template.query(String.format("%s%s", sql, subSelect),
-                        new StringMapper(), sqlParams);
-                if (ids != null) {
-                    nodeIds = new HashSet<String>(ids);
+                int batchSize = parameterService != null ? parameterService.getInt(
+                        ParameterConstants.ROUTING_SUBSELECT_BATCH_SIZE, 1) : 1;
+                if (batchSize > 1 && routingContext instanceof ChannelRouterContext) {
+                    nodeIds = routeInBatch((ChannelRouterContext) routingContext, dataMetaData,
+                            triggerRouter, batchSize);
+                } else {
+                    nodeIds = route(routingContext, dataMetaData);
                 }
             } catch (InvalidSqlException ex) {
                 log.error("The subselect expression was invalid for the {} subselect router for the '{}' event for table '{}'",
@@ -103,4 +140,291 @@ public class SubSelectDataRouter extends AbstractDataRouter implements IBuiltInE
         return nodeIds;
     }
 
-}
\ No newline at end of file
+    protected Set<String> route(SimpleRouterContext routingContext, DataMetaData dataMetaData) {
+        List<Object> cacheKey = toCacheKey(getParsedSql(dataMetaData), getSqlParams(dataMetaData));
+        Set<String> nodeIds = getCachedNodeIds(routingContext, cacheKey);
+        if (nodeIds == null) {
+            ISqlTemplate template = symmetricDialect.getPlatform().getSqlTemplate();
+            List<Object> args = cacheKey.subList(1, cacheKey.size());
+            List<String> ids = template.query((String) cacheKey.get(0), new StringMapper(),
+                    args.toArray(), null);
+            if (ids != null) {
+                nodeIds = new HashSet<String>(ids);
+                putCachedNodeIds(cacheKey, nodeIds);
+            }
+        }
+        return nodeIds;
+    }
+
+    /**
+     * Resolve the nodes for this row and the rows that will be routed next for
+     * the same table with one query. The results for the rows that are read
+     * ahead are kept on the context until those rows are routed, or until they
+     * are no longer in the window of rows that are read ahead.
+     */
+    protected Set<String> routeInBatch(ChannelRouterContext routingContext,
+            DataMetaData dataMetaData, TriggerRouter triggerRouter, int batchSize) {
+        Router router = dataMetaData.getRouter();
+        Data data = dataMetaData.getData();
+        Map<Long, Map<String, Set<String>>> results = getResults(routingContext);
+        Map<String, Set<String>> resultsByRouter = results.get(data.getDataId());
+        if (resultsByRouter != null && resultsByRouter.containsKey(router.getRouterId())) {
+            Set<String> nodeIds = resultsByRouter.remove(router.getRouterId());
+            if (resultsByRouter.isEmpty()) {
+                results.remove(data.getDataId());
+            }
+            return copy(nodeIds);
+        }
+
+        List<Data> peekAheadData = null;
+        try {
+            peekAheadData = routingContext.peekAheadData(batchSize - 1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return route(routingContext, dataMetaData);
+        }
+        retainPeekAheadResults(results, data, peekAheadData);
+
+        ParsedSql parsedSql = getParsedSql(dataMetaData);
+        List<Long> dataIds = new ArrayList<Long>(batchSize);
+        List<List<Object>> argsList = new ArrayList<List<Object>>(batchSize);
+        Map<List<Object>, Integer> queryIndexByArgs = new HashMap<List<Object>, Integer>();
+        List<List<Object>> queryArgs = new ArrayList<List<Object>>();
+
+        dataIds.add(data.getDataId());
+        argsList.add(toCacheKey(parsedSql, getSqlParams(dataMetaData)));
+        for (Data nextData : peekAheadData) {
+            Map<String, Set<String>> nextResults = results.get(nextData.getDataId());
+            if (nextData.getTriggerHistory() != null
+                    && nextData.getTriggerHistory().getTriggerHistoryId() == data
+                            .getTriggerHistory().getTriggerHistoryId()
+                    && StringUtils.isBlank(nextData.getNodeList())
+                    && (triggerRouter == null || triggerRouter.isRouted(nextData
+                            .getDataEventType()))
+                    && (nextResults == null || !nextResults.containsKey(router.getRouterId()))) {
+                try {
+                    DataMetaData nextDataMetaData = new DataMetaData(nextData,
+                            dataMetaData.getTable(), router, dataMetaData.getNodeChannel());
+                    argsList.add(toCacheKey(parsedSql, getSqlParams(nextDataMetaData)));
+                    dataIds.add(nextData.getDataId());
+                } catch (RuntimeException ex) {
+                    /* the row will report its own error when it is routed */
+                    log.debug("Could not bind row {} for a batched subselect.  {}",
+                            nextData.getDataId(), ex.getMessage());
+                }
+            }
+        }
+
+        List<Set<String>> nodeIdsByRow = new ArrayList<Set<String>>(dataIds.size());
+        for (int i = 0; i < argsList.size(); i++) {
+            List<Object> cacheKey = argsList.get(i);
+            Set<String> nodeIds = getCachedNodeIds(routingContext, cacheKey);
+            nodeIdsByRow.add(nodeIds);
+            if (nodeIds == null && !queryIndexByArgs.containsKey(cacheKey)) {
+                queryIndexByArgs.put(cacheKey, queryArgs.size());
+                queryArgs.add(cacheKey);
+            }
+        }
+
+        if (queryArgs.size() > 0) {
+            List<Set<String>> queried = query(queryArgs);
+            for (int i = 0; i < argsList.size(); i++) {
+                if (nodeIdsByRow.get(i) == null) {
+                    List<Object> cacheKey = argsList.get(i);
+                    Set<String> nodeIds = queried.get(queryIndexByArgs.get(cacheKey));
+                    putCachedNodeIds(cacheKey, nodeIds);
+                    nodeIdsByRow.set(i, nodeIds);
+                }
+            }
+            routingContext.incrementStat(queryArgs.size(), "subselect.batch.rows.queried");
+        }
+
+        for (int i = 1; i < dataIds.size(); i++) {
+            Map<String, Set<String>> nextResults = results.get(dataIds.get(i));
+            if (nextResults == null) {
+                nextResults = new HashMap<String, Set<String>>();
+                results.put(dataIds.get(i), nextResults);
+            }
+            nextResults.put(router.getRouterId(), nodeIdsByRow.get(i));
+        }
+        return copy(nodeIdsByRow.get(0));
+    }
+
+    /**
+     * Drop the results for rows that were taken from the context without being
+     * routed by this router, for example because they were not routed to it.
+     * Only the results for the row being routed and the rows that are still
+     * read ahead are kept, so the results never grow past the peek window.
+     */
+    protected void retainPeekAheadResults(Map<Long, Map<String, Set<String>>> results,
+            Data data, List<Data> peekAheadData) {
+        if (results.size() > 0) {
+            Set<Long> dataIds = new HashSet<Long>(peekAheadData.size() + 1);
+            dataIds.add(data.getDataId());
+            for (Data nextData : peekAheadData) {
+                dataIds.add(nextData.getDataId());
+            }
+            results.keySet().retainAll(dataIds);
+        }
+    }
+
+    /**
+     * Run one query for all of the sets of bound values. Each select is tagged
+     * with the index of its set of values so the results can be matched up.
+     */
+    protected List<Set<String>> query(List<List<Object>> queryArgs) {
+        StringBuilder batchSql = new StringBuilder();
+        List<Object> args = new ArrayList<Object>();
+        List<Set<String>> nodeIdsByIndex = new ArrayList<Set<String>>(queryArgs.size());
+        for (int i = 0; i < queryArgs.size(); i++) {
+            if (i > 0) {
+                batchSql.append(" union all ");
+            }
+            List<Object> cacheKey = queryArgs.get(i);
+            String sql = (String) cacheKey.get(0);
+            batchSql.append(SELECT).append(", ").append(i).append(" as ").append(ROW_INDEX)
+                    .append(sql.substring(SELECT.length()));
+            args.addAll(cacheKey.subList(1, cacheKey.size()));
+            nodeIdsByIndex.add(new HashSet<String>());
+        }
+
+        ISqlTemplate template = symmetricDialect.getPlatform().getSqlTemplate();
+        List<Row> rows = template.query(batchSql.toString(), args.toArray());
+        for (Row row : rows) {
+            nodeIdsByIndex.get(row.getInt(ROW_INDEX)).add(row.getString("node_id"));
+        }
+        return nodeIdsByIndex;
+    }
+
+    protected ParsedSql getParsedSql(DataMetaData dataMetaData) {
+        String subSelect = dataMetaData.getRouter().getRouterExpression();
+        ParsedSql parsedSql = parsedSqlCache.get(subSelect);
+        if (parsedSql == null) {
+            String sql = FormatUtils.replaceToken(SQL, "prefixName",
+                    symmetricDialect.getTablePrefix(), true);
+            parsedSql = NamedParameterUtils.parseSqlStatement(String.format("%s%s", sql,
+                    subSelect));
+            parsedSqlCache.put(subSelect, parsedSql);
+        }
+        return parsedSql;
+    }
+
+    protected Map<String, Object> getSqlParams(DataMetaData dataMetaData) {
+        Map<String, Object> sqlParams = getDataObjectMap(dataMetaData, symmetricDialect, true);
+        sqlParams.put("NODE_GROUP_ID", dataMetaData.getRouter().getNodeGroupLink()
+                .getTargetNodeGroupId());
+        sqlParams.put("EXTERNAL_DATA", dataMetaData.getData().getExternalData());
+        return sqlParams;
+    }
+
+    /**
+     * The key is the sql to run followed by the values that are bound to it
+     */
+    protected List<Object> toCacheKey(ParsedSql parsedSql, Map<String, Object> sqlParams) {
+        Object[] args = NamedParameterUtils.buildValueArray(parsedSql, sqlParams);
+        List<Object> key = new ArrayList<Object>(args.length + 1);
+        key.add(NamedParameterUtils.substituteNamedParameters(parsedSql, sqlParams));
+        for (Object arg : args) {
+            key.add(arg);
+        }
+        return key;
+    }
+
+    protected Set<String> getCachedNodeIds(SimpleRouterContext routingContext,
+            List<Object> cacheKey) {
+        Map<List<Object>, CachedNodeIds> cache = getNodeIdCache();
+        if (cache != null) {
+            CachedNodeIds cached = null;
+            synchronized (cache) {
+                cached = cache.get(cacheKey);
+                if (cached != null
+                        && System.currentTimeMillis() - cached.cacheTime > parameterService
+                                .getLong(ParameterConstants.ROUTING_SUBSELECT_CACHE_TTL_MS)) {
+                    cache.remove(cacheKey);
+                    cached = null;
+                }
+            }
+
+            if (cached != null) {
+                cacheHits.incrementAndGet();
+                routingContext.incrementStat(1, "subselect.cache.hits");
+                return copy(cached.nodeIds);
+            } else {
+                cacheMisses.incrementAndGet();
+                routingContext.incrementStat(1, "subselect.cache.misses");
+            }
+        }
+        return null;
+    }
+
+    protected void putCachedNodeIds(List<Object> cacheKey, Set<String> nodeIds) {
+        Map<List<Object>, CachedNodeIds> cache = getNodeIdCache();
+        if (cache != null) {
+            synchronized (cache) {
+                cache.put(cacheKey, new CachedNodeIds(copy(nodeIds)));
+            }
+        }
+    }
+
+    /**
+     * @return the least recently used cache of node ids, or null if caching is
+     *         turned off
+     */
+    protected synchronized Map<List<Object>, CachedNodeIds> getNodeIdCache() {
+        int cacheSize = parameterService != null ? parameterService.getInt(
+                ParameterConstants.ROUTING_SUBSELECT_CACHE_SIZE, 0) : 0;
+        if (cacheSize != nodeIdCacheSize) {
+            nodeIdCacheSize = cacheSize;
+            if (cacheSize > 0) {
+                final int maxEntries = cacheSize;
+                nodeIdCache = new LinkedHashMap<List<Object>, CachedNodeIds>(16, .75f, true) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(
+                            Map.Entry<List<Object>, CachedNodeIds> eldest) {
+                        return size() > maxEntries;
+                    }
+                };
+            } else {
+                nodeIdCache = null;
+            }
+        }
+        return nodeIdCache;
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Map<Long, Map<String, Set<String>>> getResults(SimpleRouterContext routingContext) {
+        Map<Long, Map<String, Set<String>>> results = (Map<Long, Map<String, Set<String>>>) routingContext
+                .getContextCache().get(RESULTS_KEY);
+        if (results == null) {
+            results = new HashMap<Long, Map<String, Set<String>>>();
+            routingContext.getContextCache().put(RESULTS_KEY, results);
+        }
+        return results;
+    }
+
+    private static Set<String> copy(Set<String> nodeIds) {
+        return nodeIds != null ? new HashSet<String>(nodeIds) : null;
+    }
+
+    static class CachedNodeIds {
+
+        Set<String> nodeIds;
+
+        long cacheTime = System.currentTimeMillis();
+
+        CachedNodeIds(Set<String> nodeIds) {
+            this.nodeIds = nodeIds;
+        }
+    }
+
+}
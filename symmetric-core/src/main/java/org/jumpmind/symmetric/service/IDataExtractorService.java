@@ -43,6 +43,14 @@ public interface IDataExtractorService {
     
     public IStagedResource getStagedResource(OutgoingBatch currentBatch);
     
+    /**
+     * Recount the nodes that still need each staged common batch, and release
+     * the batches that no enabled node is waiting for.
+     * 
+     * @return the number of staged batches that were released
+     */
+    public int releaseStagedCommonBatches();
+    
     public void extractToStaging(ProcessInfo processInfo, Node targetNode, OutgoingBatch currentBatch);
 
     public void extractConfigurationStandalone(Node node, OutputStream out);
@@ -67,5 +75,7 @@ public interface IDataExtractorService {
     
     public void requestExtractRequest(ISqlTransaction transaction, String nodeId, TriggerRouter triggerRouter, long startBatchId, long endBatchId);
 
+    public void stop();
+
 
 }
\ No newline at end of file
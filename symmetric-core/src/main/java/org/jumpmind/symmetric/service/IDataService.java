@@ -140,6 +140,10 @@ public interface IDataService {
     public void insertDataGap(ISqlTransaction transaction, DataGap gap);
 
     public void deleteDataGap(ISqlTransaction transaction, DataGap gap);
+
+    public void insertDataGaps(ISqlTransaction transaction, List<DataGap> gaps);
+
+    public void deleteDataGaps(ISqlTransaction transaction, List<DataGap> gaps);
     
     public void deleteDataGap(DataGap gap);
     
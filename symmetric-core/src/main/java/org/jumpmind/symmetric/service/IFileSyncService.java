@@ -73,6 +73,15 @@ public interface IFileSyncService {
     public List<OutgoingBatch> sendFiles(ProcessInfo processInfo, Node node, IOutgoingTransport outgoingTransport);
     
     public void acknowledgeFiles(OutgoingBatch outgoingBatch);
+
+    /**
+     * Remove the file sync delta signatures of batches that were not
+     * acknowledged within the time to live, and of nodes and file trigger
+     * routers that no longer sync.
+     * 
+     * @return the number of files that were removed
+     */
+    public long cleanSignatures(long timeToLiveInMs);
     
     public boolean refreshFromDatabase();
 
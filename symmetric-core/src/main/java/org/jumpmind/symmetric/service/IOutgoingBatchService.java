@@ -78,6 +78,8 @@ public interface IOutgoingBatchService {
     
     public void insertOutgoingBatch(ISqlTransaction transaction, OutgoingBatch outgoingBatch);
 
+    public void insertOutgoingBatches(ISqlTransaction transaction, List<OutgoingBatch> outgoingBatches);
+
     public int countOutgoingBatchesInError();
     
     public int countOutgoingBatchesUnsent();
@@ -85,6 +87,12 @@ public interface IOutgoingBatchService {
     public int countOutgoingBatchesInError(String channelId);
     
     public int countOutgoingBatchesUnsent(String channelId);    
+
+    /**
+     * @return the number of enabled nodes that have not yet acknowledged the
+     *         batch. Common batches share one batch id across nodes.
+     */
+    public int countOutgoingBatchesUnsent(long batchId);
     
     public List<OutgoingBatchByNodeChannelCount> getOutgoingBatchByNodeChannelCount(int maxRows, NodeGroupLinkAction linkType, boolean readyToSendOnly);
     
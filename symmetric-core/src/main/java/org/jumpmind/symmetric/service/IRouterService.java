@@ -27,6 +27,7 @@ import org.jumpmind.symmetric.model.DataMetaData;
 import org.jumpmind.symmetric.model.Node;
 import org.jumpmind.symmetric.model.NodeSecurity;
 import org.jumpmind.symmetric.model.TriggerRouter;
+import org.jumpmind.symmetric.route.DataGapDetector;
 import org.jumpmind.symmetric.route.IDataRouter;
 import org.jumpmind.symmetric.route.SimpleRouterContext;
 
@@ -54,6 +55,12 @@ public interface IRouterService extends IService {
     public List<String> getAvailableBatchAlgorithms();
     
     public Map<String, IDataRouter> getRouters();
+
+    /**
+     * @return the gap detector used by the last routing run, or null if
+     *         routing has not run yet
+     */
+    public DataGapDetector getDataGapDetector();
     
     public void stop ();
 
@@ -75,10 +75,11 @@ public class AcknowledgeService extends AbstractService implements IAcknowledgeS
                     .findOutgoingBatch(batch.getBatchId(), batch.getNodeId());
             Status status = batch.getStatus();
             if (outgoingBatch != null) {
+                boolean previouslyAcknowledged = outgoingBatch.getStatus() == Status.OK
+                        || outgoingBatch.getStatus() == Status.IG;
                 // Allow an outside system/user to indicate that a batch
                 // is OK.
-                if (outgoingBatch.getStatus() != Status.OK && 
-                        outgoingBatch.getStatus() != Status.IG) {
+                if (!previouslyAcknowledged) {
                     outgoingBatch.setStatus(status);
                     outgoingBatch.setErrorFlag(batch.getStatus() == Status.ER);
                 } else {
@@ -124,6 +125,15 @@ public class AcknowledgeService extends AbstractService implements IAcknowledgeS
                     if (stagingResource != null) {
                         stagingResource.setState(State.DONE);
                     }
+                } else if (!previouslyAcknowledged) {
+                    IStagedResource stagingResource = stagingManager.find(
+                            Constants.STAGING_CATEGORY_OUTGOING, outgoingBatch.getStagedLocation(),
+                            outgoingBatch.getBatchId());
+                    if (stagingResource != null && stagingResource.getReferenceCount() > 0
+                            && stagingResource.dereference() == 0) {
+                        /* the last node that needed the common batch has it */
+                        stagingResource.setState(State.DONE);
+                    }
                 }
 
                 outgoingBatchService.updateOutgoingBatch(outgoingBatch);
@@ -20,6 +20,7 @@
  */
 package org.jumpmind.symmetric.service.impl;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
 import java.sql.SQLException;
@@ -31,10 +32,18 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang.StringUtils;
 import org.jumpmind.db.io.DatabaseXmlUtil;
@@ -50,6 +59,7 @@ import org.jumpmind.db.sql.ISqlRowMapper;
 import org.jumpmind.db.sql.ISqlTransaction;
 import org.jumpmind.db.sql.Row;
 import org.jumpmind.db.sql.SqlConstants;
+import org.jumpmind.exception.IoException;
 import org.jumpmind.symmetric.ISymmetricEngine;
 import org.jumpmind.symmetric.SymmetricException;
 import org.jumpmind.symmetric.Version;
@@ -160,7 +170,9 @@ public class DataExtractorService extends AbstractService implements IDataExtrac
 
     private IClusterService clusterService;
 
-    private Map<String, Semaphore> locks = new HashMap<String, Semaphore>();
+    protected ConcurrentHashMap<String, ExtractLock> locks = new ConcurrentHashMap<String, ExtractLock>();
+
+    private ExecutorService extractAheadThreads;
 
     public DataExtractorService(ISymmetricEngine engine) {
         super(engine.getParameterService(), engine.getSymmetricDialect());
@@ -408,7 +420,19 @@ public class DataExtractorService extends AbstractService implements IDataExtrac
                 IDataWriter dataWriter = new ProtocolDataWriter(nodeService.findIdentityNodeId(), transport.openWriter(),
                         targetNode.requires13Compatiblity());
 
-                return extract(processInfo, targetNode, activeBatches, dataWriter, ExtractMode.FOR_SYM_CLIENT);
+                /*
+                 * Staged batches are already in the protocol format, so they
+                 * can be copied to the transport as bytes unless they need to
+                 * be rewritten for an older client
+                 */
+                OutputStream stagedBatchStream = null;
+                if (!targetNode.requires13Compatiblity()
+                        && parameterService.is(ParameterConstants.STREAM_TO_FILE_ZERO_COPY_ENABLED, false)) {
+                    stagedBatchStream = transport.getByteStream();
+                }
+
+                return extract(processInfo, targetNode, activeBatches, dataWriter, stagedBatchStream,
+                        ExtractMode.FOR_SYM_CLIENT);
             }
 
         }
@@ -495,18 +519,38 @@ public class DataExtractorService extends AbstractService implements IDataExtrac
 
     protected List<OutgoingBatch> extract(ProcessInfo processInfo, Node targetNode, List<OutgoingBatch> activeBatches,
             IDataWriter dataWriter, ExtractMode mode) {
+        return extract(processInfo, targetNode, activeBatches, dataWriter, null, mode);
+    }
+
+    /**
+     * @param stagedBatchStream
+     *            If not null, staged batches are copied to this stream as
+     *            bytes instead of being parsed and written to the data writer
+     */
+    protected List<OutgoingBatch> extract(ProcessInfo processInfo, Node targetNode, List<OutgoingBatch> activeBatches,
+            IDataWriter dataWriter, OutputStream stagedBatchStream, ExtractMode mode) {
         boolean streamToFileEnabled = parameterService.is(ParameterConstants.STREAM_TO_FILE_ENABLED);
         List<OutgoingBatch> processedBatches = new ArrayList<OutgoingBatch>(activeBatches.size());
         if (activeBatches.size() > 0) {
             Set<String> channelsProcessed = new HashSet<String>();
             long batchesSelectedAtMs = System.currentTimeMillis();
             OutgoingBatch currentBatch = null;
+            ExtractAhead extractAhead = null;
+            Future<?> extractAheadFuture = null;
             try {
 
                 long bytesSentCount = 0;
                 int batchesSentCount = 0;
                 long maxBytesToSync = parameterService.getLong(ParameterConstants.TRANSPORT_MAX_BYTES_TO_SYNC);
 
+                int extractAheadMaxBatches = parameterService.getInt(ParameterConstants.EXTRACT_AHEAD_MAX_BATCHES, 0);
+                if (extractAheadMaxBatches > 0 && streamToFileEnabled && mode == ExtractMode.FOR_SYM_CLIENT
+                        && activeBatches.size() > 1) {
+                    extractAhead = new ExtractAhead(targetNode, activeBatches, batchesSelectedAtMs, mode,
+                            extractAheadMaxBatches, parameterService.getLong(ParameterConstants.EXTRACT_AHEAD_MAX_BYTES, 0));
+                    extractAheadFuture = getExtractAheadThreads().submit(extractAhead);
+                }
+
                 for (int i = 0; i < activeBatches.size(); i++) {
                     currentBatch = activeBatches.get(i);
 
@@ -515,40 +559,24 @@ public class DataExtractorService extends AbstractService implements IDataExtrac
                     processInfo.setCurrentBatchId(currentBatch.getBatchId());
                     processInfo.setCurrentLoadId(currentBatch.getLoadId());
 
-                    currentBatch = requeryIfEnoughTimeHasPassed(batchesSelectedAtMs, currentBatch);
-
-                    if (currentBatch.isExtractJobFlag() && currentBatch.getStatus() != Status.IG) {
-                        if (parameterService.is(ParameterConstants.INITIAL_LOAD_USE_EXTRACT_JOB)) {
-                            if (currentBatch.getStatus() != Status.RQ && currentBatch.getStatus() != Status.IG
-                                    && !isPreviouslyExtracted(currentBatch)) {
-                                /*
-                                 * the batch must have been purged. it needs to
-                                 * be re-extracted
-                                 */
-                                log.info("Batch {} is marked as ready but it has been deleted.  Rescheduling it for extraction",
-                                        currentBatch.getNodeBatchId());
-                                if (changeBatchStatus(Status.RQ, currentBatch, mode)) {
-                                    resetExtractRequest(currentBatch);
-                                }
-                                break;
-                            } else if (currentBatch.getStatus() == Status.RQ) {
-                                log.info("Batch {} is not ready for delivery.  It is currently scheduled for extraction",
-                                        currentBatch.getNodeBatchId());
-                                break;
-                            }
-                        } else {
-                            currentBatch.setStatus(Status.NE);
-                            currentBatch.setExtractJobFlag(false);
-                        }
-                    } else {
+                    OutgoingBatch extractedBatch = null;
+                    if (extractAhead != null) {
                         processInfo.setStatus(ProcessInfo.Status.EXTRACTING);
-                        currentBatch = extractOutgoingBatch(processInfo, targetNode, dataWriter, currentBatch, streamToFileEnabled, true,
-                                mode);
+                        extractedBatch = extractAhead.take();
+                    } else {
+                        extractedBatch = extractOutgoingBatchIfReady(processInfo, targetNode, dataWriter, currentBatch,
+                                batchesSelectedAtMs, streamToFileEnabled, mode);
+                    }
+
+                    if (extractedBatch == null) {
+                        break;
                     }
+                    currentBatch = extractedBatch;
 
                     if (streamToFileEnabled || mode == ExtractMode.FOR_PAYLOAD_CLIENT) {
                         processInfo.setStatus(ProcessInfo.Status.TRANSFERRING);
-                        currentBatch = sendOutgoingBatch(processInfo, targetNode, currentBatch, dataWriter, mode);
+                        currentBatch = sendOutgoingBatch(processInfo, targetNode, currentBatch, dataWriter,
+                                stagedBatchStream, mode);
                     }
 
                     processedBatches.add(currentBatch);
@@ -606,6 +634,11 @@ public class DataExtractorService extends AbstractService implements IDataExtrac
                 } else {
                     log.error("Could not log the outgoing batch status because the batch was null", e);
                 }
+            } finally {
+                if (extractAhead != null) {
+                    extractAhead.cancel();
+                    waitForExtractAhead(extractAheadFuture);
+                }
             }
 
             // Next, we update the node channel controls to the
@@ -626,6 +659,86 @@ public class DataExtractorService extends AbstractService implements IDataExtrac
         }
     }
 
+    /**
+     * Extract a batch to staging if it needs to be extracted. Batches that are
+     * extracted by the initial load extract job are checked to see if they are
+     * ready instead.
+     * 
+     * @return the batch to send or null if no more batches should be sent
+     *         during this sync
+     */
+    protected OutgoingBatch extractOutgoingBatchIfReady(ProcessInfo processInfo, Node targetNode, IDataWriter dataWriter,
+            OutgoingBatch currentBatch, long batchesSelectedAtMs, boolean streamToFileEnabled, ExtractMode mode) {
+        currentBatch = requeryIfEnoughTimeHasPassed(batchesSelectedAtMs, currentBatch);
+
+        if (currentBatch.isExtractJobFlag() && currentBatch.getStatus() != Status.IG) {
+            if (parameterService.is(ParameterConstants.INITIAL_LOAD_USE_EXTRACT_JOB)) {
+                if (currentBatch.getStatus() != Status.RQ && currentBatch.getStatus() != Status.IG
+                        && !isPreviouslyExtracted(currentBatch)) {
+                    /*
+                     * the batch must have been purged. it needs to be
+                     * re-extracted
+                     */
+                    log.info("Batch {} is marked as ready but it has been deleted.  Rescheduling it for extraction",
+                            currentBatch.getNodeBatchId());
+                    if (changeBatchStatus(Status.RQ, currentBatch, mode)) {
+                        resetExtractRequest(currentBatch);
+                    }
+                    return null;
+                } else if (currentBatch.getStatus() == Status.RQ) {
+                    log.info("Batch {} is not ready for delivery.  It is currently scheduled for extraction",
+                            currentBatch.getNodeBatchId());
+                    return null;
+                }
+            } else {
+                currentBatch.setStatus(Status.NE);
+                currentBatch.setExtractJobFlag(false);
+            }
+        } else {
+            processInfo.setStatus(ProcessInfo.Status.EXTRACTING);
+            currentBatch = extractOutgoingBatch(processInfo, targetNode, dataWriter, currentBatch, streamToFileEnabled, true, mode);
+        }
+        return currentBatch;
+    }
+
+    protected void waitForExtractAhead(Future<?> extractAheadFuture) {
+        try {
+            extractAheadFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("The extract ahead thread failed", e.getCause());
+        }
+    }
+
+    protected synchronized ExecutorService getExtractAheadThreads() {
+        if (extractAheadThreads == null) {
+            extractAheadThreads = Executors.newCachedThreadPool(new ThreadFactory() {
+                final AtomicInteger threadNumber = new AtomicInteger(1);
+                final String namePrefix = parameterService.getEngineName().toLowerCase() + "-extract-ahead-";
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r);
+                    t.setName(namePrefix + threadNumber.getAndIncrement());
+                    t.setDaemon(false);
+                    if (t.getPriority() != Thread.NORM_PRIORITY) {
+                        t.setPriority(Thread.NORM_PRIORITY);
+                    }
+                    return t;
+                }
+            });
+        }
+        return extractAheadThreads;
+    }
+
+    public synchronized void stop() {
+        if (extractAheadThreads != null) {
+            log.info("The data extractor service is shutting down");
+            extractAheadThreads.shutdown();
+            extractAheadThreads = null;
+        }
+    }
+
     final protected boolean changeBatchStatus(Status status, OutgoingBatch currentBatch, ExtractMode mode) {
         if (currentBatch.getStatus() != Status.IG) {
             currentBatch.setStatus(status);
@@ -690,49 +803,47 @@ public class DataExtractorService extends AbstractService implements IDataExtrac
                     transformExtractWriter.close();
                 }
             } else if (!isPreviouslyExtracted(currentBatch)) {
-                int maxPermits = parameterService.getInt(ParameterConstants.CONCURRENT_WORKERS);
-                String semaphoreKey = useStagingDataWriter ? Long.toString(currentBatch.getBatchId()) : currentBatch.getNodeBatchId();
-                Semaphore lock = null;
+                String lockKey = useStagingDataWriter ? Long.toString(currentBatch.getBatchId()) : currentBatch.getNodeBatchId();
+                ExtractLock lock = acquireLock(lockKey, currentBatch.getChannelId());
                 try {
-                    synchronized (locks) {
-                        lock = locks.get(semaphoreKey);
-                        if (lock == null) {
-                            lock = new Semaphore(maxPermits);
-                            locks.put(semaphoreKey, lock);
-                        }
-                        try {
-                            lock.acquire();
-                        } catch (InterruptedException e) {
-                            throw new org.jumpmind.exception.InterruptedException(e);
+                    if (!isPreviouslyExtracted(currentBatch)) {
+                        currentBatch.setExtractCount(currentBatch.getExtractCount() + 1);
+                        if (updateBatchStatistics) {
+                            changeBatchStatus(Status.QY, currentBatch, mode);
                         }
-                    }
-
-                    synchronized (lock) {
-                        if (!isPreviouslyExtracted(currentBatch)) {
-                            currentBatch.setExtractCount(currentBatch.getExtractCount() + 1);
-                            if (updateBatchStatistics) {
-                                changeBatchStatus(Status.QY, currentBatch, mode);
+                        currentBatch.resetStats();
+                        IDataReader dataReader = new ExtractDataReader(symmetricDialect.getPlatform(), new SelectFromSymDataSource(
+                                currentBatch, sourceNode, targetNode, processInfo));
+                        DataContext ctx = new DataContext();
+                        ctx.put(Constants.DATA_CONTEXT_TARGET_NODE, targetNode);
+                        ctx.put(Constants.DATA_CONTEXT_TARGET_NODE_ID, targetNode.getNodeId());
+                        ctx.put(Constants.DATA_CONTEXT_TARGET_NODE_EXTERNAL_ID, targetNode.getExternalId());
+                        ctx.put(Constants.DATA_CONTEXT_TARGET_NODE_GROUP_ID, targetNode.getNodeGroupId());
+                        ctx.put(Constants.DATA_CONTEXT_TARGET_NODE, targetNode);
+                        ctx.put(Constants.DATA_CONTEXT_SOURCE_NODE, sourceNode);
+                        ctx.put(Constants.DATA_CONTEXT_SOURCE_NODE_ID, sourceNode.getNodeId());
+                        ctx.put(Constants.DATA_CONTEXT_SOURCE_NODE_EXTERNAL_ID, sourceNode.getExternalId());
+                        ctx.put(Constants.DATA_CONTEXT_SOURCE_NODE_GROUP_ID, sourceNode.getNodeGroupId());
+
+                        new DataProcessor(dataReader, transformExtractWriter, "extract").process(ctx);
+                        extractTimeInMs = System.currentTimeMillis() - ts;
+                        Statistics stats = transformExtractWriter.getNestedWriter().getStatistics().values().iterator().next();
+                        transformTimeInMs = stats.get(DataWriterStatisticConstants.TRANSFORMMILLIS);
+                        extractTimeInMs = extractTimeInMs - transformTimeInMs;
+                        byteCount = stats.get(DataWriterStatisticConstants.BYTECOUNT);
+
+                        if (useStagingDataWriter && currentBatch.isCommonFlag()
+                                && parameterService.is(ParameterConstants.EXTRACT_COMMON_BATCH_FAN_OUT_ENABLED)) {
+                            /*
+                             * keep the staged batch until every node it
+                             * was routed to has acknowledged it
+                             */
+                            IStagedResource resource = getStagedResource(currentBatch);
+                            if (resource != null) {
+                                resource.reference(outgoingBatchService.countOutgoingBatchesUnsent(currentBatch
+                                        .getBatchId()), parameterService
+                                        .getLong(ParameterConstants.EXTRACT_COMMON_BATCH_FAN_OUT_MAX_HOLD_MS));
                             }
-                            currentBatch.resetStats();
-                            IDataReader dataReader = new ExtractDataReader(symmetricDialect.getPlatform(), new SelectFromSymDataSource(
-                                    currentBatch, sourceNode, targetNode, processInfo));
-                            DataContext ctx = new DataContext();
-                            ctx.put(Constants.DATA_CONTEXT_TARGET_NODE, targetNode);
-                            ctx.put(Constants.DATA_CONTEXT_TARGET_NODE_ID, targetNode.getNodeId());
-                            ctx.put(Constants.DATA_CONTEXT_TARGET_NODE_EXTERNAL_ID, targetNode.getExternalId());
-                            ctx.put(Constants.DATA_CONTEXT_TARGET_NODE_GROUP_ID, targetNode.getNodeGroupId());
-                            ctx.put(Constants.DATA_CONTEXT_TARGET_NODE, targetNode);
-                            ctx.put(Constants.DATA_CONTEXT_SOURCE_NODE, sourceNode);
-                            ctx.put(Constants.DATA_CONTEXT_SOURCE_NODE_ID, sourceNode.getNodeId());
-                            ctx.put(Constants.DATA_CONTEXT_SOURCE_NODE_EXTERNAL_ID, sourceNode.getExternalId());
-                            ctx.put(Constants.DATA_CONTEXT_SOURCE_NODE_GROUP_ID, sourceNode.getNodeGroupId());
-
-                            new DataProcessor(dataReader, transformExtractWriter, "extract").process(ctx);
-                            extractTimeInMs = System.currentTimeMillis() - ts;
-                            Statistics stats = transformExtractWriter.getNestedWriter().getStatistics().values().iterator().next();
-                            transformTimeInMs = stats.get(DataWriterStatisticConstants.TRANSFORMMILLIS);
-                            extractTimeInMs = extractTimeInMs - transformTimeInMs;
-                            byteCount = stats.get(DataWriterStatisticConstants.BYTECOUNT);
                         }
                     }
                 } catch (RuntimeException ex) {
@@ -743,12 +854,7 @@ public class DataExtractorService extends AbstractService implements IDataExtrac
                     }
                     throw ex;
                 } finally {
-                    lock.release();
-                    synchronized (locks) {
-                        if (lock.availablePermits() == maxPermits) {
-                            locks.remove(semaphoreKey);
-                        }
-                    }
+                    releaseLock(lockKey, lock);
                 }
             }
 
@@ -785,10 +891,82 @@ public class DataExtractorService extends AbstractService implements IDataExtrac
         return currentBatch;
     }
 
+    /**
+     * Get the lock that serializes extraction of the same batch. Locks are
+     * kept in a concurrent map so threads extracting different batches never
+     * wait on each other. The time spent waiting for another thread that
+     * holds the same batch is recorded in the channel statistics.
+     */
+    protected ExtractLock acquireLock(String key, String channelId) {
+        ExtractLock lock = null;
+        while (lock == null) {
+            lock = locks.get(key);
+            if (lock == null) {
+                ExtractLock newLock = new ExtractLock();
+                lock = locks.putIfAbsent(key, newLock);
+                if (lock == null) {
+                    lock = newLock;
+                }
+            }
+
+            if (!lock.reference()) {
+                /* the lock was released and discarded by another thread */
+                locks.remove(key, lock);
+                lock = null;
+            }
+        }
+
+        if (!lock.tryLock()) {
+            long ts = System.currentTimeMillis();
+            try {
+                lock.lockInterruptibly();
+            } catch (InterruptedException e) {
+                if (lock.dereference()) {
+                    locks.remove(key, lock);
+                }
+                throw new org.jumpmind.exception.InterruptedException(e);
+            }
+            statisticManager.incrementExtractLockWait(channelId, System.currentTimeMillis() - ts);
+        }
+        return lock;
+    }
+
+    protected void releaseLock(String key, ExtractLock lock) {
+        lock.unlock();
+        if (lock.dereference()) {
+            locks.remove(key, lock);
+        }
+    }
+
     public IStagedResource getStagedResource(OutgoingBatch currentBatch) {
         return stagingManager.find(Constants.STAGING_CATEGORY_OUTGOING, currentBatch.getStagedLocation(), currentBatch.getBatchId());
     }
 
+    public int releaseStagedCommonBatches() {
+        int releasedCount = 0;
+        String commonPath = Constants.STAGING_CATEGORY_OUTGOING + "/"
+                + Batch.getStagedLocation(true, null) + "/";
+        for (String path : new ArrayList<String>(stagingManager.getResourceReferences())) {
+            if (path.startsWith(commonPath)) {
+                IStagedResource resource = stagingManager.find(path);
+                if (resource != null && resource.getReferenceCount() > 0) {
+                    /*
+                     * batches can be set to OK or IG without an
+                     * acknowledgement, and nodes can be disabled
+                     */
+                    int count = outgoingBatchService.countOutgoingBatchesUnsent(Long
+                            .parseLong(path.substring(commonPath.length())));
+                    resource.setReferenceCount(count);
+                    if (count == 0) {
+                        resource.setState(State.DONE);
+                        releasedCount++;
+                    }
+                }
+            }
+        }
+        return releasedCount;
+    }
+
     protected boolean isPreviouslyExtracted(OutgoingBatch currentBatch) {
         IStagedResource previouslyExtracted = getStagedResource(currentBatch);
         if (previouslyExtracted != null && previouslyExtracted.exists() && previouslyExtracted.getState() != State.CREATE) {
@@ -803,7 +981,7 @@ public class DataExtractorService extends AbstractService implements IDataExtrac
     }
 
     protected OutgoingBatch sendOutgoingBatch(ProcessInfo processInfo, Node targetNode, OutgoingBatch currentBatch, IDataWriter dataWriter,
-            ExtractMode mode) {
+            OutputStream stagedBatchStream, ExtractMode mode) {
         if (currentBatch.getStatus() != Status.OK || ExtractMode.EXTRACT_ONLY == mode) {
             currentBatch.setSentCount(currentBatch.getSentCount() + 1);
             changeBatchStatus(Status.SE, currentBatch, mode);
@@ -811,7 +989,24 @@ public class DataExtractorService extends AbstractService implements IDataExtrac
             long ts = System.currentTimeMillis();
 
             IStagedResource extractedBatch = getStagedResource(currentBatch);
-            if (extractedBatch != null) {
+            if (extractedBatch != null && stagedBatchStream != null) {
+                /*
+                 * Report the batch the way ProcessInfoDataWriter would if it
+                 * had been parsed and written again
+                 */
+                processInfo.setCurrentBatchId(currentBatch.getBatchId());
+                processInfo.setCurrentChannelId(currentBatch.getChannelId());
+                processInfo.setCurrentDataCount(0);
+                long byteCount = extractedBatch.transferTo(stagedBatchStream);
+                try {
+                    stagedBatchStream.flush();
+                } catch (IOException ex) {
+                    throw new IoException(ex);
+                }
+                processInfo.setCurrentDataCount(currentBatch.getDataEventCount());
+                statisticManager.incrementDataSent(currentBatch.getChannelId(), currentBatch.getDataEventCount());
+                statisticManager.incrementDataBytesSent(currentBatch.getChannelId(), byteCount);
+            } else if (extractedBatch != null) {
                 IDataReader dataReader = new ProtocolDataReader(BatchType.EXTRACT, currentBatch.getNodeId(), extractedBatch);
 
                 DataContext ctx = new DataContext();
@@ -1127,6 +1322,165 @@ public class DataExtractorService extends AbstractService implements IDataExtrac
         }
     }
 
+    /**
+     * Extracts batches to staging on a separate thread ahead of the thread
+     * that is sending them. Batches are handed over in the order they were
+     * selected. The number of batches, and optionally the number of bytes,
+     * that are staged but not yet sent is bounded. The extracting thread
+     * reports its progress on its own {@link ProcessInfo}, so the process info
+     * of the sending thread is only changed by the sending thread.
+     */
+    class ExtractAhead implements Runnable {
+
+        private Node targetNode;
+
+        private List<OutgoingBatch> batches;
+
+        private long batchesSelectedAtMs;
+
+        private ExtractMode mode;
+
+        private int maxBatches;
+
+        private long maxBytes;
+
+        private LinkedList<OutgoingBatch> extracted = new LinkedList<OutgoingBatch>();
+
+        private long bytesExtracted;
+
+        private boolean done;
+
+        private boolean cancelled;
+
+        private RuntimeException error;
+
+        public ExtractAhead(Node targetNode, List<OutgoingBatch> batches, long batchesSelectedAtMs,
+                ExtractMode mode, int maxBatches, long maxBytes) {
+            this.targetNode = targetNode;
+            this.batches = batches;
+            this.batchesSelectedAtMs = batchesSelectedAtMs;
+            this.mode = mode;
+            this.maxBatches = maxBatches;
+            this.maxBytes = maxBytes;
+        }
+
+        public void run() {
+            ProcessInfo processInfo = statisticManager.newProcessInfo(new ProcessInfoKey(nodeService
+                    .findIdentityNodeId(), targetNode.getNodeId(), ProcessType.EXTRACT_AHEAD));
+            try {
+                for (OutgoingBatch batch : batches) {
+                    synchronized (this) {
+                        while (!cancelled && (extracted.size() >= maxBatches || (maxBytes > 0 && bytesExtracted >= maxBytes))) {
+                            wait();
+                        }
+                        if (cancelled) {
+                            break;
+                        }
+                    }
+
+                    processInfo.setDataCount(batch.getDataEventCount());
+                    processInfo.setCurrentBatchId(batch.getBatchId());
+                    processInfo.setCurrentLoadId(batch.getLoadId());
+                    OutgoingBatch extractedBatch = extractOutgoingBatchIfReady(processInfo, targetNode, null, batch,
+                            batchesSelectedAtMs, true, mode);
+                    processInfo.incrementBatchCount();
+
+                    synchronized (this) {
+                        if (extractedBatch == null) {
+                            break;
+                        }
+                        extracted.add(extractedBatch);
+                        bytesExtracted += extractedBatch.getByteCount();
+                        notifyAll();
+                    }
+                }
+                processInfo.setStatus(ProcessInfo.Status.OK);
+            } catch (InterruptedException ex) {
+                processInfo.setStatus(ProcessInfo.Status.ERROR);
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException ex) {
+                processInfo.setStatus(ProcessInfo.Status.ERROR);
+                synchronized (this) {
+                    error = ex;
+                }
+            } finally {
+                synchronized (this) {
+                    done = true;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Wait for the next batch to be extracted.
+         * 
+         * @return the next batch or null if there are no more batches to send
+         */
+        public synchronized OutgoingBatch take() {
+            while (extracted.size() == 0 && !done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new org.jumpmind.exception.InterruptedException(e);
+                }
+            }
+
+            if (extracted.size() > 0) {
+                OutgoingBatch batch = extracted.removeFirst();
+                bytesExtracted -= batch.getByteCount();
+                notifyAll();
+                return batch;
+            } else if (error != null) {
+                throw error;
+            } else {
+                return null;
+            }
+        }
+
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+    }
+
+    /**
+     * A lock for one batch that counts the threads that are using it, so it
+     * can be removed from the map of locks once no thread needs it.
+     */
+    static class ExtractLock extends ReentrantLock {
+
+        private static final long serialVersionUID = 1L;
+
+        private AtomicInteger referenceCount = new AtomicInteger();
+
+        public ExtractLock() {
+            super(true);
+        }
+
+        /**
+         * @return false if the lock has already been discarded
+         */
+        boolean reference() {
+            while (true) {
+                int count = referenceCount.get();
+                if (count < 0) {
+                    return false;
+                } else if (referenceCount.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @return true if this was the last reference and the lock was
+         *         discarded
+         */
+        boolean dereference() {
+            return referenceCount.decrementAndGet() == 0 && referenceCount.compareAndSet(0, -1);
+        }
+    }
+
     class ExtractRequestMapper implements ISqlRowMapper<ExtractRequest> {
         public ExtractRequest mapRow(Row row) {
             ExtractRequest request = new ExtractRequest();
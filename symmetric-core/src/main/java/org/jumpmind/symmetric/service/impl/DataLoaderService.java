@@ -91,6 +91,7 @@ import org.jumpmind.symmetric.load.DefaultDataLoaderFactory;
 import org.jumpmind.symmetric.load.DynamicDatabaseWriterFilter;
 import org.jumpmind.symmetric.load.IDataLoaderFactory;
 import org.jumpmind.symmetric.load.ILoadSyncLifecycleListener;
+import org.jumpmind.symmetric.load.ParallelDataLoaderFactory;
 import org.jumpmind.symmetric.model.Channel;
 import org.jumpmind.symmetric.model.ChannelMap;
 import org.jumpmind.symmetric.model.IncomingBatch;
@@ -178,6 +179,7 @@ public class DataLoaderService extends AbstractService implements IDataLoaderSer
         this.setSqlMap(new DataLoaderServiceSqlMap(platform, createSqlReplacementTokens()));
         extensionService = engine.getExtensionService();
         extensionService.addExtensionPoint(new DefaultDataLoaderFactory(parameterService));
+        extensionService.addExtensionPoint(new ParallelDataLoaderFactory(parameterService));
         extensionService.addExtensionPoint(new ConfigurationChangedDatabaseWriterFilter(engine));
         this.engine = engine;
     }
@@ -72,11 +72,13 @@ import org.jumpmind.symmetric.model.TableReloadRequestKey;
 import org.jumpmind.symmetric.model.Trigger;
 import org.jumpmind.symmetric.model.TriggerHistory;
 import org.jumpmind.symmetric.model.TriggerRouter;
+import org.jumpmind.symmetric.route.DataGapDetector;
 import org.jumpmind.symmetric.service.ClusterConstants;
 import org.jumpmind.symmetric.service.IDataService;
 import org.jumpmind.symmetric.service.IExtensionService;
 import org.jumpmind.symmetric.service.IFileSyncService;
 import org.jumpmind.symmetric.service.INodeService;
+import org.jumpmind.symmetric.service.IRouterService;
 import org.jumpmind.symmetric.service.ITriggerRouterService;
 import org.jumpmind.util.AppUtils;
 import org.jumpmind.util.FormatUtils;
@@ -1057,9 +1059,23 @@ public class DataService extends AbstractService implements IDataService {
         }
         engine.getOutgoingBatchService().insertOutgoingBatch(transaction, outgoingBatch);
         insertDataEvent(transaction, new DataEvent(dataId, outgoingBatch.getBatchId(), routerId));
+        dataEventInsertedOutsideOfRouting(dataId);
         return outgoingBatch.getBatchId();
     }
 
+    /**
+     * Let the router's gap detector know about data that will not be selected
+     * by routing because its data events were inserted directly.
+     */
+    protected void dataEventInsertedOutsideOfRouting(long dataId) {
+        IRouterService routerService = engine.getRouterService();
+        DataGapDetector gapDetector = routerService != null ? routerService.getDataGapDetector()
+                : null;
+        if (gapDetector != null) {
+            gapDetector.addDataIds(new long[] { dataId });
+        }
+    }
+
     public String reloadNode(String nodeId, boolean reverseLoad, String createBy) {
         INodeService nodeService = engine.getNodeService();
         Node targetNode = engine.getNodeService().findNode(nodeId);
@@ -1438,6 +1454,18 @@ public class DataService extends AbstractService implements IDataService {
                         Types.VARCHAR, Types.VARCHAR, Types.NUMERIC, Types.NUMERIC });
     }
 
+    public void insertDataGaps(ISqlTransaction transaction, List<DataGap> gaps) {
+        if (gaps.size() > 0) {
+            transaction.prepare(getSql("insertDataGapSql"));
+            for (DataGap gap : gaps) {
+                transaction.addRow(gap, new Object[] { DataGap.Status.GP.name(),
+                        AppUtils.getHostName(), gap.getStartId(), gap.getEndId() }, new int[] {
+                        Types.VARCHAR, Types.VARCHAR, Types.NUMERIC, Types.NUMERIC });
+            }
+            transaction.flush();
+        }
+    }
+
     public void updateDataGap(DataGap gap, DataGap.Status status) {
         sqlTemplate.update(
                 getSql("updateDataGapSql"),
@@ -1478,6 +1506,18 @@ public class DataService extends AbstractService implements IDataService {
                         symmetricDialect.getSqlTypeForIds() });
     }
 
+    public void deleteDataGaps(ISqlTransaction transaction, List<DataGap> gaps) {
+        if (gaps.size() > 0) {
+            transaction.prepare(getSql("deleteDataGapSql"));
+            for (DataGap gap : gaps) {
+                transaction.addRow(gap, new Object[] { gap.getStartId(), gap.getEndId() },
+                        new int[] { symmetricDialect.getSqlTypeForIds(),
+                                symmetricDialect.getSqlTypeForIds() });
+            }
+            transaction.flush();
+        }
+    }
+
     public Date findCreateTimeOfEvent(long dataId) {
         return sqlTemplate.queryForObject(getSql("findDataEventCreateTimeSql"), Date.class, dataId);
     }
@@ -26,7 +26,11 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -35,6 +39,7 @@ import java.util.TreeSet;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.filefilter.DirectoryFileFilter;
+import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.StringUtils;
 import org.jumpmind.db.model.Table;
 import org.jumpmind.db.sql.ISqlReadCursor;
@@ -49,6 +54,7 @@ import org.jumpmind.symmetric.common.ParameterConstants;
 import org.jumpmind.symmetric.common.TableConstants;
 import org.jumpmind.symmetric.file.DirectorySnapshot;
 import org.jumpmind.symmetric.file.FileConflictException;
+import org.jumpmind.symmetric.file.FileSyncDelta;
 import org.jumpmind.symmetric.file.FileSyncZipDataWriter;
 import org.jumpmind.symmetric.file.FileTriggerTracker;
 import org.jumpmind.symmetric.io.data.CsvData;
@@ -64,6 +70,7 @@ import org.jumpmind.symmetric.model.FileSnapshot.LastEventType;
 import org.jumpmind.symmetric.model.FileTrigger;
 import org.jumpmind.symmetric.model.FileTriggerRouter;
 import org.jumpmind.symmetric.model.IncomingBatch;
+import org.jumpmind.symmetric.model.Lock;
 import org.jumpmind.symmetric.model.Node;
 import org.jumpmind.symmetric.model.NodeCommunication;
 import org.jumpmind.symmetric.model.NodeCommunication.CommunicationType;
@@ -77,6 +84,7 @@ import org.jumpmind.symmetric.model.ProcessType;
 import org.jumpmind.symmetric.model.RemoteNodeStatus;
 import org.jumpmind.symmetric.model.RemoteNodeStatuses;
 import org.jumpmind.symmetric.service.ClusterConstants;
+import org.jumpmind.symmetric.service.IClusterService;
 import org.jumpmind.symmetric.service.IFileSyncService;
 import org.jumpmind.symmetric.service.IIncomingBatchService;
 import org.jumpmind.symmetric.service.INodeCommunicationService;
@@ -96,6 +104,21 @@ public class FileSyncService extends AbstractOfflineDetectorService implements I
 
     private ISymmetricEngine engine;
 
+    private static final int[] UPDATE_FILE_SNAPSHOT_TYPES = new int[] { Types.VARCHAR,
+            Types.NUMERIC, Types.NUMERIC, Types.NUMERIC, Types.TIMESTAMP, Types.VARCHAR,
+            Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+            Types.VARCHAR };
+
+    private static final int[] INSERT_FILE_SNAPSHOT_TYPES = new int[] { Types.VARCHAR,
+            Types.NUMERIC, Types.NUMERIC, Types.NUMERIC, Types.TIMESTAMP, Types.TIMESTAMP,
+            Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+            Types.VARCHAR, Types.VARCHAR };
+
+    private static final int[] DELETE_FILE_SNAPSHOT_TYPES = new int[] { Types.VARCHAR,
+            Types.VARCHAR, Types.VARCHAR, Types.VARCHAR };
+
+    protected Map<String, FileTriggerTracker> trackers = new HashMap<String, FileTriggerTracker>();
+
     // TODO cache trigger routers
 
     public FileSyncService(ISymmetricEngine engine) {
@@ -118,21 +141,30 @@ public class FileSyncService extends AbstractOfflineDetectorService implements I
                         getParameterService().getLong(ParameterConstants.FILE_SYNC_LOCK_WAIT_MS))) {
                     try {
                         log.debug("Tracking changes for file sync");
+                        if (!force) {
+                            clearTrackersIfLockMoved();
+                        }
                         List<FileTriggerRouter> fileTriggerRouters = getFileTriggerRoutersForCurrentNode();
+                        Set<String> trackerKeys = new HashSet<String>();
+                        Map<String, String> sourceNodeIds = null;
                         for (FileTriggerRouter fileTriggerRouter : fileTriggerRouters) {
                             if (fileTriggerRouter.isEnabled()) {
-                                FileTriggerTracker tracker = new FileTriggerTracker(
-                                        fileTriggerRouter, getDirectorySnapshot(fileTriggerRouter));
+                                String trackerKey = getTrackerKey(fileTriggerRouter);
+                                trackerKeys.add(trackerKey);
                                 try {
+                                    FileTriggerTracker tracker = getFileTriggerTracker(fileTriggerRouter);
                                     DirectorySnapshot dirSnapshot = tracker.trackChanges();
+                                    if (dirSnapshot.size() > 0 && sourceNodeIds == null) {
+                                        sourceNodeIds = findSourceNodeIdsFromFileIncoming();
+                                    }
                                     for (FileSnapshot fileSnapshot : dirSnapshot) {
                                         File file = fileTriggerRouter.getFileTrigger()
                                                 .createSourceFile(fileSnapshot);
                                         String filePath = file.getParentFile().getPath()
                                                 .replace('\\', '/');
                                         String fileName = file.getName();
-                                        String nodeId = findSourceNodeIdFromFileIncoming(filePath,
-                                                fileName, fileSnapshot.getFileModifiedTime());
+                                        String nodeId = sourceNodeIds.get(getFileIncomingKey(
+                                                filePath, fileName, fileSnapshot.getFileModifiedTime()));
                                         if (StringUtils.isNotBlank(nodeId)) {
                                             fileSnapshot.setLastUpdateBy(nodeId);
                                         } else {
@@ -147,6 +179,9 @@ public class FileSyncService extends AbstractOfflineDetectorService implements I
                                     }
                                     save(dirSnapshot);
                                 } catch (Exception ex) {
+                                    synchronized (trackers) {
+                                        trackers.remove(trackerKey);
+                                    }
                                     log.error("Failed to track changes for file trigger router: "
                                             + fileTriggerRouter.getFileTrigger().getTriggerId()
                                             + "::" + fileTriggerRouter.getRouter().getRouterId(),
@@ -155,6 +190,10 @@ public class FileSyncService extends AbstractOfflineDetectorService implements I
                             }
                         }
 
+                        synchronized (trackers) {
+                            trackers.keySet().retainAll(trackerKeys);
+                        }
+
                         deleteFromFileIncoming();
                     } finally {
                         log.debug("Done tracking changes for file sync");
@@ -174,10 +213,93 @@ public class FileSyncService extends AbstractOfflineDetectorService implements I
         }
     }
 
-    protected String findSourceNodeIdFromFileIncoming(String filePath, String fileName,
-            long lastUpdateDate) {
-        return sqlTemplate.queryForString(getSql("findNodeIdFromFileIncoming"), filePath, fileName,
-                lastUpdateDate);
+    /**
+     * The kept trackers only know about changes this server tracked. When
+     * another server in the cluster held the tracker lock last, the trackers
+     * are dropped so the directory trees are compared with the file snapshots
+     * in the database again.
+     */
+    protected void clearTrackersIfLockMoved() {
+        IClusterService clusterService = engine.getClusterService();
+        Lock lock = clusterService.findLocks().get(ClusterConstants.FILE_SYNC_TRACKER);
+        if (lock != null && lock.getLastLockingServerId() != null
+                && !lock.getLastLockingServerId().equals(clusterService.getServerId())) {
+            synchronized (trackers) {
+                if (trackers.size() > 0) {
+                    log.info("The file sync tracker lock was last held by {}.  Reading file snapshots again",
+                            lock.getLastLockingServerId());
+                    trackers.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Trackers are kept between runs until the reconcile period has passed or
+     * the configuration of the file trigger router changes. A new tracker
+     * compares the directory tree with the file snapshot in the database.
+     * Control files are only checked when a file is first seen, so triggers
+     * that sync on control files always get a new tracker.
+     */
+    protected FileTriggerTracker getFileTriggerTracker(FileTriggerRouter fileTriggerRouter) {
+        String trackerKey = getTrackerKey(fileTriggerRouter);
+        long reconcilePeriodInMs = parameterService.getLong(
+                ParameterConstants.FILE_SYNC_TRACK_RECONCILE_PERIOD_MS, 3600000);
+        boolean keepTracker = reconcilePeriodInMs > 0
+                && !fileTriggerRouter.getFileTrigger().isSyncOnCtlFile();
+        synchronized (trackers) {
+            FileTriggerTracker tracker = trackers.get(trackerKey);
+            if (tracker == null || !keepTracker
+                    || System.currentTimeMillis() - tracker.getCreateTime() > reconcilePeriodInMs
+                    || isConfigurationChanged(tracker.getFileTriggerRouter(), fileTriggerRouter)) {
+                trackers.remove(trackerKey);
+                tracker = new FileTriggerTracker(fileTriggerRouter,
+                        getDirectorySnapshot(fileTriggerRouter));
+                if (keepTracker) {
+                    trackers.put(trackerKey, tracker);
+                }
+            }
+            return tracker;
+        }
+    }
+
+    protected boolean isConfigurationChanged(FileTriggerRouter oldFileTriggerRouter,
+            FileTriggerRouter newFileTriggerRouter) {
+        return !ObjectUtils.equals(oldFileTriggerRouter.getLastUpdateTime(),
+                newFileTriggerRouter.getLastUpdateTime())
+                || !ObjectUtils.equals(oldFileTriggerRouter.getFileTrigger().getLastUpdateTime(),
+                        newFileTriggerRouter.getFileTrigger().getLastUpdateTime())
+                || !ObjectUtils.equals(oldFileTriggerRouter.getRouter().getLastUpdateTime(),
+                        newFileTriggerRouter.getRouter().getLastUpdateTime());
+    }
+
+    protected String getTrackerKey(FileTriggerRouter fileTriggerRouter) {
+        return fileTriggerRouter.getFileTrigger().getTriggerId() + "::"
+                + fileTriggerRouter.getRouter().getRouterId();
+    }
+
+    /**
+     * The files loaded from other nodes since the last time changes were
+     * tracked, keyed by {@link #getFileIncomingKey(String, String, long)}
+     */
+    protected Map<String, String> findSourceNodeIdsFromFileIncoming() {
+        Map<String, String> sourceNodeIds = new HashMap<String, String>();
+        List<Row> rows = sqlTemplate.query(getSql("selectFileIncomingSql"));
+        for (Row row : rows) {
+            if (row.get("file_modified_time") != null) {
+                String key = getFileIncomingKey(row.getString("relative_dir"),
+                        row.getString("file_name"), row.getLong("file_modified_time"));
+                /* the first row wins, like the single row lookup it replaced */
+                if (!sourceNodeIds.containsKey(key)) {
+                    sourceNodeIds.put(key, row.getString("node_id"));
+                }
+            }
+        }
+        return sourceNodeIds;
+    }
+
+    protected String getFileIncomingKey(String filePath, String fileName, long lastUpdateDate) {
+        return filePath + "/" + fileName + "@" + lastUpdateDate;
     }
 
     protected void deleteFromFileIncoming() {
@@ -312,8 +434,9 @@ public class FileSyncService extends AbstractOfflineDetectorService implements I
             ISqlTransaction sqlTransaction = null;
             try {
                 sqlTransaction = sqlTemplate.startSqlTransaction();
-                for (FileSnapshot fileSnapshot : changes) {
-                    save(sqlTransaction, fileSnapshot);
+                int batchSize = parameterService.getInt(ParameterConstants.JDBC_EXECUTE_BATCH_SIZE, 100);
+                for (int i = 0; i < changes.size(); i += batchSize) {
+                    save(sqlTransaction, changes.subList(i, Math.min(i + batchSize, changes.size())));
                 }
 
                 sqlTransaction.commit();
@@ -333,42 +456,164 @@ public class FileSyncService extends AbstractOfflineDetectorService implements I
         }
     }
 
+    /**
+     * Save a chunk of snapshots using JDBC batches. One query finds the
+     * snapshots that already exist, so they can be updated and the rest
+     * inserted. A chunk that has more than one change to the same file is
+     * saved one snapshot at a time to keep the changes in order.
+     */
+    protected void save(ISqlTransaction sqlTransaction, List<FileSnapshot> changes) {
+        Map<String, List<FileSnapshot>> changesByTriggerRouter = new HashMap<String, List<FileSnapshot>>();
+        Set<String> keys = new HashSet<String>();
+        for (FileSnapshot snapshot : changes) {
+            if (!keys.add(getFileSnapshotKey(snapshot))) {
+                for (FileSnapshot change : changes) {
+                    save(sqlTransaction, change);
+                }
+                return;
+            }
+            String triggerRouterKey = snapshot.getTriggerId() + "::" + snapshot.getRouterId();
+            List<FileSnapshot> triggerRouterChanges = changesByTriggerRouter.get(triggerRouterKey);
+            if (triggerRouterChanges == null) {
+                triggerRouterChanges = new ArrayList<FileSnapshot>();
+                changesByTriggerRouter.put(triggerRouterKey, triggerRouterChanges);
+            }
+            triggerRouterChanges.add(snapshot);
+        }
+
+        Set<String> existingKeys = new HashSet<String>();
+        for (List<FileSnapshot> triggerRouterChanges : changesByTriggerRouter.values()) {
+            existingKeys.addAll(findFileSnapshotKeys(sqlTransaction, triggerRouterChanges));
+        }
+
+        List<FileSnapshot> updates = new ArrayList<FileSnapshot>();
+        List<FileSnapshot> inserts = new ArrayList<FileSnapshot>();
+        List<FileSnapshot> deletes = new ArrayList<FileSnapshot>();
+        Date lastUpdateTime = new Date();
+        for (FileSnapshot snapshot : changes) {
+            snapshot.setLastUpdateTime(lastUpdateTime);
+            if (existingKeys.contains(getFileSnapshotKey(snapshot))) {
+                updates.add(snapshot);
+            } else {
+                snapshot.setCreateTime(lastUpdateTime);
+                inserts.add(snapshot);
+            }
+            if (snapshot.getLastEventType() == LastEventType.DELETE) {
+                deletes.add(snapshot);
+            }
+        }
+
+        boolean batchMode = sqlTransaction.isInBatchMode();
+        try {
+            sqlTransaction.setInBatchMode(true);
+            if (updates.size() > 0) {
+                sqlTransaction.prepare(getSql("updateFileSnapshotSql"));
+                for (FileSnapshot snapshot : updates) {
+                    sqlTransaction.addRow(snapshot, getUpdateFileSnapshotArgs(snapshot),
+                            UPDATE_FILE_SNAPSHOT_TYPES);
+                }
+                sqlTransaction.flush();
+            }
+            if (inserts.size() > 0) {
+                sqlTransaction.prepare(getSql("insertFileSnapshotSql"));
+                for (FileSnapshot snapshot : inserts) {
+                    sqlTransaction.addRow(snapshot, getInsertFileSnapshotArgs(snapshot),
+                            INSERT_FILE_SNAPSHOT_TYPES);
+                }
+                sqlTransaction.flush();
+            }
+            if (deletes.size() > 0) {
+                sqlTransaction.prepare(getSql("deleteFileSnapshotSql"));
+                for (FileSnapshot snapshot : deletes) {
+                    sqlTransaction.addRow(snapshot, getDeleteFileSnapshotArgs(snapshot),
+                            DELETE_FILE_SNAPSHOT_TYPES);
+                }
+                sqlTransaction.flush();
+            }
+        } finally {
+            sqlTransaction.setInBatchMode(batchMode);
+        }
+    }
+
+    protected Set<String> findFileSnapshotKeys(ISqlTransaction sqlTransaction,
+            List<FileSnapshot> snapshots) {
+        StringBuilder sql = new StringBuilder(getSql("selectFileSnapshotKeysSql")).append("(");
+        Object[] args = new Object[snapshots.size() * 2 + 2];
+        int[] types = new int[args.length];
+        args[0] = snapshots.get(0).getTriggerId();
+        args[1] = snapshots.get(0).getRouterId();
+        for (int i = 0; i < snapshots.size(); i++) {
+            if (i > 0) {
+                sql.append(" or ");
+            }
+            sql.append("(relative_dir=? and file_name=?)");
+            args[i * 2 + 2] = snapshots.get(i).getRelativeDir();
+            args[i * 2 + 3] = snapshots.get(i).getFileName();
+        }
+        sql.append(")");
+        Arrays.fill(types, Types.VARCHAR);
+
+        final String triggerId = snapshots.get(0).getTriggerId();
+        final String routerId = snapshots.get(0).getRouterId();
+        List<String> keys = sqlTransaction.query(sql.toString(), new ISqlRowMapper<String>() {
+            public String mapRow(Row row) {
+                return getFileSnapshotKey(triggerId, routerId, row.getString("relative_dir"),
+                        row.getString("file_name"));
+            }
+        }, args, types);
+        return new HashSet<String>(keys);
+    }
+
+    protected String getFileSnapshotKey(FileSnapshot snapshot) {
+        return getFileSnapshotKey(snapshot.getTriggerId(), snapshot.getRouterId(),
+                snapshot.getRelativeDir(), snapshot.getFileName());
+    }
+
+    protected String getFileSnapshotKey(String triggerId, String routerId, String relativeDir,
+            String fileName) {
+        return triggerId + "::" + routerId + "::" + relativeDir + "::" + fileName;
+    }
+
     public void save(ISqlTransaction sqlTransaction, FileSnapshot snapshot) {
         snapshot.setLastUpdateTime(new Date());
-        if (0 == sqlTransaction.prepareAndExecute(
-                getSql("updateFileSnapshotSql"),
-                new Object[] { snapshot.getLastEventType().getCode(), snapshot.getCrc32Checksum(),
-                        snapshot.getFileSize(), snapshot.getFileModifiedTime(),
-                        snapshot.getLastUpdateTime(), snapshot.getLastUpdateBy(), snapshot.getChannelId(),
-                        snapshot.getReloadChannelId(), 
-                        snapshot.getTriggerId(), snapshot.getRouterId(), snapshot.getRelativeDir(),
-                        snapshot.getFileName() }, new int[] { Types.VARCHAR, Types.NUMERIC,
-                        Types.NUMERIC, Types.NUMERIC, Types.TIMESTAMP, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
-                        Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR })) {
+        if (0 == sqlTransaction.prepareAndExecute(getSql("updateFileSnapshotSql"),
+                getUpdateFileSnapshotArgs(snapshot), UPDATE_FILE_SNAPSHOT_TYPES)) {
             snapshot.setCreateTime(snapshot.getLastUpdateTime());
-            sqlTransaction.prepareAndExecute(
-                    getSql("insertFileSnapshotSql"),
-                    new Object[] { snapshot.getLastEventType().getCode(),
-                            snapshot.getCrc32Checksum(), snapshot.getFileSize(),
-                            snapshot.getFileModifiedTime(), snapshot.getCreateTime(),
-                            snapshot.getLastUpdateTime(), snapshot.getLastUpdateBy(), snapshot.getChannelId(),
-                            snapshot.getReloadChannelId(), 
-                            snapshot.getTriggerId(), snapshot.getRouterId(),
-                            snapshot.getRelativeDir(), snapshot.getFileName() }, new int[] {
-                            Types.VARCHAR, Types.NUMERIC, Types.NUMERIC, Types.NUMERIC,
-                            Types.TIMESTAMP, Types.TIMESTAMP, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
-                            Types.VARCHAR, Types.VARCHAR, Types.VARCHAR });
+            sqlTransaction.prepareAndExecute(getSql("insertFileSnapshotSql"),
+                    getInsertFileSnapshotArgs(snapshot), INSERT_FILE_SNAPSHOT_TYPES);
         }
         // now that we have captured an update, delete the row for cleanup
         if (snapshot.getLastEventType() == LastEventType.DELETE) {
-            sqlTransaction.prepareAndExecute(getSql("deleteFileSnapshotSql"), new Object[] {
-                    snapshot.getTriggerId(), snapshot.getRouterId(), snapshot.getRelativeDir(),
-                    snapshot.getFileName() }, new int[] { Types.VARCHAR, Types.VARCHAR,
-                    Types.VARCHAR, Types.VARCHAR });
+            sqlTransaction.prepareAndExecute(getSql("deleteFileSnapshotSql"),
+                    getDeleteFileSnapshotArgs(snapshot), DELETE_FILE_SNAPSHOT_TYPES);
         }
 
     }
 
+    protected Object[] getUpdateFileSnapshotArgs(FileSnapshot snapshot) {
+        return new Object[] { snapshot.getLastEventType().getCode(), snapshot.getCrc32Checksum(),
+                snapshot.getFileSize(), snapshot.getFileModifiedTime(),
+                snapshot.getLastUpdateTime(), snapshot.getLastUpdateBy(), snapshot.getChannelId(),
+                snapshot.getReloadChannelId(), 
+                snapshot.getTriggerId(), snapshot.getRouterId(), snapshot.getRelativeDir(),
+                snapshot.getFileName() };
+    }
+
+    protected Object[] getInsertFileSnapshotArgs(FileSnapshot snapshot) {
+        return new Object[] { snapshot.getLastEventType().getCode(),
+                snapshot.getCrc32Checksum(), snapshot.getFileSize(),
+                snapshot.getFileModifiedTime(), snapshot.getCreateTime(),
+                snapshot.getLastUpdateTime(), snapshot.getLastUpdateBy(), snapshot.getChannelId(),
+                snapshot.getReloadChannelId(), 
+                snapshot.getTriggerId(), snapshot.getRouterId(),
+                snapshot.getRelativeDir(), snapshot.getFileName() };
+    }
+
+    protected Object[] getDeleteFileSnapshotArgs(FileSnapshot snapshot) {
+        return new Object[] { snapshot.getTriggerId(), snapshot.getRouterId(),
+                snapshot.getRelativeDir(), snapshot.getFileName() };
+    }
+
     synchronized public RemoteNodeStatuses pullFilesFromNodes(boolean force) {
         return queueJob(force,
                 parameterService.getLong(ParameterConstants.FILE_PULL_MINIMUM_PERIOD_MS, -1),
@@ -408,11 +653,19 @@ public class FileSyncService extends AbstractOfflineDetectorService implements I
 
             FileSyncZipDataWriter dataWriter = new FileSyncZipDataWriter(maxBytesToSync, this,
                     engine.getNodeService(), stagedResource);
+            dataWriter.setDeltaEnabled(parameterService
+                    .is(ParameterConstants.FILE_SYNC_DELTA_ENABLED));
+            dataWriter.setDeltaMinFileSize(parameterService
+                    .getLong(ParameterConstants.FILE_SYNC_DELTA_MIN_FILE_SIZE));
+            dataWriter.setDeltaBlockSize(parameterService
+                    .getInt(ParameterConstants.FILE_SYNC_DELTA_BLOCK_SIZE));
+            dataWriter.setSignatureDirectory(getSignatureDirectory());
             try {
                 for (int i = 0; i < batchesToProcess.size(); i++) {
                     currentBatch = batchesToProcess.get(i);
                     processInfo.incrementBatchCount();
                     processInfo.setCurrentBatchId(currentBatch.getBatchId());
+                    dataWriter.setFullFilesOnly(currentBatch.isErrorFlag());
 
                     ((DataExtractorService) engine.getDataExtractorService()).extractOutgoingBatch(
                             processInfo, targetNode, dataWriter, currentBatch, false, true,
@@ -541,6 +794,8 @@ public class FileSyncService extends AbstractOfflineDetectorService implements I
             cursor = null;
         }
 
+        saveSignatures(outgoingBatch.getBatchId());
+
         if (filesToDelete != null && filesToDelete.size() > 0) {
             for (File file : filesToDelete) {
                 if (file != null && file.exists()) {
@@ -556,6 +811,111 @@ public class FileSyncService extends AbstractOfflineDetectorService implements I
         }
     }
 
+    protected File getSignatureDirectory() {
+        return new File(parameterService.getTempDirectory(), "filesync_signatures");
+    }
+
+    /**
+     * The signatures of the files sent in a batch replace the signatures the
+     * next delta is made from once the target node has acknowledged the
+     * batch. A signature from a later batch that was acknowledged first is
+     * kept.
+     */
+    protected void saveSignatures(long batchId) {
+        File signatureDirectory = getSignatureDirectory();
+        File pendingDirectory = new File(signatureDirectory,
+                FileSyncZipDataWriter.PENDING_SIGNATURE_DIR + "/" + batchId);
+        if (pendingDirectory.isDirectory()) {
+            String pendingPath = pendingDirectory.getAbsolutePath();
+            Collection<File> pendingFiles = FileUtils.listFiles(pendingDirectory, null, true);
+            for (File pendingFile : pendingFiles) {
+                File signatureFile = new File(signatureDirectory, pendingFile.getAbsolutePath()
+                        .substring(pendingPath.length() + 1));
+                FileSyncDelta.Signature signature = FileSyncDelta.Signature.read(signatureFile);
+                if (signature == null || signature.getBatchId() <= batchId) {
+                    try {
+                        FileUtils.deleteQuietly(signatureFile);
+                        FileUtils.moveFile(pendingFile, signatureFile);
+                    } catch (IOException e) {
+                        log.warn("Could not save the file sync signature {}.  The file will be sent whole the next time it changes",
+                                signatureFile.getAbsolutePath());
+                    }
+                }
+            }
+            FileUtils.deleteQuietly(pendingDirectory);
+        }
+    }
+
+    public long cleanSignatures(long timeToLiveInMs) {
+        long purgedFileCount = 0;
+        File signatureDirectory = getSignatureDirectory();
+        File[] files = signatureDirectory.listFiles();
+        if (files != null) {
+            long cutoff = System.currentTimeMillis() - timeToLiveInMs;
+            INodeService nodeService = engine.getNodeService();
+            for (File file : files) {
+                if (file.getName().equals(FileSyncZipDataWriter.PENDING_SIGNATURE_DIR)) {
+                    /*
+                     * Batches that were never acknowledged
+                     */
+                    File[] batchDirectories = file.listFiles();
+                    if (batchDirectories != null) {
+                        for (File batchDirectory : batchDirectories) {
+                            if (batchDirectory.lastModified() < cutoff) {
+                                purgedFileCount += deleteSignatures(batchDirectory);
+                            }
+                        }
+                    }
+                } else if (file.isDirectory()) {
+                    Node node = nodeService.findNode(file.getName());
+                    if (node == null || !node.isSyncEnabled()) {
+                        purgedFileCount += deleteSignatures(file);
+                    } else {
+                        purgedFileCount += cleanSignatures(file);
+                    }
+                } else if (file.lastModified() < cutoff) {
+                    /*
+                     * Deltas left behind when extraction was interrupted
+                     */
+                    purgedFileCount += deleteSignatures(file);
+                }
+            }
+        }
+        return purgedFileCount;
+    }
+
+    /**
+     * Remove the signatures of file trigger routers that no longer exist
+     */
+    protected long cleanSignatures(File nodeDirectory) {
+        long purgedFileCount = 0;
+        File[] triggerDirectories = nodeDirectory.listFiles();
+        if (triggerDirectories != null) {
+            for (File triggerDirectory : triggerDirectories) {
+                File[] routerDirectories = triggerDirectory.listFiles();
+                if (routerDirectories != null) {
+                    for (File routerDirectory : routerDirectories) {
+                        if (getFileTriggerRouter(triggerDirectory.getName(),
+                                routerDirectory.getName()) == null) {
+                            purgedFileCount += deleteSignatures(routerDirectory);
+                        }
+                    }
+                }
+            }
+        }
+        return purgedFileCount;
+    }
+
+    protected long deleteSignatures(File file) {
+        long count = file.isDirectory() ? FileUtils.listFiles(file, null, true).size() : 1;
+        if (FileUtils.deleteQuietly(file)) {
+            return count;
+        } else {
+            log.warn("Could not delete the file sync signatures in {}", file.getAbsolutePath());
+            return 0;
+        }
+    }
+
     public void loadFilesFromPush(String nodeId, InputStream in, OutputStream out) {
         INodeService nodeService = engine.getNodeService();
         Node local = nodeService.findIdentity();
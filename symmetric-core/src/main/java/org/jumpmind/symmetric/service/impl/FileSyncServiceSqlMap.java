@@ -91,8 +91,11 @@ public class FileSyncServiceSqlMap extends AbstractSqlMap {
         putSql("deleteFileIncoming",
                 " delete from $(file_incoming)");
 
-        putSql("findNodeIdFromFileIncoming",
-                " select node_id from $(file_incoming) where relative_dir=? and file_name=? and file_modified_time=?");
+        putSql("selectFileIncomingSql",
+                " select relative_dir, file_name, file_modified_time, node_id from $(file_incoming)");
+
+        putSql("selectFileSnapshotKeysSql",
+                " select relative_dir, file_name from $(file_snapshot) where trigger_id=? and router_id=? and ");
 
         putSql("deleteFileSnapshotSql",
                 " delete from $(file_snapshot)                                                  " +
@@ -255,6 +255,31 @@ public class OutgoingBatchService extends AbstractService implements IOutgoingBa
         outgoingBatch.setBatchId(batchId);
     }
 
+    /**
+     * Insert batches that already have their batch ids assigned as one JDBC
+     * batch using the passed in transaction.
+     */
+    public void insertOutgoingBatches(ISqlTransaction transaction, List<OutgoingBatch> outgoingBatches) {
+        if (outgoingBatches.size() > 0) {
+            String serverId = clusterService.getServerId();
+            int[] types = new int[] { symmetricDialect.getSqlTypeForIds(), Types.VARCHAR,
+                    Types.VARCHAR, Types.CHAR, Types.BIGINT, Types.NUMERIC, Types.NUMERIC,
+                    Types.NUMERIC, Types.BIGINT, Types.BIGINT, Types.VARCHAR, Types.VARCHAR };
+            transaction.prepare(getSql("insertOutgoingBatchSql"));
+            for (OutgoingBatch outgoingBatch : outgoingBatches) {
+                outgoingBatch.setLastUpdatedHostName(serverId);
+                transaction.addRow(outgoingBatch, new Object[] { outgoingBatch.getBatchId(),
+                        outgoingBatch.getNodeId(), outgoingBatch.getChannelId(),
+                        outgoingBatch.getStatus().name(), outgoingBatch.getLoadId(),
+                        outgoingBatch.isExtractJobFlag() ? 1 : 0, outgoingBatch.isLoadFlag() ? 1 : 0,
+                        outgoingBatch.isCommonFlag() ? 1 : 0, outgoingBatch.getReloadEventCount(),
+                        outgoingBatch.getOtherEventCount(), outgoingBatch.getLastUpdatedHostName(),
+                        outgoingBatch.getCreateBy() }, types);
+            }
+            transaction.flush();
+        }
+    }
+
     public OutgoingBatch findOutgoingBatch(long batchId, String nodeId) {
         List<OutgoingBatch> list = null;
         if (StringUtils.isNotBlank(nodeId)) {
@@ -295,6 +320,10 @@ public class OutgoingBatchService extends AbstractService implements IOutgoingBa
         return sqlTemplate.queryForInt(getSql("countOutgoingBatchesUnsentOnChannelSql"), channelId);
     }
 
+    public int countOutgoingBatchesUnsent(long batchId) {
+        return sqlTemplate.queryForInt(getSql("countOutgoingBatchesUnsentForBatchIdSql"), batchId);
+    }
+
     public int countOutgoingBatches(List<String> nodeIds, List<String> channels,
             List<OutgoingBatch.Status> statuses) {
         Map<String, Object> params = new HashMap<String, Object>();
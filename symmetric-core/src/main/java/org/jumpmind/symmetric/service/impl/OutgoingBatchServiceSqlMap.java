@@ -101,6 +101,10 @@ public class OutgoingBatchServiceSqlMap extends AbstractSqlMap {
 
         putSql("countOutgoingBatchesUnsentOnChannelSql", ""
                 + "select count(*) from $(outgoing_batch) where status != 'OK' and channel_id=?");
+
+        putSql("countOutgoingBatchesUnsentForBatchIdSql", ""
+                + "select count(*) from $(outgoing_batch) where status not in ('OK','IG') and batch_id=? "
+                + "and node_id in (select node_id from $(node) where sync_enabled=1)");
         
         putSql("selectPendingOutgoingBatchByChannelCountSql",
                 "select b.node_id, b.channel_id, min(b.create_time) as earliest_create_time, max(b.last_update_time) as latest_update_time,            " + 
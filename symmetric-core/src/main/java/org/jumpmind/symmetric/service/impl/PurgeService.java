@@ -23,10 +23,18 @@ package org.jumpmind.symmetric.service.impl;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang.time.DateUtils;
 import org.jumpmind.db.sql.ISqlRowMapper;
@@ -36,11 +44,17 @@ import org.jumpmind.symmetric.db.ISymmetricDialect;
 import org.jumpmind.symmetric.model.ExtractRequest;
 import org.jumpmind.symmetric.model.IncomingBatch;
 import org.jumpmind.symmetric.model.OutgoingBatch;
+import org.jumpmind.symmetric.model.ProcessInfo;
+import org.jumpmind.symmetric.model.ProcessInfo.Status;
+import org.jumpmind.symmetric.model.ProcessInfoKey;
+import org.jumpmind.symmetric.model.ProcessType;
 import org.jumpmind.symmetric.model.RegistrationRequest;
 import org.jumpmind.symmetric.service.ClusterConstants;
 import org.jumpmind.symmetric.service.IClusterService;
+import org.jumpmind.symmetric.service.INodeService;
 import org.jumpmind.symmetric.service.IParameterService;
 import org.jumpmind.symmetric.service.IPurgeService;
+import org.jumpmind.symmetric.statistic.ChannelStats;
 import org.jumpmind.symmetric.statistic.IStatisticManager;
 
 /**
@@ -56,11 +70,15 @@ public class PurgeService extends AbstractService implements IPurgeService {
 
     private IStatisticManager statisticManager;
 
+    private INodeService nodeService;
+
     public PurgeService(IParameterService parameterService, ISymmetricDialect symmetricDialect,
-            IClusterService clusterService, IStatisticManager statisticManager) {
+            IClusterService clusterService, IStatisticManager statisticManager,
+            INodeService nodeService) {
         super(parameterService, symmetricDialect);
         this.clusterService = clusterService;
         this.statisticManager = statisticManager;
+        this.nodeService = nodeService;
         setSqlMap(new PurgeServiceSqlMap(symmetricDialect.getPlatform(),
                 createSqlReplacementTokens()));
     }
@@ -192,24 +210,176 @@ public class PurgeService extends AbstractService implements IPurgeService {
         return count;
     }
 
-    private int purgeByMinMax(long[] minMax, MinMaxDeleteSql identifier, Date retentionTime,
+    /**
+     * Purge one table over an id range. The threads of
+     * {@link ParameterConstants#PURGE_THREAD_COUNT} split the windows of this
+     * range between them. The tables themselves are purged one after another:
+     * data is only purged while its data events still show that it was sent,
+     * and batches are only purged after their data events are gone.
+     */
+    protected int purgeByMinMax(long[] minMax, MinMaxDeleteSql identifier, Date retentionTime,
             int maxNumtoPurgeinTx) {
-        long minId = minMax[0];
-        long purgeUpToId = minMax[1];
-        long ts = System.currentTimeMillis();
-        int totalCount = 0;
-        int totalDeleteStmts = 0;
-        int idSqlType = symmetricDialect.getSqlTypeForIds();
-        Timestamp cutoffTime = new Timestamp(retentionTime.getTime());
         log.info("About to purge {}", identifier.toString().toLowerCase());
-        
-        while (minId <= purgeUpToId) {
-            totalDeleteStmts++;
-            long maxId = minId + maxNumtoPurgeinTx;
-            if (maxId > purgeUpToId) {
-                maxId = purgeUpToId;
+        MinMaxPurge purge = createMinMaxPurge(minMax, identifier,
+                new Timestamp(retentionTime.getTime()), maxNumtoPurgeinTx);
+        ProcessInfo processInfo = statisticManager.newProcessInfo(new ProcessInfoKey(
+                nodeService.findIdentityNodeId(), null, ProcessType.PURGE));
+        processInfo.setCurrentTableName(identifier.toString().toLowerCase());
+        processInfo.setStatus(Status.PROCESSING);
+        purge.processInfo = processInfo;
+
+        int threadCount = Math.max(1, parameterService.getInt(ParameterConstants.PURGE_THREAD_COUNT, 1));
+        try {
+            if (threadCount == 1 || minMax[1] - minMax[0] <= maxNumtoPurgeinTx) {
+                purge.run();
+            } else {
+                ExecutorService purgeThreads = Executors.newFixedThreadPool(threadCount,
+                        new ThreadFactory() {
+                            final AtomicInteger threadNumber = new AtomicInteger(1);
+                            final String namePrefix = parameterService.getEngineName()
+                                    .toLowerCase() + "-purge-";
+
+                            public Thread newThread(Runnable r) {
+                                Thread t = new Thread(r);
+                                t.setName(namePrefix + threadNumber.getAndIncrement());
+                                t.setDaemon(false);
+                                if (t.getPriority() != Thread.NORM_PRIORITY) {
+                                    t.setPriority(Thread.NORM_PRIORITY);
+                                }
+                                return t;
+                            }
+                        });
+                try {
+                    List<Future<?>> futures = new ArrayList<Future<?>>(threadCount);
+                    for (int i = 0; i < threadCount; i++) {
+                        futures.add(purgeThreads.submit(purge));
+                    }
+                    for (Future<?> future : futures) {
+                        try {
+                            future.get();
+                        } catch (ExecutionException ex) {
+                            purge.stopped = true;
+                            if (ex.getCause() instanceof RuntimeException) {
+                                throw (RuntimeException) ex.getCause();
+                            } else {
+                                throw new RuntimeException(ex.getCause());
+                            }
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    purge.stopped = true;
+                    Thread.currentThread().interrupt();
+                } finally {
+                    purgeThreads.shutdown();
+                }
             }
+            processInfo.setStatus(Status.OK);
+        } catch (RuntimeException ex) {
+            processInfo.setStatus(Status.ERROR);
+            throw ex;
+        }
+
+        log.info("Done purging {} of {} rows", purge.totalCount.get(), identifier.toString()
+                .toLowerCase());
+        return (int) purge.totalCount.get();
+    }
+
+    protected MinMaxPurge createMinMaxPurge(long[] minMax, MinMaxDeleteSql identifier,
+            Timestamp cutoffTime, int maxNumtoPurgeinTx) {
+        return new MinMaxPurge(minMax, identifier, cutoffTime, maxNumtoPurgeinTx);
+    }
+
+    /**
+     * Deletes an id range one window at a time. More than one thread can run
+     * the same purge, in which case each one claims the next window that has
+     * not been deleted yet. The window shrinks when deletes take longer than
+     * the target time and grows back when they are fast. Threads slow down
+     * when the purge goes over the rows per second limit and pause while
+     * routing is behind.
+     */
+    class MinMaxPurge implements Runnable {
+
+        MinMaxDeleteSql identifier;
+
+        Timestamp cutoffTime;
 
+        long purgeUpToId;
+
+        int maxWindowSize;
+
+        int minWindowSize;
+
+        long targetDeleteTimeMs;
+
+        long maxRowsPerSecond;
+
+        long maxUnroutedData;
+
+        int idSqlType;
+
+        AtomicLong nextId;
+
+        AtomicInteger windowSize;
+
+        AtomicLong totalCount = new AtomicLong();
+
+        AtomicInteger totalDeleteStmts = new AtomicInteger();
+
+        long startTime = System.currentTimeMillis();
+
+        long lastLogTime = startTime;
+
+        volatile long lastUnroutedCheckTime;
+
+        volatile boolean routingBehind;
+
+        volatile boolean stopped;
+
+        ProcessInfo processInfo;
+
+        MinMaxPurge(long[] minMax, MinMaxDeleteSql identifier, Timestamp cutoffTime,
+                int maxNumtoPurgeinTx) {
+            this.identifier = identifier;
+            this.cutoffTime = cutoffTime;
+            this.purgeUpToId = minMax[1];
+            this.nextId = new AtomicLong(minMax[0]);
+            this.maxWindowSize = maxNumtoPurgeinTx;
+            this.minWindowSize = Math.max(1, maxNumtoPurgeinTx / 100);
+            this.windowSize = new AtomicInteger(maxNumtoPurgeinTx);
+            this.targetDeleteTimeMs = parameterService
+                    .getLong(ParameterConstants.PURGE_TARGET_DELETE_TIME_MS, 0);
+            this.maxRowsPerSecond = parameterService
+                    .getLong(ParameterConstants.PURGE_MAX_ROWS_PER_SECOND, 0);
+            this.maxUnroutedData = parameterService
+                    .getLong(ParameterConstants.PURGE_PAUSE_WHEN_UNROUTED_DATA_EXCEEDS, 0);
+            this.idSqlType = symmetricDialect.getSqlTypeForIds();
+        }
+
+        public void run() {
+            while (!stopped) {
+                int window = windowSize.get();
+                long minId = nextId.getAndAdd(window + 1);
+                if (minId > purgeUpToId) {
+                    break;
+                }
+                long maxId = Math.min(minId + window, purgeUpToId);
+
+                waitWhileRoutingIsBehind();
+
+                long ts = System.currentTimeMillis();
+                int count = delete(minId, maxId);
+                long deleteTimeMs = System.currentTimeMillis() - ts;
+
+                totalDeleteStmts.incrementAndGet();
+                long total = totalCount.addAndGet(count);
+                processInfo.setCurrentDataCount(total);
+                adjustWindowSize(window, deleteTimeMs);
+                logProgress(total);
+                throttle(total);
+            }
+        }
+
+        protected int delete(long minId, long maxId) {
             String deleteSql = null;
             Object[] args = null;
             int[] argTypes = null;
@@ -246,18 +416,79 @@ public class PurgeService extends AbstractService implements IPurgeService {
             log.debug("Running the following statement: {} with the following arguments: {}", deleteSql, Arrays.toString(args));
             int count = sqlTemplate.update(deleteSql, args, argTypes);
             log.debug("Deleted {} rows", count);
-            totalCount += count;
+            return count;
+        }
 
-            if (totalCount > 0
-                    && (System.currentTimeMillis() - ts > DateUtils.MILLIS_PER_MINUTE * 5)) {
-                log.info("Purged {} of {} rows so far using {} statements", new Object[] {
-                        totalCount, identifier.toString().toLowerCase(), totalDeleteStmts });
-                ts = System.currentTimeMillis();
+        protected void adjustWindowSize(int window, long deleteTimeMs) {
+            if (targetDeleteTimeMs > 0) {
+                if (deleteTimeMs > targetDeleteTimeMs && window > minWindowSize) {
+                    windowSize.set(Math.max(minWindowSize, window / 2));
+                    log.debug("Reduced the {} purge window to {} ids because a delete took {} ms",
+                            new Object[] { identifier.toString().toLowerCase(), windowSize.get(),
+                                    deleteTimeMs });
+                } else if (deleteTimeMs < targetDeleteTimeMs / 2 && window < maxWindowSize) {
+                    windowSize.set((int) Math.min(maxWindowSize, window * 2l));
+                }
+            }
+        }
+
+        protected void logProgress(long total) {
+            synchronized (this) {
+                if (total > 0
+                        && (System.currentTimeMillis() - lastLogTime > DateUtils.MILLIS_PER_MINUTE * 5)) {
+                    log.info("Purged {} of {} rows so far using {} statements", new Object[] {
+                            total, identifier.toString().toLowerCase(), totalDeleteStmts.get() });
+                    lastLogTime = System.currentTimeMillis();
+                }
+            }
+        }
+
+        protected void throttle(long total) {
+            if (maxRowsPerSecond > 0) {
+                long expectedTimeMs = total * 1000 / maxRowsPerSecond;
+                long sleepMs = expectedTimeMs - (System.currentTimeMillis() - startTime);
+                if (sleepMs > 0) {
+                    sleep(sleepMs);
+                }
+            }
+        }
+
+        protected void waitWhileRoutingIsBehind() {
+            if (maxUnroutedData > 0) {
+                while (!stopped && isRoutingBehind()) {
+                    sleep(DateUtils.MILLIS_PER_SECOND);
+                }
+            }
+        }
+
+        protected boolean isRoutingBehind() {
+            long now = System.currentTimeMillis();
+            if (now - lastUnroutedCheckTime >= DateUtils.MILLIS_PER_SECOND) {
+                lastUnroutedCheckTime = now;
+                long unrouted = 0;
+                for (ChannelStats stats : statisticManager.getWorkingChannelStats().values()) {
+                    unrouted += stats.getDataUnRouted();
+                }
+                boolean behind = unrouted > maxUnroutedData;
+                if (behind && !routingBehind) {
+                    log.info("Pausing the {} purge because there are {} rows of data left to route",
+                            identifier.toString().toLowerCase(), unrouted);
+                } else if (!behind && routingBehind) {
+                    log.info("Resuming the {} purge", identifier.toString().toLowerCase());
+                }
+                routingBehind = behind;
+            }
+            return routingBehind;
+        }
+
+        protected void sleep(long ms) {
+            try {
+                Thread.sleep(ms);
+            } catch (InterruptedException ex) {
+                stopped = true;
+                Thread.currentThread().interrupt();
             }
-            minId = maxId + 1;
         }
-        log.info("Done purging {} of {} rows", totalCount, identifier.toString().toLowerCase());
-        return totalCount;
     }
 
     public long purgeIncoming(Calendar retentionCutoff, boolean force) {
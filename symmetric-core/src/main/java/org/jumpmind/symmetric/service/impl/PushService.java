@@ -23,10 +23,13 @@ package org.jumpmind.symmetric.service.impl;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -41,8 +44,10 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.jumpmind.symmetric.ISymmetricEngine;
 import org.jumpmind.symmetric.common.ParameterConstants;
+import org.jumpmind.symmetric.io.stage.DeflateStagingCodec;
 import org.jumpmind.symmetric.io.stage.IStagedResource;
 import org.jumpmind.symmetric.model.BatchAck;
 import org.jumpmind.symmetric.model.Node;
@@ -73,6 +78,7 @@ import org.jumpmind.symmetric.transport.IIncomingTransport;
 import org.jumpmind.symmetric.transport.IOutgoingWithResponseTransport;
 import org.jumpmind.symmetric.transport.ITransportManager;
 import org.jumpmind.symmetric.transport.ServiceUnavailableException;
+import org.jumpmind.symmetric.transport.http.HttpOutgoingTransport;
 
 /**
  * @see IPushService
@@ -87,6 +93,8 @@ public class PushService extends AbstractOfflineDetectorService implements IPush
 
     protected Executor nodeChannelTransportForPushWorker;
 
+    protected Set<String> nodesAcceptingGzipMembers = Collections.synchronizedSet(new HashSet<String>());
+
     public PushService(ISymmetricEngine engine) {
         super(engine.getParameterService(), engine.getSymmetricDialect(), engine.getExtensionService());
         this.engine = engine;
@@ -376,6 +384,11 @@ public class PushService extends AbstractOfflineDetectorService implements IPush
                 OutgoingBatch batch = sendQueue.take();
                 transport = transportManager.getPushTransport(targetNode, identityNode, identitySecurity.getNodePassword(),
                         batch.getChannelId(), parameterService.getRegistrationUrl());
+                boolean sendGzipMembers = transport instanceof HttpOutgoingTransport
+                        && nodesAcceptingGzipMembers.contains(targetNode.getNodeId())
+                        && ((HttpOutgoingTransport) transport).isUseCompression()
+                        && DeflateStagingCodec.NAME.equalsIgnoreCase(parameterService
+                                .getString(ParameterConstants.STAGING_COMPRESSION_CODEC));
                 while (!(batch instanceof EOM)) {
                     log.info("sending batch {}", batch);
                     processInfo.setCurrentBatchId(batch.getBatchId());
@@ -383,12 +396,16 @@ public class PushService extends AbstractOfflineDetectorService implements IPush
                     processInfo.setStatus(ProcessInfo.Status.TRANSFERRING);
                     batchesSent.add(batch);
                     IStagedResource resource = dataExtractorService.getStagedResource(batch);
-                    InputStream is = resource.getInputStream();
                     if (os == null) {
-                        os = transport.openStream();
+                        os = sendGzipMembers ? ((HttpOutgoingTransport) transport)
+                                .openGzipMemberStream() : transport.openStream();
                     }
                     try {
-                        IOUtils.copy(is, os);
+                        if (sendGzipMembers) {
+                            writeGzipMember(resource, os);
+                        } else {
+                            IOUtils.copy(resource.getInputStream(), os);
+                        }
                     } finally {
                         resource.close();
                     }
@@ -398,6 +415,7 @@ public class PushService extends AbstractOfflineDetectorService implements IPush
                 processInfo.setStatus(ProcessInfo.Status.OK);
 
                 BufferedReader reader = transport.readResponse();
+                updateGzipMembersAccepted(transport);
                 
                 String line = null;
                 do {
@@ -414,6 +432,7 @@ public class PushService extends AbstractOfflineDetectorService implements IPush
                 } while (line != null);                
 
             } catch (Exception ex) {                
+                nodesAcceptingGzipMembers.remove(targetNode.getNodeId());
                 processInfo.setStatus(ProcessInfo.Status.ERROR);
                 fireOffline(ex, targetNode, status);
                 log.error("", ex);
@@ -423,6 +442,43 @@ public class PushService extends AbstractOfflineDetectorService implements IPush
             }
         }
 
+        /**
+         * Batches are sent as concatenated gzip members only to nodes that
+         * said they can read them in the response to an earlier push. Other
+         * nodes, and nodes running older versions, get one gzip stream.
+         */
+        protected void updateGzipMembersAccepted(IOutgoingWithResponseTransport transport) {
+            if (transport instanceof HttpOutgoingTransport
+                    && ((HttpOutgoingTransport) transport).isGzipMembersAccepted()) {
+                nodesAcceptingGzipMembers.add(targetNode.getNodeId());
+            } else {
+                nodesAcceptingGzipMembers.remove(targetNode.getNodeId());
+            }
+        }
+
+        /**
+         * Staged files that were compressed using the deflate codec are
+         * already gzip members, so they are copied to the transport without
+         * being decompressed and compressed again. Anything else is
+         * compressed into a new member.
+         */
+        protected void writeGzipMember(IStagedResource resource, OutputStream os) throws IOException {
+            if (resource.getCodec() instanceof DeflateStagingCodec) {
+                InputStream is = new FileInputStream(resource.getFile());
+                try {
+                    IOUtils.copy(is, os);
+                } finally {
+                    IOUtils.closeQuietly(is);
+                }
+            } else {
+                OutputStream member = new DeflateStagingCodec(
+                        parameterService.getInt(ParameterConstants.TRANSPORT_HTTP_COMPRESSION_LEVEL))
+                        .compress(new CloseShieldOutputStream(os));
+                IOUtils.copy(resource.getInputStream(), member);
+                member.close();
+            }
+        }
+
         public void waitForComplete() {
             try {
                 latch.await();
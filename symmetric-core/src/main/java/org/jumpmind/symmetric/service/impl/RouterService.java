@@ -25,13 +25,16 @@ import static org.apache.commons.lang.StringUtils.isNotBlank;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -39,6 +42,7 @@ import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 import org.jumpmind.db.model.Table;
 import org.jumpmind.symmetric.ISymmetricEngine;
+import org.jumpmind.symmetric.SymmetricException;
 import org.jumpmind.symmetric.SyntaxParsingException;
 import org.jumpmind.symmetric.common.Constants;
 import org.jumpmind.symmetric.common.ParameterConstants;
@@ -47,6 +51,7 @@ import org.jumpmind.symmetric.model.Channel;
 import org.jumpmind.symmetric.model.Data;
 import org.jumpmind.symmetric.model.DataGap;
 import org.jumpmind.symmetric.model.DataMetaData;
+import org.jumpmind.symmetric.model.Lock;
 import org.jumpmind.symmetric.model.Node;
 import org.jumpmind.symmetric.model.NodeChannel;
 import org.jumpmind.symmetric.model.NodeGroupLink;
@@ -65,6 +70,7 @@ import org.jumpmind.symmetric.route.ChannelRouterContext;
 import org.jumpmind.symmetric.route.ColumnMatchDataRouter;
 import org.jumpmind.symmetric.route.ConfigurationChangedDataRouter;
 import org.jumpmind.symmetric.route.DataGapDetector;
+import org.jumpmind.symmetric.route.DataGapFastDetector;
 import org.jumpmind.symmetric.route.DataGapRouteReader;
 import org.jumpmind.symmetric.route.DefaultBatchAlgorithm;
 import org.jumpmind.symmetric.route.DefaultDataRouter;
@@ -79,6 +85,7 @@ import org.jumpmind.symmetric.route.SimpleRouterContext;
 import org.jumpmind.symmetric.route.SubSelectDataRouter;
 import org.jumpmind.symmetric.route.TransactionalBatchAlgorithm;
 import org.jumpmind.symmetric.service.ClusterConstants;
+import org.jumpmind.symmetric.service.IClusterService;
 import org.jumpmind.symmetric.service.IConfigurationService;
 import org.jumpmind.symmetric.service.IExtensionService;
 import org.jumpmind.symmetric.service.INodeService;
@@ -90,13 +97,15 @@ import org.jumpmind.symmetric.statistic.StatisticConstants;
  */
 public class RouterService extends AbstractService implements IRouterService {
 
-    protected  Map<String, Boolean> commonBatchesLastKnownState = new HashMap<String, Boolean>();
+    protected  Map<String, Boolean> commonBatchesLastKnownState = new ConcurrentHashMap<String, Boolean>();
     
     
-    protected  Map<String, Boolean> defaultRouterOnlyLastKnownState = new HashMap<String, Boolean>();
+    protected  Map<String, Boolean> defaultRouterOnlyLastKnownState = new ConcurrentHashMap<String, Boolean>();
 
     protected transient ExecutorService readThread = null;
 
+    protected transient ExecutorService channelRouterThreads = null;
+
     protected ISymmetricEngine engine;
     
     protected IExtensionService extensionService;
@@ -105,6 +114,8 @@ public class RouterService extends AbstractService implements IRouterService {
     
     protected boolean firstTimeCheckForAbandonedBatches = true;
 
+    protected volatile DataGapDetector gapDetector;
+
     public RouterService(ISymmetricEngine engine) {
         super(engine.getParameterService(), engine.getSymmetricDialect());
 
@@ -117,7 +128,7 @@ public class RouterService extends AbstractService implements IRouterService {
 
         extensionService.addExtensionPoint(ConfigurationChangedDataRouter.ROUTER_TYPE, new ConfigurationChangedDataRouter(engine));
         extensionService.addExtensionPoint("bsh", new BshDataRouter(engine));
-        extensionService.addExtensionPoint("subselect", new SubSelectDataRouter(symmetricDialect));
+        extensionService.addExtensionPoint("subselect", new SubSelectDataRouter(symmetricDialect, parameterService));
         extensionService.addExtensionPoint("lookuptable", new LookupTableDataRouter(symmetricDialect));
         extensionService.addExtensionPoint("default", new DefaultDataRouter());
         extensionService.addExtensionPoint("audit", new AuditTableDataRouter(engine));
@@ -152,6 +163,15 @@ public class RouterService extends AbstractService implements IRouterService {
                 log.error("", ex);
             }
         }
+
+        if (channelRouterThreads != null) {
+            try {
+                channelRouterThreads.shutdown();
+                channelRouterThreads = null;
+            } catch (Exception ex) {
+                log.error("", ex);
+            }
+        }
     }
 
     /**
@@ -171,11 +191,10 @@ public class RouterService extends AbstractService implements IRouterService {
                     insertInitialLoadEvents();
                     
                     long ts = System.currentTimeMillis();
-                    DataGapDetector gapDetector = new DataGapDetector(
-                            engine.getDataService(), parameterService, symmetricDialect, 
-                            this, engine.getStatisticManager(), engine.getNodeService());
+                    DataGapDetector gapDetector = prepareDataGapDetector(force);
                     gapDetector.beforeRouting();
                     dataCount = routeDataForEachChannel(gapDetector);
+                    gapDetector.afterRouting();
                     ts = System.currentTimeMillis() - ts;
                     if (dataCount > 0 || ts > Constants.LONG_OPERATION_THRESHOLD) {
                         log.info("Routed {} data events in {} ms", dataCount, ts);
@@ -190,6 +209,44 @@ public class RouterService extends AbstractService implements IRouterService {
         return dataCount;
     }
 
+    /**
+     * The fast gap detector keeps its gaps in memory between runs, so it is
+     * kept around and told to check all gaps against the database when
+     * another server in the cluster held the route lock last.
+     */
+    protected DataGapDetector prepareDataGapDetector(boolean force) {
+        boolean useFastGapDetector = parameterService
+                .is(ParameterConstants.ROUTING_USE_FAST_GAP_DETECTOR);
+        DataGapDetector gapDetector = this.gapDetector;
+        if (gapDetector == null
+                || (gapDetector instanceof DataGapFastDetector) != useFastGapDetector) {
+            if (useFastGapDetector) {
+                gapDetector = new DataGapFastDetector(engine.getDataService(), parameterService,
+                        symmetricDialect, this, engine.getStatisticManager(),
+                        engine.getNodeService());
+            } else {
+                gapDetector = new DataGapDetector(engine.getDataService(), parameterService,
+                        symmetricDialect, this, engine.getStatisticManager(),
+                        engine.getNodeService());
+            }
+            this.gapDetector = gapDetector;
+        } else if (useFastGapDetector && !force) {
+            IClusterService clusterService = engine.getClusterService();
+            Lock lock = clusterService.findLocks().get(ClusterConstants.ROUTE);
+            if (lock != null && lock.getLastLockingServerId() != null
+                    && !lock.getLastLockingServerId().equals(clusterService.getServerId())) {
+                log.info("The route lock was last held by {}.  Checking all data gaps",
+                        lock.getLastLockingServerId());
+                gapDetector.setFullGapAnalysis(true);
+            }
+        }
+        return gapDetector;
+    }
+
+    public DataGapDetector getDataGapDetector() {
+        return gapDetector;
+    }
+
     /**
      * If a load has been queued up by setting the initial load enabled or
      * reverse initial load enabled flags, then the router service will insert
@@ -314,6 +371,11 @@ public class RouterService extends AbstractService implements IRouterService {
      * decide to multi-thread the routing it is a simple matter of inserting a
      * thread pool here and waiting for all channels to be processed. The other
      * reason is to reduce the number of connections we are required to have.
+     * <p/>
+     * When {@link ParameterConstants#ROUTING_MAX_CHANNELS_IN_PARALLEL} is
+     * greater than one, channels are handed out to that many worker threads
+     * instead. Each worker routes a channel with its own
+     * {@link ChannelRouterContext} and database transaction.
      */
     protected int routeDataForEachChannel(DataGapDetector gapDetector) {
         int dataCount = 0;
@@ -324,13 +386,10 @@ public class RouterService extends AbstractService implements IRouterService {
         try {
             final List<NodeChannel> channels = engine.getConfigurationService().getNodeChannels(
                     false);
+            List<NodeChannel> channelsToRoute = new ArrayList<NodeChannel>(channels.size());
             for (NodeChannel nodeChannel : channels) {
                 if (nodeChannel.isEnabled()) {
-                    processInfo.setCurrentChannelId(nodeChannel.getChannelId());
-                    dataCount += routeDataForChannel(processInfo,
-                            nodeChannel,
-                            sourceNode
-                            , gapDetector);
+                    channelsToRoute.add(nodeChannel);
                 } else {
                     if (log.isDebugEnabled()) {
                         log.debug(
@@ -339,6 +398,21 @@ public class RouterService extends AbstractService implements IRouterService {
                     }
                 }
             }
+
+            int maxChannelsInParallel = parameterService.getInt(
+                    ParameterConstants.ROUTING_MAX_CHANNELS_IN_PARALLEL, 1);
+            if (maxChannelsInParallel > 1 && channelsToRoute.size() > 1) {
+                dataCount = routeDataForEachChannelInParallel(channelsToRoute, sourceNode,
+                        gapDetector, maxChannelsInParallel);
+            } else {
+                for (NodeChannel nodeChannel : channelsToRoute) {
+                    processInfo.setCurrentChannelId(nodeChannel.getChannelId());
+                    dataCount += routeDataForChannel(processInfo,
+                            nodeChannel,
+                            sourceNode
+                            , gapDetector);
+                }
+            }
             processInfo.setStatus(ProcessInfo.Status.OK);
         } catch (RuntimeException ex) {
             processInfo.setStatus(ProcessInfo.Status.ERROR);
@@ -347,6 +421,88 @@ public class RouterService extends AbstractService implements IRouterService {
         return dataCount;
     }
 
+    /**
+     * Start up to maxChannelsInParallel workers that take channels off of a
+     * shared queue until it is empty. Channels are independent of each other
+     * so a channel with a large backlog only ties up one worker.
+     */
+    protected int routeDataForEachChannelInParallel(List<NodeChannel> channelsToRoute,
+            final Node sourceNode, final DataGapDetector gapDetector, int maxChannelsInParallel) {
+        final ConcurrentLinkedQueue<NodeChannel> queue = new ConcurrentLinkedQueue<NodeChannel>(
+                channelsToRoute);
+        final AtomicInteger dataCount = new AtomicInteger();
+        ExecutorService executor = getChannelRouterThreads();
+        int workerCount = Math.min(maxChannelsInParallel, channelsToRoute.size());
+        List<Future<?>> futures = new ArrayList<Future<?>>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    NodeChannel nodeChannel = queue.poll();
+                    while (nodeChannel != null) {
+                        ProcessInfo processInfo = engine.getStatisticManager().newProcessInfo(
+                                new ProcessInfoKey(sourceNode.getNodeId(), null,
+                                        ProcessType.ROUTER_JOB, nodeChannel.getChannelId()));
+                        processInfo.setStatus(ProcessInfo.Status.PROCESSING);
+                        processInfo.setCurrentChannelId(nodeChannel.getChannelId());
+                        dataCount.addAndGet(routeDataForChannel(processInfo, nodeChannel,
+                                sourceNode, gapDetector));
+                        processInfo.setStatus(ProcessInfo.Status.OK);
+                        nodeChannel = queue.poll();
+                    }
+                }
+            }));
+        }
+
+        RuntimeException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException ex) {
+                log.warn("Interrupted while waiting for channels to finish routing");
+                queue.clear();
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                log.error("", cause);
+                if (failure == null) {
+                    failure = cause instanceof RuntimeException ? (RuntimeException) cause
+                            : new SymmetricException(cause);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+        return dataCount.get();
+    }
+
+    protected synchronized ExecutorService getChannelRouterThreads() {
+        if (channelRouterThreads == null) {
+            channelRouterThreads = Executors.newCachedThreadPool(createThreadFactory("router-channel-"));
+        }
+        return channelRouterThreads;
+    }
+
+    protected ThreadFactory createThreadFactory(String name) {
+        final String namePrefix = parameterService.getEngineName().toLowerCase() + "-" + name;
+        return new ThreadFactory() {
+            final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setName(namePrefix + threadNumber.getAndIncrement());
+                if (t.isDaemon()) {
+                    t.setDaemon(false);
+                }
+                if (t.getPriority() != Thread.NORM_PRIORITY) {
+                    t.setPriority(Thread.NORM_PRIORITY);
+                }
+                return t;
+            }
+        };
+    }
+
     protected boolean producesCommonBatches(Channel channel, String nodeGroupId, List<TriggerRouter> triggerRouters) {
         String channelId = channel.getChannelId();
         Boolean producesCommonBatches = !Constants.CHANNEL_CONFIG.equals(channelId)
@@ -466,6 +622,11 @@ public class RouterService extends AbstractService implements IRouterService {
                     symmetricDialect.getPlatform().getSqlTemplate().startSqlTransaction());
             context.setProduceCommonBatches(producesCommonBatches);
             context.setOnlyDefaultRoutersAssigned(onlyDefaultRoutersAssigned);
+            context.setTrackDataIds(gapDetector.isTrackingDataIds());
+            List<DataGap> dataGaps = gapDetector.getDataGaps();
+            if (dataGaps != null) {
+                context.setDataGaps(dataGaps);
+            }
             
             dataCount = selectDataAndRoute(processInfo, context);
             return dataCount;
@@ -533,6 +694,9 @@ public class RouterService extends AbstractService implements IRouterService {
                 context.incrementStat(totalTime, ChannelRouterContext.STAT_ROUTE_TOTAL_TIME);
                 context.logStats(log, totalTime);
                 boolean detectGaps = context.isRequestGapDetection();
+                if (context.isTrackDataIds()) {
+                    gapDetector.addDataIds(context.getDataIds());
+                }
                 context.cleanup();
                 if (detectGaps) {
                     gapDetector.beforeRouting();
@@ -545,6 +709,7 @@ public class RouterService extends AbstractService implements IRouterService {
         Set<IDataRouter> usedRouters = new HashSet<IDataRouter>(context.getUsedDataRouters());
         List<OutgoingBatch> batches = new ArrayList<OutgoingBatch>(context.getBatchesByNodes()
                 .values());
+        engine.getOutgoingBatchService().insertOutgoingBatches(context.getSqlTransaction(), batches);
         context.commit();
 
         if (engine.getParameterService().is(ParameterConstants.ROUTING_LOG_STATS_ON_BATCH_ERROR)) {
@@ -601,31 +766,19 @@ public class RouterService extends AbstractService implements IRouterService {
 		if (parameterService.is(ParameterConstants.SYNCHRONIZE_ALL_JOBS)) {
 			reader.run();
 		} else {
-			if (readThread == null) {
-				readThread = Executors.newCachedThreadPool(new ThreadFactory() {
-					final AtomicInteger threadNumber = new AtomicInteger(1);
-					final String namePrefix = parameterService.getEngineName()
-							.toLowerCase() + "-router-reader-";
-
-					public Thread newThread(Runnable r) {
-						Thread t = new Thread(r);
-						t.setName(namePrefix + threadNumber.getAndIncrement());
-						if (t.isDaemon()) {
-							t.setDaemon(false);
-						}
-						if (t.getPriority() != Thread.NORM_PRIORITY) {
-							t.setPriority(Thread.NORM_PRIORITY);
-						}
-						return t;
-					}
-				});
-			}
-			readThread.execute(reader);
+			getReadThread().execute(reader);
 		}
 
 		return reader;
 	}
 
+    protected synchronized ExecutorService getReadThread() {
+        if (readThread == null) {
+            readThread = Executors.newCachedThreadPool(createThreadFactory("router-reader-"));
+        }
+        return readThread;
+    }
+
     /**
      * Pre-read data and fill up a queue so we can peek ahead to see if we have
      * crossed a database transaction boundary. Then route each {@link Data}
@@ -639,6 +792,7 @@ public class RouterService extends AbstractService implements IRouterService {
      */
     protected int selectDataAndRoute(ProcessInfo processInfo, ChannelRouterContext context) throws InterruptedException {
         IDataToRouteReader reader = startReading(context);
+        context.setDataReader(reader);
         Data data = null;
         Data nextData = null;
         int totalDataCount = 0;
@@ -648,11 +802,11 @@ public class RouterService extends AbstractService implements IRouterService {
         final int maxNumberOfEventsBeforeFlush = parameterService
                 .getInt(ParameterConstants.ROUTING_FLUSH_JDBC_BATCH_SIZE);
         try {
-            nextData = reader.take();
+            nextData = context.takeData();
             do {
                 if (nextData != null) {
                     data = nextData;
-                    nextData = reader.take();
+                    nextData = context.takeData();
                     if (data != null) {
                         processInfo.setCurrentTableName(data.getTableName());
                         processInfo.incrementCurrentDataCount();
@@ -819,7 +973,14 @@ public class RouterService extends AbstractService implements IRouterService {
 							new Object[] { nodeId, batch.getChannelId(),
 									context.getBatchesByNodes().values() });
 
-                    engine.getOutgoingBatchService().insertOutgoingBatch(batch);
+                    /*
+                     * The batch is inserted with the rest of the batches in
+                     * the routing transaction when the context is committed
+                     */
+                    if (batch.getBatchId() <= 0) {
+                        batch.setBatchId(engine.getSequenceService().nextVal(
+                                Constants.SEQUENCE_OUTGOING_BATCH));
+                    }
                     processInfo.incrementBatchCount();
                     context.getBatchesByNodes().put(nodeId, batch);
 
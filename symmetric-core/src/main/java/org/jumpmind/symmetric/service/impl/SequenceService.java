@@ -41,6 +41,8 @@ public class SequenceService extends AbstractService implements ISequenceService
 
     private Map<String, Sequence> sequenceDefinitionCache = new HashMap<String, Sequence>();
 
+    private Map<String, SequenceBlock> sequenceBlocks = new HashMap<String, SequenceBlock>();
+
     public SequenceService(IParameterService parameterService, ISymmetricDialect symmetricDialect) {
         super(parameterService, symmetricDialect);
         setSqlMap(new SequenceServiceSqlMap(symmetricDialect.getPlatform(),
@@ -83,6 +85,10 @@ public class SequenceService extends AbstractService implements ISequenceService
     }
 
     public long nextVal(String name) {
+        int blockSize = parameterService.getInt(ParameterConstants.SEQUENCE_BLOCK_SIZE, 1);
+        if (blockSize > 1) {
+            return nextValFromBlock(name, blockSize);
+        }
         ISqlTransaction transaction = null;
         try {
             transaction = sqlTemplate.startSqlTransaction();
@@ -104,15 +110,29 @@ public class SequenceService extends AbstractService implements ISequenceService
         }
     }
 
+    /**
+     * Get the next value as part of the caller's transaction. When
+     * sequence.block.size is greater than one, a value is handed out from a
+     * block that this instance already reserved. A new block is never reserved
+     * here. It would have to be reserved in its own transaction, which waits
+     * on the caller's transaction on databases that allow one writer at a
+     * time. It cannot be reserved in the caller's transaction either, because
+     * a rollback would free values that are still held in memory. So when no
+     * block has values left, one value is taken in the caller's transaction.
+     */
     public long nextVal(ISqlTransaction transaction, String name) {
-        if (transaction == null) {
+        int blockSize = parameterService.getInt(ParameterConstants.SEQUENCE_BLOCK_SIZE, 1);
+        long nextVal = blockSize > 1 ? nextValFromReservedBlock(name) : -1;
+        if (nextVal > 0) {
+            return nextVal;
+        } else if (transaction == null) {
             return nextVal(name);
         } else {
             long sequenceTimeoutInMs = parameterService.getLong(
                     ParameterConstants.SEQUENCE_TIMEOUT_MS, 5000);
             long ts = System.currentTimeMillis();
             do {
-                long nextVal = tryToGetNextVal(transaction, name);
+                nextVal = tryToGetNextVal(transaction, name);
                 if (nextVal > 0) {
                     return nextVal;
                 }
@@ -124,8 +144,127 @@ public class SequenceService extends AbstractService implements ISequenceService
         }
     }
 
+    /**
+     * Hand out the next value from the block of values reserved in memory for
+     * this sequence. When the block is used up, the next block is reserved in
+     * its own transaction so that the values stay reserved for this instance
+     * even if the caller's transaction rolls back.
+     */
+    protected long nextValFromBlock(String name, int blockSize) {
+        SequenceBlock block = null;
+        synchronized (sequenceBlocks) {
+            block = sequenceBlocks.get(name);
+            if (block == null) {
+                block = new SequenceBlock();
+                sequenceBlocks.put(name, block);
+            }
+        }
+
+        synchronized (block) {
+            if (block.remaining <= 0) {
+                reserveBlock(block, name, blockSize);
+            }
+            return block.take();
+        }
+    }
+
+    /**
+     * @return the next value from the block of values reserved in memory for
+     *         this sequence, or -1 if there are none left
+     */
+    protected long nextValFromReservedBlock(String name) {
+        SequenceBlock block = null;
+        synchronized (sequenceBlocks) {
+            block = sequenceBlocks.get(name);
+        }
+
+        if (block != null) {
+            synchronized (block) {
+                if (block.remaining > 0) {
+                    return block.take();
+                }
+            }
+        }
+        return -1;
+    }
+
+    protected void reserveBlock(SequenceBlock block, String name, int blockSize) {
+        long sequenceTimeoutInMs = parameterService.getLong(
+                ParameterConstants.SEQUENCE_TIMEOUT_MS, 5000);
+        long ts = System.currentTimeMillis();
+        do {
+            ISqlTransaction transaction = null;
+            try {
+                transaction = sqlTemplate.startSqlTransaction();
+                boolean reserved = tryToReserveBlock(transaction, block, name, blockSize);
+                transaction.commit();
+                if (reserved) {
+                    return;
+                }
+            } catch (Error ex) {
+                if (transaction != null) {
+                    transaction.rollback();
+                }
+                throw ex;
+            } catch (RuntimeException ex) {
+                if (transaction != null) {
+                    transaction.rollback();
+                }
+                throw ex;
+            } finally {
+                close(transaction);
+            }
+        } while (System.currentTimeMillis() - sequenceTimeoutInMs < ts);
+
+        throw new IllegalStateException(String.format(
+                "Timed out after %d ms trying to reserve a block of values for %s",
+                System.currentTimeMillis() - ts, name));
+    }
+
+    protected boolean tryToReserveBlock(ISqlTransaction transaction, SequenceBlock block,
+            String name, int blockSize) {
+        long currVal = currVal(transaction, name);
+        Sequence sequence = getSequence(transaction, name);
+
+        long firstVal = incrementValue(sequence, currVal);
+        long lastVal = firstVal;
+        int count = 1;
+        while (count < blockSize) {
+            long nextVal = lastVal + sequence.getIncrementBy();
+            if (nextVal > sequence.getMaxValue() || nextVal < sequence.getMinValue()) {
+                break;
+            }
+            lastVal = nextVal;
+            count++;
+        }
+
+        int updateCount = transaction.prepareAndExecute(getSql("updateCurrentValueSql"), lastVal,
+                name, currVal);
+        if (updateCount == 1) {
+            block.nextValue = firstVal;
+            block.incrementBy = sequence.getIncrementBy();
+            block.remaining = count;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
     protected long tryToGetNextVal(ISqlTransaction transaction, String name) {
         long currVal = currVal(transaction, name);
+        Sequence sequence = getSequence(transaction, name);
+        long nextVal = incrementValue(sequence, currVal);
+
+        int updateCount = transaction.prepareAndExecute(getSql("updateCurrentValueSql"), nextVal,
+                name, currVal);
+        if (updateCount != 1) {
+            nextVal = -1;
+        }
+
+        return nextVal;
+    }
+
+    protected Sequence getSequence(ISqlTransaction transaction, String name) {
         Sequence sequence = sequenceDefinitionCache.get(name);
         if (sequence == null) {
             sequence = get(transaction, name);
@@ -137,7 +276,10 @@ public class SequenceService extends AbstractService implements ISequenceService
                         TableConstants.getTableName(getTablePrefix(), TableConstants.SYM_SEQUENCE)));
             }
         }
+        return sequence;
+    }
 
+    protected long incrementValue(Sequence sequence, long currVal) {
         long nextVal = currVal + sequence.getIncrementBy();
         if (nextVal > sequence.getMaxValue()) {
             if (sequence.isCycle()) {
@@ -145,7 +287,7 @@ public class SequenceService extends AbstractService implements ISequenceService
             } else {
                 throw new IllegalStateException(String.format(
                         "The sequence named %s has reached it's max value.  "
-                                + "No more numbers can be handled out.", name));
+                                + "No more numbers can be handled out.", sequence.getSequenceName()));
             }
         } else if (nextVal < sequence.getMinValue()) {
             if (sequence.isCycle()) {
@@ -153,16 +295,9 @@ public class SequenceService extends AbstractService implements ISequenceService
             } else {
                 throw new IllegalStateException(String.format(
                         "The sequence named %s has reached it's min value.  "
-                                + "No more numbers can be handled out.", name));
+                                + "No more numbers can be handled out.", sequence.getSequenceName()));
             }
         }
-
-        int updateCount = transaction.prepareAndExecute(getSql("updateCurrentValueSql"), nextVal,
-                name, currVal);
-        if (updateCount != 1) {
-            nextVal = -1;
-        }
-
         return nextVal;
     }
 
@@ -216,6 +351,19 @@ public class SequenceService extends AbstractService implements ISequenceService
         return map;
     }
 
+    static class SequenceBlock {
+        long nextValue;
+        int incrementBy;
+        int remaining;
+
+        long take() {
+            long value = nextValue;
+            nextValue += incrementBy;
+            remaining--;
+            return value;
+        }
+    }
+
     class SequenceRowMapper implements ISqlRowMapper<Sequence> {
         public Sequence mapRow(Row rs) {
             Sequence sequence = new Sequence();
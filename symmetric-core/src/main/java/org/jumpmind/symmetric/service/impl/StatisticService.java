@@ -58,11 +58,12 @@ public class StatisticService extends AbstractService implements IStatisticServi
                         stats.getDataExtracted(), stats.getDataBytesExtracted(),
                         stats.getDataExtractedErrors(), stats.getDataSent(),
                         stats.getDataBytesSent(), stats.getDataSentErrors(), stats.getDataLoaded(),
-                        stats.getDataBytesLoaded(), stats.getDataLoadedErrors() }, new int[] {
+                        stats.getDataBytesLoaded(), stats.getDataLoadedErrors(),
+                        stats.getExtractLockWaitCount(), stats.getExtractLockWaitMs() }, new int[] {
                         Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.TIMESTAMP,
                         Types.TIMESTAMP, Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.BIGINT,
                         Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.BIGINT,
-                        Types.BIGINT, Types.BIGINT, Types.BIGINT });
+                        Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.BIGINT });
     }
     
     public void save(JobStats stats) {
@@ -155,6 +156,8 @@ public class StatisticService extends AbstractService implements IStatisticServi
             stats.setDataLoaded(rs.getLong("data_loaded"));
             stats.setDataBytesLoaded(rs.getLong("data_bytes_loaded"));
             stats.setDataLoadedErrors(rs.getLong("data_loaded_errors"));
+            stats.setExtractLockWaitCount(rs.getLong("extract_lock_wait_count"));
+            stats.setExtractLockWaitMs(rs.getLong("extract_lock_wait_ms"));
             return stats;
         }
     }
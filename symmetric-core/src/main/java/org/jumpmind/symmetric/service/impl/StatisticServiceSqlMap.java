@@ -35,15 +35,17 @@ public class StatisticServiceSqlMap extends AbstractSqlMap {
 "  data_routed, data_unrouted, data_event_inserted,               " + 
 "  data_extracted, data_bytes_extracted, data_extracted_errors,   " + 
 "  data_sent, data_bytes_sent, data_sent_errors,                  " + 
-"  data_loaded, data_bytes_loaded, data_loaded_errors)            " + 
-"  values(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)                      " );
+"  data_loaded, data_bytes_loaded, data_loaded_errors,            " + 
+"  extract_lock_wait_count, extract_lock_wait_ms)                 " + 
+"  values(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)                  " );
 
         putSql("selectChannelStatsSql" ,"" + 
 "select node_id, host_name, channel_id, start_time, end_time,                       " + 
 "  data_routed, data_unrouted, data_event_inserted,                                 " + 
 "  data_extracted, data_bytes_extracted, data_extracted_errors,                     " + 
 "  data_sent, data_bytes_sent, data_sent_errors,                                    " + 
-"  data_loaded, data_bytes_loaded, data_loaded_errors                               " + 
+"  data_loaded, data_bytes_loaded, data_loaded_errors,                              " + 
+"  extract_lock_wait_count, extract_lock_wait_ms                                    " + 
 "  from $(node_host_channel_stats)                                            " + 
 "  where  start_time >= ? and end_time <= ? and node_id=? order by start_time asc   " );
 
@@ -820,10 +820,11 @@ public class TriggerRouterService extends AbstractService implements ITriggerRou
                         newHistRecord.getPkColumnNames(), newHistRecord.getLastTriggerBuildReason().getCode(),
                         newHistRecord.getNameForDeleteTrigger(), newHistRecord.getNameForInsertTrigger(),
                         newHistRecord.getNameForUpdateTrigger(), newHistRecord.getSourceSchemaName(), newHistRecord.getSourceCatalogName(),
-                        newHistRecord.getTriggerRowHash(), newHistRecord.getTriggerTemplateHash(), newHistRecord.getErrorMessage() },
+                        newHistRecord.getTriggerRowHash(), newHistRecord.getTriggerTemplateHash(), newHistRecord.getErrorMessage(),
+                        newHistRecord.getTableFingerprint() },
                 new int[] { Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.BIGINT, Types.TIMESTAMP, Types.VARCHAR, Types.VARCHAR,
                         Types.CHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.BIGINT, Types.BIGINT,
-                        Types.VARCHAR });
+                        Types.VARCHAR, Types.BIGINT });
     }
 
     @Override
@@ -977,8 +978,17 @@ public class TriggerRouterService extends AbstractService implements ITriggerRou
 
                         log.info("Synchronizing triggers{}", additionalMessage);
 
-                        // make sure all tables are freshly read in
-                        platform.resetCachedTableModel();
+                        /*
+                         * An incremental sync only reads the tables whose
+                         * fingerprint changed, so there is no need to throw
+                         * away the tables that are already cached
+                         */
+                        boolean incremental = !force
+                                && parameterService.is(ParameterConstants.AUTO_SYNC_TRIGGERS_INCREMENTAL, false);
+                        if (!incremental) {
+                            // make sure all tables are freshly read in
+                            platform.resetCachedTableModel();
+                        }
 
                         clearCache();
 
@@ -1007,8 +1017,14 @@ public class TriggerRouterService extends AbstractService implements ITriggerRou
                         }
 
                         List<TriggerHistory> activeTriggerHistories = getActiveTriggerHistories();
-                        inactivateTriggers(triggersForCurrentNode, sqlBuffer, activeTriggerHistories);
-                        updateOrCreateDatabaseTriggers(triggersForCurrentNode, sqlBuffer, force, true, activeTriggerHistories, true);
+                        TableFingerprints fingerprints = incremental ? new TableFingerprints(activeTriggerHistories) : null;
+                        inactivateTriggers(triggersForCurrentNode, sqlBuffer, activeTriggerHistories, fingerprints);
+                        updateOrCreateDatabaseTriggers(triggersForCurrentNode, sqlBuffer, force, true, activeTriggerHistories, true,
+                                fingerprints);
+                        if (fingerprints != null) {
+                            log.info("Read the metadata of {} tables that changed and skipped {} tables that did not change",
+                                    fingerprints.changedTableCount, fingerprints.unchangedTableCount);
+                        }
                         resetTriggerRouterCacheByNodeGroupId();
                     } finally {
                         clusterService.unlock(ClusterConstants.SYNCTRIGGERS);
@@ -1055,6 +1071,11 @@ public class TriggerRouterService extends AbstractService implements ITriggerRou
 
     protected void inactivateTriggers(List<Trigger> triggersThatShouldBeActive, StringBuilder sqlBuffer,
             List<TriggerHistory> activeTriggerHistories) {
+        inactivateTriggers(triggersThatShouldBeActive, sqlBuffer, activeTriggerHistories, null);
+    }
+
+    protected void inactivateTriggers(List<Trigger> triggersThatShouldBeActive, StringBuilder sqlBuffer,
+            List<TriggerHistory> activeTriggerHistories, TableFingerprints fingerprints) {
         boolean ignoreCase = this.parameterService.is(ParameterConstants.DB_METADATA_IGNORE_CASE);
         Map<String, Set<Table>> tablesByTriggerId = new HashMap<String, Set<Table>>();
         for (TriggerHistory history : activeTriggerHistories) {
@@ -1062,7 +1083,7 @@ public class TriggerRouterService extends AbstractService implements ITriggerRou
             Set<Table> tables = tablesByTriggerId.get(history.getTriggerId());
             Trigger trigger = getTriggerFromList(history.getTriggerId(), triggersThatShouldBeActive);
             if (tables == null && trigger != null) {
-                tables = getTablesForTrigger(trigger, triggersThatShouldBeActive, false);
+                tables = getTablesForTrigger(trigger, triggersThatShouldBeActive, false, fingerprints);
                 tablesByTriggerId.put(trigger.getTriggerId(), tables);
             }
 
@@ -1156,6 +1177,16 @@ public class TriggerRouterService extends AbstractService implements ITriggerRou
     }
 
     protected Set<Table> getTablesForTrigger(Trigger trigger, List<Trigger> triggers, boolean useTableCache) {
+        return getTablesForTrigger(trigger, triggers, useTableCache, null);
+    }
+
+    /**
+     * When table fingerprints are passed in, the tables that have a
+     * fingerprint are returned without columns. Their metadata is only read
+     * when their fingerprint shows that they changed.
+     */
+    protected Set<Table> getTablesForTrigger(Trigger trigger, List<Trigger> triggers, boolean useTableCache,
+            TableFingerprints fingerprints) {
         Set<Table> tables = new HashSet<Table>();
         try {
             boolean ignoreCase = this.parameterService.is(ParameterConstants.DB_METADATA_IGNORE_CASE);
@@ -1199,9 +1230,44 @@ public class TriggerRouterService extends AbstractService implements ITriggerRou
                     }
                 }
 
+                /*
+                 * Read the schemas that have to be read in full up front so
+                 * the platform can read them in parallel
+                 */
+                Map<String, Database> databases = new HashMap<String, Database>();
+                if (trigger.isSourceTableNameWildCarded()) {
+                    List<String> schemasToRead = new ArrayList<String>();
+                    for (String schemaName : schemaNames) {
+                        if (fingerprints == null || fingerprints.get(catalogName, schemaName) == null) {
+                            schemasToRead.add(schemaName);
+                        }
+                    }
+                    if (schemasToRead.size() > 1) {
+                        List<Database> models = platform.readDatabases(catalogName, schemasToRead, new String[] { "TABLE" });
+                        for (int i = 0; i < schemasToRead.size(); i++) {
+                            databases.put(schemasToRead.get(i), models.get(i));
+                        }
+                    }
+                }
+
                 for (String schemaName : schemaNames) {
-                    if (trigger.isSourceTableNameWildCarded()) {
-                        Database database = symmetricDialect.getPlatform().readDatabase(catalogName, schemaName, new String[] { "TABLE" });
+                    Map<String, Long> tableFingerprints = fingerprints != null ? fingerprints.get(catalogName, schemaName) : null;
+                    if (trigger.isSourceTableNameWildCarded() && tableFingerprints != null) {
+                        for (String tableName : tableFingerprints.keySet()) {
+                            Table table = new Table(catalogName, schemaName, tableName);
+                            if (trigger.matches(table, catalogName, schemaName, ignoreCase)
+                                    && !containsExactMatchForSourceTableName(table, triggers, ignoreCase)
+                                    && !table.getName().toLowerCase().startsWith(tablePrefix)) {
+                                tables.add(table);
+                            }
+                        }
+                    } else if (tableFingerprints != null && tableFingerprints.containsKey(trigger.getSourceTableName())) {
+                        tables.add(new Table(catalogName, schemaName, trigger.getSourceTableName()));
+                    } else if (trigger.isSourceTableNameWildCarded()) {
+                        Database database = databases.get(schemaName);
+                        if (database == null) {
+                            database = symmetricDialect.getPlatform().readDatabase(catalogName, schemaName, new String[] { "TABLE" });
+                        }
                         Table[] tableArray = database.getTables();
 
                         for (Table table : tableArray) {
@@ -1263,18 +1329,54 @@ public class TriggerRouterService extends AbstractService implements ITriggerRou
 
     protected void updateOrCreateDatabaseTriggers(List<Trigger> triggers, StringBuilder sqlBuffer, boolean force, boolean verifyInDatabase,
             List<TriggerHistory> activeTriggerHistories, boolean useTableCache) {
+        updateOrCreateDatabaseTriggers(triggers, sqlBuffer, force, verifyInDatabase, activeTriggerHistories, useTableCache, null);
+    }
+
+    protected void updateOrCreateDatabaseTriggers(List<Trigger> triggers, StringBuilder sqlBuffer, boolean force, boolean verifyInDatabase,
+            List<TriggerHistory> activeTriggerHistories, boolean useTableCache, TableFingerprints fingerprints) {
         for (Trigger trigger : triggers) {
-            updateOrCreateDatabaseTrigger(trigger, triggers, sqlBuffer, force, verifyInDatabase, activeTriggerHistories, useTableCache);
+            updateOrCreateDatabaseTrigger(trigger, triggers, sqlBuffer, force, verifyInDatabase, activeTriggerHistories, useTableCache,
+                    fingerprints);
         }
     }
 
     protected void updateOrCreateDatabaseTrigger(Trigger trigger, List<Trigger> triggers, StringBuilder sqlBuffer, boolean force,
             boolean verifyInDatabase, List<TriggerHistory> activeTriggerHistories, boolean useTableCache) {
-        Set<Table> tables = getTablesForTrigger(trigger, triggers, useTableCache);
+        updateOrCreateDatabaseTrigger(trigger, triggers, sqlBuffer, force, verifyInDatabase, activeTriggerHistories, useTableCache, null);
+    }
+
+    protected void updateOrCreateDatabaseTrigger(Trigger trigger, List<Trigger> triggers, StringBuilder sqlBuffer, boolean force,
+            boolean verifyInDatabase, List<TriggerHistory> activeTriggerHistories, boolean useTableCache, TableFingerprints fingerprints) {
+        Set<Table> tables = getTablesForTrigger(trigger, triggers, useTableCache, fingerprints);
 
         if (tables != null && tables.size() > 0) {
             for (Table table : tables) {
-                updateOrCreateDatabaseTriggers(trigger, table, sqlBuffer, force, verifyInDatabase, activeTriggerHistories);
+                Long fingerprint = null;
+                if (fingerprints != null) {
+                    fingerprint = fingerprints.getFingerprint(table);
+                    /*
+                     * a trigger whose channel is missing goes through the
+                     * full check so the channel error is reported
+                     */
+                    if (fingerprints.isUnchanged(trigger, table, fingerprint)
+                            && (!verifyInDatabase || configurationService.getChannel(trigger.getChannelId()) != null)) {
+                        fingerprints.unchangedTableCount++;
+                        continue;
+                    }
+                    fingerprints.changedTableCount++;
+                    if (table.getColumnCount() == 0) {
+                        /* tables found by fingerprint have not been read yet */
+                        table = platform.getTableFromCache(table.getCatalog(), table.getSchema(), table.getName(), true);
+                        if (table == null) {
+                            continue;
+                        }
+                    }
+                }
+                TriggerHistory history = updateOrCreateDatabaseTriggers(trigger, table, sqlBuffer, force, verifyInDatabase,
+                        activeTriggerHistories);
+                if (fingerprints != null) {
+                    fingerprints.save(history, fingerprint);
+                }
             }
         } else {
             log.warn("Could not find any database tables matching '{}' in the datasource that is configured",
@@ -1313,7 +1415,11 @@ public class TriggerRouterService extends AbstractService implements ITriggerRou
         }
     }
 
-    protected void updateOrCreateDatabaseTriggers(Trigger trigger, Table table, StringBuilder sqlBuffer, boolean force,
+    /**
+     * @return the newest history for the trigger and table, or null if the
+     *         triggers could not be created
+     */
+    protected TriggerHistory updateOrCreateDatabaseTriggers(Trigger trigger, Table table, StringBuilder sqlBuffer, boolean force,
             boolean verifyInDatabase, List<TriggerHistory> activeTriggerHistories) {
         TriggerHistory newestHistory = null;
         TriggerReBuildReason reason = TriggerReBuildReason.NEW_TRIGGERS;
@@ -1391,6 +1497,9 @@ public class TriggerRouterService extends AbstractService implements ITriggerRou
                         l.triggerCreated(trigger, newestHistory);
                     }
                 }
+                return newestHistory;
+            } else {
+                return latestHistoryBeforeRebuild;
             }
 
         } catch (Exception ex) {
@@ -1410,6 +1519,7 @@ public class TriggerRouterService extends AbstractService implements ITriggerRou
             for (ITriggerCreationListener l : extensionService.getExtensionPointList(ITriggerCreationListener.class)) {
                 l.triggerFailed(trigger, ex);
             }
+            return null;
         }
     }
 
@@ -1575,6 +1685,128 @@ public class TriggerRouterService extends AbstractService implements ITriggerRou
         return triggerName;
     }
 
+    /**
+     * Table fingerprints read with one bulk catalog query per catalog and
+     * schema, and the newest active trigger history of each table, so that
+     * sync triggers only reads the metadata of tables that changed.
+     */
+    class TableFingerprints {
+
+        Map<String, Map<String, Long>> fingerprintsBySchema = new HashMap<String, Map<String, Long>>();
+
+        Map<String, Set<String>> triggerNamesBySchema = new HashMap<String, Set<String>>();
+
+        Map<String, TriggerHistory> histories = new HashMap<String, TriggerHistory>();
+
+        int changedTableCount;
+
+        int unchangedTableCount;
+
+        TableFingerprints(List<TriggerHistory> activeTriggerHistories) {
+            for (TriggerHistory history : activeTriggerHistories) {
+                String key = getKey(history.getTriggerId(), history.getSourceCatalogName(), history.getSourceSchemaName(),
+                        history.getSourceTableName());
+                TriggerHistory existing = histories.get(key);
+                if (existing == null || existing.getTriggerHistoryId() < history.getTriggerHistoryId()) {
+                    histories.put(key, history);
+                }
+            }
+        }
+
+        /**
+         * @return the fingerprints of the tables in a catalog and schema, or
+         *         null if they are not available. The names of the triggers in
+         *         the catalog and schema are read at the same time.
+         */
+        Map<String, Long> get(String catalogName, String schemaName) {
+            String key = catalogName + "|" + schemaName;
+            if (!fingerprintsBySchema.containsKey(key)) {
+                Map<String, Long> fingerprints = null;
+                try {
+                    fingerprints = platform.getDdlReader().getTableFingerprints(catalogName, schemaName);
+                } catch (RuntimeException ex) {
+                    log.warn("Failed to read table fingerprints for {}.  The metadata of every table will be read instead.  {}",
+                            Table.getFullyQualifiedTablePrefix(catalogName, schemaName), ex.getMessage());
+                }
+                fingerprintsBySchema.put(key, fingerprints);
+                if (fingerprints != null && symmetricDialect.getPlatform().getDatabaseInfo().isTriggersSupported()) {
+                    triggerNamesBySchema.put(key, symmetricDialect.getTriggerNames(catalogName, schemaName));
+                }
+            }
+            return fingerprintsBySchema.get(key);
+        }
+
+        Long getFingerprint(Table table) {
+            Map<String, Long> fingerprints = get(table.getCatalog(), table.getSchema());
+            return fingerprints != null ? fingerprints.get(table.getName()) : null;
+        }
+
+        boolean isUnchanged(Trigger trigger, Table table, Long fingerprint) {
+            if (fingerprint == null) {
+                return false;
+            }
+            TriggerHistory history = histories.get(getKey(trigger.getTriggerId(),
+                    trigger.isSourceCatalogNameWildCarded() ? table.getCatalog() : trigger.getSourceCatalogName(),
+                    trigger.isSourceSchemaNameWildCarded() ? table.getSchema() : trigger.getSourceSchemaName(),
+                    trigger.isSourceTableNameWildCarded() ? table.getName() : trigger.getSourceTableName()));
+            return history != null && history.getTableFingerprint() == fingerprint.longValue()
+                    && !trigger.hasChangedSinceLastTriggerBuild(history.getCreateTime())
+                    && trigger.toHashedValue() == history.getTriggerRowHash()
+                    && symmetricDialect.getTriggerTemplate().toHashedValue() == history.getTriggerTemplateHash()
+                    && doTriggersExist(trigger, history, table);
+        }
+
+        /**
+         * Triggers can be dropped outside of SymmetricDS without changing the
+         * table, so an unchanged table is still checked for missing triggers.
+         * The trigger names read with the fingerprints are used when the
+         * dialect can list them.
+         */
+        boolean doTriggersExist(Trigger trigger, TriggerHistory history, Table table) {
+            if (symmetricDialect.getPlatform().getDatabaseInfo().isTriggersSupported()) {
+                Set<String> triggerNames = triggerNamesBySchema.get(table.getCatalog() + "|" + table.getSchema());
+                if (trigger.isSyncOnInsert() && !doesTriggerExist(history, DataEventType.INSERT, triggerNames)) {
+                    return false;
+                }
+                if (trigger.isSyncOnUpdate() && !doesTriggerExist(history, DataEventType.UPDATE, triggerNames)) {
+                    return false;
+                }
+                if (trigger.isSyncOnDelete() && !doesTriggerExist(history, DataEventType.DELETE, triggerNames)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean doesTriggerExist(TriggerHistory history, DataEventType dmlType, Set<String> triggerNames) {
+            String triggerName = history.getTriggerNameForDmlType(dmlType);
+            if (StringUtils.isBlank(triggerName)) {
+                return false;
+            } else if (triggerNames != null) {
+                return triggerNames.contains(triggerName);
+            } else {
+                return symmetricDialect.doesTriggerExist(history.getSourceCatalogName(), history.getSourceSchemaName(),
+                        history.getSourceTableName(), triggerName);
+            }
+        }
+
+        /**
+         * Record the fingerprint of a table on its newest trigger history
+         * after its triggers were checked
+         */
+        void save(TriggerHistory history, Long fingerprint) {
+            if (history != null && fingerprint != null && history.getTableFingerprint() != fingerprint.longValue()) {
+                sqlTemplate.update(getSql("updateTriggerHistoryFingerprintSql"), fingerprint, history.getTriggerHistoryId());
+                history.setTableFingerprint(fingerprint);
+            }
+        }
+
+        String getKey(String triggerId, String catalogName, String schemaName, String tableName) {
+            return triggerId + "|" + StringUtils.trimToEmpty(catalogName) + "|" + StringUtils.trimToEmpty(schemaName) + "|"
+                    + tableName;
+        }
+    }
+
     class TriggerHistoryMapper implements ISqlRowMapper<TriggerHistory> {
         Map<Long, TriggerHistory> retMap = null;
 
@@ -1603,6 +1835,7 @@ public class TriggerRouterService extends AbstractService implements ITriggerRou
             hist.setTriggerRowHash(rs.getLong("trigger_row_hash"));
             hist.setTriggerTemplateHash(rs.getLong("trigger_template_hash"));
             hist.setErrorMessage(rs.getString("error_message"));
+            hist.setTableFingerprint(rs.getLong("table_fingerprint"));
             if (this.retMap != null) {
                 this.retMap.put((long) hist.getTriggerHistoryId(), hist);
             }
@@ -37,6 +37,8 @@ public class ChannelStats extends AbstractNodeHostStats {
     private long dataLoaded;
     private long dataBytesLoaded;
     private long dataLoadedErrors;
+    private long extractLockWaitCount;
+    private long extractLockWaitMs;
     
     public ChannelStats() {}
     
@@ -59,6 +61,8 @@ public class ChannelStats extends AbstractNodeHostStats {
         dataLoaded += stats.getDataLoaded();
         dataBytesLoaded += stats.getDataBytesLoaded();
         dataLoadedErrors += stats.getDataLoadedErrors();
+        extractLockWaitCount += stats.getExtractLockWaitCount();
+        extractLockWaitMs += stats.getExtractLockWaitMs();
     }
 
     public String getChannelId() {
@@ -213,6 +217,27 @@ public class ChannelStats extends AbstractNodeHostStats {
         this.dataSent += count;
     }
 
+    public long getExtractLockWaitCount() {
+        return extractLockWaitCount;
+    }
+
+    public void setExtractLockWaitCount(long extractLockWaitCount) {
+        this.extractLockWaitCount = extractLockWaitCount;
+    }
+
+    public long getExtractLockWaitMs() {
+        return extractLockWaitMs;
+    }
+
+    public void setExtractLockWaitMs(long extractLockWaitMs) {
+        this.extractLockWaitMs = extractLockWaitMs;
+    }
+
+    public void incrementExtractLockWait(long waitTimeInMs) {
+        this.extractLockWaitCount++;
+        this.extractLockWaitMs += waitTimeInMs;
+    }
+
     
 
 }
\ No newline at end of file
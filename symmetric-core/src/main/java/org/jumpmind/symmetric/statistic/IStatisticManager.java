@@ -73,6 +73,8 @@ public interface IStatisticManager {
     
     public void incrementDataExtracted(String channelId, long count);
 
+    public void incrementExtractLockWait(String channelId, long waitTimeInMs);
+
     public void setDataUnRouted(String channelId, long count);
 
     public void incrementDataRouted(String channelId, long count);
@@ -31,6 +31,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Semaphore;
 
 import org.jumpmind.symmetric.common.Constants;
@@ -61,12 +62,51 @@ public class StatisticManager implements IStatisticManager {
 
     private static final int NUMBER_OF_PERMITS = 1000;
 
-    private Map<String, ChannelStats> channelStats = new ConcurrentHashMap<String, ChannelStats>();
+    static final int DATA_ROUTED = 0;
+    static final int DATA_EXTRACTED = 1;
+    static final int DATA_BYTES_EXTRACTED = 2;
+    static final int DATA_EXTRACTED_ERRORS = 3;
+    static final int DATA_EVENT_INSERTED = 4;
+    static final int DATA_SENT = 5;
+    static final int DATA_BYTES_SENT = 6;
+    static final int DATA_SENT_ERRORS = 7;
+    static final int DATA_LOADED = 8;
+    static final int DATA_BYTES_LOADED = 9;
+    static final int DATA_LOADED_ERRORS = 10;
+    static final int EXTRACT_LOCK_WAIT_COUNT = 11;
+    static final int EXTRACT_LOCK_WAIT_MS = 12;
+    static final int CHANNEL_COUNTERS = 13;
+
+    static final int RESTARTED = 0;
+    static final int NODES_PULLED = 1;
+    static final int TOTAL_NODES_PULL_TIME = 2;
+    static final int NODES_PUSHED = 3;
+    static final int TOTAL_NODES_PUSH_TIME = 4;
+    static final int NODES_REJECTED = 5;
+    static final int NODES_REGISTERED = 6;
+    static final int NODES_LOADED = 7;
+    static final int NODES_DISABLED = 8;
+    static final int PURGED_DATA_ROWS = 9;
+    static final int PURGED_DATA_EVENT_ROWS = 10;
+    static final int PURGED_BATCH_OUTGOING_ROWS = 11;
+    static final int PURGED_BATCH_INCOMING_ROWS = 12;
+    static final int TRIGGERS_CREATED = 13;
+    static final int TRIGGERS_REBUILT = 14;
+    static final int TRIGGERS_REMOVED = 15;
+    static final int HOST_COUNTERS = 16;
+
+    protected ConcurrentMap<String, StripedCounters> channelCounters = new ConcurrentHashMap<String, StripedCounters>();
+
+    protected Map<String, Long> channelDataUnRouted = new ConcurrentHashMap<String, Long>();
+
+    protected StripedCounters hostCounters = new StripedCounters(HOST_COUNTERS);
+
+    protected volatile Date periodStartTime = new Date();
+
+    protected Object flushLock = new Object();
 
     private List<JobStats> jobStats = new ArrayList<JobStats>();
 
-    private HostStats hostStats;
-
     private ConcurrentHashMap<Long, RouterStats> routerStatsByBatch = new ConcurrentHashMap<Long, RouterStats>();
 
     protected INodeService nodeService;
@@ -79,10 +119,6 @@ public class StatisticManager implements IStatisticManager {
 
     protected IClusterService clusterService;
 
-    protected Semaphore channelStatsLock = new Semaphore(NUMBER_OF_PERMITS, true);
-
-    protected Semaphore hostStatsLock = new Semaphore(NUMBER_OF_PERMITS, true);
-
     protected Semaphore jobStatsLock = new Semaphore(NUMBER_OF_PERMITS, true);
 
     protected Map<ProcessInfoKey, ProcessInfo> processInfos = new ConcurrentHashMap<ProcessInfoKey, ProcessInfo>();
@@ -195,299 +231,177 @@ public class StatisticManager implements IStatisticManager {
     }
 
     public void incrementDataRouted(String channelId, long count) {
-        channelStatsLock.acquireUninterruptibly();
-        try {
-            getChannelStats(channelId).incrementDataRouted(count);
-        } finally {
-            channelStatsLock.release();
-        }
+        incrementChannelCounter(channelId, DATA_ROUTED, count);
     }
 
     public void setDataUnRouted(String channelId, long count) {
-        channelStatsLock.acquireUninterruptibly();
-        try {
-            getChannelStats(channelId).setDataUnRouted(count);
-        } finally {
-            channelStatsLock.release();
+        if (channelId != null) {
+            channelDataUnRouted.put(channelId, count);
         }
     }
 
     public void incrementDataExtracted(String channelId, long count) {
-        channelStatsLock.acquireUninterruptibly();
-        try {
-            getChannelStats(channelId).incrementDataExtracted(count);
-        } finally {
-            channelStatsLock.release();
-        }
+        incrementChannelCounter(channelId, DATA_EXTRACTED, count);
     }
 
     public void incrementDataBytesExtracted(String channelId, long count) {
-        channelStatsLock.acquireUninterruptibly();
-        try {
-            getChannelStats(channelId).incrementDataBytesExtracted(count);
-        } finally {
-            channelStatsLock.release();
-        }
+        incrementChannelCounter(channelId, DATA_BYTES_EXTRACTED, count);
     }
 
     public void incrementDataExtractedErrors(String channelId, long count) {
-        channelStatsLock.acquireUninterruptibly();
-        try {
-            getChannelStats(channelId).incrementDataExtractedErrors(count);
-        } finally {
-            channelStatsLock.release();
-        }
+        incrementChannelCounter(channelId, DATA_EXTRACTED_ERRORS, count);
+    }
+
+    public void incrementExtractLockWait(String channelId, long waitTimeInMs) {
+        incrementChannelCounter(channelId, EXTRACT_LOCK_WAIT_COUNT, 1);
+        incrementChannelCounter(channelId, EXTRACT_LOCK_WAIT_MS, waitTimeInMs);
     }
 
     public void incrementDataEventInserted(String channelId, long count) {
-        channelStatsLock.acquireUninterruptibly();
-        try {
-            getChannelStats(channelId).incrementDataEventInserted(count);
-        } finally {
-            channelStatsLock.release();
-        }
+        incrementChannelCounter(channelId, DATA_EVENT_INSERTED, count);
     }
 
     public void incrementDataSent(String channelId, long count) {
-        channelStatsLock.acquireUninterruptibly();
-        try {
-            getChannelStats(channelId).incrementDataSent(count);
-        } finally {
-            channelStatsLock.release();
-        }
+        incrementChannelCounter(channelId, DATA_SENT, count);
     }
 
     public void incrementDataBytesSent(String channelId, long count) {
-        channelStatsLock.acquireUninterruptibly();
-        try {
-            getChannelStats(channelId).incrementDataBytesSent(count);
-        } finally {
-            channelStatsLock.release();
-        }
+        incrementChannelCounter(channelId, DATA_BYTES_SENT, count);
     }
 
     public void incrementDataSentErrors(String channelId, long count) {
-        channelStatsLock.acquireUninterruptibly();
-        try {
-            getChannelStats(channelId).incrementDataSentErrors(count);
-        } finally {
-            channelStatsLock.release();
-        }
+        incrementChannelCounter(channelId, DATA_SENT_ERRORS, count);
     }
 
     public void incrementDataLoaded(String channelId, long count) {
-        channelStatsLock.acquireUninterruptibly();
-        try {
-            getChannelStats(channelId).incrementDataLoaded(count);
-        } finally {
-            channelStatsLock.release();
-        }
+        incrementChannelCounter(channelId, DATA_LOADED, count);
     }
 
     public void incrementDataBytesLoaded(String channelId, long count) {
-        channelStatsLock.acquireUninterruptibly();
-        try {
-            getChannelStats(channelId).incrementDataBytesLoaded(count);
-        } finally {
-            channelStatsLock.release();
-        }
+        incrementChannelCounter(channelId, DATA_BYTES_LOADED, count);
     }
 
     public void incrementDataLoadedErrors(String channelId, long count) {
-        channelStatsLock.acquireUninterruptibly();
-        try {
-            getChannelStats(channelId).incrementDataLoadedErrors(count);
-        } finally {
-            channelStatsLock.release();
-        }
+        incrementChannelCounter(channelId, DATA_LOADED_ERRORS, count);
     }
 
     public void incrementRestart() {
-        hostStatsLock.acquireUninterruptibly();
-        try {
-            getHostStats().incrementRestarted(1);
-        } finally {
-            hostStatsLock.release();
-        }
+        incrementHostCounter(RESTARTED, 1);
     }
 
     public void incrementNodesPulled(long count) {
-        hostStatsLock.acquireUninterruptibly();
-        try {
-            getHostStats().incrementNodesPulled(count);
-        } finally {
-            hostStatsLock.release();
-        }
+        incrementHostCounter(NODES_PULLED, count);
     }
 
     public void incrementNodesPushed(long count) {
-        hostStatsLock.acquireUninterruptibly();
-        try {
-            getHostStats().incrementNodesPushed(count);
-        } finally {
-            hostStatsLock.release();
-        }
+        incrementHostCounter(NODES_PUSHED, count);
     }
 
     public void incrementTotalNodesPulledTime(long count) {
-        hostStatsLock.acquireUninterruptibly();
-        try {
-            getHostStats().incrementTotalNodesPullTime(count);
-        } finally {
-            hostStatsLock.release();
-        }
+        incrementHostCounter(TOTAL_NODES_PULL_TIME, count);
     }
 
     public void incrementTotalNodesPushedTime(long count) {
-        hostStatsLock.acquireUninterruptibly();
-        try {
-            getHostStats().incrementTotalNodesPushTime(count);
-        } finally {
-            hostStatsLock.release();
-        }
+        incrementHostCounter(TOTAL_NODES_PUSH_TIME, count);
     }
 
     public void incrementNodesRejected(long count) {
-        hostStatsLock.acquireUninterruptibly();
-        try {
-            getHostStats().incrementNodesRejected(count);
-        } finally {
-            hostStatsLock.release();
-        }
+        incrementHostCounter(NODES_REJECTED, count);
     }
 
     public void incrementNodesRegistered(long count) {
-        hostStatsLock.acquireUninterruptibly();
-        try {
-            getHostStats().incrementNodesRegistered(count);
-        } finally {
-            hostStatsLock.release();
-        }
+        incrementHostCounter(NODES_REGISTERED, count);
     }
 
     public void incrementNodesLoaded(long count) {
-        hostStatsLock.acquireUninterruptibly();
-        try {
-            getHostStats().incrementNodesLoaded(count);
-        } finally {
-            hostStatsLock.release();
-        }
+        incrementHostCounter(NODES_LOADED, count);
     }
 
     public void incrementNodesDisabled(long count) {
-        hostStatsLock.acquireUninterruptibly();
-        try {
-            getHostStats().incrementNodesDisabled(count);
-        } finally {
-            hostStatsLock.release();
-        }
+        incrementHostCounter(NODES_DISABLED, count);
     }
 
     public void incrementPurgedBatchIncomingRows(long count) {
-        hostStatsLock.acquireUninterruptibly();
-        try {
-            getHostStats().incrementPurgedBatchIncomingRows(count);
-        } finally {
-            hostStatsLock.release();
-        }
+        incrementHostCounter(PURGED_BATCH_INCOMING_ROWS, count);
     }
 
     public void incrementPurgedBatchOutgoingRows(long count) {
-        hostStatsLock.acquireUninterruptibly();
-        try {
-            getHostStats().incrementPurgedBatchOutgoingRows(count);
-        } finally {
-            hostStatsLock.release();
-        }
+        incrementHostCounter(PURGED_BATCH_OUTGOING_ROWS, count);
     }
 
     public void incrementPurgedDataRows(long count) {
-        hostStatsLock.acquireUninterruptibly();
-        try {
-            getHostStats().incrementPurgedDataRows(count);
-        } finally {
-            hostStatsLock.release();
-        }
+        incrementHostCounter(PURGED_DATA_ROWS, count);
     }
 
     public void incrementPurgedDataEventRows(long count) {
-        hostStatsLock.acquireUninterruptibly();
-        try {
-            getHostStats().incrementPurgedDataEventRows(count);
-        } finally {
-            hostStatsLock.release();
-        }
+        incrementHostCounter(PURGED_DATA_EVENT_ROWS, count);
     }
 
     public void incrementTriggersRemovedCount(long count) {
-        hostStatsLock.acquireUninterruptibly();
-        try {
-            getHostStats().incrementTriggersRemovedCount(count);
-        } finally {
-            hostStatsLock.release();
-        }
+        incrementHostCounter(TRIGGERS_REMOVED, count);
     }
 
     public void incrementTriggersRebuiltCount(long count) {
-        hostStatsLock.acquireUninterruptibly();
-        try {
-            getHostStats().incrementTriggersRebuiltCount(count);
-        } finally {
-            hostStatsLock.release();
-        }
+        incrementHostCounter(TRIGGERS_REBUILT, count);
     }
 
     public void incrementTriggersCreatedCount(long count) {
-        hostStatsLock.acquireUninterruptibly();
-        try {
-            getHostStats().incrementTriggersCreatedCount(count);
-        } finally {
-            hostStatsLock.release();
-        }
+        incrementHostCounter(TRIGGERS_CREATED, count);
     }
 
     public void flush() {
 
         boolean recordStatistics = parameterService.is(ParameterConstants.STATISTIC_RECORD_ENABLE,
                 false);
-        if (channelStats != null) {
-            channelStatsLock.acquireUninterruptibly(NUMBER_OF_PERMITS);
-            try {
-                if (recordStatistics) {
-                    Date endTime = new Date();
+        synchronized (flushLock) {
+            Date startTime = periodStartTime;
+            Date endTime = new Date();
+            periodStartTime = endTime;
+            /*
+             * The unrouted count is the last value routing saw, not a count
+             * for the period, so it is kept for the next period
+             */
+            Map<String, Long> dataUnRouted = new HashMap<String, Long>(channelDataUnRouted);
+
+            Node node = nodeService.getCachedIdentity();
+            String serverId = clusterService.getServerId();
+
+            /*
+             * Draining takes the counts out of the counters without stopping
+             * the threads that add to them. Anything added after a counter was
+             * drained is part of the next period.
+             */
+            Map<String, ChannelStats> channelStats = new HashMap<String, ChannelStats>();
+            for (NodeChannel nodeChannel : configurationService.getNodeChannels(false)) {
+                getChannelStats(channelStats, nodeChannel.getChannelId(), node, serverId,
+                        startTime, endTime);
+            }
+            for (Map.Entry<String, StripedCounters> entry : channelCounters.entrySet()) {
+                add(getChannelStats(channelStats, entry.getKey(), node, serverId, startTime,
+                        endTime), entry.getValue(), true);
+            }
+            for (Map.Entry<String, Long> entry : dataUnRouted.entrySet()) {
+                getChannelStats(channelStats, entry.getKey(), node, serverId, startTime, endTime)
+                        .setDataUnRouted(entry.getValue());
+            }
+
+            HostStats hostStats = new HostStats(node != null ? node.getNodeId() : UNKNOWN,
+                    serverId, startTime, endTime);
+            boolean hostStatsChanged = add(hostStats, hostCounters, true);
+
+            if (recordStatistics) {
+                /*
+                 * Channel statistics that were counted before this node had an
+                 * identity cannot be attributed to a node and are not saved
+                 */
+                if (node != null) {
                     for (ChannelStats stats : channelStats.values()) {
-                        if (stats.getNodeId().equals(UNKNOWN)) {
-                            Node node = nodeService.getCachedIdentity();
-                            if (node != null) {
-                                stats.setNodeId(node.getNodeId());
-                            }
-                        }
-                        stats.setEndTime(endTime);
                         statisticService.save(stats);
                     }
                 }
-                resetChannelStats(true);
-            } finally {
-                channelStatsLock.release(NUMBER_OF_PERMITS);
-            }
-        }
-
-        if (hostStats != null) {
-            hostStatsLock.acquireUninterruptibly(NUMBER_OF_PERMITS);
-            try {
-                if (recordStatistics) {
-                    if (hostStats.getNodeId().equals(UNKNOWN)) {
-                        Node node = nodeService.getCachedIdentity();
-                        if (node != null) {
-                            hostStats.setNodeId(node.getNodeId());
-                        }
-                    }
-                    hostStats.setEndTime(new Date());
+                if (hostStatsChanged) {
                     statisticService.save(hostStats);
                 }
-                hostStats = null;
-            } finally {
-                hostStatsLock.release(NUMBER_OF_PERMITS);
             }
         }
 
@@ -517,65 +431,112 @@ public class StatisticManager implements IStatisticManager {
     }
 
     public Map<String, ChannelStats> getWorkingChannelStats() {
-        if (channelStats != null) {
-            return new HashMap<String, ChannelStats>(channelStats);
-        } else {
-            return new HashMap<String, ChannelStats>();
+        Date startTime = periodStartTime;
+        Node node = nodeService.getCachedIdentity();
+        String serverId = clusterService.getServerId();
+        Map<String, ChannelStats> channelStats = new HashMap<String, ChannelStats>();
+        for (Map.Entry<String, StripedCounters> entry : channelCounters.entrySet()) {
+            add(getChannelStats(channelStats, entry.getKey(), node, serverId, startTime, null),
+                    entry.getValue(), false);
+        }
+        for (Map.Entry<String, Long> entry : channelDataUnRouted.entrySet()) {
+            getChannelStats(channelStats, entry.getKey(), node, serverId, startTime, null)
+                    .setDataUnRouted(entry.getValue());
         }
+        return channelStats;
     }
 
     public HostStats getWorkingHostStats() {
-        if (this.hostStats != null) {
-            return new HostStats(this.hostStats);
+        Node node = nodeService.getCachedIdentity();
+        HostStats hostStats = new HostStats(node != null ? node.getNodeId() : UNKNOWN,
+                clusterService.getServerId(), periodStartTime, null);
+        if (add(hostStats, hostCounters, false)) {
+            return hostStats;
         } else {
             return new HostStats();
         }
     }
 
-    protected void resetChannelStats(boolean force) {
-        if (force) {
-            channelStats = null;
-        }
-
-        if (channelStats == null) {
-            List<NodeChannel> channels = configurationService.getNodeChannels(false);
-            channelStats = new HashMap<String, ChannelStats>(channels.size());
-            for (NodeChannel nodeChannel : channels) {
-                getChannelStats(nodeChannel.getChannelId());
+    protected void incrementChannelCounter(String channelId, int counter, long count) {
+        if (channelId != null) {
+            StripedCounters counters = channelCounters.get(channelId);
+            if (counters == null) {
+                counters = new StripedCounters(CHANNEL_COUNTERS);
+                StripedCounters existing = channelCounters.putIfAbsent(channelId, counters);
+                if (existing != null) {
+                    counters = existing;
+                }
             }
+            counters.add(counter, count);
         }
     }
 
-    protected ChannelStats getChannelStats(String channelId) {
-        resetChannelStats(false);
+    protected void incrementHostCounter(int counter, long count) {
+        hostCounters.add(counter, count);
+    }
+
+    protected ChannelStats getChannelStats(Map<String, ChannelStats> channelStats,
+            String channelId, Node node, String serverId, Date startTime, Date endTime) {
         ChannelStats stats = channelStats.get(channelId);
         if (stats == null) {
-            Node node = nodeService.getCachedIdentity();
-            if (node != null) {
-                stats = new ChannelStats(node.getNodeId(), clusterService.getServerId(),
-                        new Date(), null, channelId);
-                channelStats.put(channelId, stats);
-            } else {
-                stats = new ChannelStats(UNKNOWN, clusterService.getServerId(), new Date(), null,
-                        channelId);
-            }
-
+            stats = new ChannelStats(node != null ? node.getNodeId() : UNKNOWN, serverId,
+                    startTime, endTime, channelId);
+            channelStats.put(channelId, stats);
         }
         return stats;
     }
 
-    protected HostStats getHostStats() {
-        if (hostStats == null) {
-            Node node = nodeService.getCachedIdentity();
-            if (node != null) {
-                hostStats = new HostStats(node.getNodeId(), clusterService.getServerId(),
-                        new Date(), null);
-            } else {
-                hostStats = new HostStats(UNKNOWN, clusterService.getServerId(), new Date(), null);
-            }
-
-        }
-        return hostStats;
-    }
-
-}
\ No newline at end of file
+    protected void add(ChannelStats stats, StripedCounters counters, boolean drain) {
+        if (counters != null) {
+            stats.incrementDataRouted(value(counters, DATA_ROUTED, drain));
+            stats.incrementDataExtracted(value(counters, DATA_EXTRACTED, drain));
+            stats.incrementDataBytesExtracted(value(counters, DATA_BYTES_EXTRACTED, drain));
+            stats.incrementDataExtractedErrors(value(counters, DATA_EXTRACTED_ERRORS, drain));
+            stats.incrementDataEventInserted(value(counters, DATA_EVENT_INSERTED, drain));
+            stats.incrementDataSent(value(counters, DATA_SENT, drain));
+            stats.incrementDataBytesSent(value(counters, DATA_BYTES_SENT, drain));
+            stats.incrementDataSentErrors(value(counters, DATA_SENT_ERRORS, drain));
+            stats.incrementDataLoaded(value(counters, DATA_LOADED, drain));
+            stats.incrementDataBytesLoaded(value(counters, DATA_BYTES_LOADED, drain));
+            stats.incrementDataLoadedErrors(value(counters, DATA_LOADED_ERRORS, drain));
+            stats.setExtractLockWaitCount(stats.getExtractLockWaitCount()
+                    + value(counters, EXTRACT_LOCK_WAIT_COUNT, drain));
+            stats.setExtractLockWaitMs(stats.getExtractLockWaitMs()
+                    + value(counters, EXTRACT_LOCK_WAIT_MS, drain));
+        }
+    }
+
+    /**
+     * @return true if any of the host counters had a value
+     */
+    protected boolean add(HostStats stats, StripedCounters counters, boolean drain) {
+        long[] values = new long[HOST_COUNTERS];
+        boolean changed = false;
+        for (int i = 0; i < HOST_COUNTERS; i++) {
+            values[i] = value(counters, i, drain);
+            changed |= values[i] != 0;
+        }
+        stats.incrementRestarted(values[RESTARTED]);
+        stats.incrementNodesPulled(values[NODES_PULLED]);
+        stats.incrementTotalNodesPullTime(values[TOTAL_NODES_PULL_TIME]);
+        stats.incrementNodesPushed(values[NODES_PUSHED]);
+        stats.incrementTotalNodesPushTime(values[TOTAL_NODES_PUSH_TIME]);
+        stats.incrementNodesRejected(values[NODES_REJECTED]);
+        stats.incrementNodesRegistered(values[NODES_REGISTERED]);
+        stats.incrementNodesLoaded(values[NODES_LOADED]);
+        stats.incrementNodesDisabled(values[NODES_DISABLED]);
+        stats.incrementPurgedDataRows(values[PURGED_DATA_ROWS]);
+        stats.incrementPurgedDataEventRows(values[PURGED_DATA_EVENT_ROWS]);
+        stats.incrementPurgedBatchOutgoingRows(values[PURGED_BATCH_OUTGOING_ROWS]);
+        stats.incrementPurgedBatchIncomingRows(values[PURGED_BATCH_INCOMING_ROWS]);
+        stats.incrementTriggersCreatedCount(values[TRIGGERS_CREATED]);
+        stats.incrementTriggersRebuiltCount(values[TRIGGERS_REBUILT]);
+        stats.incrementTriggersRemovedCount(values[TRIGGERS_REMOVED]);
+        return changed;
+    }
+
+    protected long value(StripedCounters counters, int counter, boolean drain) {
+        return drain ? counters.drain(counter) : counters.get(counter);
+    }
+
+}
@@ -0,0 +1,80 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.statistic;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed number of counters that many threads can add to without blocking.
+ * Each counter is split into one cell per stripe and a thread adds to the
+ * cell of the stripe picked by its id, so threads that update the same
+ * counter seldom contend. The value of a counter is the sum of its cells.
+ * Draining a counter takes the values out of its cells one at a time, so a
+ * value that is added during a drain is left for the next one.
+ */
+public class StripedCounters {
+
+    static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+    private int counterCount;
+
+    private AtomicLongArray cells;
+
+    public StripedCounters(int counterCount) {
+        this.counterCount = counterCount;
+        this.cells = new AtomicLongArray(counterCount * STRIPES);
+    }
+
+    public void add(int counter, long value) {
+        if (value != 0) {
+            cells.addAndGet(stripe() * counterCount + counter, value);
+        }
+    }
+
+    public long get(int counter) {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += cells.get(stripe * counterCount + counter);
+        }
+        return sum;
+    }
+
+    public long drain(int counter) {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += cells.getAndSet(stripe * counterCount + counter, 0);
+        }
+        return sum;
+    }
+
+    protected int stripe() {
+        return (int) (Thread.currentThread().getId() & (STRIPES - 1));
+    }
+
+    static int stripes(int processors) {
+        int stripes = 1;
+        while (stripes < processors * 2 && stripes < 64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+}
@@ -34,6 +34,15 @@ public interface IOutgoingTransport {
 
     public OutputStream openStream();
 
+    /**
+     * @return the stream that the writer returned by {@link #openWriter()}
+     *         writes to, as long as the writer encodes characters using
+     *         {@link org.jumpmind.symmetric.io.IoConstants#ENCODING}. Staged
+     *         batches can be copied to this stream as bytes. Null if there is
+     *         no such stream.
+     */
+    public OutputStream getByteStream();
+
     public void close();
 
     public boolean isOpen();
@@ -181,7 +181,30 @@ public class HttpOutgoingTransport implements IOutgoingWithResponseTransport {
         return connection;
     }
 
+    public boolean isUseCompression() {
+        return useCompression;
+    }
+
     public OutputStream openStream() {
+        return openStream(true);
+    }
+
+    /**
+     * Open a stream that accepts complete gzip members, like the files of
+     * batches that were staged using the deflate codec. The members are sent
+     * as is and the receiving node reads them back as one stream. Compression
+     * must be enabled on this transport. Only nodes that answered an earlier
+     * push with {@link #isGzipMembersAccepted()} can read them.
+     */
+    public OutputStream openGzipMemberStream() {
+        if (!useCompression || fileUpload) {
+            throw new IllegalStateException(
+                    "Gzip members can only be sent when compression is enabled");
+        }
+        return openStream(false);
+    }
+
+    protected OutputStream openStream(boolean compress) {
         try {
             connection = HttpTransportManager.openConnection(url, basicAuthUsername,
                     basicAuthPassword);
@@ -208,7 +231,7 @@ public class HttpOutgoingTransport implements IOutgoingWithResponseTransport {
 
             os = connection.getOutputStream();
 
-            if (!fileUpload && useCompression) {
+            if (!fileUpload && useCompression && compress) {
                 os = new GZIPOutputStream(os) {
                     {
                         this.def.setLevel(compressionLevel);
@@ -244,6 +267,10 @@ public class HttpOutgoingTransport implements IOutgoingWithResponseTransport {
         }
     }
 
+    public OutputStream getByteStream() {
+        return writer != null ? os : null;
+    }
+
     public BufferedReader readResponse() throws IOException {
         closeWriter(false);
         closeOutputStream(false);
@@ -252,6 +279,15 @@ public class HttpOutgoingTransport implements IOutgoingWithResponseTransport {
         return this.reader;
     }
 
+    /**
+     * @return true if the response to this push says the remote node reads
+     *         concatenated gzip members
+     */
+    public boolean isGzipMembersAccepted() {
+        return connection != null && Boolean.parseBoolean(
+                connection.getHeaderField(WebConstants.ACCEPT_GZIP_MEMBERS));
+    }
+
     public boolean isOpen() {
         return connection != null;
     }
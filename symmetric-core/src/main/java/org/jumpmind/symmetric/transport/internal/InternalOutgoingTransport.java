@@ -27,6 +27,7 @@ import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 
 import org.apache.commons.io.IOUtils;
+import org.jumpmind.symmetric.io.IoConstants;
 import org.jumpmind.symmetric.model.ChannelMap;
 import org.jumpmind.symmetric.model.Node;
 import org.jumpmind.symmetric.service.IConfigurationService;
@@ -42,13 +43,17 @@ public class InternalOutgoingTransport implements IOutgoingTransport {
 
     boolean open = true;
 
+    boolean byteStreamEncoded = false;
+
     public InternalOutgoingTransport(OutputStream os, String encoding) throws UnsupportedEncodingException {
         this(os, new ChannelMap(), encoding);
     }
 
     public InternalOutgoingTransport(OutputStream os, ChannelMap map, String encoding) throws UnsupportedEncodingException {
         this.os = os;
-        this.writer = new BufferedWriter(new OutputStreamWriter(os, encoding == null ? Charset.defaultCharset().name() : encoding));
+        Charset charset = encoding == null ? Charset.defaultCharset() : Charset.forName(encoding);
+        this.writer = new BufferedWriter(new OutputStreamWriter(os, charset.name()));
+        this.byteStreamEncoded = charset.equals(Charset.forName(IoConstants.ENCODING));
         this.map = map;
     }
 
@@ -70,6 +75,10 @@ public class InternalOutgoingTransport implements IOutgoingTransport {
         return os;
     }
 
+    public OutputStream getByteStream() {
+        return byteStreamEncoded ? os : null;
+    }
+
     public BufferedWriter openWriter() {
         return writer;
     }
@@ -26,8 +26,11 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
 
 import org.apache.commons.io.IOUtils;
+import org.jumpmind.symmetric.io.IoConstants;
 import org.jumpmind.symmetric.model.ChannelMap;
 import org.jumpmind.symmetric.model.Node;
 import org.jumpmind.symmetric.service.IConfigurationService;
@@ -44,9 +47,14 @@ public class InternalOutgoingWithResponseTransport implements IOutgoingWithRespo
 
     boolean open = true;
 
+    boolean byteStreamEncoded = false;
+
     InternalOutgoingWithResponseTransport(OutputStream os, InputStream respIs) throws IOException {
         this.os = os;
-        this.writer = TransportUtils.toWriter(os);
+        OutputStreamWriter osWriter = new OutputStreamWriter(os, IoConstants.ENCODING);
+        this.writer = new BufferedWriter(osWriter);
+        this.byteStreamEncoded = Charset.forName(osWriter.getEncoding()).equals(
+                Charset.forName(IoConstants.ENCODING));
         this.reader = TransportUtils.toReader(respIs);
     }
 
@@ -54,6 +62,10 @@ public class InternalOutgoingWithResponseTransport implements IOutgoingWithRespo
         return os;
     }
 
+    public OutputStream getByteStream() {
+        return byteStreamEncoded ? os : null;
+    }
+
     public BufferedReader readResponse() throws IOException {
         IOUtils.closeQuietly(writer);
         return reader;
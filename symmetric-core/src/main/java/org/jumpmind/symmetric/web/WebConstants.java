@@ -115,4 +115,6 @@ public class WebConstants {
 
     public static final String IGNORED_CHANNELS = "Ignored-Channels";
 
+    public static final String ACCEPT_GZIP_MEMBERS = "Accept-Gzip-Members";
+
 }
\ No newline at end of file
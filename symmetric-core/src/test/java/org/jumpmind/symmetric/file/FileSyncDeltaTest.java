@@ -0,0 +1,140 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileSyncDeltaTest {
+
+    static final int BLOCK_SIZE = 512;
+
+    File directory = new File("target/delta");
+    File oldFile = new File(directory, "old.bin");
+    File newFile = new File(directory, "new.bin");
+    File deltaFile = new File(directory, "new.delta");
+
+    byte[] oldContent;
+
+    @Before
+    public void setupTest() throws Exception {
+        FileUtils.deleteQuietly(directory);
+        directory.mkdirs();
+        oldContent = new byte[200000];
+        new Random(1).nextBytes(oldContent);
+        FileUtils.writeByteArrayToFile(oldFile, oldContent);
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        byte[] newContent = new byte[oldContent.length + 1000];
+        new Random(2).nextBytes(newContent);
+        System.arraycopy(oldContent, 0, newContent, 0, oldContent.length);
+        byte[] delta = assertDelta(newContent);
+        assertTrue(delta.length < 2 * BLOCK_SIZE + 1000);
+    }
+
+    @Test
+    public void testInsertAndDelete() throws Exception {
+        byte[] inserted = "some inserted bytes".getBytes();
+        byte[] newContent = new byte[oldContent.length + inserted.length - 3000];
+        System.arraycopy(oldContent, 0, newContent, 0, 1001);
+        System.arraycopy(inserted, 0, newContent, 1001, inserted.length);
+        System.arraycopy(oldContent, 1001, newContent, 1001 + inserted.length, 100000);
+        System.arraycopy(oldContent, 104001, newContent, 101001 + inserted.length,
+                oldContent.length - 104001);
+        byte[] delta = assertDelta(newContent);
+        assertTrue(delta.length < 10 * BLOCK_SIZE);
+    }
+
+    @Test
+    public void testUnrelatedContent() throws Exception {
+        byte[] newContent = new byte[1000];
+        new Random(3).nextBytes(newContent);
+        assertDelta(newContent);
+        assertDelta(new byte[0]);
+    }
+
+    @Test
+    public void testSignatureRoundTrip() throws Exception {
+        FileSyncDelta.Signature signature = FileSyncDelta.createSignature(oldFile, BLOCK_SIZE);
+        signature.setBatchId(10);
+        File signatureFile = new File(directory, "signatures/old.bin.sig");
+        signature.write(signatureFile);
+        FileSyncDelta.Signature read = FileSyncDelta.Signature.read(signatureFile);
+        assertEquals(10, read.getBatchId());
+        assertEquals(BLOCK_SIZE, read.getBlockSize());
+        assertEquals(oldContent.length / BLOCK_SIZE, read.getBlockCount());
+        assertEquals(FileUtils.checksumCRC32(oldFile), read.getCrc32Checksum());
+        assertEquals(oldContent.length, read.getLength());
+    }
+
+    @Test
+    public void testPatch() throws Exception {
+        byte[] newContent = oldContent.clone();
+        newContent[5000] = (byte) (newContent[5000] + 1);
+        FileUtils.writeByteArrayToFile(newFile, newContent);
+        FileSyncDelta.Signature signature = FileSyncDelta.createSignature(oldFile, BLOCK_SIZE);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        FileSyncDelta.writeDelta(signature, newFile, delta);
+        FileUtils.writeByteArrayToFile(deltaFile, delta.toByteArray());
+
+        File targetFile = new File(directory, "target.bin");
+        FileUtils.writeByteArrayToFile(targetFile, newContent);
+        try {
+            FileSyncDelta.patch(targetFile, deltaFile, signature.getCrc32Checksum(),
+                    FileUtils.checksumCRC32(newFile), 100000);
+            fail("The target file is not the version the delta was made from");
+        } catch (FileConflictException e) {
+        }
+
+        FileUtils.copyFile(oldFile, targetFile);
+        FileSyncDelta.patch(targetFile, deltaFile, signature.getCrc32Checksum(),
+                FileUtils.checksumCRC32(newFile), 100000);
+        assertArrayEquals(newContent, FileUtils.readFileToByteArray(targetFile));
+        assertEquals(100000, targetFile.lastModified());
+        assertFalse(new File(directory, ".target.bin.patch").exists());
+    }
+
+    protected byte[] assertDelta(byte[] newContent) throws Exception {
+        FileUtils.writeByteArrayToFile(newFile, newContent);
+        FileSyncDelta.Signature signature = FileSyncDelta.createSignature(oldFile, BLOCK_SIZE);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        FileSyncDelta.writeDelta(signature, newFile, delta);
+        ByteArrayOutputStream patched = new ByteArrayOutputStream();
+        FileSyncDelta.applyDelta(oldFile, new ByteArrayInputStream(delta.toByteArray()), patched);
+        assertArrayEquals(newContent, patched.toByteArray());
+        return delta.toByteArray();
+    }
+
+}
@@ -0,0 +1,271 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.jumpmind.db.model.Column;
+import org.jumpmind.db.model.Table;
+import org.jumpmind.symmetric.io.data.Batch;
+import org.jumpmind.symmetric.io.data.Batch.BatchType;
+import org.jumpmind.symmetric.io.data.CsvData;
+import org.jumpmind.symmetric.io.data.DataContext;
+import org.jumpmind.symmetric.io.data.DataEventType;
+import org.jumpmind.symmetric.io.stage.IStagedResource;
+import org.jumpmind.symmetric.model.FileSnapshot.LastEventType;
+import org.jumpmind.symmetric.model.FileTrigger;
+import org.jumpmind.symmetric.model.FileTriggerRouter;
+import org.jumpmind.symmetric.service.IFileSyncService;
+import org.jumpmind.symmetric.service.INodeService;
+import org.jumpmind.util.AppUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import bsh.Interpreter;
+
+public class FileSyncZipDataWriterTest {
+
+    static final int BLOCK_SIZE = 512;
+
+    static final String[] SNAPSHOT_COLUMNS = { "TRIGGER_ID", "ROUTER_ID", "RELATIVE_DIR",
+            "FILE_NAME", "LAST_EVENT_TYPE", "CRC32_CHECKSUM", "FILE_SIZE", "FILE_MODIFIED_TIME",
+            "LAST_UPDATE_BY" };
+
+    File directory = new File("target/filesync-writer");
+    File sourceDirectory = new File(directory, "source");
+    File targetDirectory = new File(directory, "target");
+    File signatureDirectory = new File(directory, "signatures");
+    File sourceFile = new File(sourceDirectory, "data.bin");
+    File targetFile = new File(targetDirectory, "data.bin");
+
+    IFileSyncService fileSyncService;
+
+    Table snapshotTable;
+
+    byte[] content;
+
+    @Before
+    public void setupTest() throws Exception {
+        FileUtils.deleteQuietly(directory);
+        sourceDirectory.mkdirs();
+        content = new byte[100000];
+        new Random(1).nextBytes(content);
+        FileUtils.writeByteArrayToFile(sourceFile, content);
+
+        FileTrigger fileTrigger = new FileTrigger(sourceDirectory.getAbsolutePath(), false, null,
+                null);
+        fileTrigger.setTriggerId("trigger");
+        FileTriggerRouter fileTriggerRouter = new FileTriggerRouter(fileTrigger, null);
+        fileTriggerRouter.setTargetBaseDir(targetDirectory.getAbsolutePath());
+        fileSyncService = mock(IFileSyncService.class);
+        when(fileSyncService.getFileTriggerRouter("trigger", "router")).thenReturn(
+                fileTriggerRouter);
+
+        Column[] columns = new Column[SNAPSHOT_COLUMNS.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new Column(SNAPSHOT_COLUMNS[i]);
+        }
+        snapshotTable = new Table("sym_file_snapshot", columns);
+    }
+
+    @Test
+    public void testCreatedFileIsCopiedAndSignedOnAck() throws Exception {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        FileSyncZipDataWriter writer = newWriter(payload);
+        writeBatch(writer, 1, LastEventType.CREATE, 0);
+        writer.finish();
+
+        Map<String, byte[]> entries = unzip(payload, 1);
+        assertTrue(entries.containsKey("1/data.bin"));
+        assertFalse(new File(signatureDirectory, "target/trigger/router/./data.bin.sig").exists());
+        FileSyncDelta.Signature signature = FileSyncDelta.Signature.read(new File(
+                signatureDirectory, FileSyncZipDataWriter.PENDING_SIGNATURE_DIR
+                        + "/1/target/trigger/router/./data.bin.sig"));
+        assertNotNull(signature);
+        assertEquals(1, signature.getBatchId());
+        assertEquals(FileUtils.checksumCRC32(sourceFile), signature.getCrc32Checksum());
+
+        runScript(1);
+        assertArrayEquals(content, FileUtils.readFileToByteArray(targetFile));
+    }
+
+    @Test
+    public void testModifiedFileIsPatchedByTheScript() throws Exception {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        FileSyncZipDataWriter writer = newWriter(payload);
+        writeBatch(writer, 1, LastEventType.CREATE, 0);
+        writer.finish();
+        unzip(payload, 1);
+        runScript(1);
+        ack(1);
+
+        long oldChecksum = FileUtils.checksumCRC32(sourceFile);
+        content[50000]++;
+        FileUtils.writeByteArrayToFile(sourceFile, content);
+
+        payload = new ByteArrayOutputStream();
+        writer = newWriter(payload);
+        writeBatch(writer, 2, LastEventType.MODIFY, oldChecksum);
+        writer.finish();
+
+        Map<String, byte[]> entries = unzip(payload, 2);
+        assertFalse(entries.containsKey("2/data.bin"));
+        assertTrue(entries.get("2/.symmetric-delta/data.bin").length < 3 * BLOCK_SIZE);
+        runScript(2);
+        assertArrayEquals(content, FileUtils.readFileToByteArray(targetFile));
+    }
+
+    @Test
+    public void testModifiedFileIsSentWholeUntilAcked() throws Exception {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        FileSyncZipDataWriter writer = newWriter(payload);
+        writeBatch(writer, 1, LastEventType.CREATE, 0);
+        writer.finish();
+
+        long oldChecksum = FileUtils.checksumCRC32(sourceFile);
+        content[50000]++;
+        FileUtils.writeByteArrayToFile(sourceFile, content);
+
+        payload = new ByteArrayOutputStream();
+        writer = newWriter(payload);
+        writeBatch(writer, 2, LastEventType.MODIFY, oldChecksum);
+        writer.finish();
+
+        Map<String, byte[]> entries = unzip(payload, 2);
+        assertArrayEquals(content, entries.get("2/data.bin"));
+        assertNull(entries.get("2/.symmetric-delta/data.bin"));
+    }
+
+    @Test
+    public void testDeltaFollowsAnEarlierBatchInTheSamePayload() throws Exception {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        FileSyncZipDataWriter writer = newWriter(payload);
+        writeBatch(writer, 1, LastEventType.CREATE, 0);
+        writer.finish();
+        unzip(payload, 1);
+        runScript(1);
+        ack(1);
+
+        long firstChecksum = FileUtils.checksumCRC32(sourceFile);
+        content[20000]++;
+        FileUtils.writeByteArrayToFile(sourceFile, content);
+        payload = new ByteArrayOutputStream();
+        writer = newWriter(payload);
+        writeBatch(writer, 2, LastEventType.MODIFY, firstChecksum);
+
+        long secondChecksum = FileUtils.checksumCRC32(sourceFile);
+        content[80000]++;
+        FileUtils.writeByteArrayToFile(sourceFile, content);
+        writeBatch(writer, 3, LastEventType.MODIFY, secondChecksum);
+        writer.finish();
+
+        Map<String, byte[]> entries = unzip(payload, 2, 3);
+        assertTrue(entries.containsKey("2/.symmetric-delta/data.bin"));
+        assertTrue(entries.containsKey("3/.symmetric-delta/data.bin"));
+        runScript(2);
+        runScript(3);
+        assertArrayEquals(content, FileUtils.readFileToByteArray(targetFile));
+    }
+
+    protected FileSyncZipDataWriter newWriter(ByteArrayOutputStream payload) {
+        IStagedResource stagedResource = mock(IStagedResource.class);
+        when(stagedResource.getOutputStream()).thenReturn(payload);
+        FileSyncZipDataWriter writer = new FileSyncZipDataWriter(Long.MAX_VALUE, fileSyncService,
+                mock(INodeService.class), stagedResource);
+        writer.setDeltaEnabled(true);
+        writer.setDeltaMinFileSize(0);
+        writer.setDeltaBlockSize(BLOCK_SIZE);
+        writer.setSignatureDirectory(signatureDirectory);
+        writer.open(new DataContext());
+        return writer;
+    }
+
+    protected void writeBatch(FileSyncZipDataWriter writer, long batchId,
+            LastEventType eventType, long oldChecksum) throws Exception {
+        Batch batch = new Batch(BatchType.EXTRACT, batchId, "filesync", null, "source", "target",
+                false);
+        String[] rowData = { "trigger", "router", ".", sourceFile.getName(), eventType.getCode(),
+                Long.toString(FileUtils.checksumCRC32(sourceFile)),
+                Long.toString(sourceFile.length()), Long.toString(sourceFile.lastModified()),
+                "test" };
+        String[] oldData = rowData.clone();
+        oldData[5] = Long.toString(oldChecksum);
+        writer.start(batch);
+        writer.start(snapshotTable);
+        writer.write(new CsvData(eventType == LastEventType.CREATE ? DataEventType.INSERT
+                : DataEventType.UPDATE, rowData, oldData, null));
+        writer.end(snapshotTable);
+        writer.end(batch, false);
+    }
+
+    protected Map<String, byte[]> unzip(ByteArrayOutputStream payload, long... batchIds)
+            throws Exception {
+        for (long batchId : batchIds) {
+            FileUtils.deleteQuietly(new File(directory, "incoming/" + batchId));
+        }
+        AppUtils.unzip(new ByteArrayInputStream(payload.toByteArray()), new File(directory,
+                "incoming"));
+        Map<String, byte[]> entries = new HashMap<String, byte[]>();
+        for (long batchId : batchIds) {
+            File batchDir = new File(directory, "incoming/" + batchId);
+            String batchPath = batchDir.getParentFile().getAbsolutePath();
+            for (File file : FileUtils.listFiles(batchDir, null, true)) {
+                entries.put(file.getAbsolutePath().substring(batchPath.length() + 1)
+                        .replace('\\', '/'), FileUtils.readFileToByteArray(file));
+            }
+        }
+        return entries;
+    }
+
+    protected void runScript(long batchId) throws Exception {
+        File batchDir = new File(directory, "incoming/" + batchId);
+        Interpreter interpreter = new Interpreter();
+        interpreter.set("batchDir", batchDir.getAbsolutePath().replace('\\', '/'));
+        interpreter.eval(FileUtils.readFileToString(new File(batchDir, "sync.bsh")));
+    }
+
+    /**
+     * What the file sync service does with the signatures of a batch that
+     * the target acknowledged
+     */
+    protected void ack(long batchId) throws Exception {
+        File pendingDirectory = new File(signatureDirectory,
+                FileSyncZipDataWriter.PENDING_SIGNATURE_DIR + "/" + batchId);
+        FileUtils.copyDirectory(pendingDirectory, signatureDirectory);
+        FileUtils.deleteDirectory(pendingDirectory);
+    }
+
+}
@@ -109,6 +109,70 @@ public class FileTriggerTrackerTest {
         assertEquals(change.getLastEventType(), LastEventType.DELETE);
     }    
     
+    @Test
+    public void testTrackChangesWithLongLivedTracker() throws Exception {
+        FileTrigger fileTrigger = new FileTrigger(directory.getAbsolutePath(), true, null, null);
+        Router router = new Router();
+        FileTriggerRouter fileTriggerRouter = new FileTriggerRouter(fileTrigger, router);
+        FileTriggerTracker tracker = new FileTriggerTracker(fileTriggerRouter, null);
+        assertEquals(4, tracker.trackChanges().size());
+        assertEquals(0, tracker.trackChanges().size());
+
+        File newFile = new File(subdirectory, "4.txt");
+        FileUtils.write(newFile, "new");
+        DirectorySnapshot snapshot = tracker.trackChanges();
+        assertEquals(1, snapshot.size());
+        assertEquals(LastEventType.CREATE, snapshot.get(0).getLastEventType());
+
+        FileUtils.write(fileInDirectory2, "4,5,6,7");
+        fileInDirectory2.setLastModified(fileInDirectory2.lastModified() + 10000);
+        snapshot = tracker.trackChanges();
+        assertEquals(1, snapshot.size());
+        assertEquals(LastEventType.MODIFY, snapshot.get(0).getLastEventType());
+        assertEquals(FileSyncUtils.getRelativePath(fileInDirectory2, directory), snapshot.get(0).getFileName());
+    }
+
+    @Test
+    public void testTakeFullSnapshotKeepsTrackingChanges() throws Exception {
+        FileTrigger fileTrigger = new FileTrigger(directory.getAbsolutePath(), true, null, null);
+        Router router = new Router();
+        FileTriggerRouter fileTriggerRouter = new FileTriggerRouter(fileTrigger, router);
+        FileTriggerTracker tracker = new FileTriggerTracker(fileTriggerRouter, null);
+        assertEquals(4, tracker.trackChanges().size());
+
+        FileUtils.deleteQuietly(fileInDirectory1);
+        DirectorySnapshot fullSnapshot = new DirectorySnapshot(fileTriggerRouter);
+        tracker.takeFullSnapshot(fullSnapshot);
+        assertEquals(3, fullSnapshot.size());
+
+        File newFile = new File(subdirectory, "4.txt");
+        FileUtils.write(newFile, "new");
+        DirectorySnapshot snapshot = tracker.trackChanges();
+        assertEquals(2, snapshot.size());
+        for (FileSnapshot change : snapshot) {
+            if (change.getLastEventType() == LastEventType.DELETE) {
+                assertEquals(FileSyncUtils.getRelativePath(fileInDirectory1, directory), change.getFileName());
+            } else {
+                assertEquals(LastEventType.CREATE, change.getLastEventType());
+                assertEquals(newFile.getName(), change.getFileName());
+            }
+        }
+        assertEquals(0, tracker.trackChanges().size());
+    }
+
+    @Test
+    public void testTrackChangesSinceLastSnapshot() throws Exception {
+        FileTrigger fileTrigger = new FileTrigger(directory.getAbsolutePath(), true, null, null);
+        Router router = new Router();
+        FileTriggerRouter fileTriggerRouter = new FileTriggerRouter(fileTrigger, router);
+        DirectorySnapshot lastSnapshot = new FileTriggerTracker(fileTriggerRouter, null).trackChanges();
+        FileUtils.deleteQuietly(fileInSubDirectory);
+        DirectorySnapshot snapshot = new FileTriggerTracker(fileTriggerRouter, lastSnapshot).trackChanges();
+        assertEquals(1, snapshot.size());
+        assertEquals(LastEventType.DELETE, snapshot.get(0).getLastEventType());
+        assertEquals(fileInSubDirectory.getName(), snapshot.get(0).getFileName());
+    }
+
     @Test
     public void testTakeSnapshotAfterRestart() throws Exception {
         
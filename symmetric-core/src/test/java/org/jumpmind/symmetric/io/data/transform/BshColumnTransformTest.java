@@ -0,0 +1,127 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.io.data.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jumpmind.db.platform.IDatabasePlatform;
+import org.jumpmind.symmetric.common.ParameterConstants;
+import org.jumpmind.symmetric.io.data.Batch;
+import org.jumpmind.symmetric.io.data.DataContext;
+import org.jumpmind.symmetric.io.data.DataEventType;
+import org.jumpmind.symmetric.service.IParameterService;
+import org.junit.Before;
+import org.junit.Test;
+
+import bsh.BshMethod;
+
+public class BshColumnTransformTest {
+
+    IDatabasePlatform platform;
+
+    IParameterService parameterService;
+
+    BshColumnTransform transform;
+
+    TransformColumn column;
+
+    DataContext context;
+
+    @Before
+    public void setUp() {
+        platform = mock(IDatabasePlatform.class);
+        parameterService = mock(IParameterService.class);
+        transform = new BshColumnTransform(parameterService);
+        column = new TransformColumn("s1", "longstring", false, BshColumnTransform.NAME,
+                "return S1 + \"-\" + id;");
+        context = new DataContext(new Batch());
+    }
+
+    @Test
+    public void testTransform() throws Exception {
+        assertEquals("a-1", transform("a", "1"));
+        assertEquals("b-2", transform("b", "2"));
+    }
+
+    @Test
+    public void testScriptIsCompiledOncePerContext() throws Exception {
+        transform("a", "1");
+        BshMethod method = getCompiledScripts().get(column).method;
+        transform("b", "2");
+        transform("c", "3");
+        assertEquals(1, getCompiledScripts().size());
+        assertSame(method, getCompiledScripts().get(column).method);
+        verify(parameterService, times(1)).getString(ParameterConstants.BSH_TRANSFORM_GLOBAL_SCRIPT);
+
+        context.setBatch(new Batch());
+        transform("d", "4");
+        assertSame(method, getCompiledScripts().get(column).method);
+        verify(parameterService, times(2)).getString(ParameterConstants.BSH_TRANSFORM_GLOBAL_SCRIPT);
+    }
+
+    @Test
+    public void testChangedExpressionIsCompiledAgain() throws Exception {
+        assertEquals("a-1", transform("a", "1"));
+        BshMethod method = getCompiledScripts().get(column).method;
+        column.setTransformExpression("return id + \"-\" + S1;");
+        assertEquals("2-b", transform("b", "2"));
+        assertNotSame(method, getCompiledScripts().get(column).method);
+    }
+
+    @Test
+    public void testGlobalScript() throws Exception {
+        when(parameterService.getString(ParameterConstants.BSH_TRANSFORM_GLOBAL_SCRIPT)).thenReturn(
+                "String wrap(String value) { return \"[\" + value + \"]\"; }");
+        column.setTransformExpression("return wrap(currentValue);");
+        assertEquals("[a]", transform("a", "1"));
+        assertEquals("[b]", transform("b", "2"));
+    }
+
+    @Test(expected = IgnoreRowException.class)
+    public void testIgnoreRow() throws Exception {
+        column.setTransformExpression("throw new " + IgnoreRowException.class.getName() + "();");
+        transform("a", "1");
+    }
+
+    protected String transform(String s1, String id) throws Exception {
+        Map<String, String> sourceValues = new HashMap<String, String>();
+        sourceValues.put("s1", s1);
+        sourceValues.put("id", id);
+        TransformedData data = new TransformedData(null, DataEventType.INSERT, null, null, sourceValues);
+        return transform.transform(platform, context, column, data, sourceValues, s1, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Map<TransformColumn, BshColumnTransform.CompiledScript> getCompiledScripts() {
+        return (Map<TransformColumn, BshColumnTransform.CompiledScript>) context
+                .get(transform.COMPILED_SCRIPTS_KEY);
+    }
+
+}
@@ -0,0 +1,264 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.io.data.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jumpmind.db.platform.IDatabasePlatform;
+import org.jumpmind.db.sql.ISqlRowMapper;
+import org.jumpmind.db.sql.ISqlTemplate;
+import org.jumpmind.db.sql.Row;
+import org.jumpmind.symmetric.common.ParameterConstants;
+import org.jumpmind.symmetric.io.data.Batch;
+import org.jumpmind.symmetric.io.data.DataContext;
+import org.jumpmind.symmetric.io.data.IDataWriter;
+import org.jumpmind.symmetric.io.data.writer.DataWriterStatisticConstants;
+import org.jumpmind.symmetric.service.IParameterService;
+import org.jumpmind.util.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LookupColumnTransformTest {
+
+    static final String LOOKUP_SQL = "select product_id from product where product_code = :PRODUCT_CODE";
+
+    static final String PRELOAD_SQL = "select product_code as lookup_key, product_id as lookup_value from product";
+
+    IDatabasePlatform platform;
+
+    ISqlTemplate sqlTemplate;
+
+    IParameterService parameterService;
+
+    TransformColumn column;
+
+    Batch batch;
+
+    Statistics statistics;
+
+    DataContext context;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        sqlTemplate = mock(ISqlTemplate.class);
+        platform = mock(IDatabasePlatform.class);
+        when(platform.getSqlTemplate()).thenReturn(sqlTemplate);
+        when(sqlTemplate.query(eq("select product_id from product where product_code = ?"),
+                any(ISqlRowMapper.class), any(Object[].class), any(int[].class))).thenReturn(
+                Arrays.asList("100"));
+
+        parameterService = mock(IParameterService.class);
+        setParameters(1000, 60000, 0);
+
+        column = new TransformColumn("product_code", "product_id", false, LookupColumnTransform.NAME,
+                LOOKUP_SQL);
+
+        batch = new Batch();
+        statistics = new Statistics();
+        final Map<Batch, Statistics> statisticsByBatch = new HashMap<Batch, Statistics>();
+        statisticsByBatch.put(batch, statistics);
+        final IDataWriter dataWriter = mock(IDataWriter.class);
+        when(dataWriter.getStatistics()).thenReturn(statisticsByBatch);
+        context = new DataContext(batch) {
+            {
+                setWriter(dataWriter);
+            }
+        };
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLookupIsCached() throws Exception {
+        LookupColumnTransform transform = new LookupColumnTransform(parameterService);
+        for (int i = 0; i < 5; i++) {
+            assertEquals("100", transform(transform, "ABC"));
+        }
+        verify(sqlTemplate, times(1)).query(anyString(), any(ISqlRowMapper.class),
+                any(Object[].class), any(int[].class));
+        assertEquals(1, statistics.get(DataWriterStatisticConstants.LOOKUPCOUNT));
+        assertEquals(4, statistics.get(DataWriterStatisticConstants.LOOKUPCACHEHITCOUNT));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLookupIsNotCachedWhenDisabled() throws Exception {
+        setParameters(0, 60000, 0);
+        LookupColumnTransform transform = new LookupColumnTransform(parameterService);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("100", transform(transform, "ABC"));
+        }
+        verify(sqlTemplate, times(3)).query(anyString(), any(ISqlRowMapper.class),
+                any(Object[].class), any(int[].class));
+        assertEquals(0, statistics.get(DataWriterStatisticConstants.LOOKUPCACHEHITCOUNT));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMissingValueIsNotCached() throws Exception {
+        when(sqlTemplate.query(anyString(), any(ISqlRowMapper.class), any(Object[].class),
+                any(int[].class))).thenReturn(new ArrayList<Object>());
+        LookupColumnTransform transform = new LookupColumnTransform(parameterService);
+        assertNull(transform(transform, "XYZ"));
+        assertNull(transform(transform, "XYZ"));
+        verify(sqlTemplate, times(2)).query(anyString(), any(ISqlRowMapper.class),
+                any(Object[].class), any(int[].class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCacheIsBounded() throws Exception {
+        setParameters(2, 60000, 0);
+        LookupColumnTransform transform = new LookupColumnTransform(parameterService);
+        transform(transform, "A");
+        transform(transform, "B");
+        transform(transform, "A");
+        transform(transform, "C");
+        transform(transform, "A");
+        transform(transform, "B");
+        assertEquals(4, statistics.get(DataWriterStatisticConstants.LOOKUPCOUNT));
+        assertEquals(2, statistics.get(DataWriterStatisticConstants.LOOKUPCACHEHITCOUNT));
+        verify(sqlTemplate, times(4)).query(anyString(), any(ISqlRowMapper.class),
+                any(Object[].class), any(int[].class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPreload() throws Exception {
+        setParameters(1000, 60000, 10);
+        when(sqlTemplate.queryForInt("select count(*) from product")).thenReturn(2);
+        List<Row> rows = new ArrayList<Row>();
+        rows.add(row("ABC", 100));
+        rows.add(row("DEF", null));
+        when(sqlTemplate.query(eq(PRELOAD_SQL), any(ISqlRowMapper.class))).thenReturn(rows);
+
+        LookupColumnTransform transform = new LookupColumnTransform(parameterService);
+        assertEquals("100", transform(transform, "ABC"));
+        assertNull(transform(transform, "DEF"));
+        assertEquals("100", transform(transform, "GHI"));
+
+        verify(sqlTemplate, times(1)).query(eq(PRELOAD_SQL), any(ISqlRowMapper.class));
+        verify(sqlTemplate, times(1)).query(anyString(), any(ISqlRowMapper.class),
+                any(Object[].class), any(int[].class));
+        assertEquals(2, statistics.get(DataWriterStatisticConstants.LOOKUPCACHEHITCOUNT));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testNoPreloadOfLargeTable() throws Exception {
+        setParameters(1000, 60000, 10);
+        when(sqlTemplate.queryForInt("select count(*) from product")).thenReturn(11);
+
+        LookupColumnTransform transform = new LookupColumnTransform(parameterService);
+        assertEquals("100", transform(transform, "ABC"));
+        assertEquals("100", transform(transform, "ABC"));
+
+        verify(sqlTemplate, times(1)).queryForInt("select count(*) from product");
+        verify(sqlTemplate, never()).query(eq(PRELOAD_SQL), any(ISqlRowMapper.class));
+        verify(sqlTemplate, times(1)).query(anyString(), any(ISqlRowMapper.class),
+                any(Object[].class), any(int[].class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPreloadOfSameColumn() throws Exception {
+        setParameters(1000, 60000, 10);
+        column = new TransformColumn("product_code", "product_code", false, LookupColumnTransform.NAME,
+                "select product_code from product where product_code = :PRODUCT_CODE");
+        when(sqlTemplate.queryForInt("select count(*) from product")).thenReturn(1);
+        List<Row> rows = new ArrayList<Row>();
+        rows.add(row("ABC", "ABC"));
+        when(sqlTemplate.query(
+                eq("select product_code as lookup_key, product_code as lookup_value from product"),
+                any(ISqlRowMapper.class))).thenReturn(rows);
+
+        LookupColumnTransform transform = new LookupColumnTransform(parameterService);
+        assertEquals("ABC", transform(transform, "ABC"));
+        assertEquals("ABC", transform(transform, "ABC"));
+
+        verify(sqlTemplate, never()).query(anyString(), any(ISqlRowMapper.class),
+                any(Object[].class), any(int[].class));
+        assertEquals(2, statistics.get(DataWriterStatisticConstants.LOOKUPCACHEHITCOUNT));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testNoPreloadOfNumericKey() throws Exception {
+        setParameters(1000, 60000, 10);
+        column = new TransformColumn("product_id", "product_code", false, LookupColumnTransform.NAME,
+                "select product_code from product where product_id = :PRODUCT_ID");
+        when(sqlTemplate.queryForInt("select count(*) from product")).thenReturn(1);
+        List<Row> rows = new ArrayList<Row>();
+        rows.add(row(new BigDecimal("100.0"), "ABC"));
+        when(sqlTemplate.query(
+                eq("select product_id as lookup_key, product_code as lookup_value from product"),
+                any(ISqlRowMapper.class))).thenReturn(rows);
+        when(sqlTemplate.query(eq("select product_code from product where product_id = ?"),
+                any(ISqlRowMapper.class), any(Object[].class), any(int[].class))).thenReturn(
+                Arrays.asList("ABC"));
+
+        LookupColumnTransform transform = new LookupColumnTransform(parameterService);
+        Map<String, String> sourceValues = new HashMap<String, String>();
+        sourceValues.put("product_id", "100");
+        assertEquals("ABC", transform.transform(platform, context, column, null, sourceValues, "100", null));
+
+        verify(sqlTemplate, times(1)).query(eq("select product_code from product where product_id = ?"),
+                any(ISqlRowMapper.class), any(Object[].class), any(int[].class));
+        assertEquals(0, statistics.get(DataWriterStatisticConstants.LOOKUPCACHEHITCOUNT));
+    }
+
+    protected String transform(LookupColumnTransform transform, String productCode)
+            throws Exception {
+        Map<String, String> sourceValues = new HashMap<String, String>();
+        sourceValues.put("product_code", productCode);
+        return transform.transform(platform, context, column, null, sourceValues, productCode, null);
+    }
+
+    protected Row row(Object key, Object value) {
+        Row row = new Row(2);
+        row.put("lookup_key", key);
+        row.put("lookup_value", value);
+        return row;
+    }
+
+    protected void setParameters(int cacheSize, long cacheTimeMs, int preloadMaxRows) {
+        when(parameterService.getInt(ParameterConstants.TRANSFORM_LOOKUP_CACHE_SIZE)).thenReturn(cacheSize);
+        when(parameterService.getLong(ParameterConstants.TRANSFORM_LOOKUP_CACHE_TIME_MS)).thenReturn(cacheTimeMs);
+        when(parameterService.getInt(ParameterConstants.TRANSFORM_LOOKUP_CACHE_PRELOAD_MAX_ROWS)).thenReturn(preloadMaxRows);
+    }
+
+}
@@ -0,0 +1,161 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.route;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.jumpmind.db.model.Table;
+import org.jumpmind.db.platform.IDatabasePlatform;
+import org.jumpmind.db.util.BinaryEncoding;
+import org.jumpmind.symmetric.ISymmetricEngine;
+import org.jumpmind.symmetric.db.ISymmetricDialect;
+import org.jumpmind.symmetric.io.data.DataEventType;
+import org.jumpmind.symmetric.model.Data;
+import org.jumpmind.symmetric.model.DataMetaData;
+import org.jumpmind.symmetric.model.Node;
+import org.jumpmind.symmetric.model.NodeChannel;
+import org.jumpmind.symmetric.model.Router;
+import org.jumpmind.symmetric.model.TriggerHistory;
+import org.jumpmind.symmetric.service.INodeService;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import bsh.BshMethod;
+import bsh.Interpreter;
+
+public class BshDataRouterTest {
+
+    BshDataRouter router;
+
+    SimpleRouterContext context;
+
+    Set<Node> nodes;
+
+    TriggerHistory triggerHistory = new TriggerHistory("mytable", "ID", "ID,NODE_ID");
+
+    @Before
+    public void setup() {
+        IDatabasePlatform platform = mock(IDatabasePlatform.class);
+        when(
+                platform.getObjectValues(any(BinaryEncoding.class), any(Table.class),
+                        any(String[].class), any(String[].class))).thenAnswer(
+                new Answer<Object[]>() {
+                    public Object[] answer(InvocationOnMock invocation) {
+                        return (Object[]) invocation.getArguments()[3];
+                    }
+                });
+        ISymmetricDialect symmetricDialect = mock(ISymmetricDialect.class);
+        when(symmetricDialect.getPlatform()).thenReturn(platform);
+        INodeService nodeService = mock(INodeService.class);
+        when(nodeService.findIdentityNodeId()).thenReturn("000");
+        ISymmetricEngine engine = mock(ISymmetricEngine.class);
+        when(engine.getSymmetricDialect()).thenReturn(symmetricDialect);
+        when(engine.getNodeService()).thenReturn(nodeService);
+
+        router = new BshDataRouter(engine);
+        context = new SimpleRouterContext();
+        nodes = new HashSet<Node>();
+        nodes.add(new Node("100", "client"));
+        nodes.add(new Node("200", "client"));
+    }
+
+    @Test
+    public void testCompiledExpressionIsReusedForEachRow() {
+        String expression = "if (NODE_ID.equals(\"100\")) {\n return NODE_ID;\n}\nnodeIds";
+        assertEquals(set("100"), route(expression, "1,100"));
+        assertEquals(set("100", "200"), route(expression, "2,200"));
+        Interpreter interpreter = (Interpreter) context.getContextCache().get(
+                router.INTERPRETER_KEY);
+        BshMethod method = getMethods().get(expression);
+        assertNotNull(method);
+
+        assertEquals(set("100"), route(expression, "3,100"));
+        assertEquals(set("100", "200"), route(expression, "4,200"));
+        assertSame(interpreter, context.getContextCache().get(router.INTERPRETER_KEY));
+        assertSame(method, getMethods().get(expression));
+        assertEquals(1, getMethods().size());
+    }
+
+    @Test
+    public void testEachExpressionIsCompiledOnce() {
+        assertEquals(set("100"), route("targetNodes.add(NODE_ID);", "1,100"));
+        assertEquals(set("100", "200"), route("true", "2,300"));
+        assertEquals(set("200"), route("targetNodes.add(NODE_ID);", "3,200"));
+        assertEquals(set("100", "200"), route("true", "4,300"));
+        assertEquals(set("100"), route("targetNodes.add(NODE_ID);", "5,100"));
+        assertEquals(2, getMethods().size());
+        assertTrue(getMethods().get("true") != getMethods().get("targetNodes.add(NODE_ID);"));
+    }
+
+    @Test
+    public void testStateIsKeptBetweenRows() {
+        String expression = "if (seen == void) {\n seen = new HashSet();\n}\nseen.add(NODE_ID) ? \"100\" : \"200\"";
+        assertEquals(set("100"), route(expression, "1,100"));
+        assertEquals(set("200"), route(expression, "2,100"));
+        assertEquals(set("100"), route(expression, "3,200"));
+        assertEquals(set("200"), route(expression, "4,200"));
+        assertNull(getMethods().get(expression));
+
+        context = new SimpleRouterContext();
+        assertEquals(set("100"), route(expression, "5,100"));
+        assertEquals(set("200"), route(expression, "6,100"));
+    }
+
+    protected Set<String> route(String expression, String rowData) {
+        Data data = new Data();
+        data.setDataEventType(DataEventType.INSERT);
+        data.setRowData(rowData);
+        data.setTriggerHistory(triggerHistory);
+        Router dataRouter = new Router();
+        dataRouter.setRouterId("router");
+        dataRouter.setRouterExpression(expression);
+        DataMetaData dataMetaData = new DataMetaData(data, new Table(), dataRouter,
+                new NodeChannel());
+        return router.routeToNodes(context, dataMetaData, nodes, false, false, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Map<String, BshMethod> getMethods() {
+        return (Map<String, BshMethod>) context.getContextCache().get(router.METHODS_KEY);
+    }
+
+    protected Set<String> set(String... nodeIds) {
+        Set<String> set = new HashSet<String>();
+        for (String nodeId : nodeIds) {
+            set.add(nodeId);
+        }
+        return set;
+    }
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.route;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+
+import org.jumpmind.db.sql.ISqlTransaction;
+import org.jumpmind.symmetric.model.NodeChannel;
+import org.junit.Test;
+
+public class ChannelRouterContextTest {
+
+    @Test
+    public void testDataIdsNotTrackedByDefault() throws Exception {
+        ChannelRouterContext context = newContext();
+        context.addDataEvent(1, 10, "router");
+        context.addDataEvent(2, 10, "router");
+        context.commit();
+        assertEquals(0, context.getDataIds().length);
+    }
+
+    @Test
+    public void testOnlyCommittedDataIdsAreTracked() throws Exception {
+        ChannelRouterContext context = newContext();
+        context.setTrackDataIds(true);
+        context.addDataEvent(1, 10, "router");
+        context.addDataEvent(1, 11, "router");
+        context.addDataEvent(2, 10, "router");
+        context.commit();
+        context.addDataEvent(3, 10, "router");
+        context.rollback();
+        for (long dataId = 4; dataId < 1000; dataId++) {
+            context.addDataEvent(dataId, 12, "router");
+        }
+        context.commit();
+
+        long[] dataIds = context.getDataIds();
+        assertEquals(998, dataIds.length);
+        assertArrayEquals(new long[] { 1, 2, 4 }, Arrays.copyOf(dataIds, 3));
+        assertEquals(999, dataIds[dataIds.length - 1]);
+    }
+
+    protected ChannelRouterContext newContext() throws Exception {
+        return new ChannelRouterContext("00000", new NodeChannel("test"),
+                mock(ISqlTransaction.class));
+    }
+
+}
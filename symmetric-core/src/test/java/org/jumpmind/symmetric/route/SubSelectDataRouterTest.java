@@ -0,0 +1,263 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.route;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.jumpmind.db.model.Table;
+import org.jumpmind.db.platform.IDatabasePlatform;
+import org.jumpmind.db.sql.ISqlRowMapper;
+import org.jumpmind.db.sql.ISqlTemplate;
+import org.jumpmind.db.sql.ISqlTransaction;
+import org.jumpmind.db.sql.Row;
+import org.jumpmind.db.util.BinaryEncoding;
+import org.jumpmind.symmetric.common.ParameterConstants;
+import org.jumpmind.symmetric.db.ISymmetricDialect;
+import org.jumpmind.symmetric.io.data.DataEventType;
+import org.jumpmind.symmetric.model.Data;
+import org.jumpmind.symmetric.model.DataMetaData;
+import org.jumpmind.symmetric.model.Node;
+import org.jumpmind.symmetric.model.NodeChannel;
+import org.jumpmind.symmetric.model.Router;
+import org.jumpmind.symmetric.model.TriggerHistory;
+import org.jumpmind.symmetric.service.IParameterService;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class SubSelectDataRouterTest {
+
+    IParameterService parameterService;
+
+    SubSelectDataRouter router;
+
+    Router dataRouter;
+
+    Map<String, String[]> nodeIdsByStore;
+
+    int rowQueries;
+
+    int batchQueries;
+
+    TriggerHistory triggerHistory = new TriggerHistory("store_item", "ID", "ID,STORE_ID");
+
+    @Before
+    public void setup() {
+        triggerHistory.setTriggerHistoryId(1);
+        nodeIdsByStore = new HashMap<String, String[]>();
+        nodeIdsByStore.put("1", new String[] { "101" });
+        nodeIdsByStore.put("2", new String[] { "102", "202" });
+        nodeIdsByStore.put("3", new String[0]);
+
+        ISqlTemplate sqlTemplate = mock(ISqlTemplate.class);
+        when(
+                sqlTemplate.query(anyString(), any(ISqlRowMapper.class), any(Object[].class),
+                        any(int[].class))).thenAnswer(new Answer<List<String>>() {
+            public List<String> answer(InvocationOnMock invocation) {
+                rowQueries++;
+                Object[] args = (Object[]) invocation.getArguments()[2];
+                List<String> nodeIds = new ArrayList<String>();
+                for (String nodeId : nodeIdsByStore.get(args[1])) {
+                    nodeIds.add(nodeId);
+                }
+                return nodeIds;
+            }
+        });
+        when(sqlTemplate.query(anyString(), any(Object[].class))).thenAnswer(
+                new Answer<List<Row>>() {
+                    public List<Row> answer(InvocationOnMock invocation) {
+                        batchQueries++;
+                        String sql = (String) invocation.getArguments()[0];
+                        Object[] args = (Object[]) invocation.getArguments()[1];
+                        int selects = StringUtils.countMatches(sql, " union all ") + 1;
+                        int argsPerSelect = args.length / selects;
+                        List<Row> rows = new ArrayList<Row>();
+                        for (int i = 0; i < selects; i++) {
+                            for (String nodeId : nodeIdsByStore.get(args[i * argsPerSelect + 1])) {
+                                Row row = new Row("node_id", nodeId);
+                                row.put("router_row_index", i);
+                                rows.add(row);
+                            }
+                        }
+                        return rows;
+                    }
+                });
+
+        IDatabasePlatform platform = mock(IDatabasePlatform.class);
+        when(platform.getSqlTemplate()).thenReturn(sqlTemplate);
+        when(
+                platform.getObjectValues(any(BinaryEncoding.class), any(Table.class),
+                        any(String[].class), any(String[].class))).thenAnswer(
+                new Answer<Object[]>() {
+                    public Object[] answer(InvocationOnMock invocation) {
+                        return (Object[]) invocation.getArguments()[3];
+                    }
+                });
+        ISymmetricDialect symmetricDialect = mock(ISymmetricDialect.class);
+        when(symmetricDialect.getPlatform()).thenReturn(platform);
+        when(symmetricDialect.getTablePrefix()).thenReturn("sym");
+
+        parameterService = mock(IParameterService.class);
+        when(parameterService.getLong(ParameterConstants.ROUTING_SUBSELECT_CACHE_TTL_MS))
+                .thenReturn(60000l);
+
+        router = new SubSelectDataRouter(symmetricDialect, parameterService);
+        dataRouter = new Router("store_router", "corp", "store", "subselect");
+        dataRouter.setRouterExpression("c.external_id = :STORE_ID");
+    }
+
+    @Test
+    public void testBatchedLookupMatchesRowByRowLookup() throws Exception {
+        String[] stores = { "1", "2", "1", "3", "2", "1", "3", "3" };
+        setParameters(1, 0);
+        List<Set<String>> expected = route(stores);
+        assertEquals(stores.length, rowQueries);
+        assertEquals(0, batchQueries);
+
+        rowQueries = 0;
+        setParameters(4, 0);
+        List<Set<String>> actual = route(stores);
+        assertEquals(expected, actual);
+        assertEquals(0, rowQueries);
+        assertEquals(2, batchQueries);
+
+        assertEquals(set("101"), actual.get(0));
+        assertEquals(set("102", "202"), actual.get(1));
+        assertEquals(set(), actual.get(3));
+    }
+
+    @Test
+    public void testCacheEvictsLeastRecentlyUsedAtLimit() throws Exception {
+        String[] stores = { "1", "2", "1", "3", "2", "3", "1" };
+        setParameters(1, 2);
+        List<Set<String>> nodeIds = route(stores);
+        assertEquals(set("101"), nodeIds.get(0));
+        assertEquals(set("102", "202"), nodeIds.get(4));
+        assertEquals(set("101"), nodeIds.get(6));
+        assertEquals(2, router.getCacheHits());
+        assertEquals(5, router.getCacheMisses());
+        assertEquals(5, rowQueries);
+        assertEquals(2, router.getNodeIdCache().size());
+    }
+
+    @Test
+    public void testCachedNodeIdsCannotBeChangedByCaller() throws Exception {
+        setParameters(1, 2);
+        Set<String> nodeIds = route("1").get(0);
+        nodeIds.add("999");
+        assertEquals(set("101"), route("1").get(0));
+        assertEquals(1, router.getCacheHits());
+        assertEquals(1, rowQueries);
+    }
+
+    @Test
+    public void testResultsForSkippedRowsAreDropped() throws Exception {
+        String[] stores = { "1", "2", "1", "3", "2", "1", "3", "3", "2", "1" };
+        setParameters(4, 0);
+        ChannelRouterContext context = newContext(stores);
+        NodeChannel nodeChannel = context.getChannel();
+        Set<Node> nodes = new HashSet<Node>();
+        Data data = context.takeData();
+        while (data != null) {
+            if (data.getDataId() % 3 != 0) {
+                DataMetaData dataMetaData = new DataMetaData(data, new Table(), dataRouter,
+                        nodeChannel);
+                Set<String> nodeIds = router.routeToNodes(context, dataMetaData, nodes, false,
+                        false, null);
+                String[] expected = nodeIdsByStore.get(stores[(int) data.getDataId() - 1]);
+                assertEquals(set(expected), nodeIds);
+                assertTrue(router.getResults(context).size() < 4);
+            }
+            data = context.takeData();
+        }
+        assertEquals(0, router.getResults(context).size());
+    }
+
+    protected void setParameters(int batchSize, int cacheSize) {
+        when(parameterService.getInt(ParameterConstants.ROUTING_SUBSELECT_BATCH_SIZE, 1))
+                .thenReturn(batchSize);
+        when(parameterService.getInt(ParameterConstants.ROUTING_SUBSELECT_CACHE_SIZE, 0))
+                .thenReturn(cacheSize);
+    }
+
+    protected List<Set<String>> route(String... stores) throws Exception {
+        ChannelRouterContext context = newContext(stores);
+        NodeChannel nodeChannel = context.getChannel();
+        Set<Node> nodes = new HashSet<Node>();
+        List<Set<String>> results = new ArrayList<Set<String>>();
+        Data data = context.takeData();
+        while (data != null) {
+            DataMetaData dataMetaData = new DataMetaData(data, new Table(), dataRouter,
+                    nodeChannel);
+            results.add(router.routeToNodes(context, dataMetaData, nodes, false, false, null));
+            data = context.takeData();
+        }
+        return results;
+    }
+
+    protected ChannelRouterContext newContext(String... stores) throws Exception {
+        final LinkedList<Data> dataToRoute = new LinkedList<Data>();
+        for (int i = 0; i < stores.length; i++) {
+            Data data = new Data();
+            data.setDataId(i + 1);
+            data.setDataEventType(DataEventType.INSERT);
+            data.setRowData((i + 1) + "," + stores[i]);
+            data.setTriggerHistory(triggerHistory);
+            dataToRoute.add(data);
+        }
+
+        NodeChannel nodeChannel = new NodeChannel("store");
+        ChannelRouterContext context = new ChannelRouterContext("00000", nodeChannel,
+                mock(ISqlTransaction.class));
+        IDataToRouteReader reader = mock(IDataToRouteReader.class);
+        when(reader.take()).thenAnswer(new Answer<Data>() {
+            public Data answer(InvocationOnMock invocation) {
+                return dataToRoute.poll();
+            }
+        });
+        context.setDataReader(reader);
+        return context;
+    }
+
+    protected Set<String> set(String... nodeIds) {
+        Set<String> set = new HashSet<String>();
+        for (String nodeId : nodeIds) {
+            set.add(nodeId);
+        }
+        return set;
+    }
+
+}
@@ -21,17 +21,27 @@
 package org.jumpmind.symmetric.service.impl;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.StringWriter;
 import java.math.BigDecimal;
 import java.sql.Date;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
 import org.jumpmind.symmetric.TestConstants;
+import org.jumpmind.symmetric.common.Constants;
+import org.jumpmind.symmetric.common.ParameterConstants;
+import org.jumpmind.symmetric.io.IoConstants;
+import org.jumpmind.symmetric.io.data.Batch;
+import org.jumpmind.symmetric.io.stage.IStagedResource;
+import org.jumpmind.symmetric.io.stage.IStagedResource.State;
+import org.jumpmind.symmetric.model.Node;
 import org.jumpmind.symmetric.model.OutgoingBatch;
 import org.jumpmind.symmetric.model.ProcessInfo;
+import org.jumpmind.symmetric.model.ProcessType;
 import org.jumpmind.symmetric.model.Router;
 import org.jumpmind.symmetric.model.Trigger;
 import org.jumpmind.symmetric.model.TriggerRouter;
@@ -113,6 +123,222 @@ public abstract class AbstractDataExtractorServiceTest extends AbstractServiceTe
 
     }
 
+    @Test
+    public void testExtractAheadKeepsBatchesInOrder() {
+        getParameterService().saveParameter(ParameterConstants.EXTRACT_AHEAD_MAX_BATCHES, 1,
+                "unittest");
+        try {
+            resetBatches();
+            for (int i = 0; i < 3; i++) {
+                save(new TestExtract(id++, "abc 123", "abcdefghijklmnopqrstuvwxyz", new Timestamp(
+                        System.currentTimeMillis()), new Date(System.currentTimeMillis()), true,
+                        Integer.MAX_VALUE, new BigDecimal(Double.toString(Math.PI))));
+                routeAndCreateGaps();
+            }
+            ExtractResults results = extract();
+            assertNotNull(results.getBatches());
+            assertEquals(3, results.getBatches().size());
+            assertNumberOfLinesThatStartWith(3, "insert,", results.getCsv());
+            int lastIndex = -1;
+            for (OutgoingBatch batch : results.getBatches()) {
+                int index = results.getCsv().indexOf("batch," + batch.getBatchId());
+                assertTrue(index > lastIndex);
+                lastIndex = index;
+            }
+
+            ProcessInfo extractAheadInfo = null;
+            for (ProcessInfo info : getSymmetricEngine().getStatisticManager().getProcessInfos()) {
+                if (info.getProcessType() == ProcessType.EXTRACT_AHEAD
+                        && TestConstants.TEST_CLIENT_NODE.getNodeId().equals(info.getTargetNodeId())) {
+                    extractAheadInfo = info;
+                }
+            }
+            assertNotNull(extractAheadInfo);
+            assertEquals(ProcessInfo.Status.OK, extractAheadInfo.getStatus());
+            assertEquals(3, extractAheadInfo.getBatchCount());
+        } finally {
+            getParameterService().saveParameter(ParameterConstants.EXTRACT_AHEAD_MAX_BATCHES, 0,
+                    "unittest");
+        }
+    }
+
+    @Test
+    public void testExtractStagedBatchesAsBytes() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            save(new TestExtract(id++, "abc 123", "abcdefghijklmnopqrstuvwxyz", new Timestamp(
+                    System.currentTimeMillis()), new Date(System.currentTimeMillis()), true,
+                    Integer.MAX_VALUE, new BigDecimal(Double.toString(Math.PI))));
+            routeAndCreateGaps();
+        }
+
+        getParameterService().saveParameter(ParameterConstants.STREAM_TO_FILE_ZERO_COPY_ENABLED, true,
+                "unittest");
+        try {
+            ExtractResults bytes = extractToStream();
+            assertEquals(2, bytes.getBatches().size());
+            assertNumberOfLinesThatStartWith(2, "insert,", bytes.getCsv());
+            assertNumberOfLinesThatStartWith(2, "nodeid,", bytes.getCsv());
+
+            getParameterService().saveParameter(ParameterConstants.STREAM_TO_FILE_ZERO_COPY_ENABLED, false,
+                    "unittest");
+            ExtractResults chars = extractToStream();
+            assertNumberOfLinesThatStartWith(1, "nodeid,", chars.getCsv());
+            assertEquals(lines(bytes.getCsv(), "insert,\"" + (id - 1)),
+                    lines(chars.getCsv(), "insert,\"" + (id - 1)));
+        } finally {
+            getParameterService().saveParameter(ParameterConstants.STREAM_TO_FILE_ZERO_COPY_ENABLED, false,
+                    "unittest");
+        }
+    }
+
+    @Test
+    public void testStagedBatchAsBytesMatchesRewrittenBatch() throws Exception {
+        resetBatches();
+        save(new TestExtract(id++, "abc 123", "abcdefghijklmnopqrstuvwxyz", new Timestamp(
+                System.currentTimeMillis()), new Date(System.currentTimeMillis()), true,
+                Integer.MAX_VALUE, new BigDecimal(Double.toString(Math.PI))));
+        routeAndCreateGaps();
+
+        ExtractResults chars = extractToStream();
+        assertEquals(1, chars.getBatches().size());
+
+        getParameterService().saveParameter(ParameterConstants.STREAM_TO_FILE_ZERO_COPY_ENABLED, true,
+                "unittest");
+        try {
+            ExtractResults bytes = extractToStream();
+            assertEquals(1, bytes.getBatches().size());
+            assertEquals(chars.getBatches().get(0).getBatchId(), bytes.getBatches().get(0).getBatchId());
+            assertEquals(batchLines(chars.getCsv()), batchLines(bytes.getCsv()));
+        } finally {
+            getParameterService().saveParameter(ParameterConstants.STREAM_TO_FILE_ZERO_COPY_ENABLED, false,
+                    "unittest");
+        }
+    }
+
+    @Test
+    public void testExtractStagedBatchesAsBytesUpdatesProcessInfo() throws Exception {
+        resetBatches();
+        save(new TestExtract(id++, "abc 123", "abcdefghijklmnopqrstuvwxyz", new Timestamp(
+                System.currentTimeMillis()), new Date(System.currentTimeMillis()), true,
+                Integer.MAX_VALUE, new BigDecimal(Double.toString(Math.PI))));
+        routeAndCreateGaps();
+
+        getParameterService().saveParameter(ParameterConstants.STREAM_TO_FILE_ZERO_COPY_ENABLED, true,
+                "unittest");
+        try {
+            ProcessInfo processInfo = new ProcessInfo();
+            ExtractResults bytes = extractToStream(processInfo);
+            assertEquals(1, bytes.getBatches().size());
+            OutgoingBatch batch = bytes.getBatches().get(0);
+            assertEquals(batch.getBatchId(), processInfo.getCurrentBatchId());
+            assertEquals(batch.getChannelId(), processInfo.getCurrentChannelId());
+            assertEquals(batch.getDataEventCount(), processInfo.getCurrentDataCount());
+        } finally {
+            getParameterService().saveParameter(ParameterConstants.STREAM_TO_FILE_ZERO_COPY_ENABLED, false,
+                    "unittest");
+        }
+    }
+
+    @Test
+    public void testStagedCommonBatchIsReleasedWhenItsNodeIsDisabled() throws Exception {
+        OutgoingBatch batch = createBatch();
+        IStagedResource resource = stageCommonBatch(batch);
+        Node node = getNodeService().findNode(TestConstants.TEST_CLIENT_EXTERNAL_ID);
+        try {
+            assertEquals(0, getDataExtractorService().releaseStagedCommonBatches());
+            assertEquals(1, resource.getReferenceCount());
+            assertEquals(State.READY, resource.getState());
+
+            node.setSyncEnabled(false);
+            getNodeService().save(node);
+            assertEquals(1, getDataExtractorService().releaseStagedCommonBatches());
+            assertEquals(0, resource.getReferenceCount());
+            assertEquals(State.DONE, resource.getState());
+        } finally {
+            node.setSyncEnabled(true);
+            getNodeService().save(node);
+            resource.delete();
+        }
+    }
+
+    @Test
+    public void testStagedCommonBatchIsReleasedWhenBatchIsSetToOkWithoutAck() throws Exception {
+        OutgoingBatch batch = createBatch();
+        IStagedResource resource = stageCommonBatch(batch);
+        try {
+            batch.setStatus(OutgoingBatch.Status.OK);
+            getOutgoingBatchService().updateOutgoingBatch(batch);
+            assertEquals(1, getDataExtractorService().releaseStagedCommonBatches());
+            assertEquals(0, resource.getReferenceCount());
+            assertEquals(State.DONE, resource.getState());
+        } finally {
+            resource.delete();
+        }
+    }
+
+    protected OutgoingBatch createBatch() {
+        resetBatches();
+        save(new TestExtract(id++, "abc 123", "abcdefghijklmnopqrstuvwxyz", new Timestamp(
+                System.currentTimeMillis()), new Date(System.currentTimeMillis()), true,
+                Integer.MAX_VALUE, new BigDecimal(Double.toString(Math.PI))));
+        routeAndCreateGaps();
+        List<OutgoingBatch> batches = getOutgoingBatchService().getOutgoingBatches(
+                TestConstants.TEST_CLIENT_EXTERNAL_ID, false).getBatches();
+        assertEquals(1, batches.size());
+        return batches.get(0);
+    }
+
+    protected IStagedResource stageCommonBatch(OutgoingBatch batch) throws Exception {
+        IStagedResource resource = getStagingManager().create(0,
+                Constants.STAGING_CATEGORY_OUTGOING, Batch.getStagedLocation(true, null),
+                batch.getBatchId());
+        resource.getWriter().write("batch," + batch.getBatchId());
+        resource.close();
+        resource.setState(State.READY);
+        resource.reference(2, 60000);
+        return resource;
+    }
+
+    protected List<String> lines(String csv, String prefix) {
+        List<String> lines = new ArrayList<String>();
+        for (String line : csv.split("\n")) {
+            if (line.startsWith(prefix)) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @return the lines from the batch line to the commit line, which do not
+     *         depend on how the batch was sent
+     */
+    protected List<String> batchLines(String csv) {
+        List<String> lines = new ArrayList<String>();
+        boolean inBatch = false;
+        for (String line : csv.split("\n")) {
+            inBatch |= line.startsWith("batch,");
+            if (inBatch) {
+                lines.add(line.trim());
+            }
+            inBatch &= !line.startsWith("commit,");
+        }
+        return lines;
+    }
+
+    protected ExtractResults extractToStream() throws Exception {
+        return extractToStream(new ProcessInfo());
+    }
+
+    protected ExtractResults extractToStream(ProcessInfo processInfo) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        InternalOutgoingTransport transport = new InternalOutgoingTransport(os, IoConstants.ENCODING);
+        List<OutgoingBatch> batches = getDataExtractorService().extract(processInfo,
+                TestConstants.TEST_CLIENT_NODE, transport);
+        transport.close();
+        return new ExtractResults(batches, new String(os.toByteArray(), IoConstants.ENCODING));
+    }
+
     protected ExtractResults extract() {
         IDataExtractorService service = getDataExtractorService();
         StringWriter writer = new StringWriter();
@@ -63,9 +63,12 @@ abstract public class AbstractRouterServiceTest extends AbstractServiceTest {
     @Test
     public void testRoutingScenarios() throws Exception {
         testMultiChannelRoutingToEveryone();
+        testMultiChannelRoutingInParallel();
+        testFailedChannelDoesNotStopParallelRouting();
         testLookupTableRouting();
         testColumnMatchTransactionalOnlyRoutingToNode1();
         testSubSelectNonTransactionalRoutingToNode1();
+        testSubSelectBatchedAndCachedRoutingToNode1();
         testSyncIncomingBatch();
         // testLargeNumberOfEventsToManyNodes();
         testBshTransactionalRoutingOnUpdate();
@@ -83,7 +86,9 @@ abstract public class AbstractRouterServiceTest extends AbstractServiceTest {
         testDataGapExpired();
         testLotsOfGaps();
         testNoResend();
+        testGapRoutingWithFastGapDetector();
         testDontSelectOldDataDuringRouting();
+        testFailedRoutingLeavesNoBatchesOrDataEvents();
         testMaxNumberOfDataToRoute();
     }
 
@@ -160,6 +165,72 @@ abstract public class AbstractRouterServiceTest extends AbstractServiceTest {
                 countBatchesForChannel(batches, otherChannel));
     }
 
+    public void testMultiChannelRoutingInParallel() {
+        getParameterService().saveParameter(ParameterConstants.ROUTING_MAX_CHANNELS_IN_PARALLEL, 4,
+                "unittest");
+        try {
+            testMultiChannelRoutingToEveryone();
+        } finally {
+            getParameterService().saveParameter(
+                    ParameterConstants.ROUTING_MAX_CHANNELS_IN_PARALLEL, 1, "unittest");
+        }
+    }
+
+    public void testFailedChannelDoesNotStopParallelRouting() {
+        resetBatches();
+
+        NodeChannel testChannel = getConfigurationService().getNodeChannel(
+                TestConstants.TEST_CHANNEL_ID, false);
+        NodeChannel otherChannel = getConfigurationService().getNodeChannel(
+                TestConstants.TEST_CHANNEL_ID_OTHER, false);
+
+        TriggerRouter trigger2 = getTestRoutingTableTrigger(TEST_TABLE_2);
+        trigger2.getRouter().setRouterType("bsh");
+        trigger2.getRouter().setRouterExpression(
+                "if (\"FAIL\".equals(ROUTING_VARCHAR)) { throw new RuntimeException(\"Forced routing failure\"); } targetNodes.add(ROUTING_VARCHAR);");
+        getTriggerRouterService().saveTriggerRouter(trigger2);
+        getTriggerRouterService().syncTriggers();
+
+        getParameterService().saveParameter(ParameterConstants.ROUTING_MAX_CHANNELS_IN_PARALLEL, 4,
+                "unittest");
+        try {
+            insert(TEST_TABLE_1, 5, true);
+            insert(TEST_TABLE_2, 2, true);
+            insert(TEST_TABLE_2, 1, true, null, "FAIL");
+            getRouterService().routeData(true);
+
+            OutgoingBatches batches = getOutgoingBatchService().getOutgoingBatches(
+                    NODE_GROUP_NODE_1.getNodeId(), false);
+            filterForChannels(batches, testChannel, otherChannel);
+            Assert.assertEquals(1, countBatchesForChannel(batches, testChannel));
+            Assert.assertEquals(5, batches.getBatches().get(0).getDataEventCount());
+            Assert.assertEquals(0, countBatchesForChannel(batches, otherChannel));
+
+            trigger2.getRouter().setRouterExpression(
+                    "if (!\"FAIL\".equals(ROUTING_VARCHAR)) { targetNodes.add(ROUTING_VARCHAR); }");
+            getTriggerRouterService().saveTriggerRouter(trigger2);
+            getRouterService().routeData(true);
+
+            batches = getOutgoingBatchService().getOutgoingBatches(NODE_GROUP_NODE_1.getNodeId(),
+                    false);
+            filterForChannels(batches, otherChannel);
+            Assert.assertTrue(batches.getBatches().size() > 0);
+            int dataEventCount = 0;
+            for (OutgoingBatch batch : batches.getBatches()) {
+                dataEventCount += batch.getDataEventCount();
+            }
+            Assert.assertEquals(2, dataEventCount);
+        } finally {
+            getParameterService().saveParameter(
+                    ParameterConstants.ROUTING_MAX_CHANNELS_IN_PARALLEL, 1, "unittest");
+            trigger2.getRouter().setRouterType("default");
+            trigger2.getRouter().setRouterExpression(null);
+            getTriggerRouterService().saveTriggerRouter(trigger2);
+        }
+
+        resetBatches();
+    }
+
     public void testLookupTableRouting() {
 
         getDbDialect().truncateTable("test_lookup_table");
@@ -380,6 +451,21 @@ abstract public class AbstractRouterServiceTest extends AbstractServiceTest {
         resetBatches();
     }
 
+    public void testSubSelectBatchedAndCachedRoutingToNode1() {
+        getParameterService().saveParameter(ParameterConstants.ROUTING_SUBSELECT_BATCH_SIZE, 50,
+                "unittest");
+        getParameterService().saveParameter(ParameterConstants.ROUTING_SUBSELECT_CACHE_SIZE, 10,
+                "unittest");
+        try {
+            testSubSelectNonTransactionalRoutingToNode1();
+        } finally {
+            getParameterService().saveParameter(ParameterConstants.ROUTING_SUBSELECT_BATCH_SIZE,
+                    1, "unittest");
+            getParameterService().saveParameter(ParameterConstants.ROUTING_SUBSELECT_CACHE_SIZE,
+                    0, "unittest");
+        }
+    }
+
     public void testSyncIncomingBatch() throws Exception {
         resetBatches();
 
@@ -1100,6 +1186,51 @@ abstract public class AbstractRouterServiceTest extends AbstractServiceTest {
 
     }
 
+    public void testGapRoutingWithFastGapDetector() {
+        if (getDbDialect().canGapsOccurInCapturedDataIds()) {
+            setUpDefaultTriggerRouterForTable1();
+
+            resetBatches();
+
+            getParameterService().saveParameter(ParameterConstants.ROUTING_USE_FAST_GAP_DETECTOR,
+                    true, "unittest");
+            try {
+                // route the captured parameter change
+                routeAndCreateGaps();
+                getSqlTemplate().update("update sym_outgoing_batch set status='OK' where status != 'OK'");
+
+                Assert.assertEquals(1, getDataService().findDataGaps().size());
+
+                insertGaps(2, 1, 2);
+
+                routeAndCreateGaps();
+
+                Assert.assertEquals(1,
+                        getOutgoingBatchService().getOutgoingBatches(NODE_GROUP_NODE_1.getNodeId(), false)
+                                .getBatches().size());
+
+                List<DataGap> gaps = getDataService().findDataGaps();
+                Assert.assertEquals(2, gaps.size());
+                DataGap gap = gaps.get(0);
+                Assert.assertEquals(0, gap.getEndId() - gap.getStartId());
+                Assert.assertEquals(2, getRouterService().getDataGapDetector().getDataGaps().size());
+
+                // route again to make sure the gaps don't disappear and nothing is resent
+                routeAndCreateGaps();
+
+                Assert.assertEquals(1,
+                        getOutgoingBatchService().getOutgoingBatches(NODE_GROUP_NODE_1.getNodeId(), false)
+                                .getBatches().size());
+                gaps = getDataService().findDataGaps();
+                Assert.assertEquals(2, gaps.size());
+                Assert.assertEquals(gap.getStartId(), gaps.get(0).getStartId());
+            } finally {
+                getParameterService().saveParameter(
+                        ParameterConstants.ROUTING_USE_FAST_GAP_DETECTOR, false, "unittest");
+            }
+        }
+    }
+
     public void testDontSelectOldDataDuringRouting() throws Exception {
         NodeChannel testChannel = getConfigurationService().getNodeChannel(
                 TestConstants.TEST_CHANNEL_ID, false);
@@ -1149,6 +1280,73 @@ abstract public class AbstractRouterServiceTest extends AbstractServiceTest {
 
     }
 
+    public void testFailedRoutingLeavesNoBatchesOrDataEvents() {
+        resetBatches();
+
+        NodeChannel testChannel = getConfigurationService().getNodeChannel(
+                TestConstants.TEST_CHANNEL_ID, false);
+        testChannel.setMaxBatchSize(50);
+        testChannel.setBatchAlgorithm("nontransactional");
+        getConfigurationService().saveChannel(testChannel, true);
+
+        TriggerRouter trigger1 = getTestRoutingTableTrigger(TEST_TABLE_1);
+        trigger1.getRouter().setRouterType("bsh");
+        trigger1.getRouter().setRouterExpression(
+                "if (\"FAIL\".equals(ROUTING_VARCHAR)) { throw new RuntimeException(\"Forced routing failure\"); } targetNodes.add(ROUTING_VARCHAR);");
+        getTriggerRouterService().saveTriggerRouter(trigger1);
+        getTriggerRouterService().syncTriggers();
+
+        /* data events are written to the routing transaction before the failure */
+        getParameterService().saveParameter(ParameterConstants.ROUTING_FLUSH_JDBC_BATCH_SIZE, "2",
+                "test");
+        try {
+            String countBatches = "select count(*) from sym_outgoing_batch where channel_id=?";
+            String countDataEvents = "select count(*) from sym_data_event e "
+                    + "inner join sym_outgoing_batch b on b.batch_id=e.batch_id where b.channel_id=?";
+            int batchCount = getSqlTemplate().queryForInt(countBatches,
+                    TestConstants.TEST_CHANNEL_ID);
+            int dataEventCount = getSqlTemplate().queryForInt(countDataEvents,
+                    TestConstants.TEST_CHANNEL_ID);
+
+            insert(TEST_TABLE_1, 5, true, null, NODE_GROUP_NODE_1.getNodeId());
+            insert(TEST_TABLE_1, 5, true, null, NODE_GROUP_NODE_3.getNodeId());
+            insert(TEST_TABLE_1, 1, true, null, "FAIL");
+            getRouterService().routeData(true);
+
+            Assert.assertEquals(batchCount,
+                    getSqlTemplate().queryForInt(countBatches, TestConstants.TEST_CHANNEL_ID));
+            Assert.assertEquals(0, getSqlTemplate().queryForInt(
+                    "select count(*) from sym_outgoing_batch where status='RT'"));
+            Assert.assertEquals(dataEventCount,
+                    getSqlTemplate().queryForInt(countDataEvents, TestConstants.TEST_CHANNEL_ID));
+            Assert.assertEquals(0, getSqlTemplate().queryForInt(
+                    "select count(*) from sym_data_event e where not exists "
+                            + "(select 1 from sym_outgoing_batch b where b.batch_id=e.batch_id)"));
+
+            trigger1.getRouter().setRouterExpression(
+                    "if (!\"FAIL\".equals(ROUTING_VARCHAR)) { targetNodes.add(ROUTING_VARCHAR); }");
+            getTriggerRouterService().saveTriggerRouter(trigger1);
+            getRouterService().routeData(true);
+
+            OutgoingBatches batches = getOutgoingBatchService().getOutgoingBatches(
+                    NODE_GROUP_NODE_1.getNodeId(), false);
+            filterForChannels(batches, testChannel);
+            Assert.assertEquals(1, batches.getBatches().size());
+            Assert.assertEquals(5, batches.getBatches().get(0).getDataEventCount());
+
+            batches = getOutgoingBatchService().getOutgoingBatches(NODE_GROUP_NODE_3.getNodeId(),
+                    false);
+            filterForChannels(batches, testChannel);
+            Assert.assertEquals(1, batches.getBatches().size());
+            Assert.assertEquals(5, batches.getBatches().get(0).getDataEventCount());
+        } finally {
+            getParameterService().saveParameter(ParameterConstants.ROUTING_FLUSH_JDBC_BATCH_SIZE,
+                    "50000", "test");
+        }
+
+        resetBatches();
+    }
+
     public void testMaxNumberOfDataToRoute() {
         // TODO
     }
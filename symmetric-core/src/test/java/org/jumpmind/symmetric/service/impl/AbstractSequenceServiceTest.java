@@ -0,0 +1,135 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.service.impl;
+
+import org.jumpmind.db.sql.ISqlTransaction;
+import org.jumpmind.symmetric.common.ParameterConstants;
+import org.jumpmind.symmetric.common.TableConstants;
+import org.jumpmind.symmetric.model.Sequence;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public abstract class AbstractSequenceServiceTest extends AbstractServiceTest {
+
+    static final String TEST_SEQUENCE = "test_block_seq";
+
+    @Before
+    public void setupForTest() {
+        getSqlTemplate().update(
+                String.format("delete from %s where sequence_name=?", TableConstants.getTableName(
+                        getParameterService().getTablePrefix(), TableConstants.SYM_SEQUENCE)),
+                TEST_SEQUENCE);
+        getParameterService().saveParameter(ParameterConstants.SEQUENCE_BLOCK_SIZE, "5", "test");
+    }
+
+    @After
+    public void cleanupAfterTest() {
+        getParameterService().saveParameter(ParameterConstants.SEQUENCE_BLOCK_SIZE, "1", "test");
+    }
+
+    @Test
+    public void testBlocksAreReservedPerInstance() {
+        SequenceService first = newSequenceService();
+        SequenceService second = newSequenceService();
+        first.create(new Sequence(TEST_SEQUENCE, 0, 1, 1, 9999999999l, "test", false));
+
+        Assert.assertEquals(1, first.nextVal(TEST_SEQUENCE));
+        Assert.assertEquals(5, first.currVal(TEST_SEQUENCE));
+        Assert.assertEquals(6, second.nextVal(TEST_SEQUENCE));
+        Assert.assertEquals(10, second.currVal(TEST_SEQUENCE));
+        for (int i = 2; i <= 5; i++) {
+            Assert.assertEquals(i, first.nextVal(null, TEST_SEQUENCE));
+        }
+        Assert.assertEquals(11, first.nextVal(TEST_SEQUENCE));
+        Assert.assertEquals(7, second.nextVal(TEST_SEQUENCE));
+        Assert.assertEquals(15, first.currVal(TEST_SEQUENCE));
+    }
+
+    @Test
+    public void testBlockStopsAtMaxValueAndCycles() {
+        SequenceService service = newSequenceService();
+        service.create(new Sequence(TEST_SEQUENCE, 0, 1, 1, 7, "test", true));
+
+        for (int i = 1; i <= 7; i++) {
+            Assert.assertEquals(i, service.nextVal(TEST_SEQUENCE));
+        }
+        Assert.assertEquals(7, service.currVal(TEST_SEQUENCE));
+        Assert.assertEquals(1, service.nextVal(TEST_SEQUENCE));
+        Assert.assertEquals(5, service.currVal(TEST_SEQUENCE));
+    }
+
+    @Test
+    public void testBlockStopsAtMaxValueWithoutCycle() {
+        SequenceService service = newSequenceService();
+        service.create(new Sequence(TEST_SEQUENCE, 0, 1, 1, 3, "test", false));
+
+        for (int i = 1; i <= 3; i++) {
+            Assert.assertEquals(i, service.nextVal(TEST_SEQUENCE));
+        }
+        try {
+            service.nextVal(TEST_SEQUENCE);
+            Assert.fail("Expected the sequence to have reached its max value");
+        } catch (IllegalStateException ex) {
+        }
+        Assert.assertEquals(3, service.currVal(TEST_SEQUENCE));
+    }
+
+    @Test
+    public void testBlockIsNotReservedInCallersTransaction() {
+        SequenceService service = newSequenceService();
+        service.create(new Sequence(TEST_SEQUENCE, 0, 1, 1, 9999999999l, "test", false));
+
+        ISqlTransaction transaction = getSqlTemplate().startSqlTransaction();
+        try {
+            Assert.assertEquals(1, service.nextVal(transaction, TEST_SEQUENCE));
+            Assert.assertEquals(1, service.currVal(transaction, TEST_SEQUENCE));
+            transaction.commit();
+        } finally {
+            transaction.close();
+        }
+
+        Assert.assertEquals(2, service.nextVal(TEST_SEQUENCE));
+        Assert.assertEquals(6, service.currVal(TEST_SEQUENCE));
+
+        transaction = getSqlTemplate().startSqlTransaction();
+        try {
+            for (int i = 3; i <= 6; i++) {
+                Assert.assertEquals(i, service.nextVal(transaction, TEST_SEQUENCE));
+            }
+            Assert.assertEquals(7, service.nextVal(transaction, TEST_SEQUENCE));
+            Assert.assertEquals(7, service.currVal(transaction, TEST_SEQUENCE));
+            transaction.rollback();
+        } finally {
+            transaction.close();
+        }
+
+        Assert.assertEquals(6, service.currVal(TEST_SEQUENCE));
+        Assert.assertEquals(7, service.nextVal(TEST_SEQUENCE));
+        Assert.assertEquals(11, service.currVal(TEST_SEQUENCE));
+    }
+
+    protected SequenceService newSequenceService() {
+        return new SequenceService(getParameterService(), getDbDialect());
+    }
+
+}
@@ -24,9 +24,12 @@ import java.sql.Types;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.jumpmind.db.model.Table;
 import org.jumpmind.db.platform.DatabaseNamesConstants;
+import org.jumpmind.db.platform.IDatabasePlatform;
 import org.jumpmind.db.sql.ISqlTemplate;
 import org.jumpmind.db.sql.ISqlTransaction;
 import org.jumpmind.db.sql.mapper.StringMapper;
@@ -34,9 +37,12 @@ import org.jumpmind.symmetric.TestConstants;
 import org.jumpmind.symmetric.common.Constants;
 import org.jumpmind.symmetric.common.ParameterConstants;
 import org.jumpmind.symmetric.db.ISymmetricDialect;
+import org.jumpmind.symmetric.io.data.DataEventType;
 import org.jumpmind.symmetric.model.Node;
 import org.jumpmind.symmetric.model.Router;
 import org.jumpmind.symmetric.model.Trigger;
+import org.jumpmind.symmetric.model.TriggerHistory;
+import org.jumpmind.symmetric.model.TriggerReBuildReason;
 import org.jumpmind.symmetric.model.TriggerRouter;
 import org.jumpmind.symmetric.service.IParameterService;
 import org.jumpmind.symmetric.service.ITriggerRouterService;
@@ -85,6 +91,14 @@ abstract public class AbstractTriggerRouterServiceTest extends AbstractServiceTe
     public final static String TEST_TRIGGER_WHERE_CLAUSE = "where source_table_name='"
             + TEST_TRIGGERS_TABLE + "' and channel_id='" + TestConstants.TEST_CHANNEL_ID + "'";
 
+    public static final String FINGERPRINT_TABLE = "test_fingerprint_table";
+
+    public final static String CREATE_FINGERPRINT_TABLE = "create table " + FINGERPRINT_TABLE
+            + " (id integer not null, name varchar(50), primary key(id))";
+
+    public final static String ALTER_FINGERPRINT_TABLE = "alter table " + FINGERPRINT_TABLE
+            + " add description varchar(100)";
+
     public static final String insertSyncIncomingBatchSql = "insert into test_sync_incoming_batch (id, data) values (?, ?)";
 
     @Test
@@ -386,6 +400,157 @@ abstract public class AbstractTriggerRouterServiceTest extends AbstractServiceTe
         }
     }
 
+    @Test
+    public void test14TableFingerprintsReadInBulk() {
+        IDatabasePlatform platform = getPlatform();
+        dropFingerprintTable();
+        getSqlTemplate().update(CREATE_FINGERPRINT_TABLE);
+        try {
+            Map<String, Long> fingerprints = platform.getDdlReader().getTableFingerprints(
+                    platform.getDefaultCatalog(), platform.getDefaultSchema());
+            if (fingerprints != null) {
+                Long fingerprint = getFingerprint(fingerprints, FINGERPRINT_TABLE);
+                Assert.assertNotNull(fingerprint);
+                Assert.assertNotNull(getFingerprint(fingerprints, TEST_TRIGGERS_TABLE));
+
+                fingerprints = platform.getDdlReader().getTableFingerprints(
+                        platform.getDefaultCatalog(), platform.getDefaultSchema());
+                Assert.assertEquals(fingerprint, getFingerprint(fingerprints, FINGERPRINT_TABLE));
+
+                getSqlTemplate().update(ALTER_FINGERPRINT_TABLE);
+                fingerprints = platform.getDdlReader().getTableFingerprints(
+                        platform.getDefaultCatalog(), platform.getDefaultSchema());
+                Assert.assertFalse(fingerprint.equals(getFingerprint(fingerprints, FINGERPRINT_TABLE)));
+            }
+        } finally {
+            dropFingerprintTable();
+        }
+    }
+
+    @Test
+    public void test15IncrementalSyncSkipsOnlyUnchangedTables() throws Exception {
+        TriggerRouterService service = (TriggerRouterService) getTriggerRouterService();
+        IDatabasePlatform platform = getPlatform();
+        boolean oldValue = getParameterService().is(ParameterConstants.AUTO_SYNC_TRIGGERS_INCREMENTAL);
+        dropFingerprintTable();
+        getSqlTemplate().update(CREATE_FINGERPRINT_TABLE);
+        TriggerRouter triggerRouter = new TriggerRouter(new Trigger(FINGERPRINT_TABLE,
+                TestConstants.TEST_CHANNEL_ID), service.getRouterById(true, "3000"));
+        try {
+            getParameterService().saveParameter(ParameterConstants.AUTO_SYNC_TRIGGERS_INCREMENTAL, true, "test");
+            service.saveTriggerRouter(triggerRouter);
+            service.syncTriggers();
+
+            Trigger trigger = service.getTriggerById(true, FINGERPRINT_TABLE, true);
+            Table table = platform.getTableFromCache(null, null, FINGERPRINT_TABLE, true);
+            TriggerHistory history = getNewestHistory(service, trigger);
+            Assert.assertNotNull(history);
+            Long fingerprint = getFingerprint(platform.getDdlReader().getTableFingerprints(
+                    table.getCatalog(), table.getSchema()), FINGERPRINT_TABLE);
+            if (fingerprint == null) {
+                return;
+            }
+            Assert.assertEquals(fingerprint.longValue(), history.getTableFingerprint());
+
+            TriggerRouterService.TableFingerprints fingerprints = service.new TableFingerprints(
+                    service.getActiveTriggerHistories());
+            Assert.assertTrue(fingerprints.isUnchanged(trigger, table, fingerprints.getFingerprint(table)));
+
+            service.syncTriggers();
+            Assert.assertEquals(history.getTriggerHistoryId(), getNewestHistory(service, trigger).getTriggerHistoryId());
+
+            getSqlTemplate().update(ALTER_FINGERPRINT_TABLE);
+            fingerprints = service.new TableFingerprints(service.getActiveTriggerHistories());
+            Assert.assertFalse(fingerprints.isUnchanged(trigger, table, fingerprints.getFingerprint(table)));
+
+            service.syncTriggers();
+            TriggerHistory rebuiltHistory = getNewestHistory(service, trigger);
+            Assert.assertTrue(rebuiltHistory.getTriggerHistoryId() > history.getTriggerHistoryId());
+            Assert.assertEquals(TriggerReBuildReason.TABLE_SCHEMA_CHANGED, rebuiltHistory.getLastTriggerBuildReason());
+        } finally {
+            getParameterService().saveParameter(ParameterConstants.AUTO_SYNC_TRIGGERS_INCREMENTAL, oldValue, "test");
+            service.deleteTriggerRouter(triggerRouter);
+            service.deleteTrigger(triggerRouter.getTrigger());
+            service.syncTriggers();
+            dropFingerprintTable();
+        }
+    }
+
+    @Test
+    public void test16IncrementalSyncRecreatesDroppedTriggers() throws Exception {
+        TriggerRouterService service = (TriggerRouterService) getTriggerRouterService();
+        ISymmetricDialect dialect = getDbDialect();
+        if (!dialect.getPlatform().getDatabaseInfo().isTriggersSupported()) {
+            return;
+        }
+        boolean oldValue = getParameterService().is(ParameterConstants.AUTO_SYNC_TRIGGERS_INCREMENTAL);
+        dropFingerprintTable();
+        getSqlTemplate().update(CREATE_FINGERPRINT_TABLE);
+        TriggerRouter triggerRouter = new TriggerRouter(new Trigger(FINGERPRINT_TABLE,
+                TestConstants.TEST_CHANNEL_ID), service.getRouterById(true, "3000"));
+        try {
+            getParameterService().saveParameter(ParameterConstants.AUTO_SYNC_TRIGGERS_INCREMENTAL, true, "test");
+            service.saveTriggerRouter(triggerRouter);
+            service.syncTriggers();
+
+            Trigger trigger = service.getTriggerById(true, FINGERPRINT_TABLE, true);
+            TriggerHistory history = getNewestHistory(service, trigger);
+            String triggerName = history.getTriggerNameForDmlType(DataEventType.INSERT);
+            Assert.assertTrue(dialect.doesTriggerExist(history.getSourceCatalogName(),
+                    history.getSourceSchemaName(), history.getSourceTableName(), triggerName));
+            Table table = getPlatform().getTableFromCache(null, null, FINGERPRINT_TABLE, true);
+            Set<String> triggerNames = dialect.getTriggerNames(table.getCatalog(), table.getSchema());
+            if (triggerNames != null) {
+                Assert.assertTrue(triggerNames.contains(triggerName));
+            }
+
+            dialect.removeTrigger(null, history.getSourceCatalogName(), history.getSourceSchemaName(),
+                    triggerName, history.getSourceTableName());
+            Assert.assertFalse(dialect.doesTriggerExist(history.getSourceCatalogName(),
+                    history.getSourceSchemaName(), history.getSourceTableName(), triggerName));
+            triggerNames = dialect.getTriggerNames(table.getCatalog(), table.getSchema());
+            if (triggerNames != null) {
+                Assert.assertFalse(triggerNames.contains(triggerName));
+            }
+
+            service.syncTriggers();
+            history = getNewestHistory(service, trigger);
+            Assert.assertTrue(dialect.doesTriggerExist(history.getSourceCatalogName(),
+                    history.getSourceSchemaName(), history.getSourceTableName(),
+                    history.getTriggerNameForDmlType(DataEventType.INSERT)));
+        } finally {
+            getParameterService().saveParameter(ParameterConstants.AUTO_SYNC_TRIGGERS_INCREMENTAL, oldValue, "test");
+            service.deleteTriggerRouter(triggerRouter);
+            service.deleteTrigger(triggerRouter.getTrigger());
+            service.syncTriggers();
+            dropFingerprintTable();
+        }
+    }
+
+    protected TriggerHistory getNewestHistory(ITriggerRouterService service, Trigger trigger) {
+        return service.getNewestTriggerHistoryForTrigger(trigger.getTriggerId(),
+                trigger.getSourceCatalogName(), trigger.getSourceSchemaName(),
+                trigger.getSourceTableName());
+    }
+
+    protected Long getFingerprint(Map<String, Long> fingerprints, String tableName) {
+        if (fingerprints != null) {
+            for (Map.Entry<String, Long> entry : fingerprints.entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(tableName)) {
+                    return entry.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    protected void dropFingerprintTable() {
+        try {
+            getSqlTemplate().update("drop table " + FINGERPRINT_TABLE);
+        } catch (Exception e) {
+        }
+    }
+
     protected static int[] filterTypes(int[] types, ISymmetricDialect dbDialect) {
         boolean isBooleanSupported = isBooleanSupported(dbDialect);
         int[] filteredTypes = new int[types.length];
@@ -0,0 +1,151 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jumpmind.db.platform.DatabaseInfo;
+import org.jumpmind.db.platform.IDatabasePlatform;
+import org.jumpmind.db.sql.ISqlTemplate;
+import org.jumpmind.symmetric.ISymmetricEngine;
+import org.jumpmind.symmetric.db.ISymmetricDialect;
+import org.jumpmind.symmetric.service.IParameterService;
+import org.jumpmind.symmetric.service.impl.DataExtractorService.ExtractLock;
+import org.jumpmind.symmetric.statistic.IStatisticManager;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DataExtractorServiceTest {
+
+    IStatisticManager statisticManager;
+
+    DataExtractorService dataExtractorService;
+
+    @Before
+    public void setup() {
+        IParameterService parameterService = mock(IParameterService.class);
+        when(parameterService.getTablePrefix()).thenReturn("sym");
+        IDatabasePlatform platform = mock(IDatabasePlatform.class);
+        when(platform.getDatabaseInfo()).thenReturn(new DatabaseInfo());
+        when(platform.getSqlTemplate()).thenReturn(mock(ISqlTemplate.class));
+        ISymmetricDialect symmetricDialect = mock(ISymmetricDialect.class);
+        when(symmetricDialect.getPlatform()).thenReturn(platform);
+        statisticManager = mock(IStatisticManager.class);
+        ISymmetricEngine engine = mock(ISymmetricEngine.class);
+        when(engine.getParameterService()).thenReturn(parameterService);
+        when(engine.getSymmetricDialect()).thenReturn(symmetricDialect);
+        when(engine.getStatisticManager()).thenReturn(statisticManager);
+        dataExtractorService = new DataExtractorService(engine);
+    }
+
+    @Test
+    public void testDifferentBatchesDoNotWaitOnEachOther() throws Exception {
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread holder = new Thread() {
+            public void run() {
+                ExtractLock lock = dataExtractorService.acquireLock("1", "default");
+                locked.countDown();
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                } finally {
+                    dataExtractorService.releaseLock("1", lock);
+                }
+            }
+        };
+        holder.start();
+        assertTrue(locked.await(10, TimeUnit.SECONDS));
+
+        ExtractLock lock = dataExtractorService.acquireLock("2", "default");
+        assertEquals(2, dataExtractorService.locks.size());
+        dataExtractorService.releaseLock("2", lock);
+        done.countDown();
+        holder.join(10000);
+
+        assertFalse(holder.isAlive());
+        assertTrue(dataExtractorService.locks.isEmpty());
+        verify(statisticManager, never()).incrementExtractLockWait(anyString(), anyLong());
+    }
+
+    @Test
+    public void testWaitForSameBatchIsRecordedForChannel() throws Exception {
+        ExtractLock lock = dataExtractorService.acquireLock("1", "default");
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            public void run() {
+                ExtractLock lock = dataExtractorService.acquireLock("1", "default");
+                acquired.countDown();
+                dataExtractorService.releaseLock("1", lock);
+            }
+        };
+        waiter.start();
+
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, dataExtractorService.locks.size());
+        dataExtractorService.releaseLock("1", lock);
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        waiter.join(10000);
+
+        assertTrue(dataExtractorService.locks.isEmpty());
+        verify(statisticManager, times(1)).incrementExtractLockWait(eq("default"), anyLong());
+    }
+
+    @Test
+    public void testLockIsReleasedWhenWaitIsInterrupted() throws Exception {
+        ExtractLock lock = dataExtractorService.acquireLock("1", "default");
+        final Throwable[] error = new Throwable[1];
+        Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    dataExtractorService.acquireLock("1", "default");
+                } catch (Throwable ex) {
+                    error[0] = ex;
+                }
+            }
+        };
+        waiter.start();
+        while (!lock.hasQueuedThreads()) {
+            Thread.sleep(10);
+        }
+        waiter.interrupt();
+        waiter.join(10000);
+
+        assertTrue(error[0] instanceof org.jumpmind.exception.InterruptedException);
+        dataExtractorService.releaseLock("1", lock);
+        assertTrue(dataExtractorService.locks.isEmpty());
+        verify(statisticManager, never()).incrementExtractLockWait(anyString(), anyLong());
+    }
+
+}
@@ -0,0 +1,360 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.jumpmind.db.platform.DatabaseInfo;
+import org.jumpmind.db.platform.IDatabasePlatform;
+import org.jumpmind.db.sql.ISqlRowMapper;
+import org.jumpmind.db.sql.ISqlTemplate;
+import org.jumpmind.db.sql.ISqlTransaction;
+import org.jumpmind.db.sql.Row;
+import org.jumpmind.symmetric.ISymmetricEngine;
+import org.jumpmind.symmetric.common.ParameterConstants;
+import org.jumpmind.symmetric.db.ISymmetricDialect;
+import org.jumpmind.symmetric.file.FileSyncDelta;
+import org.jumpmind.symmetric.file.FileSyncZipDataWriter;
+import org.jumpmind.symmetric.file.FileTriggerTracker;
+import org.jumpmind.symmetric.model.FileSnapshot;
+import org.jumpmind.symmetric.model.FileSnapshot.LastEventType;
+import org.jumpmind.symmetric.model.FileTriggerRouter;
+import org.jumpmind.symmetric.model.Lock;
+import org.jumpmind.symmetric.model.Node;
+import org.jumpmind.symmetric.service.ClusterConstants;
+import org.jumpmind.symmetric.service.IClusterService;
+import org.jumpmind.symmetric.service.INodeService;
+import org.jumpmind.symmetric.service.IParameterService;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class FileSyncServiceTest {
+
+    File tempDirectory = new File("target/filesync-service");
+
+    File signatureDirectory = new File(tempDirectory, "filesync_signatures");
+
+    File pendingDirectory = new File(signatureDirectory,
+            FileSyncZipDataWriter.PENDING_SIGNATURE_DIR);
+
+    INodeService nodeService;
+
+    IClusterService clusterService;
+
+    IParameterService parameterService;
+
+    ISqlTemplate sqlTemplate;
+
+    FileSyncService fileSyncService;
+
+    String preparedSql;
+
+    Map<String, Set<String>> savedFileNames = new HashMap<String, Set<String>>();
+
+    @Before
+    public void setup() {
+        FileUtils.deleteQuietly(tempDirectory);
+        parameterService = mock(IParameterService.class);
+        when(parameterService.getTablePrefix()).thenReturn("sym");
+        when(parameterService.getTempDirectory()).thenReturn(tempDirectory.getAbsolutePath());
+        IDatabasePlatform platform = mock(IDatabasePlatform.class);
+        when(platform.getDatabaseInfo()).thenReturn(new DatabaseInfo());
+        when(platform.scrubSql(anyString())).thenAnswer(new Answer<String>() {
+            public String answer(InvocationOnMock invocation) {
+                return (String) invocation.getArguments()[0];
+            }
+        });
+        sqlTemplate = mock(ISqlTemplate.class);
+        when(platform.getSqlTemplate()).thenReturn(sqlTemplate);
+        ISymmetricDialect symmetricDialect = mock(ISymmetricDialect.class);
+        when(symmetricDialect.getPlatform()).thenReturn(platform);
+        nodeService = mock(INodeService.class);
+        ISymmetricEngine engine = mock(ISymmetricEngine.class);
+        when(engine.getParameterService()).thenReturn(parameterService);
+        when(engine.getSymmetricDialect()).thenReturn(symmetricDialect);
+        when(engine.getNodeService()).thenReturn(nodeService);
+        clusterService = mock(IClusterService.class);
+        when(clusterService.getServerId()).thenReturn("server1");
+        when(engine.getClusterService()).thenReturn(clusterService);
+
+        fileSyncService = new FileSyncService(engine) {
+            @Override
+            public FileTriggerRouter getFileTriggerRouter(String triggerId, String routerId) {
+                return routerId.equals("router") ? new FileTriggerRouter() : null;
+            }
+        };
+    }
+
+    @Test
+    public void testSignaturesAreSavedWhenBatchIsAcknowledged() throws Exception {
+        writeSignature(new File(pendingDirectory, "5/node/trigger/router/./a.bin.sig"), 5);
+        writeSignature(new File(pendingDirectory, "5/node/trigger/router/./b.bin.sig"), 5);
+        writeSignature(new File(signatureDirectory, "node/trigger/router/./b.bin.sig"), 7);
+        writeSignature(new File(pendingDirectory, "6/node/trigger/router/./a.bin.sig"), 6);
+
+        fileSyncService.saveSignatures(5);
+
+        assertEquals(5, readBatchId("node/trigger/router/./a.bin.sig"));
+        assertEquals(7, readBatchId("node/trigger/router/./b.bin.sig"));
+        assertFalse(new File(pendingDirectory, "5").exists());
+        assertTrue(new File(pendingDirectory, "6").exists());
+
+        fileSyncService.saveSignatures(6);
+        assertEquals(6, readBatchId("node/trigger/router/./a.bin.sig"));
+    }
+
+    @Test
+    public void testCleanSignatures() throws Exception {
+        Node disabledNode = new Node("disabled", "group");
+        disabledNode.setSyncEnabled(false);
+        when(nodeService.findNode("node")).thenReturn(new Node("node", "group"));
+        when(nodeService.findNode("disabled")).thenReturn(disabledNode);
+
+        File kept = new File(signatureDirectory, "node/trigger/router/./a.bin.sig");
+        writeSignature(kept, 1);
+        writeSignature(new File(signatureDirectory, "node/trigger/dropped/./a.bin.sig"), 1);
+        writeSignature(new File(signatureDirectory, "disabled/trigger/router/./a.bin.sig"), 1);
+        writeSignature(new File(signatureDirectory, "deleted/trigger/router/./a.bin.sig"), 1);
+        File oldBatch = new File(pendingDirectory, "2");
+        writeSignature(new File(oldBatch, "node/trigger/router/./a.bin.sig"), 2);
+        oldBatch.setLastModified(System.currentTimeMillis() - 120000);
+        File newBatch = new File(pendingDirectory, "3");
+        writeSignature(new File(newBatch, "node/trigger/router/./a.bin.sig"), 3);
+        File oldDelta = new File(signatureDirectory, "filesync1.delta");
+        FileUtils.writeStringToFile(oldDelta, "delta");
+        oldDelta.setLastModified(System.currentTimeMillis() - 120000);
+
+        assertEquals(5, fileSyncService.cleanSignatures(60000));
+
+        assertTrue(kept.exists());
+        assertFalse(new File(signatureDirectory, "node/trigger/dropped").exists());
+        assertFalse(new File(signatureDirectory, "disabled").exists());
+        assertFalse(new File(signatureDirectory, "deleted").exists());
+        assertFalse(oldBatch.exists());
+        assertTrue(newBatch.exists());
+        assertFalse(oldDelta.exists());
+    }
+
+    @Test
+    public void testTrackersAreClearedWhenLockMoved() {
+        Lock lock = new Lock();
+        lock.setLastLockingServerId("server1");
+        Map<String, Lock> locks = new HashMap<String, Lock>();
+        locks.put(ClusterConstants.FILE_SYNC_TRACKER, lock);
+        when(clusterService.findLocks()).thenReturn(locks);
+        fileSyncService.trackers.put("tracker", mock(FileTriggerTracker.class));
+
+        fileSyncService.clearTrackersIfLockMoved();
+        assertEquals(1, fileSyncService.trackers.size());
+
+        lock.setLastLockingServerId("server2");
+        fileSyncService.clearTrackersIfLockMoved();
+        assertEquals(0, fileSyncService.trackers.size());
+    }
+
+    @Test
+    public void testFirstSourceNodeIdIsUsedForDuplicateFile() {
+        List<Row> rows = new ArrayList<Row>();
+        rows.add(fileIncoming("dir", "a.txt", 100l, "first"));
+        rows.add(fileIncoming("dir", "a.txt", 100l, "second"));
+        rows.add(fileIncoming("dir", "a.txt", 200l, "third"));
+        rows.add(fileIncoming("dir", "b.txt", null, "fourth"));
+        when(sqlTemplate.query(fileSyncService.getSql("selectFileIncomingSql"))).thenReturn(rows);
+
+        Map<String, String> sourceNodeIds = fileSyncService.findSourceNodeIdsFromFileIncoming();
+
+        assertEquals(2, sourceNodeIds.size());
+        assertEquals("first", sourceNodeIds.get(fileSyncService.getFileIncomingKey("dir", "a.txt", 100)));
+        assertEquals("third", sourceNodeIds.get(fileSyncService.getFileIncomingKey("dir", "a.txt", 200)));
+    }
+
+    @Test
+    public void testSnapshotsAreSavedInChunksWithJdbcBatches() {
+        when(parameterService.getInt(ParameterConstants.JDBC_EXECUTE_BATCH_SIZE, 100)).thenReturn(3);
+        ISqlTransaction transaction = mockTransaction("a.txt", "c.txt");
+        List<FileSnapshot> changes = new ArrayList<FileSnapshot>();
+        changes.add(snapshot("router", "a.txt", LastEventType.MODIFY));
+        changes.add(snapshot("router", "b.txt", LastEventType.CREATE));
+        changes.add(snapshot("router2", "e.txt", LastEventType.CREATE));
+        changes.add(snapshot("router", "c.txt", LastEventType.DELETE));
+        changes.add(snapshot("router", "d.txt", LastEventType.CREATE));
+
+        fileSyncService.save(changes);
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+        verify(transaction, times(3)).query(sql.capture(), any(ISqlRowMapper.class),
+                args.capture(), any(int[].class));
+        for (String keySql : sql.getAllValues()) {
+            assertTrue(keySql.startsWith(fileSyncService.getSql("selectFileSnapshotKeysSql")));
+        }
+        String lastSql = sql.getAllValues().get(2);
+        assertTrue(lastSql.endsWith(
+                "((relative_dir=? and file_name=?) or (relative_dir=? and file_name=?))"));
+        assertEquals(Arrays.asList("trigger", "router", "dir", "c.txt", "dir", "d.txt"),
+                Arrays.asList(args.getAllValues().get(2)));
+
+        assertEquals(set("a.txt", "c.txt"), savedFileNames("updateFileSnapshotSql"));
+        assertEquals(set("b.txt", "d.txt", "e.txt"), savedFileNames("insertFileSnapshotSql"));
+        assertEquals(set("c.txt"), savedFileNames("deleteFileSnapshotSql"));
+        verify(transaction, never()).prepareAndExecute(anyString(), any(Object[].class),
+                any(int[].class));
+        verify(transaction).commit();
+    }
+
+    @Test
+    public void testChunkWithSameFileTwiceIsSavedInOrder() {
+        when(parameterService.getInt(ParameterConstants.JDBC_EXECUTE_BATCH_SIZE, 100)).thenReturn(100);
+        ISqlTransaction transaction = mockTransaction();
+        when(transaction.prepareAndExecute(anyString(), any(Object[].class), any(int[].class)))
+                .thenReturn(1);
+        FileSnapshot create = snapshot("router", "a.txt", LastEventType.CREATE);
+        FileSnapshot delete = snapshot("router", "a.txt", LastEventType.DELETE);
+
+        fileSyncService.save(Arrays.asList(create, delete));
+
+        verify(transaction, never()).query(anyString(), any(ISqlRowMapper.class),
+                any(Object[].class), any(int[].class));
+        verify(transaction, never()).addRow(any(), any(Object[].class), any(int[].class));
+        InOrder inOrder = inOrder(transaction);
+        inOrder.verify(transaction).prepareAndExecute(
+                eq(fileSyncService.getSql("updateFileSnapshotSql")),
+                eq(fileSyncService.getUpdateFileSnapshotArgs(create)), any(int[].class));
+        inOrder.verify(transaction).prepareAndExecute(
+                eq(fileSyncService.getSql("updateFileSnapshotSql")),
+                eq(fileSyncService.getUpdateFileSnapshotArgs(delete)), any(int[].class));
+        inOrder.verify(transaction).prepareAndExecute(
+                eq(fileSyncService.getSql("deleteFileSnapshotSql")),
+                eq(fileSyncService.getDeleteFileSnapshotArgs(delete)), any(int[].class));
+        inOrder.verify(transaction).commit();
+    }
+
+    /**
+     * @param existingFileNames
+     *            the files that the snapshot key query finds
+     */
+    protected ISqlTransaction mockTransaction(String... existingFileNames) {
+        final Set<String> existing = set(existingFileNames);
+        ISqlTransaction transaction = mock(ISqlTransaction.class);
+        when(transaction.query(anyString(), any(ISqlRowMapper.class), any(Object[].class),
+                any(int[].class))).thenAnswer(new Answer<List<Object>>() {
+            public List<Object> answer(InvocationOnMock invocation) {
+                ISqlRowMapper<?> mapper = (ISqlRowMapper<?>) invocation.getArguments()[1];
+                Object[] args = (Object[]) invocation.getArguments()[2];
+                List<Object> keys = new ArrayList<Object>();
+                for (int i = 2; i < args.length; i += 2) {
+                    if (existing.contains(args[i + 1])) {
+                        Row row = new Row("relative_dir", args[i]);
+                        row.put("file_name", args[i + 1]);
+                        keys.add(mapper.mapRow(row));
+                    }
+                }
+                return keys;
+            }
+        });
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) {
+                preparedSql = (String) invocation.getArguments()[0];
+                return null;
+            }
+        }).when(transaction).prepare(anyString());
+        when(transaction.addRow(any(), any(Object[].class), any(int[].class))).thenAnswer(
+                new Answer<Integer>() {
+                    public Integer answer(InvocationOnMock invocation) {
+                        Set<String> fileNames = savedFileNames.get(preparedSql);
+                        if (fileNames == null) {
+                            fileNames = new HashSet<String>();
+                            savedFileNames.put(preparedSql, fileNames);
+                        }
+                        fileNames.add(((FileSnapshot) invocation.getArguments()[0]).getFileName());
+                        return 0;
+                    }
+                });
+        when(sqlTemplate.startSqlTransaction()).thenReturn(transaction);
+        return transaction;
+    }
+
+    protected Set<String> savedFileNames(String sqlKey) {
+        return savedFileNames.get(fileSyncService.getSql(sqlKey));
+    }
+
+    protected FileSnapshot snapshot(String routerId, String fileName, LastEventType eventType) {
+        FileSnapshot snapshot = new FileSnapshot();
+        snapshot.setTriggerId("trigger");
+        snapshot.setRouterId(routerId);
+        snapshot.setRelativeDir("dir");
+        snapshot.setFileName(fileName);
+        snapshot.setLastEventType(eventType);
+        return snapshot;
+    }
+
+    protected Row fileIncoming(String relativeDir, String fileName, Long fileModifiedTime,
+            String nodeId) {
+        Row row = new Row("relative_dir", relativeDir);
+        row.put("file_name", fileName);
+        row.put("file_modified_time", fileModifiedTime);
+        row.put("node_id", nodeId);
+        return row;
+    }
+
+    protected Set<String> set(String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+
+    protected void writeSignature(File file, long batchId) throws Exception {
+        File content = new File(tempDirectory, "content.bin");
+        FileUtils.writeStringToFile(content, "some content to sign");
+        FileSyncDelta.Signature signature = FileSyncDelta.createSignature(content, 4);
+        signature.setBatchId(batchId);
+        signature.write(file);
+    }
+
+    protected long readBatchId(String path) {
+        return FileSyncDelta.Signature.read(new File(signatureDirectory, path)).getBatchId();
+    }
+
+}
@@ -0,0 +1,215 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jumpmind.db.platform.DatabaseInfo;
+import org.jumpmind.db.platform.IDatabasePlatform;
+import org.jumpmind.db.sql.ISqlTemplate;
+import org.jumpmind.symmetric.common.ParameterConstants;
+import org.jumpmind.symmetric.db.ISymmetricDialect;
+import org.jumpmind.symmetric.model.ProcessInfo;
+import org.jumpmind.symmetric.model.ProcessInfoKey;
+import org.jumpmind.symmetric.service.IClusterService;
+import org.jumpmind.symmetric.service.INodeService;
+import org.jumpmind.symmetric.service.IParameterService;
+import org.jumpmind.symmetric.service.impl.PurgeService.MinMaxDeleteSql;
+import org.jumpmind.symmetric.statistic.ChannelStats;
+import org.jumpmind.symmetric.statistic.IStatisticManager;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PurgeServiceTest {
+
+    IParameterService parameterService;
+
+    IStatisticManager statisticManager;
+
+    PurgeService purgeService;
+
+    List<long[]> deletedRanges;
+
+    @Before
+    public void setup() {
+        parameterService = mock(IParameterService.class);
+        when(parameterService.getTablePrefix()).thenReturn("sym");
+        when(parameterService.getEngineName()).thenReturn("test");
+        IDatabasePlatform platform = mock(IDatabasePlatform.class);
+        when(platform.getDatabaseInfo()).thenReturn(new DatabaseInfo());
+        when(platform.getSqlTemplate()).thenReturn(mock(ISqlTemplate.class));
+        ISymmetricDialect symmetricDialect = mock(ISymmetricDialect.class);
+        when(symmetricDialect.getPlatform()).thenReturn(platform);
+        statisticManager = mock(IStatisticManager.class);
+        when(statisticManager.newProcessInfo(any(ProcessInfoKey.class))).thenReturn(new ProcessInfo());
+
+        deletedRanges = Collections.synchronizedList(new ArrayList<long[]>());
+        purgeService = new PurgeService(parameterService, symmetricDialect,
+                mock(IClusterService.class), statisticManager, mock(INodeService.class)) {
+            @Override
+            protected MinMaxPurge createMinMaxPurge(long[] minMax, MinMaxDeleteSql identifier,
+                    Timestamp cutoffTime, int maxNumtoPurgeinTx) {
+                return new RecordingPurge(this, minMax, identifier, cutoffTime, maxNumtoPurgeinTx);
+            }
+        };
+    }
+
+    @Test
+    public void testRangeIsDeletedOnceAcrossThreads() {
+        when(parameterService.getInt(ParameterConstants.PURGE_THREAD_COUNT, 1)).thenReturn(4);
+        int count = purgeService.purgeByMinMax(new long[] { 1, 10000 }, MinMaxDeleteSql.DATA,
+                new Date(), 99);
+        assertEquals(10000, count);
+        assertRangesCover(1, 10000);
+    }
+
+    @Test
+    public void testRangeIsDeletedOnceWithOneThread() {
+        when(parameterService.getInt(ParameterConstants.PURGE_THREAD_COUNT, 1)).thenReturn(1);
+        int count = purgeService.purgeByMinMax(new long[] { 5, 1004 }, MinMaxDeleteSql.DATA_EVENT,
+                new Date(), 100);
+        assertEquals(1000, count);
+        assertRangesCover(5, 1004);
+        assertEquals(10, deletedRanges.size());
+    }
+
+    @Test
+    public void testWindowShrinksWhenDeletesAreSlowAndGrowsBack() {
+        PurgeService.MinMaxPurge purge = newPurge(1000);
+        purge.targetDeleteTimeMs = 100;
+        purge.adjustWindowSize(1000, 200);
+        assertEquals(500, purge.windowSize.get());
+        purge.adjustWindowSize(500, 75);
+        assertEquals(500, purge.windowSize.get());
+        purge.adjustWindowSize(500, 10);
+        assertEquals(1000, purge.windowSize.get());
+        purge.adjustWindowSize(1000, 10);
+        assertEquals(1000, purge.windowSize.get());
+        for (int i = 0; i < 20; i++) {
+            purge.adjustWindowSize(purge.windowSize.get(), 200);
+        }
+        assertEquals(10, purge.windowSize.get());
+    }
+
+    @Test
+    public void testWindowIsFixedWithoutTargetDeleteTime() {
+        PurgeService.MinMaxPurge purge = newPurge(1000);
+        purge.targetDeleteTimeMs = 0;
+        purge.adjustWindowSize(1000, 100000);
+        assertEquals(1000, purge.windowSize.get());
+    }
+
+    @Test
+    public void testThrottleSleepsWhenAheadOfRowsPerSecond() {
+        RecordingPurge purge = newPurge(1000);
+        purge.maxRowsPerSecond = 1000;
+        purge.startTime = System.currentTimeMillis();
+        purge.throttle(5000);
+        assertEquals(1, purge.sleeps.size());
+        assertTrue(purge.sleeps.get(0) > 4000 && purge.sleeps.get(0) <= 5000);
+
+        purge.sleeps.clear();
+        purge.startTime = System.currentTimeMillis() - 10000;
+        purge.throttle(5000);
+        assertEquals(0, purge.sleeps.size());
+
+        purge.maxRowsPerSecond = 0;
+        purge.startTime = System.currentTimeMillis();
+        purge.throttle(5000);
+        assertEquals(0, purge.sleeps.size());
+    }
+
+    @Test
+    public void testPausesWhileRoutingIsBehind() {
+        Map<String, ChannelStats> behind = new HashMap<String, ChannelStats>();
+        ChannelStats stats = new ChannelStats("00000", "server", new Date(), null, "default");
+        stats.setDataUnRouted(500);
+        behind.put("default", stats);
+        Map<String, ChannelStats> caughtUp = new HashMap<String, ChannelStats>();
+        when(statisticManager.getWorkingChannelStats()).thenReturn(behind, behind, caughtUp);
+
+        RecordingPurge purge = newPurge(1000);
+        purge.maxUnroutedData = 100;
+        purge.waitWhileRoutingIsBehind();
+        assertEquals(2, purge.sleeps.size());
+
+        purge.sleeps.clear();
+        purge.waitWhileRoutingIsBehind();
+        assertEquals(0, purge.sleeps.size());
+    }
+
+    protected RecordingPurge newPurge(int maxNumtoPurgeinTx) {
+        return new RecordingPurge(purgeService, new long[] { 1, 100000 }, MinMaxDeleteSql.DATA,
+                new Timestamp(System.currentTimeMillis()), maxNumtoPurgeinTx);
+    }
+
+    protected void assertRangesCover(long minId, long maxId) {
+        List<long[]> ranges = new ArrayList<long[]>(deletedRanges);
+        Collections.sort(ranges, new Comparator<long[]>() {
+            public int compare(long[] o1, long[] o2) {
+                return o1[0] < o2[0] ? -1 : (o1[0] == o2[0] ? 0 : 1);
+            }
+        });
+        long expectedId = minId;
+        for (long[] range : ranges) {
+            assertEquals(expectedId, range[0]);
+            assertTrue(range[1] >= range[0]);
+            expectedId = range[1] + 1;
+        }
+        assertEquals(maxId + 1, expectedId);
+    }
+
+    class RecordingPurge extends PurgeService.MinMaxPurge {
+
+        List<Long> sleeps = new ArrayList<Long>();
+
+        RecordingPurge(PurgeService purgeService, long[] minMax, MinMaxDeleteSql identifier,
+                Timestamp cutoffTime, int maxNumtoPurgeinTx) {
+            purgeService.super(minMax, identifier, cutoffTime, maxNumtoPurgeinTx);
+        }
+
+        @Override
+        protected int delete(long minId, long maxId) {
+            deletedRanges.add(new long[] { minId, maxId });
+            return (int) (maxId - minId + 1);
+        }
+
+        @Override
+        protected void sleep(long ms) {
+            sleeps.add(ms);
+            lastUnroutedCheckTime = 0;
+        }
+    }
+
+}
@@ -109,6 +109,9 @@ public class MockStatisticManager implements IStatisticManager {
     public void incrementDataExtracted(String channelId, long count) {
     }
 
+    public void incrementExtractLockWait(String channelId, long waitTimeInMs) {
+    }
+
     public void incrementDataLoaded(String channelId, long count) {
     }
 
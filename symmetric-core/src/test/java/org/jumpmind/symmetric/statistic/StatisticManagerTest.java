@@ -0,0 +1,179 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.statistic;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jumpmind.symmetric.common.ParameterConstants;
+import org.jumpmind.symmetric.model.Node;
+import org.jumpmind.symmetric.model.NodeChannel;
+import org.jumpmind.symmetric.service.IClusterService;
+import org.jumpmind.symmetric.service.IConfigurationService;
+import org.jumpmind.symmetric.service.INodeService;
+import org.jumpmind.symmetric.service.IParameterService;
+import org.jumpmind.symmetric.service.IStatisticService;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class StatisticManagerTest {
+
+    @Test
+    public void testCountsAreNotLostWhileFlushing() throws Exception {
+        IParameterService parameterService = mock(IParameterService.class);
+        when(parameterService.is(ParameterConstants.STATISTIC_RECORD_ENABLE, false)).thenReturn(
+                true);
+        INodeService nodeService = mock(INodeService.class);
+        when(nodeService.getCachedIdentity()).thenReturn(new Node("00000", "corp"));
+        IConfigurationService configurationService = mock(IConfigurationService.class);
+        when(configurationService.getNodeChannels(false)).thenReturn(new ArrayList<NodeChannel>());
+        IClusterService clusterService = mock(IClusterService.class);
+        when(clusterService.getServerId()).thenReturn("server");
+        IStatisticService statisticService = mock(IStatisticService.class);
+
+        final StatisticManager statisticManager = new StatisticManager(parameterService,
+                nodeService, configurationService, statisticService, clusterService);
+
+        final int threadCount = 4;
+        final int incrementCount = 10000;
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread() {
+                public void run() {
+                    for (int j = 0; j < incrementCount; j++) {
+                        statisticManager.incrementDataLoaded("default", 1);
+                        statisticManager.incrementNodesLoaded(1);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+
+        boolean running = true;
+        while (running) {
+            statisticManager.flush();
+            running = false;
+            for (Thread thread : threads) {
+                running |= thread.isAlive();
+            }
+        }
+        statisticManager.flush();
+        statisticManager.flush();
+
+        ArgumentCaptor<ChannelStats> channelStats = ArgumentCaptor.forClass(ChannelStats.class);
+        verify(statisticService, atLeastOnce()).save(channelStats.capture());
+        long dataLoaded = 0;
+        for (ChannelStats stats : channelStats.getAllValues()) {
+            assertEquals("default", stats.getChannelId());
+            dataLoaded += stats.getDataLoaded();
+        }
+        assertEquals(threadCount * incrementCount, dataLoaded);
+
+        ArgumentCaptor<HostStats> hostStats = ArgumentCaptor.forClass(HostStats.class);
+        verify(statisticService, atLeastOnce()).save(hostStats.capture());
+        long nodesLoaded = 0;
+        long restarted = 0;
+        for (HostStats stats : hostStats.getAllValues()) {
+            nodesLoaded += stats.getNodesLoaded();
+            restarted += stats.getRestarted();
+        }
+        assertEquals(threadCount * incrementCount, nodesLoaded);
+        assertEquals(1, restarted);
+    }
+
+    @Test
+    public void testDataUnRoutedIsKeptAcrossFlushes() {
+        IParameterService parameterService = mock(IParameterService.class);
+        when(parameterService.is(ParameterConstants.STATISTIC_RECORD_ENABLE, false)).thenReturn(
+                true);
+        INodeService nodeService = mock(INodeService.class);
+        when(nodeService.getCachedIdentity()).thenReturn(new Node("00000", "corp"));
+        IConfigurationService configurationService = mock(IConfigurationService.class);
+        when(configurationService.getNodeChannels(false)).thenReturn(new ArrayList<NodeChannel>());
+        IClusterService clusterService = mock(IClusterService.class);
+        when(clusterService.getServerId()).thenReturn("server");
+        IStatisticService statisticService = mock(IStatisticService.class);
+
+        StatisticManager statisticManager = new StatisticManager(parameterService, nodeService,
+                configurationService, statisticService, clusterService);
+        statisticManager.setDataUnRouted("default", 42);
+        statisticManager.flush();
+        assertEquals(42, statisticManager.getWorkingChannelStats().get("default").getDataUnRouted());
+
+        statisticManager.flush();
+        ArgumentCaptor<ChannelStats> channelStats = ArgumentCaptor.forClass(ChannelStats.class);
+        verify(statisticService, times(2)).save(channelStats.capture());
+        for (ChannelStats stats : channelStats.getAllValues()) {
+            assertEquals(42, stats.getDataUnRouted());
+        }
+    }
+
+    @Test
+    public void testExtractLockWaitIsCountedPerChannel() {
+        IParameterService parameterService = mock(IParameterService.class);
+        when(parameterService.is(ParameterConstants.STATISTIC_RECORD_ENABLE, false)).thenReturn(
+                true);
+        INodeService nodeService = mock(INodeService.class);
+        when(nodeService.getCachedIdentity()).thenReturn(new Node("00000", "corp"));
+        IConfigurationService configurationService = mock(IConfigurationService.class);
+        when(configurationService.getNodeChannels(false)).thenReturn(new ArrayList<NodeChannel>());
+        IClusterService clusterService = mock(IClusterService.class);
+        when(clusterService.getServerId()).thenReturn("server");
+        IStatisticService statisticService = mock(IStatisticService.class);
+
+        StatisticManager statisticManager = new StatisticManager(parameterService, nodeService,
+                configurationService, statisticService, clusterService);
+        statisticManager.incrementExtractLockWait("default", 100);
+        statisticManager.incrementExtractLockWait("default", 50);
+        statisticManager.incrementExtractLockWait("reload", 10);
+        ChannelStats working = statisticManager.getWorkingChannelStats().get("default");
+        assertEquals(2, working.getExtractLockWaitCount());
+        assertEquals(150, working.getExtractLockWaitMs());
+
+        statisticManager.flush();
+        statisticManager.flush();
+        ArgumentCaptor<ChannelStats> channelStats = ArgumentCaptor.forClass(ChannelStats.class);
+        verify(statisticService, times(4)).save(channelStats.capture());
+        long defaultCount = 0, defaultMs = 0, reloadCount = 0, reloadMs = 0;
+        for (ChannelStats stats : channelStats.getAllValues()) {
+            if (stats.getChannelId().equals("default")) {
+                defaultCount += stats.getExtractLockWaitCount();
+                defaultMs += stats.getExtractLockWaitMs();
+            } else {
+                reloadCount += stats.getExtractLockWaitCount();
+                reloadMs += stats.getExtractLockWaitMs();
+            }
+        }
+        assertEquals(2, defaultCount);
+        assertEquals(150, defaultMs);
+        assertEquals(1, reloadCount);
+        assertEquals(10, reloadMs);
+    }
+
+}
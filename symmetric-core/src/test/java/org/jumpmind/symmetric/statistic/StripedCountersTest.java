@@ -0,0 +1,103 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.statistic;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class StripedCountersTest {
+
+    @Test
+    public void testStripes() {
+        assertEquals(2, StripedCounters.stripes(1));
+        assertEquals(8, StripedCounters.stripes(4));
+        assertEquals(16, StripedCounters.stripes(5));
+        assertEquals(64, StripedCounters.stripes(128));
+    }
+
+    @Test
+    public void testAddGetAndDrain() {
+        StripedCounters counters = new StripedCounters(3);
+        counters.add(0, 5);
+        counters.add(2, 7);
+        counters.add(2, -2);
+        assertEquals(5, counters.get(0));
+        assertEquals(0, counters.get(1));
+        assertEquals(5, counters.get(2));
+        assertEquals(5, counters.drain(2));
+        assertEquals(0, counters.get(2));
+        assertEquals(5, counters.get(0));
+    }
+
+    @Test
+    public void testConcurrentAddsAndDrains() throws Exception {
+        final int counterCount = 4;
+        final int threadCount = 8;
+        final int incrementCount = 20000;
+        final StripedCounters counters = new StripedCounters(counterCount);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < incrementCount; j++) {
+                        counters.add(j % counterCount, 1);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+
+        long[] drained = new long[counterCount];
+        start.countDown();
+        boolean running = true;
+        while (running) {
+            for (int i = 0; i < counterCount; i++) {
+                drained[i] += counters.drain(i);
+            }
+            running = false;
+            for (Thread thread : threads) {
+                running |= thread.isAlive();
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int i = 0; i < counterCount; i++) {
+            drained[i] += counters.drain(i);
+            assertEquals(threadCount * incrementCount / counterCount, drained[i]);
+            assertEquals(0, counters.get(i));
+        }
+    }
+
+}
@@ -1193,6 +1193,26 @@ public class Table implements Serializable, Cloneable, Comparable<Table> {
         return result;
     }
 
+    /**
+     * Calculate a stable 64 bit hash (FNV-1a) of the given values. The ddl
+     * readers use it to fingerprint table structures so that the value is
+     * the same across JVMs and restarts.
+     */
+    public static long calculateFingerprint(String... values) {
+        long hash = 0xcbf29ce484222325L;
+        for (String value : values) {
+            if (value != null) {
+                for (int i = 0; i < value.length(); i++) {
+                    hash ^= value.charAt(i);
+                    hash *= 0x100000001b3L;
+                }
+            }
+            hash ^= '|';
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
     public static boolean areAllColumnsPrimaryKeys(Column[] columns) {
         boolean allPks = true;
         if (columns != null) {
@@ -33,7 +33,6 @@ import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -84,11 +83,11 @@ public abstract class AbstractDatabasePlatform implements IDatabasePlatform {
 
     protected IDdlBuilder ddlBuilder;
 
-    protected Map<String, Table> tableCache = new HashMap<String, Table>();
-
-    private long lastTimeCachedModelClearedInMs = System.currentTimeMillis();
-
-    protected long clearCacheModelTimeoutInMs = DateUtils.MILLIS_PER_HOUR;
+    protected TableCache tableCache = new TableCache(new TableCache.ITableReader() {
+        public Table readTable(String catalogName, String schemaName, String tableName) {
+            return readTableFromDatabase(catalogName, schemaName, tableName);
+        }
+    }, DateUtils.MILLIS_PER_HOUR);
 
     protected String defaultSchema;
 
@@ -102,6 +101,10 @@ public abstract class AbstractDatabasePlatform implements IDatabasePlatform {
 
     protected boolean metadataIgnoreCase = true;
 
+    protected boolean metadataBulkRead = false;
+
+    protected int metadataReadThreadCount = 1;
+
     public AbstractDatabasePlatform() {
     }
 
@@ -131,11 +134,15 @@ public abstract class AbstractDatabasePlatform implements IDatabasePlatform {
     }
 
     public void setClearCacheModelTimeoutInMs(long clearCacheModelTimeoutInMs) {
-        this.clearCacheModelTimeoutInMs = clearCacheModelTimeoutInMs;
+        this.tableCache.setTimeoutInMs(clearCacheModelTimeoutInMs);
     }
 
     public long getClearCacheModelTimeoutInMs() {
-        return clearCacheModelTimeoutInMs;
+        return tableCache.getTimeoutInMs();
+    }
+
+    public TableCache getTableCache() {
+        return tableCache;
     }
     
     public void dropTables(boolean continueOnError, Table...tables) {
@@ -215,8 +222,17 @@ public abstract class AbstractDatabasePlatform implements IDatabasePlatform {
         }
         return model;
     }
-        
-    
+
+    public List<Database> readDatabases(String catalog, List<String> schemas, String[] tableTypes) {
+        List<Database> models = ddlReader.readTables(catalog, schemas, tableTypes);
+        for (Database model : models) {
+            if ((model.getName() == null) || (model.getName().length() == 0)) {
+                model.setName(MODEL_DEFAULT_NAME);
+            }
+        }
+        return models;
+    }
+
     public Database readFromDatabase(Table... tables) {
         Database fromDb = new Database();
         for (Table tableFromXml : tables) {
@@ -290,10 +306,7 @@ public abstract class AbstractDatabasePlatform implements IDatabasePlatform {
     }
 
     public void resetCachedTableModel() {
-        synchronized (this.getClass()) {
-            this.tableCache = new HashMap<String, Table>();
-            lastTimeCachedModelClearedInMs = System.currentTimeMillis();
-        }
+        tableCache.clear();
     }
 
     public Table getTableFromCache(String tableName, boolean forceReread) {
@@ -302,26 +315,7 @@ public abstract class AbstractDatabasePlatform implements IDatabasePlatform {
 
     public Table getTableFromCache(String catalogName, String schemaName, String tableName,
             boolean forceReread) {
-        if (System.currentTimeMillis() - lastTimeCachedModelClearedInMs > clearCacheModelTimeoutInMs) {
-            resetCachedTableModel();
-        }
-        Map<String, Table> model = tableCache;
-        String key = Table.getFullyQualifiedTableName(catalogName, schemaName, tableName);
-        Table retTable = model != null ? model.get(key) : null;
-        if (retTable == null || forceReread) {
-            synchronized (this.getClass()) {
-                try {
-                    Table table = readTableFromDatabase(catalogName, schemaName, tableName);
-                    tableCache.put(key, table);
-                    retTable = table;
-                } catch (RuntimeException ex) {
-                    throw ex;
-                } catch (Exception ex) {
-                    throw new RuntimeException(ex);
-                }
-            }
-        }
-        return retTable;
+        return tableCache.get(catalogName, schemaName, tableName, forceReread);
     }
 
     public Object[] getObjectValues(BinaryEncoding encoding, Table table, String[] columnNames,
@@ -627,6 +621,22 @@ public abstract class AbstractDatabasePlatform implements IDatabasePlatform {
         return metadataIgnoreCase;
     }
 
+    public void setMetadataBulkRead(boolean metadataBulkRead) {
+        this.metadataBulkRead = metadataBulkRead;
+    }
+
+    public boolean isMetadataBulkRead() {
+        return metadataBulkRead;
+    }
+
+    public void setMetadataReadThreadCount(int metadataReadThreadCount) {
+        this.metadataReadThreadCount = metadataReadThreadCount;
+    }
+
+    public int getMetadataReadThreadCount() {
+        return metadataReadThreadCount;
+    }
+
     public boolean isStoresLowerCaseIdentifiers() {
         if (storesLowerCaseIdentifiers == null) {
             storesLowerCaseIdentifiers = getSqlTemplate().isStoresLowerCaseIdentifiers();
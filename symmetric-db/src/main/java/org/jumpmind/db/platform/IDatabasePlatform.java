@@ -75,6 +75,12 @@ public interface IDatabasePlatform {
 
     public long getClearCacheModelTimeoutInMs();
 
+    /**
+     * @return the cache of tables read from the database, which also keeps
+     *         hit, miss and load time statistics
+     */
+    public TableCache getTableCache();
+
     public String getDefaultSchema();
 
     public String getDefaultCatalog();
@@ -85,6 +91,12 @@ public interface IDatabasePlatform {
      */
     public Database readDatabase(String catalog, String schema, String[] tableTypes);
 
+    /**
+     * Reads the database models of several schemas, in parallel when more than
+     * one metadata read thread is configured.
+     */
+    public List<Database> readDatabases(String catalog, List<String> schemas, String[] tableTypes);
+
     public Database readFromDatabase(Table... tables);
     
     public Table readTableFromDatabase(String catalogName, String schemaName, String tablename);
@@ -169,6 +181,14 @@ public interface IDatabasePlatform {
 
     public boolean isMetadataIgnoreCase();
 
+    public void setMetadataBulkRead(boolean value);
+
+    public boolean isMetadataBulkRead();
+
+    public void setMetadataReadThreadCount(int value);
+
+    public int getMetadataReadThreadCount();
+
     public java.util.Date parseDate(int type, String value, boolean useVariableDates);
 
     public Table makeAllColumnsPrimaryKeys(Table table);
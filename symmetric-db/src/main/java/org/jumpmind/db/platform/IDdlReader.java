@@ -22,6 +22,7 @@ package org.jumpmind.db.platform;
 
 
 import java.util.List;
+import java.util.Map;
 
 import org.jumpmind.db.model.Database;
 import org.jumpmind.db.model.Table;
@@ -30,6 +31,14 @@ public interface IDdlReader {
 
     public Database readTables(String catalog, String schema, String[] tableTypes);
 
+    /**
+     * Read the tables of several schemas. Implementations may read the schemas
+     * in parallel.
+     * 
+     * @return a database model for each schema, in the order of the schemas
+     */
+    public List<Database> readTables(String catalog, List<String> schemas, String[] tableTypes);
+
     public Table readTable(String catalog, String schema, String tableName);
     
     public List<String> getTableTypes();
@@ -41,5 +50,15 @@ public interface IDdlReader {
     public List<String> getTableNames(String catalog, String schema, String[] tableTypes);
     
     public List<String> getColumnNames(String catalog, String schema, String tableName);
+
+    /**
+     * Read a structural fingerprint for every table in a catalog and schema
+     * using as few catalog queries as possible. The fingerprint changes when
+     * columns, column types or primary keys change.
+     * 
+     * @return a map of table name to fingerprint, or null if fingerprints
+     *         cannot be calculated for this database
+     */
+    public Map<String, Long> getTableFingerprints(String catalog, String schema);
     
 }
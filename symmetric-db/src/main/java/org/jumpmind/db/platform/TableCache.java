@@ -0,0 +1,269 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.db.platform;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jumpmind.db.model.Table;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of table models read from the database. Each table is read once,
+ * even when several threads ask for it at the same time, and a table being
+ * read does not block threads that want other tables. Entries expire one at a
+ * time. An expired table is read again on a background thread while the stale
+ * copy continues to be handed out.
+ */
+public class TableCache {
+
+    public interface ITableReader {
+        public Table readTable(String catalogName, String schemaName, String tableName);
+    }
+
+    private static final AtomicInteger threadNumber = new AtomicInteger(1);
+
+    protected final Logger log = LoggerFactory.getLogger(getClass());
+
+    protected ITableReader reader;
+
+    protected volatile long timeoutInMs;
+
+    protected ConcurrentMap<String, CacheEntry> entries = new ConcurrentHashMap<String, CacheEntry>();
+
+    protected ThreadPoolExecutor refreshExecutor;
+
+    protected AtomicLong hitCount = new AtomicLong();
+
+    protected AtomicLong staleHitCount = new AtomicLong();
+
+    protected AtomicLong missCount = new AtomicLong();
+
+    protected AtomicLong loadCount = new AtomicLong();
+
+    protected AtomicLong loadTimeInMs = new AtomicLong();
+
+    public TableCache(ITableReader reader, long timeoutInMs) {
+        this.reader = reader;
+        this.timeoutInMs = timeoutInMs;
+    }
+
+    public Table get(String catalogName, String schemaName, String tableName, boolean forceReread) {
+        String key = Table.getFullyQualifiedTableName(catalogName, schemaName, tableName);
+        CacheEntry entry = null;
+        if (forceReread) {
+            entry = new CacheEntry(catalogName, schemaName, tableName);
+            entries.put(key, entry);
+            missCount.incrementAndGet();
+            return load(key, entry);
+        }
+
+        entry = entries.get(key);
+        if (entry == null) {
+            CacheEntry newEntry = new CacheEntry(catalogName, schemaName, tableName);
+            entry = entries.putIfAbsent(key, newEntry);
+            if (entry == null) {
+                missCount.incrementAndGet();
+                return load(key, newEntry);
+            }
+        }
+
+        if (entry.isExpired(timeoutInMs)) {
+            staleHitCount.incrementAndGet();
+            refresh(key, entry);
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return entry.get();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public void setTimeoutInMs(long timeoutInMs) {
+        this.timeoutInMs = timeoutInMs;
+    }
+
+    public long getTimeoutInMs() {
+        return timeoutInMs;
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of times an expired table was handed out while it
+     *         was being refreshed
+     */
+    public long getStaleHitCount() {
+        return staleHitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    public long getLoadTimeInMs() {
+        return loadTimeInMs.get();
+    }
+
+    /*
+     * Read the table on the calling thread. Tables that do not exist or fail
+     * to be read are not kept, so they are read again the next time.
+     */
+    protected Table load(String key, CacheEntry entry) {
+        entry.task.run();
+        Table table = null;
+        try {
+            table = entry.get();
+        } finally {
+            if (table == null) {
+                entries.remove(key, entry);
+            }
+        }
+        return table;
+    }
+
+    protected void refresh(final String key, final CacheEntry staleEntry) {
+        if (staleEntry.refreshing.compareAndSet(false, true)) {
+            final CacheEntry entry = new CacheEntry(staleEntry.catalogName, staleEntry.schemaName,
+                    staleEntry.tableName);
+            getRefreshExecutor().execute(new Runnable() {
+                public void run() {
+                    try {
+                        entry.task.run();
+                        if (entry.get() != null) {
+                            entries.replace(key, staleEntry, entry);
+                        } else {
+                            entries.remove(key, staleEntry);
+                        }
+                    } catch (RuntimeException ex) {
+                        log.warn("Failed to refresh the cached table {}.  {}", key, ex.getMessage());
+                        entries.remove(key, staleEntry);
+                    }
+                }
+            });
+        }
+    }
+
+    protected synchronized ThreadPoolExecutor getRefreshExecutor() {
+        if (refreshExecutor == null) {
+            refreshExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r);
+                            thread.setName("table-cache-refresh-" + threadNumber.getAndIncrement());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            refreshExecutor.allowCoreThreadTimeOut(true);
+        }
+        return refreshExecutor;
+    }
+
+    class CacheEntry implements Callable<Table> {
+
+        final String catalogName;
+
+        final String schemaName;
+
+        final String tableName;
+
+        final FutureTask<Table> task = new FutureTask<Table>(this);
+
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        volatile long loadTime;
+
+        CacheEntry(String catalogName, String schemaName, String tableName) {
+            this.catalogName = catalogName;
+            this.schemaName = schemaName;
+            this.tableName = tableName;
+        }
+
+        public Table call() throws Exception {
+            long ts = System.currentTimeMillis();
+            try {
+                return reader.readTable(catalogName, schemaName, tableName);
+            } finally {
+                loadTime = System.currentTimeMillis();
+                loadCount.incrementAndGet();
+                loadTimeInMs.addAndGet(loadTime - ts);
+            }
+        }
+
+        boolean isExpired(long timeoutInMs) {
+            return task.isDone() && System.currentTimeMillis() - loadTime > timeoutInMs;
+        }
+
+        /*
+         * Wait for the table if another thread is still reading it
+         */
+        Table get() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return task.get();
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    }
+                }
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else {
+                    throw new RuntimeException(cause);
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+}
@@ -73,6 +73,14 @@ public class SqliteDdlReader implements IDdlReader {
         return database;
     }
     
+    public List<Database> readTables(String catalog, List<String> schemas, String[] tableTypes) {
+        List<Database> databases = new ArrayList<Database>(schemas.size());
+        for (String schema : schemas) {
+            databases.add(readTables(catalog, schema, tableTypes));
+        }
+        return databases;
+    }
+
     protected void checkForAutoIncrementColumn(List<Column> columns, String tableName) {
         String ddl = platform.getSqlTemplate().queryForObject("select sql from sqlite_master where tbl_name=?", String.class, tableName);
         if (StringUtils.isNotBlank(ddl)) {
@@ -163,6 +171,17 @@ public class SqliteDdlReader implements IDdlReader {
         return new ArrayList<String>(0);
     }
 
+    public Map<String, Long> getTableFingerprints(String catalog, String schema) {
+        List<Row> rows = platform.getSqlTemplate().query(
+                "select tbl_name, sql from sqlite_master where type='table'");
+        Map<String, Long> fingerprints = new HashMap<String, Long>(rows.size());
+        for (Row row : rows) {
+            String tableName = row.getString("tbl_name");
+            fingerprints.put(tableName, Table.calculateFingerprint(tableName, row.getString("sql")));
+        }
+        return fingerprints;
+    }
+
     static class ColumnMapper extends AbstractSqlRowMapper<Column> {
         public Column mapRow(Row row) {
             Column col = new Column((String) row.get("name"), booleanValue(row.get("pk")));
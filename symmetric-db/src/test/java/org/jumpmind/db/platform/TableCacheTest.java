@@ -0,0 +1,125 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.db.platform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jumpmind.db.model.Table;
+import org.junit.Test;
+
+public class TableCacheTest {
+
+    @Test
+    public void testTableIsReadOnceWhenThreadsRace() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final TableCache cache = new TableCache(new TableCache.ITableReader() {
+            public Table readTable(String catalogName, String schemaName, String tableName) {
+                reads.incrementAndGet();
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+                return new Table(catalogName, schemaName, tableName);
+            }
+        }, 60000);
+
+        final Table[] tables = new Table[5];
+        Thread[] threads = new Thread[tables.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    tables[index] = cache.get(null, null, "test", false);
+                }
+            };
+            threads[i].start();
+        }
+        reading.await();
+        Thread.sleep(50);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, reads.get());
+        for (Table table : tables) {
+            assertSame(tables[0], table);
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(4, cache.getHitCount());
+        assertEquals(1, cache.getLoadCount());
+    }
+
+    @Test
+    public void testExpiredTableIsServedWhileRefreshing() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        TableCache cache = new TableCache(new TableCache.ITableReader() {
+            public Table readTable(String catalogName, String schemaName, String tableName) {
+                reads.incrementAndGet();
+                return new Table(catalogName, schemaName, tableName);
+            }
+        }, 0);
+
+        Table first = cache.get(null, null, "test", false);
+        Thread.sleep(5);
+        assertSame(first, cache.get(null, null, "test", false));
+        assertEquals(1, cache.getStaleHitCount());
+
+        long timeout = System.currentTimeMillis() + 5000;
+        while (reads.get() < 2 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        cache.setTimeoutInMs(60000);
+        Table refreshed = first;
+        while (refreshed == first && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+            refreshed = cache.get(null, null, "test", false);
+        }
+        assertEquals(2, reads.get());
+        assertEquals("test", refreshed.getName());
+        assertSame(refreshed, cache.get(null, null, "test", false));
+    }
+
+    @Test
+    public void testMissingTableIsNotCached() {
+        final AtomicInteger reads = new AtomicInteger();
+        TableCache cache = new TableCache(new TableCache.ITableReader() {
+            public Table readTable(String catalogName, String schemaName, String tableName) {
+                reads.incrementAndGet();
+                return null;
+            }
+        }, 60000);
+
+        assertNull(cache.get(null, null, "missing", false));
+        assertNull(cache.get(null, null, "missing", false));
+        assertEquals(2, reads.get());
+        assertEquals(0, cache.getSize());
+    }
+
+}
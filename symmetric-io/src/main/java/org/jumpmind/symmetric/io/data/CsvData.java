@@ -90,6 +90,23 @@ public class CsvData {
     public CsvData() {
     }
 
+    /**
+     * Remove the data and attributes so this object can be used for another
+     * row.
+     */
+    public void clear() {
+        if (parsedCsvData != null) {
+            parsedCsvData.clear();
+        }
+        if (csvData != null) {
+            csvData.clear();
+        }
+        attributes = null;
+        noBinaryOldData = false;
+        dataEventType = null;
+        changedDataIndicators = null;
+    }
+
     public boolean contains(String key) {
         return (parsedCsvData != null && parsedCsvData.get(key) != null)
                 || (csvData != null && csvData.get(key) != null);
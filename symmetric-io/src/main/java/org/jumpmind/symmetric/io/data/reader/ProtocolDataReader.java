@@ -50,15 +50,64 @@ import org.jumpmind.symmetric.io.data.CsvUtils;
 import org.jumpmind.symmetric.io.data.DataContext;
 import org.jumpmind.symmetric.io.data.DataEventType;
 import org.jumpmind.symmetric.io.data.IDataReader;
+import org.jumpmind.symmetric.io.data.INonRetainingDataWriter;
 import org.jumpmind.symmetric.io.stage.IStagedResource;
-import org.jumpmind.util.CollectionUtils;
 import org.jumpmind.util.Statistics;
 
 public class ProtocolDataReader extends AbstractDataReader implements IDataReader {
 
+    /**
+     * The line number of the last batch, table or commit that was read. Use
+     * {@link #getLineNumber()} for the line that is being read.
+     */
     public static final String CTX_LINE_NUMBER = ProtocolDataReader.class.getSimpleName()
             + ".lineNumber";
 
+    private static final int TOKEN_UNKNOWN = 0;
+    private static final int TOKEN_INSERT = 1;
+    private static final int TOKEN_UPDATE = 2;
+    private static final int TOKEN_DELETE = 3;
+    private static final int TOKEN_OLD = 4;
+    private static final int TOKEN_TABLE = 5;
+    private static final int TOKEN_KEYS = 6;
+    private static final int TOKEN_COLUMNS = 7;
+    private static final int TOKEN_SCHEMA = 8;
+    private static final int TOKEN_CATALOG = 9;
+    private static final int TOKEN_BATCH = 10;
+    private static final int TOKEN_COMMIT = 11;
+    private static final int TOKEN_NODEID = 12;
+    private static final int TOKEN_BINARY = 13;
+    private static final int TOKEN_CHANNEL = 14;
+    private static final int TOKEN_NO_BINARY_OLD_DATA = 15;
+    private static final int TOKEN_SQL = 16;
+    private static final int TOKEN_BSH = 17;
+    private static final int TOKEN_CREATE = 18;
+    private static final int TOKEN_IGNORE = 19;
+
+    private static final Map<String, Integer> TOKEN_TYPES = new HashMap<String, Integer>();
+
+    static {
+        TOKEN_TYPES.put(CsvConstants.INSERT, TOKEN_INSERT);
+        TOKEN_TYPES.put(CsvConstants.UPDATE, TOKEN_UPDATE);
+        TOKEN_TYPES.put(CsvConstants.DELETE, TOKEN_DELETE);
+        TOKEN_TYPES.put(CsvConstants.OLD, TOKEN_OLD);
+        TOKEN_TYPES.put(CsvConstants.TABLE, TOKEN_TABLE);
+        TOKEN_TYPES.put(CsvConstants.KEYS, TOKEN_KEYS);
+        TOKEN_TYPES.put(CsvConstants.COLUMNS, TOKEN_COLUMNS);
+        TOKEN_TYPES.put(CsvConstants.SCHEMA, TOKEN_SCHEMA);
+        TOKEN_TYPES.put(CsvConstants.CATALOG, TOKEN_CATALOG);
+        TOKEN_TYPES.put(CsvConstants.BATCH, TOKEN_BATCH);
+        TOKEN_TYPES.put(CsvConstants.COMMIT, TOKEN_COMMIT);
+        TOKEN_TYPES.put(CsvConstants.NODEID, TOKEN_NODEID);
+        TOKEN_TYPES.put(CsvConstants.BINARY, TOKEN_BINARY);
+        TOKEN_TYPES.put(CsvConstants.CHANNEL, TOKEN_CHANNEL);
+        TOKEN_TYPES.put(CsvConstants.NO_BINARY_OLD_DATA, TOKEN_NO_BINARY_OLD_DATA);
+        TOKEN_TYPES.put(CsvConstants.SQL, TOKEN_SQL);
+        TOKEN_TYPES.put(CsvConstants.BSH, TOKEN_BSH);
+        TOKEN_TYPES.put(CsvConstants.CREATE, TOKEN_CREATE);
+        TOKEN_TYPES.put(CsvConstants.IGNORE, TOKEN_IGNORE);
+    }
+
     protected IStagedResource stagedResource;
     protected Reader reader;
     protected Map<Batch, Statistics> statistics = new HashMap<Batch, Statistics>();
@@ -74,6 +123,10 @@ public class ProtocolDataReader extends AbstractDataReader implements IDataReade
     protected BatchType batchType;
     protected int lineNumber = 0;
     protected String[] tokens;
+    protected CsvData reusableData;
+    protected String[] rowData;
+    protected String[] pkData;
+    protected String[] oldData;
 
     public ProtocolDataReader(BatchType batchType, String targetNodeId, StringBuilder input) {
         this(batchType, targetNodeId, new BufferedReader(new StringReader(input.toString())));
@@ -136,7 +189,6 @@ public class ProtocolDataReader extends AbstractDataReader implements IDataReade
             Table table = null;
             while (tokens != null || csvReader.readRecord()) {
                 lineNumber++;
-                context.put(CTX_LINE_NUMBER, lineNumber);
                 if (tokens == null) {
                     tokens = csvReader.getValues();
                 }
@@ -146,144 +198,157 @@ public class ProtocolDataReader extends AbstractDataReader implements IDataReade
                             .increment(DataReaderStatistics.READ_BYTE_COUNT, bytesRead);
                     bytesRead = 0;
                 }
-                
+
+                int tokenType = getTokenType(tokens[0]);
                 if (table != null
-                        && !(tokens[0].equals(CsvConstants.TABLE)
-                                || tokens[0].equals(CsvConstants.KEYS) || tokens[0]
-                                    .equals(CsvConstants.COLUMNS))) {
+                        && !(tokenType == TOKEN_TABLE || tokenType == TOKEN_KEYS || tokenType == TOKEN_COLUMNS)) {
+                    context.put(CTX_LINE_NUMBER, lineNumber);
                     return table;
                 }
-                
-                if (tokens[0].equals(CsvConstants.INSERT)) {
-                    CsvData data = new CsvData();
-                    data.setNoBinaryOldData(noBinaryOldData);
-                    data.setDataEventType(DataEventType.INSERT);
-                    data.putParsedData(CsvData.ROW_DATA,
-                            CollectionUtils.copyOfRange(tokens, 1, tokens.length));
-                    tokens = null;
-                    return data;
-                } else if (tokens[0].equals(CsvConstants.OLD)) {
-                    parsedOldData = CollectionUtils.copyOfRange(tokens, 1, tokens.length);
-                    
-                } else if (tokens[0].equals(CsvConstants.UPDATE)) {
-                    CsvData data = new CsvData();
-                    data.setNoBinaryOldData(noBinaryOldData);
-                    data.setDataEventType(DataEventType.UPDATE);
-                    int columnCount = context.getLastParsedTable().getColumnCount();
-                    if (tokens.length <= columnCount) {
-                        String msg = String.format("Invalid state while parsing csv data.  "
-                                + "The number of columns (%d) reported for table '%s' don't match up with the token data: %s",
-                                columnCount, context.getLastParsedTable().getFullyQualifiedTableName(), ArrayUtils.toString(tokens));
-                        throw new IllegalStateException(msg);
-                    }
-                    data.putParsedData(CsvData.ROW_DATA,
-                            CollectionUtils.copyOfRange(tokens, 1, columnCount + 1));
-                    data.putParsedData(CsvData.PK_DATA, CollectionUtils.copyOfRange(tokens,
-                            columnCount + 1, tokens.length));
-                    data.putParsedData(CsvData.OLD_DATA, parsedOldData);
-                    tokens = null;
-                    return data;
-                } else if (tokens[0].equals(CsvConstants.DELETE)) {
-                    CsvData data = new CsvData();
-                    data.setNoBinaryOldData(noBinaryOldData);
-                    data.setDataEventType(DataEventType.DELETE);
-                    data.putParsedData(CsvData.PK_DATA,
-                            CollectionUtils.copyOfRange(tokens, 1, tokens.length));
-                    data.putParsedData(CsvData.OLD_DATA, parsedOldData);
-                    tokens = null;
-                    return data;
 
-                } else if (tokens[0].equals(CsvConstants.BATCH)) {
-                    Batch batch = new Batch(batchType, Long.parseLong(tokens[1]), channelId,
-                            binaryEncoding, sourceNodeId, targetNodeId, false);
-                    statistics.put(batch, new DataReaderStatistics());
-                    tokens = null;
-                    return batch;
-                } else if (tokens[0].equals(CsvConstants.NO_BINARY_OLD_DATA)) {
-                    if (tokens.length > 1) {
-                        noBinaryOldData = Boolean.parseBoolean(tokens[1]);
-                    }
-                    
-                } else if (tokens[0].equals(CsvConstants.NODEID)) {
-                    this.sourceNodeId = tokens[1];
-                    
-                } else if (tokens[0].equals(CsvConstants.BINARY)) {
-                    this.binaryEncoding = BinaryEncoding.valueOf(tokens[1]);
-                    
-                } else if (tokens[0].equals(CsvConstants.CHANNEL)) {
-                    this.channelId = tokens[1];
-                    
-                } else if (tokens[0].equals(CsvConstants.SCHEMA)) {
-                    schemaName = tokens.length == 1 || StringUtils.isBlank(tokens[1]) ? null
-                            : tokens[1];
-                    
-                } else if (tokens[0].equals(CsvConstants.CATALOG)) {
-                    catalogName = tokens.length == 1 || StringUtils.isBlank(tokens[1]) ? null
-                            : tokens[1];
-                    
-                } else if (tokens[0].equals(CsvConstants.TABLE)) {
-                    String tableName = tokens[1];
-                    table = context.getParsedTables().get(Table.getFullyQualifiedTableName(catalogName, schemaName,
-                            tableName));
-                    if (table != null) {
-                        context.setLastParsedTable(table);
-                    } else {
-                        table = new Table(catalogName, schemaName, tableName);
-                        context.setLastParsedTable(table);
-                    }
-                    
-                } else if (tokens[0].equals(CsvConstants.KEYS)) {
-                    if (keys == null) {
-                        keys = new HashSet<String>(tokens.length);
-                    }
-                    for (int i = 1; i < tokens.length; i++) {
-                        keys.add(tokens[i]);
-                    }
-                } else if (tokens[0].equals(CsvConstants.COLUMNS)) {
-                    table.removeAllColumns();
-                    for (int i = 1; i < tokens.length; i++) {
-                        Column column = new Column(tokens[i], keys != null
-                                && keys.contains(tokens[i]));
-                        table.addColumn(column);
-                    }
-                    context.getParsedTables().put(table.getFullyQualifiedTableName(), table);
-                } else if (tokens[0].equals(CsvConstants.COMMIT)) {
-                    if (batch != null) {
-                        batch.setComplete(true);
-                    }
-                    tokens = null;
-                    return null;
-                } else if (tokens[0].equals(CsvConstants.SQL)) {
-                    CsvData data = new CsvData();
-                    data.setNoBinaryOldData(noBinaryOldData);
-                    data.setDataEventType(DataEventType.SQL);
-                    data.putParsedData(CsvData.ROW_DATA, new String[] { tokens[1] });
-                    tokens = null;
-                    return data;
-                } else if (tokens[0].equals(CsvConstants.BSH)) {
-                    CsvData data = new CsvData();
-                    data.setNoBinaryOldData(noBinaryOldData);
-                    data.setDataEventType(DataEventType.BSH);
-                    data.putParsedData(CsvData.ROW_DATA, new String[] { tokens[1] });
-                    tokens = null;
-                    return data;
-                } else if (tokens[0].equals(CsvConstants.CREATE)) {
-                    CsvData data = new CsvData();
-                    data.setNoBinaryOldData(noBinaryOldData);
-                    data.setDataEventType(DataEventType.CREATE);
-                    data.putParsedData(CsvData.ROW_DATA, new String[] { tokens[1] });
-                    tokens = null;
-                    return data;
-                } else if (tokens[0].equals(CsvConstants.IGNORE)) {
-                    if (batch != null) {
-                        batch.setIgnored(true);
-                    }
-                    
-                } else {
-                    log.info("Unable to handle unknown csv values: " + Arrays.toString(tokens));
-                    
+                CsvData data = null;
+                switch (tokenType) {
+                    case TOKEN_INSERT:
+                        data = newData(DataEventType.INSERT);
+                        rowData = copyOfRange(rowData, 1, tokens.length);
+                        data.putParsedData(CsvData.ROW_DATA, rowData);
+                        tokens = null;
+                        return data;
+
+                    case TOKEN_OLD:
+                        oldData = copyOfRange(oldData, 1, tokens.length);
+                        parsedOldData = oldData;
+                        break;
+
+                    case TOKEN_UPDATE:
+                        int columnCount = context.getLastParsedTable().getColumnCount();
+                        if (tokens.length <= columnCount) {
+                            String msg = String.format("Invalid state while parsing csv data.  "
+                                    + "The number of columns (%d) reported for table '%s' don't match up with the token data: %s",
+                                    columnCount, context.getLastParsedTable().getFullyQualifiedTableName(), ArrayUtils.toString(tokens));
+                            throw new IllegalStateException(msg);
+                        }
+                        data = newData(DataEventType.UPDATE);
+                        rowData = copyOfRange(rowData, 1, columnCount + 1);
+                        data.putParsedData(CsvData.ROW_DATA, rowData);
+                        pkData = copyOfRange(pkData, columnCount + 1, tokens.length);
+                        data.putParsedData(CsvData.PK_DATA, pkData);
+                        data.putParsedData(CsvData.OLD_DATA, parsedOldData);
+                        tokens = null;
+                        return data;
+
+                    case TOKEN_DELETE:
+                        data = newData(DataEventType.DELETE);
+                        pkData = copyOfRange(pkData, 1, tokens.length);
+                        data.putParsedData(CsvData.PK_DATA, pkData);
+                        data.putParsedData(CsvData.OLD_DATA, parsedOldData);
+                        tokens = null;
+                        return data;
+
+                    case TOKEN_BATCH:
+                        Batch batch = new Batch(batchType, Long.parseLong(tokens[1]), channelId,
+                                binaryEncoding, sourceNodeId, targetNodeId, false);
+                        statistics.put(batch, new DataReaderStatistics());
+                        context.put(CTX_LINE_NUMBER, lineNumber);
+                        tokens = null;
+                        return batch;
+
+                    case TOKEN_NO_BINARY_OLD_DATA:
+                        if (tokens.length > 1) {
+                            noBinaryOldData = Boolean.parseBoolean(tokens[1]);
+                        }
+                        break;
+
+                    case TOKEN_NODEID:
+                        this.sourceNodeId = tokens[1];
+                        break;
+
+                    case TOKEN_BINARY:
+                        this.binaryEncoding = BinaryEncoding.valueOf(tokens[1]);
+                        break;
+
+                    case TOKEN_CHANNEL:
+                        this.channelId = tokens[1];
+                        break;
+
+                    case TOKEN_SCHEMA:
+                        schemaName = tokens.length == 1 || StringUtils.isBlank(tokens[1]) ? null
+                                : tokens[1];
+                        break;
+
+                    case TOKEN_CATALOG:
+                        catalogName = tokens.length == 1 || StringUtils.isBlank(tokens[1]) ? null
+                                : tokens[1];
+                        break;
+
+                    case TOKEN_TABLE:
+                        String tableName = tokens[1];
+                        table = context.getParsedTables().get(Table.getFullyQualifiedTableName(catalogName, schemaName,
+                                tableName));
+                        if (table != null) {
+                            context.setLastParsedTable(table);
+                        } else {
+                            table = new Table(catalogName, schemaName, tableName);
+                            context.setLastParsedTable(table);
+                        }
+                        break;
+
+                    case TOKEN_KEYS:
+                        if (keys == null) {
+                            keys = new HashSet<String>(tokens.length);
+                        }
+                        for (int i = 1; i < tokens.length; i++) {
+                            keys.add(tokens[i]);
+                        }
+                        break;
+
+                    case TOKEN_COLUMNS:
+                        table.removeAllColumns();
+                        for (int i = 1; i < tokens.length; i++) {
+                            Column column = new Column(tokens[i], keys != null
+                                    && keys.contains(tokens[i]));
+                            table.addColumn(column);
+                        }
+                        context.getParsedTables().put(table.getFullyQualifiedTableName(), table);
+                        break;
+
+                    case TOKEN_COMMIT:
+                        if (this.batch != null) {
+                            this.batch.setComplete(true);
+                        }
+                        context.put(CTX_LINE_NUMBER, lineNumber);
+                        tokens = null;
+                        return null;
+
+                    case TOKEN_SQL:
+                        data = newData(DataEventType.SQL);
+                        data.putParsedData(CsvData.ROW_DATA, new String[] { tokens[1] });
+                        tokens = null;
+                        return data;
+
+                    case TOKEN_BSH:
+                        data = newData(DataEventType.BSH);
+                        data.putParsedData(CsvData.ROW_DATA, new String[] { tokens[1] });
+                        tokens = null;
+                        return data;
+
+                    case TOKEN_CREATE:
+                        data = newData(DataEventType.CREATE);
+                        data.putParsedData(CsvData.ROW_DATA, new String[] { tokens[1] });
+                        tokens = null;
+                        return data;
+
+                    case TOKEN_IGNORE:
+                        if (this.batch != null) {
+                            this.batch.setIgnored(true);
+                        }
+                        break;
+
+                    default:
+                        log.info("Unable to handle unknown csv values: " + Arrays.toString(tokens));
+                        break;
                 }
-                
+
                 tokens = null;
             }
         } catch (IOException ex) {
@@ -294,6 +359,59 @@ public class ProtocolDataReader extends AbstractDataReader implements IDataReade
 
     }
 
+    protected static int getTokenType(String token) {
+        Integer tokenType = TOKEN_TYPES.get(token);
+        return tokenType != null ? tokenType : TOKEN_UNKNOWN;
+    }
+
+    /**
+     * @return a {@link CsvData} for the next row, which is the same object
+     *         for every row when the writer does not keep the data it is given
+     */
+    protected CsvData newData(DataEventType dataEventType) {
+        CsvData data = null;
+        if (isReuseData()) {
+            if (reusableData == null) {
+                reusableData = new CsvData();
+            } else {
+                reusableData.clear();
+            }
+            data = reusableData;
+        } else {
+            data = new CsvData();
+            rowData = null;
+            pkData = null;
+            oldData = null;
+        }
+        data.setNoBinaryOldData(noBinaryOldData);
+        data.setDataEventType(dataEventType);
+        return data;
+    }
+
+    protected boolean isReuseData() {
+        return context.getWriter() instanceof INonRetainingDataWriter;
+    }
+
+    /**
+     * Copy a range of the current tokens into the array that is passed in if
+     * it is the right length and the data is being reused.
+     */
+    protected String[] copyOfRange(String[] reuse, int from, int to) {
+        int length = to - from;
+        String[] copy = reuse != null && reuse.length == length && isReuseData() ? reuse
+                : new String[length];
+        int copied = Math.min(tokens.length - from, length);
+        System.arraycopy(tokens, from, copy, 0, copied);
+        if (copied < length) {
+            Arrays.fill(copy, copied, length, null);
+        }
+        return copy;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
     public Batch nextBatch() {
         if (next instanceof Batch) {
             this.batch = (Batch) next;
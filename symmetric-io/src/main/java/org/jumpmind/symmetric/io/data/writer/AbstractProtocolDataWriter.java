@@ -32,12 +32,12 @@ import org.jumpmind.symmetric.io.data.Batch;
 import org.jumpmind.symmetric.io.data.CsvConstants;
 import org.jumpmind.symmetric.io.data.CsvData;
 import org.jumpmind.symmetric.io.data.DataContext;
-import org.jumpmind.symmetric.io.data.IDataWriter;
+import org.jumpmind.symmetric.io.data.INonRetainingDataWriter;
 import org.jumpmind.util.Statistics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-abstract public class AbstractProtocolDataWriter implements IDataWriter {
+abstract public class AbstractProtocolDataWriter implements INonRetainingDataWriter {
     
     protected final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -40,5 +40,8 @@ abstract public class DataWriterStatisticConstants {
     public static final String MISSINGDELETECOUNT = "MISSINGDELETECOUNT";
     public static final String IGNORECOUNT = "IGNORECOUNT";
     public static final String LINENUMBER = "LINENUMBER";
+    public static final String LOOKUPCOUNT = "LOOKUPCOUNT";
+    public static final String LOOKUPCACHEHITCOUNT = "LOOKUPCACHEHITCOUNT";
+    public static final String LOOKUPMILLIS = "LOOKUPMILLIS";
 
 }
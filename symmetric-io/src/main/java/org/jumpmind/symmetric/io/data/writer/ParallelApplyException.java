@@ -0,0 +1,39 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.io.data.writer;
+
+/**
+ * Thrown when a batch that is being applied by a {@link ParallelDatabaseWriter}
+ * can no longer be split across lanes safely.
+ */
+public class ParallelApplyException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ParallelApplyException(String message) {
+        super(message);
+    }
+
+    public ParallelApplyException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,816 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.io.data.writer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.jumpmind.db.model.ForeignKey;
+import org.jumpmind.db.model.Reference;
+import org.jumpmind.db.model.Table;
+import org.jumpmind.db.platform.IDatabasePlatform;
+import org.jumpmind.symmetric.io.data.Batch;
+import org.jumpmind.symmetric.io.data.CsvData;
+import org.jumpmind.symmetric.io.data.DataContext;
+import org.jumpmind.symmetric.io.data.DataEventType;
+import org.jumpmind.symmetric.io.data.IDataReader;
+import org.jumpmind.symmetric.io.data.IDataWriter;
+import org.jumpmind.util.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link DefaultDatabaseWriter} that applies the rows of a batch over
+ * several database connections, called lanes. Lane 0 is the transaction of
+ * this writer. Every other lane has its own writer and transaction, and runs
+ * on a thread of an executor that is shared by the batches this writer loads.
+ * If the executor has no thread free for a lane, the batch is applied by lane
+ * 0.
+ * <p>
+ * A row is assigned to a lane by a hash of its primary key. If the table has
+ * a single foreign key that covers the primary key of its parent, the hash of
+ * the foreign key is used instead, so a row and its parent are applied in
+ * order by the same lane. Tables without a primary key are applied by lane 0.
+ * <p>
+ * Lanes commit in two steps. First every lane applies and flushes its rows
+ * and reports back. Only when all of them have done so without error do the
+ * lanes commit, all at once, and lane 0 commits after them. There is no two
+ * phase commit in the database, so a failure during the second step can
+ * leave part of the batch committed. Rows are applied with the usual insert
+ * and update fallbacks, so loading the batch again converges.
+ * <p>
+ * Nothing is committed before the end of the batch. Events other than row
+ * changes, tables that can't be kept in foreign key order across lanes and
+ * updates that move a row to another lane make the rest of the batch apply on
+ * lane 0. If the other lanes already hold rows at that point, a
+ * {@link ParallelApplyException} fails the batch so it can be retried
+ * serially.
+ */
+public class ParallelDatabaseWriter extends DefaultDatabaseWriter {
+
+    protected final static Logger log = LoggerFactory.getLogger(ParallelDatabaseWriter.class);
+
+    protected final static int QUEUE_SIZE = 1000;
+
+    protected int threadCount;
+
+    protected long waitTimeoutMs;
+
+    protected List<Worker> workers;
+
+    protected Map<Table, Route> routesBySourceTable;
+
+    protected Map<String, Route> routesByTableName;
+
+    protected Route currentRoute;
+
+    protected boolean serial;
+
+    protected volatile boolean aborted;
+
+    protected ExecutorService laneThreads;
+
+    protected boolean ownsLaneThreads;
+
+    public ParallelDatabaseWriter(IDatabasePlatform platform,
+            IDatabaseWriterConflictResolver conflictResolver, DatabaseWriterSettings settings,
+            int threadCount, long waitTimeoutMs) {
+        this(platform, conflictResolver, settings, threadCount, waitTimeoutMs, null);
+    }
+
+    /**
+     * @param laneThreads
+     *            runs the lanes of each batch. When it is null, the writer
+     *            creates a pool with a thread for each lane and shuts it down
+     *            when it is closed.
+     */
+    public ParallelDatabaseWriter(IDatabasePlatform platform,
+            IDatabaseWriterConflictResolver conflictResolver, DatabaseWriterSettings settings,
+            int threadCount, long waitTimeoutMs, ExecutorService laneThreads) {
+        super(platform, conflictResolver, settings);
+        this.threadCount = threadCount;
+        this.waitTimeoutMs = waitTimeoutMs;
+        this.laneThreads = laneThreads;
+    }
+
+    @Override
+    public void start(Batch batch) {
+        super.start(batch);
+        this.routesBySourceTable = new IdentityHashMap<Table, Route>();
+        this.routesByTableName = new HashMap<String, Route>();
+        this.currentRoute = null;
+        this.serial = false;
+        this.aborted = false;
+        this.workers = null;
+        if (threadCount > 1 && isParallelApplyEnabled(batch)) {
+            this.workers = new ArrayList<Worker>(threadCount - 1);
+            for (int lane = 1; lane < threadCount; lane++) {
+                Worker worker = new Worker(lane, createWorkerWriter());
+                workers.add(worker);
+                worker.open();
+            }
+            try {
+                ExecutorService executor = getLaneThreads();
+                for (Worker worker : workers) {
+                    worker.submit(executor);
+                }
+            } catch (RejectedExecutionException ex) {
+                log.debug("There are no threads free to apply batch {} in parallel.  It will be applied on one connection",
+                        batch.getNodeBatchId());
+                abortWorkers();
+                this.workers = null;
+            }
+        }
+    }
+
+    @Override
+    public boolean start(Table table) {
+        boolean process = super.start(table);
+        if (workers != null) {
+            currentRoute = null;
+            if (process && targetTable != null && !serial) {
+                currentRoute = getRoute(sourceTable, targetTable);
+            }
+        }
+        return process;
+    }
+
+    @Override
+    public void write(CsvData data) {
+        if (workers == null) {
+            super.write(data);
+            return;
+        }
+
+        for (Worker worker : workers) {
+            if (worker.error != null) {
+                rethrow(worker);
+            }
+        }
+
+        int lane = 0;
+        DataEventType eventType = data.getDataEventType();
+        if (eventType == DataEventType.INSERT || eventType == DataEventType.UPDATE
+                || eventType == DataEventType.DELETE) {
+            if (!serial && currentRoute != null) {
+                lane = currentRoute.getLane(data);
+                if (lane < 0) {
+                    serialize(String.format("a %s on %s would move the row to another lane",
+                            eventType, currentRoute.tableName));
+                    lane = 0;
+                }
+            }
+        } else {
+            /*
+             * The event may depend on the rows before it and the rows after
+             * it may depend on the event, which the lanes could only see if
+             * the event was committed before the end of the batch
+             */
+            serialize(String.format("of a %s event", eventType));
+        }
+
+        if (lane == 0) {
+            super.write(data);
+        } else {
+            Worker worker = workers.get(lane - 1);
+            worker.rowCount++;
+            worker.enqueue(new Object[] { currentRoute.workerTable, data });
+        }
+    }
+
+    @Override
+    public void end(Batch batch, boolean inError) {
+        if (workers == null) {
+            super.end(batch, inError);
+        } else if (!inError) {
+            commitLanes();
+            super.end(batch, false);
+        } else {
+            aborted = true;
+            try {
+                super.end(batch, true);
+            } finally {
+                abortWorkers();
+                parallelApplyFailed(batch);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (workers != null && !aborted) {
+                abortWorkers();
+            }
+        } finally {
+            if (ownsLaneThreads) {
+                laneThreads.shutdown();
+                laneThreads = null;
+                ownsLaneThreads = false;
+            }
+            super.close();
+        }
+    }
+
+    @Override
+    protected void checkForEarlyCommit() {
+        /*
+         * The lanes are committed together at the end of the batch
+         */
+        if (workers == null) {
+            super.checkForEarlyCommit();
+        }
+    }
+
+    protected synchronized ExecutorService getLaneThreads() {
+        if (laneThreads == null) {
+            laneThreads = Executors.newFixedThreadPool(threadCount - 1);
+            ownsLaneThreads = true;
+        }
+        return laneThreads;
+    }
+
+    /**
+     * Commit the rows the other lanes hold and close their writers. Every
+     * lane first applies and flushes its queued rows. The lanes are told to
+     * commit only after all of them have done so without error, and then they
+     * commit at the same time. Lane 0 is left to the caller.
+     */
+    protected void commitLanes() {
+        CountDownLatch prepared = new CountDownLatch(workers.size());
+        for (Worker worker : workers) {
+            worker.enqueue(new Object[] { Step.PREPARE, prepared });
+        }
+        await(prepared, "apply their rows");
+        for (Worker worker : workers) {
+            if (worker.error != null) {
+                rethrow(worker);
+            }
+        }
+
+        CountDownLatch committed = new CountDownLatch(workers.size());
+        for (Worker worker : workers) {
+            worker.finishing = true;
+            worker.enqueue(new Object[] { Step.END, committed });
+        }
+        await(committed, "commit");
+        Worker failed = null;
+        for (Worker worker : workers) {
+            if (worker.error != null) {
+                failed = worker;
+            } else {
+                addStatistics(worker.writer.getStatistics().get(batch));
+            }
+        }
+        if (failed != null) {
+            log.warn("Lane {} of batch {} failed to commit after the other lanes were told to commit.  Some of the batch might have been committed",
+                    failed.lane, batch.getNodeBatchId());
+            rethrow(failed);
+        }
+    }
+
+    protected boolean hasLaneRows() {
+        for (Worker worker : workers) {
+            if (worker.rowCount > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Roll back every lane that has not been finished yet. Rows that are
+     * still queued are dropped. A lane that is blocked in the database is
+     * usually waiting on a lock held by another lane, which this releases.
+     */
+    protected void abortWorkers() {
+        aborted = true;
+        for (Worker worker : workers) {
+            if (!worker.finishing) {
+                worker.finishing = true;
+                if (!worker.submitted) {
+                    worker.finish(false);
+                } else {
+                    worker.queue.clear();
+                    worker.queue.offer(new Object[] { Step.ROLLBACK });
+                }
+            }
+        }
+
+        for (Worker worker : workers) {
+            try {
+                await(worker.finished, "roll back");
+            } catch (ParallelApplyException ex) {
+                log.warn("Lane {} of batch {} is still busy.  It will roll back when its current statement completes",
+                        worker.lane, batch.getNodeBatchId());
+            }
+        }
+    }
+
+    protected void serialize(String reason) {
+        if (!serial) {
+            if (hasLaneRows()) {
+                throw new ParallelApplyException(String.format(
+                        "Batch %s cannot be applied in parallel because %s",
+                        batch.getNodeBatchId(), reason));
+            }
+            log.debug("Applying the rest of batch {} on one connection because {}",
+                    batch.getNodeBatchId(), reason);
+            serial = true;
+        }
+    }
+
+    protected void await(CountDownLatch latch, String action) {
+        try {
+            if (!latch.await(waitTimeoutMs > 0 ? waitTimeoutMs : Long.MAX_VALUE,
+                    TimeUnit.MILLISECONDS)) {
+                throw new ParallelApplyException(String.format(
+                        "Timed out after %d ms waiting for the lanes of batch %s to %s",
+                        waitTimeoutMs, batch.getNodeBatchId(), action));
+            }
+        } catch (InterruptedException ex) {
+            throw new ParallelApplyException(String.format(
+                    "Interrupted while waiting for the lanes of batch %s to %s",
+                    batch.getNodeBatchId(), action), ex);
+        }
+    }
+
+    protected void rethrow(Worker worker) {
+        if (worker.failedTable != null) {
+            context.setTable(worker.failedTable);
+            context.setData(worker.failedData);
+            context.put(CUR_DATA, worker.failedCurData);
+        }
+        Throwable error = worker.error;
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        } else {
+            throw new ParallelApplyException(error.getMessage(), error);
+        }
+    }
+
+    protected Route getRoute(Table sourceTable, Table targetTable) {
+        Route route = routesBySourceTable.get(sourceTable);
+        if (route == null) {
+            route = buildRoute(sourceTable, targetTable);
+            routesBySourceTable.put(sourceTable, route);
+            if (!routesByTableName.containsKey(route.tableName)) {
+                for (Route other : routesByTableName.values()) {
+                    if ((route.parentTableNames.contains(other.tableName) && !route.isAlignedWith(other))
+                            || (other.parentTableNames.contains(route.tableName) && !other
+                                    .isAlignedWith(route))) {
+                        serialize(String.format(
+                                "the rows of %s and %s cannot be kept in foreign key order across lanes",
+                                other.tableName, route.tableName));
+                    }
+                }
+                routesByTableName.put(route.tableName, route);
+            }
+        }
+        return route;
+    }
+
+    protected Route buildRoute(Table sourceTable, Table targetTable) {
+        Route route = new Route(targetTable.getName().toLowerCase(), sourceTable.copy());
+        ForeignKey[] foreignKeys = targetTable.getForeignKeys();
+        for (ForeignKey foreignKey : foreignKeys) {
+            if (foreignKey.getForeignTableName() != null) {
+                route.parentTableNames.add(foreignKey.getForeignTableName().toLowerCase());
+            }
+        }
+
+        List<String> keyNames = null;
+        List<String> localNames = null;
+        if (isParallelApplyEnabled(targetTable) && targetTable.getPrimaryKeyColumns().length > 0
+                && !route.parentTableNames.contains(route.tableName)) {
+            if (foreignKeys.length == 0) {
+                localNames = new ArrayList<String>();
+                for (String name : targetTable.getPrimaryKeyColumnNames()) {
+                    localNames.add(name.toLowerCase());
+                }
+                Collections.sort(localNames);
+                keyNames = localNames;
+            } else if (foreignKeys.length == 1 && route.parentTableNames.size() == 1) {
+                /*
+                 * Order the local columns by the name of the parent column
+                 * they reference so the hash matches the parent's key
+                 */
+                Map<String, String> localByForeign = new HashMap<String, String>();
+                for (Reference reference : foreignKeys[0].getReferences()) {
+                    localByForeign.put(reference.getForeignColumnName().toLowerCase(),
+                            reference.getLocalColumnName());
+                }
+                keyNames = new ArrayList<String>(localByForeign.keySet());
+                Collections.sort(keyNames);
+                localNames = new ArrayList<String>(keyNames.size());
+                for (String keyName : keyNames) {
+                    localNames.add(localByForeign.get(keyName));
+                }
+                route.parentTableName = route.parentTableNames.iterator().next();
+            }
+        }
+
+        if (localNames != null) {
+            route.keyNames = keyNames;
+            route.columnIndexes = new int[localNames.size()];
+            if (route.parentTableName == null) {
+                route.pkIndexes = new int[localNames.size()];
+            }
+            for (int i = 0; i < localNames.size() && !route.serial; i++) {
+                route.columnIndexes[i] = sourceTable.getColumnIndex(localNames.get(i));
+                route.serial = route.columnIndexes[i] < 0;
+                if (route.pkIndexes != null) {
+                    route.pkIndexes[i] = sourceTable.getPrimaryKeyColumnIndex(localNames.get(i));
+                    if (route.pkIndexes[i] < 0) {
+                        route.pkIndexes = null;
+                    }
+                }
+            }
+        } else {
+            route.serial = true;
+        }
+        return route;
+    }
+
+    protected void addStatistics(Statistics statistics) {
+        if (statistics != null) {
+            this.statistics.get(batch).add(statistics);
+        }
+    }
+
+    /**
+     * Create the writer for one of the extra lanes. It is given its own
+     * {@link DataContext} and is opened and started with the batch. It must
+     * not commit until it is told to. It runs on another thread, so it needs
+     * a conflict resolver that doesn't share state with this writer, such as
+     * a transform writer.
+     */
+    protected DefaultDatabaseWriter createWorkerWriter() {
+        return new WorkerDatabaseWriter(platform, conflictResolver, writerSettings);
+    }
+
+    /**
+     * Copy the entries a lane needs from the context of the batch. Only
+     * simple values are copied by default because the lanes run on their own
+     * threads.
+     */
+    protected void initWorkerContext(DataContext context, DataContext workerContext) {
+        for (Map.Entry<String, Object> entry : context.getContext().entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String || value instanceof Number || value instanceof Boolean) {
+                workerContext.put(entry.getKey(), value);
+            }
+        }
+    }
+
+    protected boolean isParallelApplyEnabled(Batch batch) {
+        List<ResolvedData> resolvedData = writerSettings.getResolvedData();
+        return resolvedData == null || resolvedData.isEmpty();
+    }
+
+    protected boolean isParallelApplyEnabled(Table table) {
+        return true;
+    }
+
+    /**
+     * Called when a batch that was split across lanes is rolled back.
+     */
+    protected void parallelApplyFailed(Batch batch) {
+    }
+
+    /**
+     * A {@link DefaultDatabaseWriter} that leaves the commit to the end of
+     * the batch.
+     */
+    public static class WorkerDatabaseWriter extends DefaultDatabaseWriter {
+
+        public WorkerDatabaseWriter(IDatabasePlatform platform,
+                IDatabaseWriterConflictResolver conflictResolver, DatabaseWriterSettings settings) {
+            super(platform, conflictResolver, settings);
+        }
+
+        @Override
+        protected void checkForEarlyCommit() {
+        }
+
+    }
+
+    /**
+     * What a lane is told to do besides applying a row.
+     */
+    protected enum Step {
+        PREPARE, END, ROLLBACK
+    }
+
+    static class WorkerContext extends DataContext {
+
+        public WorkerContext(Batch batch, IDataWriter writer, IDataReader reader) {
+            super(batch);
+            setWriter(writer);
+            setReader(reader);
+        }
+
+    }
+
+    /**
+     * How the rows of one table are assigned to lanes.
+     */
+    protected class Route {
+
+        String tableName;
+
+        Table workerTable;
+
+        Set<String> parentTableNames = new HashSet<String>();
+
+        String parentTableName;
+
+        List<String> keyNames;
+
+        int[] columnIndexes;
+
+        int[] pkIndexes;
+
+        boolean serial;
+
+        Route(String tableName, Table workerTable) {
+            this.tableName = tableName;
+            this.workerTable = workerTable;
+        }
+
+        boolean isAlignedWith(Route parent) {
+            if (serial || parent.serial) {
+                return serial && parent.serial;
+            } else {
+                return parent.tableName.equals(parentTableName) && parent.parentTableName == null
+                        && parent.keyNames.equals(keyNames);
+            }
+        }
+
+        /**
+         * @return the lane for the row, or -1 if the row can't be assigned to
+         *         a lane
+         */
+        int getLane(CsvData data) {
+            if (serial) {
+                return 0;
+            }
+            String[] newKey = getKey(data, CsvData.ROW_DATA);
+            String[] oldKey = getKey(data, CsvData.PK_DATA);
+            if (oldKey == null) {
+                oldKey = getKey(data, CsvData.OLD_DATA);
+            }
+            switch (data.getDataEventType()) {
+                case INSERT:
+                    return newKey == null ? -1 : getLane(newKey);
+                case UPDATE:
+                    if (oldKey == null) {
+                        return newKey == null ? -1 : getLane(newKey);
+                    }
+                    int lane = getLane(oldKey);
+                    return newKey == null || getLane(newKey) == lane ? lane : -1;
+                case DELETE:
+                    return oldKey == null ? -1 : getLane(oldKey);
+                default:
+                    return -1;
+            }
+        }
+
+        int getLane(String[] key) {
+            return (Arrays.hashCode(key) & Integer.MAX_VALUE) % threadCount;
+        }
+
+        String[] getKey(CsvData data, String dataType) {
+            int[] indexes = dataType.equals(CsvData.PK_DATA) ? pkIndexes : columnIndexes;
+            String[] values = indexes == null ? null : data.getParsedData(dataType);
+            if (values == null) {
+                return null;
+            }
+            String[] key = new String[indexes.length];
+            for (int i = 0; i < indexes.length; i++) {
+                if (indexes[i] >= values.length) {
+                    return null;
+                }
+                key[i] = values[indexes[i]];
+            }
+            return key;
+        }
+
+    }
+
+    /**
+     * Applies the rows of one lane on a thread of the executor. Rows and the
+     * steps of the commit are handed to it through a bounded queue.
+     */
+    protected class Worker implements Runnable {
+
+        int lane;
+
+        DefaultDatabaseWriter writer;
+
+        DataContext workerContext;
+
+        BlockingQueue<Object[]> queue = new ArrayBlockingQueue<Object[]>(QUEUE_SIZE);
+
+        CountDownLatch finished = new CountDownLatch(1);
+
+        volatile Thread thread;
+
+        boolean submitted;
+
+        long rowCount;
+
+        boolean finishing;
+
+        Table currentTable;
+
+        Map<Table, Table> tables = new IdentityHashMap<Table, Table>();
+
+        volatile Throwable error;
+
+        volatile Table failedTable;
+
+        volatile CsvData failedData;
+
+        volatile String failedCurData;
+
+        Worker(int lane, DefaultDatabaseWriter writer) {
+            this.lane = lane;
+            this.writer = writer;
+        }
+
+        void open() {
+            workerContext = new WorkerContext(batch, writer, context.getReader());
+            initWorkerContext(context, workerContext);
+            writer.open(workerContext);
+            writer.start(batch);
+        }
+
+        void submit(ExecutorService executor) {
+            executor.execute(this);
+            submitted = true;
+        }
+
+        void enqueue(Object[] item) {
+            long ts = System.currentTimeMillis();
+            try {
+                while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                    if (waitTimeoutMs > 0 && System.currentTimeMillis() - ts > waitTimeoutMs) {
+                        throw new ParallelApplyException(String.format(
+                                "Timed out after %d ms waiting for lane %d of batch %s to accept more rows",
+                                waitTimeoutMs, lane, batch.getNodeBatchId()));
+                    }
+                }
+            } catch (InterruptedException ex) {
+                throw new ParallelApplyException(String.format(
+                        "Interrupted while handing rows to lane %d of batch %s", lane,
+                        batch.getNodeBatchId()), ex);
+            }
+        }
+
+        void finish(boolean commit) {
+            if (submitted && Thread.currentThread() != thread) {
+                finishing = true;
+                enqueue(new Object[] { commit ? Step.END : Step.ROLLBACK });
+                await(finished, commit ? "commit" : "roll back");
+                addStatistics(writer.getStatistics().get(batch));
+                return;
+            }
+
+            try {
+                endTable();
+                writer.end(batch, !commit);
+            } catch (Throwable ex) {
+                if (error == null) {
+                    error = ex;
+                }
+            } finally {
+                try {
+                    writer.close();
+                } catch (Throwable ex) {
+                    log.warn("Failed to close lane " + lane + " of batch " + batch.getNodeBatchId(), ex);
+                }
+                finished.countDown();
+            }
+        }
+
+        public void run() {
+            thread = Thread.currentThread();
+            String threadName = thread.getName();
+            thread.setName(String.format("%s-lane-%d", batch.getNodeBatchId(), lane));
+            boolean done = false;
+            try {
+                while (!done) {
+                    Object[] item = queue.take();
+                    if (item[0] instanceof Table) {
+                        if (error == null && !aborted) {
+                            write((Table) item[0], (CsvData) item[1]);
+                        }
+                    } else {
+                        CountDownLatch latch = item.length > 1 ? (CountDownLatch) item[1] : null;
+                        try {
+                            switch ((Step) item[0]) {
+                                case PREPARE:
+                                    endTable();
+                                    break;
+                                case END:
+                                    finish(true);
+                                    done = true;
+                                    break;
+                                default:
+                                    finish(false);
+                                    done = true;
+                                    break;
+                            }
+                        } finally {
+                            if (latch != null) {
+                                latch.countDown();
+                            }
+                        }
+                    }
+                }
+            } catch (InterruptedException ex) {
+                error = ex;
+            } finally {
+                if (!done) {
+                    finish(false);
+                }
+                thread.setName(threadName);
+            }
+        }
+
+        void write(Table table, CsvData data) {
+            try {
+                if (table != currentTable) {
+                    endTable();
+                    /*
+                     * The writer updates the column types of the table it is
+                     * started with, so each lane works on its own copy
+                     */
+                    Table laneTable = tables.get(table);
+                    if (laneTable == null) {
+                        laneTable = table.copy();
+                        tables.put(table, laneTable);
+                    }
+                    writer.start(laneTable);
+                    currentTable = table;
+                }
+                writer.write(data);
+            } catch (Throwable ex) {
+                failedTable = table;
+                failedData = data;
+                failedCurData = (String) workerContext.get(CUR_DATA);
+                error = ex;
+            }
+        }
+
+        void endTable() {
+            if (currentTable != null) {
+                try {
+                    writer.end(tables.get(currentTable));
+                } catch (Throwable ex) {
+                    if (error == null) {
+                        error = ex;
+                    }
+                }
+                currentTable = null;
+            }
+        }
+
+    }
+
+}
@@ -21,11 +21,11 @@
 package org.jumpmind.symmetric.io.data.writer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.jumpmind.db.model.Table;
@@ -62,6 +62,8 @@ public class TransformWriter extends NestedDataWriter {
     protected Batch batch;
     protected Map<String, IColumnTransform<?>> columnTransforms;
     protected Table lastTransformedTable;
+    protected Map<String, TransformPlan[]> transformPlans = new HashMap<String, TransformPlan[]>();
+    protected TransformPlan[] activePlans;
     
     public TransformWriter(IDatabasePlatform platform, TransformPoint transformPoint,
             IDataWriter targetWriter, Map<String, IColumnTransform<?>> columnTransforms, 
@@ -91,6 +93,20 @@ public class TransformWriter extends NestedDataWriter {
         return transformsByTable;
     }
 
+    /**
+     * Create a writer with the same transforms and no nested writer. It
+     * compiles its own plans, so it can transform rows on another thread
+     * while this writer is in use.
+     */
+    public TransformWriter copy() {
+        List<TransformTable> transforms = new ArrayList<TransformTable>();
+        for (List<TransformTable> tables : transformsBySourceTable.values()) {
+            transforms.addAll(tables);
+        }
+        return new TransformWriter(platform, transformPoint, null, columnTransforms,
+                transforms.toArray(new TransformTable[transforms.size()]));
+    }
+
     @Override
     public void start(Batch batch) {
         this.batch = batch;
@@ -102,13 +118,38 @@ public class TransformWriter extends NestedDataWriter {
         activeTransforms = transformsBySourceTable.get(table.getFullyQualifiedTableName().toLowerCase());
         if (activeTransforms != null && activeTransforms.size() > 0) {
             this.sourceTable = table;
+            this.activePlans = getTransformPlans(table, activeTransforms);
             return true;
         } else {
             this.sourceTable = null;
+            this.activePlans = null;
             return super.start(table);
         }
     }
 
+    /**
+     * Compile the transforms for a source table once, so rows do not need to
+     * add the implied columns, look up column transforms or build the target
+     * table again. The plans are kept for as long as this writer is used,
+     * which is no longer than the transform configuration is.
+     */
+    protected TransformPlan[] getTransformPlans(Table table, List<TransformTable> transforms) {
+        String[] keyNames = table.getPrimaryKeyColumnNames();
+        String[] columnNames = table.getColumnNames();
+        String key = table.getTableKey();
+        TransformPlan[] plans = transformPlans.get(key);
+        if (plans == null || !Arrays.equals(plans[0].sourceKeyNames, keyNames)
+                || !Arrays.equals(plans[0].sourceColumnNames, columnNames)) {
+            plans = new TransformPlan[transforms.size()];
+            for (int i = 0; i < plans.length; i++) {
+                plans[i] = new TransformPlan(transforms.get(i).enhanceWithImpliedColumns(
+                        keyNames, columnNames), keyNames, columnNames, columnTransforms);
+            }
+            transformPlans.put(key, plans);
+        }
+        return plans;
+    }
+
     protected boolean isTransformable(DataEventType eventType) {
         return eventType != null
                 && (eventType == DataEventType.INSERT || eventType == DataEventType.UPDATE || eventType == DataEventType.DELETE);
@@ -125,12 +166,13 @@ public class TransformWriter extends NestedDataWriter {
             }
 
             long ts = System.currentTimeMillis();
-            Map<String, String> sourceValues = data.toColumnNameValuePairs(this.sourceTable.getColumnNames(),
+            String[] sourceColumnNames = activePlans[0].sourceColumnNames;
+            Map<String, String> sourceValues = data.toColumnNameValuePairs(sourceColumnNames,
                     CsvData.ROW_DATA);
             
             Map<String, String> oldSourceValues = null;
             if (data.contains(CsvData.OLD_DATA)) {
-                oldSourceValues = data.toColumnNameValuePairs(this.sourceTable.getColumnNames(),
+                oldSourceValues = data.toColumnNameValuePairs(sourceColumnNames,
                         CsvData.OLD_DATA);
             }
             
@@ -155,28 +197,30 @@ public class TransformWriter extends NestedDataWriter {
             }
 
             List<TransformedData> dataThatHasBeenTransformed = new ArrayList<TransformedData>();
-            TransformTable[] transformTables = activeTransforms.toArray(new TransformTable[activeTransforms.size()]);
-            if (eventType == DataEventType.DELETE) {
-                CollectionUtils.reverseArray(transformTables);
-            }
-
-            for (TransformTable transformation : transformTables) {
-                transformation = transformation.enhanceWithImpliedColumns(
-                        this.sourceTable.getPrimaryKeyColumnNames(),
-                        this.sourceTable.getColumnNames());
-                if (eventType == DataEventType.INSERT && transformation.isUpdateFirst()) {
+            List<TransformPlan> plansThatTransformed = new ArrayList<TransformPlan>();
+            boolean reverse = eventType == DataEventType.DELETE;
+            for (int i = 0; i < activePlans.length; i++) {
+                TransformPlan plan = activePlans[reverse ? activePlans.length - i - 1 : i];
+                if (eventType == DataEventType.INSERT && plan.transformation.isUpdateFirst()) {
                     eventType = DataEventType.UPDATE;
                 }
-                dataThatHasBeenTransformed.addAll(transform(eventType, context, transformation,
-                        sourceKeyValues, oldSourceValues, sourceValues));
+                List<TransformedData> transformed = transform(eventType, context, plan,
+                        sourceKeyValues, oldSourceValues, sourceValues);
+                for (TransformedData transformedData : transformed) {
+                    dataThatHasBeenTransformed.add(transformedData);
+                    plansThatTransformed.add(plan);
+                }
             }
 
-            for (TransformedData transformedData : dataThatHasBeenTransformed) {
-                Table transformedTable = transformedData.buildTargetTable();
+            for (int i = 0; i < dataThatHasBeenTransformed.size(); i++) {
+                TransformedData transformedData = dataThatHasBeenTransformed.get(i);
+                Table transformedTable = plansThatTransformed.get(i).getTargetTable(transformedData);
                 CsvData csvData = transformedData.buildTargetCsvData();
                 long transformTimeInMs = System.currentTimeMillis() - ts;
                 boolean processData = true;
-                if (lastTransformedTable == null || !lastTransformedTable.equals(transformedTable)) {
+                if (lastTransformedTable == null
+                        || (lastTransformedTable != transformedTable && !lastTransformedTable
+                                .equals(transformedTable))) {
                     if (lastTransformedTable != null) {
                         this.nestedWriter.end(lastTransformedTable);
                     }
@@ -212,8 +256,28 @@ public class TransformWriter extends NestedDataWriter {
     protected List<TransformedData> transform(DataEventType eventType, DataContext context,
             TransformTable transformation, Map<String, String> sourceKeyValues,
             Map<String, String> oldSourceValues, Map<String, String> sourceValues) {
+        TransformPlan plan = null;
+        if (activePlans != null) {
+            for (TransformPlan activePlan : activePlans) {
+                if (activePlan.transformation == transformation) {
+                    plan = activePlan;
+                    break;
+                }
+            }
+        }
+        if (plan == null) {
+            plan = new TransformPlan(transformation, null, null, columnTransforms);
+        }
+        return transform(eventType, context, plan, sourceKeyValues, oldSourceValues,
+                sourceValues);
+    }
+
+    protected List<TransformedData> transform(DataEventType eventType, DataContext context,
+            TransformPlan plan, Map<String, String> sourceKeyValues,
+            Map<String, String> oldSourceValues, Map<String, String> sourceValues) {
+        TransformTable transformation = plan.transformation;
         try {
-            List<TransformedData> dataToTransform = create(context, eventType, transformation,
+            List<TransformedData> dataToTransform = create(context, eventType, plan,
                     sourceKeyValues, oldSourceValues, sourceValues);
             List<TransformedData> dataThatHasBeenTransformed = new ArrayList<TransformedData>(
                     dataToTransform.size());
@@ -226,7 +290,7 @@ public class TransformWriter extends NestedDataWriter {
             int transformNumber = 0;
             for (TransformedData targetData : dataToTransform) {
                 transformNumber++;
-                if (perform(context, targetData, transformation, sourceValues, oldSourceValues)) {
+                if (perform(context, targetData, plan, sourceValues, oldSourceValues)) {
                     if (log.isDebugEnabled()) {
                         log.debug(
                                 "Data has been transformed to a {} for the #{} transform.  The mapped target columns are: {}. The mapped target values are: {}",
@@ -255,59 +319,55 @@ public class TransformWriter extends NestedDataWriter {
     }
 
     protected boolean perform(DataContext context, TransformedData data,
-            TransformTable transformation, Map<String, String> sourceValues,
+            TransformPlan plan, Map<String, String> sourceValues,
             Map<String, String> oldSourceValues) throws IgnoreRowException {
         boolean persistData = false;
+        TransformTable transformation = plan.transformation;
         try {
             DataEventType eventType = data.getSourceDmlType();
-            for (TransformColumn transformColumn : transformation.getTransformColumns()) {
-                if (!transformColumn.isPk()) {
-                    IncludeOnType includeOn = transformColumn.getIncludeOn();
-                    if (includeOn == IncludeOnType.ALL
-                            || (includeOn == IncludeOnType.INSERT && eventType == DataEventType.INSERT)
-                            || (includeOn == IncludeOnType.UPDATE && eventType == DataEventType.UPDATE)
-                            || (includeOn == IncludeOnType.DELETE && eventType == DataEventType.DELETE)) {
-                        if (StringUtils.isBlank(transformColumn.getSourceColumnName())
-                                || sourceValues.containsKey(transformColumn.getSourceColumnName())) {
-                            try {
-                                Object value = transformColumn(context, data, transformColumn,
-                                        sourceValues, oldSourceValues);
-                                if (value instanceof NewAndOldValue) {
-                                    data.put(transformColumn,
-                                            ((NewAndOldValue) value).getNewValue(),
-                                            oldSourceValues != null ? ((NewAndOldValue) value).getOldValue() : null, false);
-                                } else if (value == null || value instanceof String) {
-                                    data.put(transformColumn, (String) value, null, false);
-                                } else if (value instanceof List) {
-                                    throw new IllegalStateException(String.format("Column transform failed %s.%s. Transforms that multiply rows must be marked as part of the primary key", 
-                                            transformColumn.getTransformId(), transformColumn.getTargetColumnName()));                                    
-                                } else {                                    
-                                    throw new IllegalStateException(String.format("Column transform failed %s.%s. It returned an unexpected type of %s", 
-                                            transformColumn.getTransformId(), transformColumn.getTargetColumnName(), 
-                                            value.getClass().getSimpleName()));
-                                }
-                            } catch (IgnoreColumnException e) {
-                                // Do nothing. We are ignoring the column
-                                if (log.isDebugEnabled()) {
-                                    log.debug(
-                                            "A transform indicated we should ignore the target column {}",
-                                            transformColumn.getTargetColumnName());
-                                }
-                            }
-                        } else {
-                            if (eventType != DataEventType.DELETE) {
-                                log.warn(
-                                        "Could not find a source column of {} for the transformation: {}",
-                                        transformColumn.getSourceColumnName(),
-                                        transformation.getTransformId());
-                            } else {
-                                log.debug(
-                                        "Could not find a source column of {} for the transformation: {}.  This is probably because this was a DELETE event and no old data was captured.",
-                                        transformColumn.getSourceColumnName(),
-                                        transformation.getTransformId());
-                            }
+            TransformColumn[] transformColumns = plan.getColumns(eventType);
+            IColumnTransform<?>[] transforms = plan.getColumnTransforms(eventType);
+            for (int i = 0; i < transformColumns.length; i++) {
+                TransformColumn transformColumn = transformColumns[i];
+                if (StringUtils.isBlank(transformColumn.getSourceColumnName())
+                        || sourceValues.containsKey(transformColumn.getSourceColumnName())) {
+                    try {
+                        Object value = transformColumn(context, data, transformColumn,
+                                transforms[i], sourceValues, oldSourceValues);
+                        if (value instanceof NewAndOldValue) {
+                            data.put(transformColumn,
+                                    ((NewAndOldValue) value).getNewValue(),
+                                    oldSourceValues != null ? ((NewAndOldValue) value).getOldValue() : null, false);
+                        } else if (value == null || value instanceof String) {
+                            data.put(transformColumn, (String) value, null, false);
+                        } else if (value instanceof List) {
+                            throw new IllegalStateException(String.format("Column transform failed %s.%s. Transforms that multiply rows must be marked as part of the primary key", 
+                                    transformColumn.getTransformId(), transformColumn.getTargetColumnName()));                                    
+                        } else {                                    
+                            throw new IllegalStateException(String.format("Column transform failed %s.%s. It returned an unexpected type of %s", 
+                                    transformColumn.getTransformId(), transformColumn.getTargetColumnName(), 
+                                    value.getClass().getSimpleName()));
+                        }
+                    } catch (IgnoreColumnException e) {
+                        // Do nothing. We are ignoring the column
+                        if (log.isDebugEnabled()) {
+                            log.debug(
+                                    "A transform indicated we should ignore the target column {}",
+                                    transformColumn.getTargetColumnName());
                         }
                     }
+                } else {
+                    if (eventType != DataEventType.DELETE) {
+                        log.warn(
+                                "Could not find a source column of {} for the transformation: {}",
+                                transformColumn.getSourceColumnName(),
+                                transformation.getTransformId());
+                    } else {
+                        log.debug(
+                                "Could not find a source column of {} for the transformation: {}.  This is probably because this was a DELETE event and no old data was captured.",
+                                transformColumn.getSourceColumnName(),
+                                transformation.getTransformId());
+                    }
                 }
             }
 
@@ -350,9 +410,10 @@ public class TransformWriter extends NestedDataWriter {
     }
 
     protected List<TransformedData> create(DataContext context, DataEventType dataEventType,
-            TransformTable transformation, Map<String, String> sourceKeyValues,
+            TransformPlan plan, Map<String, String> sourceKeyValues,
             Map<String, String> oldSourceValues, Map<String, String> sourceValues)
             throws IgnoreRowException {
+        TransformTable transformation = plan.transformation;
         List<TransformColumn> columns = transformation.getPrimaryKeyColumns();
         if (columns == null || columns.size() == 0) {
             log.error("No primary key defined for the transformation: {}",
@@ -364,48 +425,45 @@ public class TransformWriter extends NestedDataWriter {
                     sourceKeyValues, oldSourceValues, sourceValues);
             datas.add(data);
             DataEventType eventType = data.getSourceDmlType();
-            for (TransformColumn transformColumn : columns) {
-                IncludeOnType includeOn = transformColumn.getIncludeOn();
-                if (includeOn == IncludeOnType.ALL
-                        || (includeOn == IncludeOnType.INSERT && eventType == DataEventType.INSERT)
-                        || (includeOn == IncludeOnType.UPDATE && eventType == DataEventType.UPDATE)
-                        || (includeOn == IncludeOnType.DELETE && eventType == DataEventType.DELETE)) {
-                    List<TransformedData> newDatas = null;
-                    try {
-                        Object columnValue = transformColumn(context, data, transformColumn,
-                                sourceValues, oldSourceValues);
-                        if (columnValue instanceof List) {
-                            @SuppressWarnings("unchecked")
-                            List<String> values = (List<String>) columnValue;
-                            if (values.size() > 0) {
-                                data.put(transformColumn, values.get(0), oldSourceValues != null ? values.get(0) : null, true);
-                                if (values.size() > 1) {
-                                    if (newDatas == null) {
-                                        newDatas = new ArrayList<TransformedData>(values.size() - 1);
-                                    }
-                                    for (int i = 1; i < values.size(); i++) {
-                                        TransformedData newData = data.copy();
-                                        newData.put(transformColumn, values.get(i), oldSourceValues != null ? values.get(i) : null, true);
-                                        newDatas.add(newData);
-                                    }
+            TransformColumn[] keyColumns = plan.getKeyColumns(eventType);
+            IColumnTransform<?>[] keyTransforms = plan.getKeyColumnTransforms(eventType);
+            for (int k = 0; k < keyColumns.length; k++) {
+                TransformColumn transformColumn = keyColumns[k];
+                List<TransformedData> newDatas = null;
+                try {
+                    Object columnValue = transformColumn(context, data, transformColumn,
+                            keyTransforms[k], sourceValues, oldSourceValues);
+                    if (columnValue instanceof List) {
+                        @SuppressWarnings("unchecked")
+                        List<String> values = (List<String>) columnValue;
+                        if (values.size() > 0) {
+                            data.put(transformColumn, values.get(0), oldSourceValues != null ? values.get(0) : null, true);
+                            if (values.size() > 1) {
+                                if (newDatas == null) {
+                                    newDatas = new ArrayList<TransformedData>(values.size() - 1);
+                                }
+                                for (int i = 1; i < values.size(); i++) {
+                                    TransformedData newData = data.copy();
+                                    newData.put(transformColumn, values.get(i), oldSourceValues != null ? values.get(i) : null, true);
+                                    newDatas.add(newData);
                                 }
-                            } else {
-                                throw new IgnoreRowException();
                             }
-                        } else if (columnValue instanceof NewAndOldValue) {
-                            data.put(transformColumn, ((NewAndOldValue) columnValue).getNewValue(),
-                                    oldSourceValues != null ? ((NewAndOldValue) columnValue).getOldValue() : null, true);
                         } else {
-                            data.put(transformColumn, (String) columnValue, oldSourceValues != null ? (String) columnValue : null, true);                            
+                            throw new IgnoreRowException();
                         }
-                    } catch (IgnoreColumnException e) {
-                        // Do nothing. We are suppose to ignore the column.
+                    } else if (columnValue instanceof NewAndOldValue) {
+                        data.put(transformColumn, ((NewAndOldValue) columnValue).getNewValue(),
+                                oldSourceValues != null ? ((NewAndOldValue) columnValue).getOldValue() : null, true);
+                    } else {
+                        data.put(transformColumn, (String) columnValue, oldSourceValues != null ? (String) columnValue : null, true);                            
                     }
+                } catch (IgnoreColumnException e) {
+                    // Do nothing. We are suppose to ignore the column.
+                }
 
-                    if (newDatas != null) {
-                        datas.addAll(newDatas);
-                        newDatas = null;
-                    }
+                if (newDatas != null) {
+                    datas.addAll(newDatas);
+                    newDatas = null;
                 }
             }
 
@@ -416,12 +474,20 @@ public class TransformWriter extends NestedDataWriter {
     protected Object transformColumn(DataContext context, TransformedData data,
             TransformColumn transformColumn, Map<String, String> sourceValues,
             Map<String, String> oldSourceValues) throws IgnoreRowException, IgnoreColumnException {
+        IColumnTransform<?> transform = columnTransforms != null ? columnTransforms
+                .get(transformColumn.getTransformType()) : null;
+        return transformColumn(context, data, transformColumn, transform, sourceValues,
+                oldSourceValues);
+    }
+
+    protected Object transformColumn(DataContext context, TransformedData data,
+            TransformColumn transformColumn, IColumnTransform<?> transform,
+            Map<String, String> sourceValues, Map<String, String> oldSourceValues)
+            throws IgnoreRowException, IgnoreColumnException {
         Object returnValue = null;
         String value = transformColumn.getSourceColumnName() != null ? sourceValues
                 .get(transformColumn.getSourceColumnName()) : null;
         returnValue = value;
-        IColumnTransform<?> transform = columnTransforms != null ? columnTransforms
-                .get(transformColumn.getTransformType()) : null;
         if (transform != null) {
             try {
                 String oldValue = null;
@@ -447,10 +513,127 @@ public class TransformWriter extends NestedDataWriter {
         }
         if (activeTransforms != null && activeTransforms.size() > 0) {
             activeTransforms = null;
+            activePlans = null;
         } else {
             super.end(table);
         }
 
     }
 
+    /**
+     * A transform table with the implied columns for a source table added,
+     * with its columns sorted by the event types they are included on and with
+     * their column transforms looked up.
+     */
+    protected static class TransformPlan {
+
+        final TransformTable transformation;
+
+        final String[] sourceKeyNames;
+
+        final String[] sourceColumnNames;
+
+        final TransformColumn[][] keyColumns = new TransformColumn[3][];
+
+        final IColumnTransform<?>[][] keyColumnTransforms = new IColumnTransform<?>[3][];
+
+        final TransformColumn[][] columns = new TransformColumn[3][];
+
+        final IColumnTransform<?>[][] columnTransforms = new IColumnTransform<?>[3][];
+
+        Table targetTable;
+
+        String[] targetColumnNames;
+
+        String[] targetKeyNames;
+
+        TransformPlan(TransformTable transformation, String[] sourceKeyNames,
+                String[] sourceColumnNames, Map<String, IColumnTransform<?>> transforms) {
+            this.transformation = transformation;
+            this.sourceKeyNames = sourceKeyNames;
+            this.sourceColumnNames = sourceColumnNames;
+            DataEventType[] eventTypes = { DataEventType.INSERT, DataEventType.UPDATE,
+                    DataEventType.DELETE };
+            for (DataEventType eventType : eventTypes) {
+                int index = index(eventType);
+                List<TransformColumn> keys = new ArrayList<TransformColumn>();
+                for (TransformColumn column : transformation.getPrimaryKeyColumns()) {
+                    if (isIncludedOn(column, eventType)) {
+                        keys.add(column);
+                    }
+                }
+                List<TransformColumn> nonKeys = new ArrayList<TransformColumn>();
+                for (TransformColumn column : transformation.getTransformColumns()) {
+                    if (!column.isPk() && isIncludedOn(column, eventType)) {
+                        nonKeys.add(column);
+                    }
+                }
+                keyColumns[index] = keys.toArray(new TransformColumn[keys.size()]);
+                keyColumnTransforms[index] = lookup(keyColumns[index], transforms);
+                columns[index] = nonKeys.toArray(new TransformColumn[nonKeys.size()]);
+                columnTransforms[index] = lookup(columns[index], transforms);
+            }
+        }
+
+        static boolean isIncludedOn(TransformColumn column, DataEventType eventType) {
+            IncludeOnType includeOn = column.getIncludeOn();
+            return includeOn == IncludeOnType.ALL
+                    || (includeOn == IncludeOnType.INSERT && eventType == DataEventType.INSERT)
+                    || (includeOn == IncludeOnType.UPDATE && eventType == DataEventType.UPDATE)
+                    || (includeOn == IncludeOnType.DELETE && eventType == DataEventType.DELETE);
+        }
+
+        static IColumnTransform<?>[] lookup(TransformColumn[] columns,
+                Map<String, IColumnTransform<?>> transforms) {
+            IColumnTransform<?>[] lookedUp = new IColumnTransform<?>[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                lookedUp[i] = transforms != null ? transforms.get(columns[i].getTransformType())
+                        : null;
+            }
+            return lookedUp;
+        }
+
+        static int index(DataEventType eventType) {
+            if (eventType == DataEventType.INSERT) {
+                return 0;
+            } else if (eventType == DataEventType.UPDATE) {
+                return 1;
+            } else {
+                return 2;
+            }
+        }
+
+        TransformColumn[] getKeyColumns(DataEventType eventType) {
+            return keyColumns[index(eventType)];
+        }
+
+        IColumnTransform<?>[] getKeyColumnTransforms(DataEventType eventType) {
+            return keyColumnTransforms[index(eventType)];
+        }
+
+        TransformColumn[] getColumns(DataEventType eventType) {
+            return columns[index(eventType)];
+        }
+
+        IColumnTransform<?>[] getColumnTransforms(DataEventType eventType) {
+            return columnTransforms[index(eventType)];
+        }
+
+        /**
+         * @return the target table for the transformed data, which is the same
+         *         object as long as the transformed data has the same columns
+         */
+        Table getTargetTable(TransformedData data) {
+            String[] columnNames = data.getColumnNames();
+            String[] keyNames = data.getKeyNames();
+            if (targetTable == null || !Arrays.equals(columnNames, targetColumnNames)
+                    || !Arrays.equals(keyNames, targetKeyNames)) {
+                targetTable = data.buildTargetTable();
+                targetColumnNames = columnNames;
+                targetKeyNames = keyNames;
+            }
+            return targetTable;
+        }
+    }
+
 }
@@ -0,0 +1,72 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.io.stage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stages content in the gzip format using the configured deflate level. This
+ * is the same format the http transport uses, so a staged file can be sent as
+ * is when compression is enabled on the transport.
+ */
+public class DeflateStagingCodec implements IStagingCodec {
+
+    public static final String NAME = "deflate";
+
+    private int level;
+
+    public DeflateStagingCodec() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    public DeflateStagingCodec(int level) {
+        this.level = level;
+    }
+
+    public String getName() {
+        return NAME;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public boolean isCompressed(byte[] header, int length) {
+        return length >= 2 && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b;
+    }
+
+    public OutputStream compress(OutputStream out) throws IOException {
+        return new GZIPOutputStream(out, 8192) {
+            {
+                this.def.setLevel(level);
+            }
+        };
+    }
+
+    public InputStream decompress(InputStream in) throws IOException {
+        return new MultiMemberGZIPInputStream(in);
+    }
+
+}
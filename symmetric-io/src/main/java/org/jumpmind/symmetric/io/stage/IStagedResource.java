@@ -44,6 +44,15 @@ public interface IStagedResource {
     public OutputStream getOutputStream();
 
     public InputStream getInputStream();    
+
+    /**
+     * Copy the content of the resource to the passed in stream as bytes,
+     * without decoding it to characters. Uncompressed files are transferred
+     * using their file channel.
+     * 
+     * @return the number of bytes written
+     */
+    public long transferTo(OutputStream out);
     
     public File getFile();
     
@@ -69,4 +78,38 @@ public interface IStagedResource {
     
     public boolean isInUse();
 
+    /**
+     * Set the number of consumers that still need this resource. A resource
+     * with references is not cleaned from staging, even if it is old, until
+     * the hold time has passed.
+     */
+    public void reference(int referenceCount, long holdTimeInMs);
+
+    /**
+     * Set the number of consumers that still need this resource without
+     * changing how long it is held.
+     */
+    public void setReferenceCount(int referenceCount);
+
+    /**
+     * @return the number of references that remain
+     */
+    public int dereference();
+
+    public int getReferenceCount();
+
+    /**
+     * @return true if the resource has references and its hold time has not
+     *         passed
+     */
+    public boolean isReferenced();
+
+    /**
+     * @return the codec the staged file was compressed with, or null if the
+     *         resource is held in memory or the file is not compressed. The
+     *         readers and input streams of a resource always return
+     *         decompressed content.
+     */
+    public IStagingCodec getCodec();
+
 }
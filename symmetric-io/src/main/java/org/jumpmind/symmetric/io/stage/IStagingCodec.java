@@ -0,0 +1,46 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.io.stage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compresses the content of staged resources. Each codec writes a distinct
+ * header so that a staged file can be read back without knowing which codec,
+ * if any, was configured when it was written.
+ */
+public interface IStagingCodec {
+
+    public String getName();
+
+    /**
+     * @return true if the passed in leading bytes of a file were written by
+     *         this codec
+     */
+    public boolean isCompressed(byte[] header, int length);
+
+    public OutputStream compress(OutputStream out) throws IOException;
+
+    public InputStream decompress(InputStream in) throws IOException;
+
+}
@@ -0,0 +1,378 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.io.stage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A fast LZ77 style codec written in Java. Content is compressed in
+ * independent blocks of up to 64k. Each block is encoded as a series of
+ * sequences made up of a run of literal bytes followed by a back reference
+ * into the block. It compresses less than deflate, but costs much less CPU,
+ * which suits the repetitive CSV text of staged batches.
+ */
+public class LzStagingCodec implements IStagingCodec {
+
+    public static final String NAME = "lz";
+
+    static final byte[] MAGIC = new byte[] { 'S', 'Y', 'L', 'Z' };
+
+    static final int BLOCK_SIZE = 65536;
+
+    static final int MIN_MATCH = 4;
+
+    static final int HASH_BITS = 14;
+
+    public String getName() {
+        return NAME;
+    }
+
+    public boolean isCompressed(byte[] header, int length) {
+        if (length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public OutputStream compress(OutputStream out) throws IOException {
+        return new LzOutputStream(out);
+    }
+
+    public InputStream decompress(InputStream in) throws IOException {
+        return new LzInputStream(in);
+    }
+
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8)
+                | ((buffer[offset + 2] & 0xff) << 16) | ((buffer[offset + 3] & 0xff) << 24);
+    }
+
+    static int hash(int value) {
+        return (value * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+    static int writeLength(byte[] dest, int destOffset, int length) {
+        while (length >= 255) {
+            dest[destOffset++] = (byte) 255;
+            length -= 255;
+        }
+        dest[destOffset++] = (byte) length;
+        return destOffset;
+    }
+
+    static int writeLiterals(byte[] src, int srcOffset, int length, byte[] dest, int destOffset,
+            int token) {
+        if (length >= 15) {
+            dest[destOffset++] = (byte) (0xf0 | token);
+            destOffset = writeLength(dest, destOffset, length - 15);
+        } else {
+            dest[destOffset++] = (byte) ((length << 4) | token);
+        }
+        System.arraycopy(src, srcOffset, dest, destOffset, length);
+        return destOffset + length;
+    }
+
+    /**
+     * Compress a block of no more than {@link #BLOCK_SIZE} bytes.
+     * 
+     * @param table
+     *            a work area of 2^{@link #HASH_BITS} entries
+     * @return the number of bytes written to dest, which must be at least
+     *         {@link #maxCompressedLength(int)} long
+     */
+    static int compressBlock(byte[] src, int length, byte[] dest, int[] table) {
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int position = 0;
+        int destOffset = 0;
+        int limit = length - MIN_MATCH;
+        while (position <= limit) {
+            int value = readInt(src, position);
+            int index = hash(value);
+            int reference = table[index];
+            table[index] = position;
+            if (reference >= 0 && readInt(src, reference) == value) {
+                int matchLength = MIN_MATCH;
+                while (position + matchLength < length
+                        && src[reference + matchLength] == src[position + matchLength]) {
+                    matchLength++;
+                }
+
+                int extra = matchLength - MIN_MATCH;
+                destOffset = writeLiterals(src, anchor, position - anchor, dest, destOffset,
+                        extra >= 15 ? 15 : extra);
+                int offset = position - reference;
+                dest[destOffset++] = (byte) offset;
+                dest[destOffset++] = (byte) (offset >>> 8);
+                if (extra >= 15) {
+                    destOffset = writeLength(dest, destOffset, extra - 15);
+                }
+
+                position += matchLength;
+                anchor = position;
+            } else {
+                position++;
+            }
+        }
+        return writeLiterals(src, anchor, length - anchor, dest, destOffset, 0);
+    }
+
+    /**
+     * @return the number of bytes written to dest
+     */
+    static int decompressBlock(byte[] src, int length, byte[] dest, int expectedLength)
+            throws IOException {
+        int srcOffset = 0;
+        int destOffset = 0;
+        try {
+            while (srcOffset < length) {
+                int token = src[srcOffset++] & 0xff;
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int value = 255;
+                    while (value == 255) {
+                        value = src[srcOffset++] & 0xff;
+                        literalLength += value;
+                    }
+                }
+                System.arraycopy(src, srcOffset, dest, destOffset, literalLength);
+                srcOffset += literalLength;
+                destOffset += literalLength;
+                if (srcOffset >= length) {
+                    break;
+                }
+
+                int offset = (src[srcOffset++] & 0xff) | ((src[srcOffset++] & 0xff) << 8);
+                int matchLength = token & 0x0f;
+                if (matchLength == 15) {
+                    int value = 255;
+                    while (value == 255) {
+                        value = src[srcOffset++] & 0xff;
+                        matchLength += value;
+                    }
+                }
+                matchLength += MIN_MATCH;
+
+                int reference = destOffset - offset;
+                if (offset == 0 || reference < 0 || destOffset + matchLength > expectedLength) {
+                    throw new IOException("Corrupt lz block.  Found an invalid back reference");
+                }
+                for (int i = 0; i < matchLength; i++) {
+                    dest[destOffset++] = dest[reference++];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            throw new IOException("Corrupt lz block.  It ended unexpectedly");
+        }
+
+        if (destOffset != expectedLength) {
+            throw new IOException(String.format(
+                    "Corrupt lz block.  Expected %d bytes, but found %d", expectedLength,
+                    destOffset));
+        }
+        return destOffset;
+    }
+
+    static class LzOutputStream extends OutputStream {
+
+        private DataOutputStream out;
+
+        private byte[] buffer = new byte[BLOCK_SIZE];
+
+        private byte[] compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+
+        private int[] table = new int[1 << HASH_BITS];
+
+        private int length;
+
+        private boolean closed;
+
+        LzOutputStream(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.out.write(MAGIC);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (length == buffer.length) {
+                writeBlock();
+            }
+            buffer[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (length == buffer.length) {
+                    writeBlock();
+                }
+                int count = Math.min(len, buffer.length - length);
+                System.arraycopy(b, off, buffer, length, count);
+                length += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        /**
+         * Flushes the underlying stream without ending the current block, so
+         * that frequent flushes do not hurt the compression ratio
+         */
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                try {
+                    writeBlock();
+                    out.writeInt(0);
+                    out.flush();
+                } finally {
+                    out.close();
+                }
+            }
+        }
+
+        protected void writeBlock() throws IOException {
+            if (length > 0) {
+                int compressedLength = compressBlock(buffer, length, compressed, table);
+                out.writeInt(length);
+                if (compressedLength < length) {
+                    out.writeInt(compressedLength);
+                    out.write(compressed, 0, compressedLength);
+                } else {
+                    /* store blocks that do not compress */
+                    out.writeInt(length);
+                    out.write(buffer, 0, length);
+                }
+                length = 0;
+            }
+        }
+    }
+
+    static class LzInputStream extends InputStream {
+
+        private DataInputStream in;
+
+        private byte[] buffer = new byte[BLOCK_SIZE];
+
+        private byte[] compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+
+        private int offset;
+
+        private int length;
+
+        private boolean eof;
+
+        LzInputStream(InputStream in) throws IOException {
+            this.in = new DataInputStream(in);
+            byte[] header = new byte[MAGIC.length];
+            this.in.readFully(header);
+            if (!Arrays.equals(header, MAGIC)) {
+                throw new IOException("Not in lz format");
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (offset >= length && !readBlock()) {
+                return -1;
+            }
+            return buffer[offset++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            } else if (offset >= length && !readBlock()) {
+                return -1;
+            }
+            int count = Math.min(len, length - offset);
+            System.arraycopy(buffer, offset, b, off, count);
+            offset += count;
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return length - offset;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        protected boolean readBlock() throws IOException {
+            while (!eof) {
+                int blockLength = 0;
+                int compressedLength = 0;
+                try {
+                    blockLength = in.readInt();
+                    if (blockLength == 0) {
+                        eof = true;
+                        break;
+                    }
+                    compressedLength = in.readInt();
+                } catch (EOFException ex) {
+                    throw new EOFException("Unexpected end of lz input stream");
+                }
+
+                if (blockLength < 0 || blockLength > BLOCK_SIZE || compressedLength < 0
+                        || compressedLength > blockLength) {
+                    throw new IOException("Corrupt lz block header");
+                }
+
+                if (compressedLength == blockLength) {
+                    in.readFully(buffer, 0, blockLength);
+                } else {
+                    in.readFully(compressed, 0, compressedLength);
+                    decompressBlock(compressed, compressedLength, buffer, blockLength);
+                }
+                offset = 0;
+                length = blockLength;
+                return true;
+            }
+            return false;
+        }
+    }
+
+}
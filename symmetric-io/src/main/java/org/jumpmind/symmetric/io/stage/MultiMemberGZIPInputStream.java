@@ -0,0 +1,212 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.io.stage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads a stream made up of one or more concatenated gzip members. Unlike
+ * {@link java.util.zip.GZIPInputStream}, the next member is always looked for
+ * by reading from the underlying stream, so members that arrive separately
+ * over the network are not mistaken for the end of the stream.
+ */
+public class MultiMemberGZIPInputStream extends InputStream {
+
+    private static final int FHCRC = 2;
+
+    private static final int FEXTRA = 4;
+
+    private static final int FNAME = 8;
+
+    private static final int FCOMMENT = 16;
+
+    private InputStream in;
+
+    private Inflater inflater = new Inflater(true);
+
+    private CRC32 crc = new CRC32();
+
+    private byte[] buffer = new byte[8192];
+
+    private int bufferOffset;
+
+    private int bufferLength;
+
+    private byte[] single = new byte[1];
+
+    private boolean inMember;
+
+    private boolean eof;
+
+    private boolean closed;
+
+    public MultiMemberGZIPInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        } else if (len == 0) {
+            return 0;
+        }
+
+        while (!eof) {
+            if (!inMember) {
+                if (readHeader()) {
+                    inflater.reset();
+                    crc.reset();
+                    inMember = true;
+                } else {
+                    eof = true;
+                    break;
+                }
+            }
+
+            int count = 0;
+            try {
+                count = inflater.inflate(b, off, len);
+            } catch (DataFormatException ex) {
+                throw new ZipException(ex.getMessage());
+            }
+
+            if (count > 0) {
+                crc.update(b, off, count);
+                return count;
+            } else if (inflater.finished()) {
+                bufferOffset = bufferLength - inflater.getRemaining();
+                readTrailer();
+                inMember = false;
+            } else if (inflater.needsDictionary()) {
+                throw new ZipException("A gzip member cannot use a preset dictionary");
+            } else if (inflater.needsInput()) {
+                if (bufferOffset >= bufferLength && !fill()) {
+                    throw new EOFException("Unexpected end of gzip input stream");
+                }
+                inflater.setInput(buffer, bufferOffset, bufferLength - bufferOffset);
+                bufferOffset = bufferLength;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            inflater.end();
+            in.close();
+        }
+    }
+
+    protected boolean fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        bufferOffset = 0;
+        bufferLength = read < 0 ? 0 : read;
+        return read > 0;
+    }
+
+    protected int readByte() throws IOException {
+        if (bufferOffset >= bufferLength && !fill()) {
+            throw new EOFException("Unexpected end of gzip input stream");
+        }
+        return buffer[bufferOffset++] & 0xff;
+    }
+
+    protected int readShort() throws IOException {
+        return readByte() | (readByte() << 8);
+    }
+
+    protected long readInt() throws IOException {
+        return ((long) readShort()) | (((long) readShort()) << 16);
+    }
+
+    /**
+     * @return false if the end of the stream was reached before another member
+     *         started
+     */
+    protected boolean readHeader() throws IOException {
+        if (bufferOffset >= bufferLength && !fill()) {
+            return false;
+        }
+
+        if (readShort() != 0x8b1f) {
+            throw new ZipException("Not in gzip format");
+        }
+
+        if (readByte() != 8) {
+            throw new ZipException("Unsupported gzip compression method");
+        }
+
+        int flags = readByte();
+        for (int i = 0; i < 6; i++) {
+            /* modification time, extra flags and operating system */
+            readByte();
+        }
+
+        if ((flags & FEXTRA) == FEXTRA) {
+            int length = readShort();
+            for (int i = 0; i < length; i++) {
+                readByte();
+            }
+        }
+
+        if ((flags & FNAME) == FNAME) {
+            while (readByte() != 0) {
+            }
+        }
+
+        if ((flags & FCOMMENT) == FCOMMENT) {
+            while (readByte() != 0) {
+            }
+        }
+
+        if ((flags & FHCRC) == FHCRC) {
+            readShort();
+        }
+        return true;
+    }
+
+    protected void readTrailer() throws IOException {
+        long expectedCrc = readInt();
+        long expectedSize = readInt();
+        if (expectedCrc != crc.getValue()) {
+            throw new ZipException("Corrupt gzip trailer.  The crc did not match");
+        }
+
+        if (expectedSize != (inflater.getBytesWritten() & 0xffffffffL)) {
+            throw new ZipException("Corrupt gzip trailer.  The size did not match");
+        }
+    }
+
+}
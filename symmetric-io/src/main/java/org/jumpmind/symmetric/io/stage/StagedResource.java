@@ -20,11 +20,9 @@
  */
 package org.jumpmind.symmetric.io.stage;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -33,9 +31,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.StringReader;
-import java.util.HashMap;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -48,6 +50,8 @@ public class StagedResource implements IStagedResource {
 
     static final Logger log = LoggerFactory.getLogger(StagedResource.class);
 
+    static final int TRANSFER_BUFFER_SIZE = 65536;
+
     private long threshold;
 
     private File directory;
@@ -56,7 +60,7 @@ public class StagedResource implements IStagedResource {
 
     private File file;
 
-    private StringBuilder memoryBuffer;
+    private StagingMemoryBuffer memoryBuffer;
 
     private long lastUpdateTime;
 
@@ -64,14 +68,24 @@ public class StagedResource implements IStagedResource {
     
     private OutputStream outputStream = null;
     
-    private Map<Thread, InputStream> inputStreams = null;
+    private volatile Map<Thread, InputStream> inputStreams = null;
     
-    private Map<Thread, BufferedReader> readers = new HashMap<Thread, BufferedReader>();
+    private Map<Thread, BufferedReader> readers = new ConcurrentHashMap<Thread, BufferedReader>();
+
+    private AtomicInteger referenceCount = new AtomicInteger();
+
+    private volatile long referencedUntil;
 
     private BufferedWriter writer;
     
     private StagingManager stagingManager;
 
+    private IStagingCodec codec;
+
+    private IStagingCodec fileCodec;
+
+    private boolean fileCodecDetected;
+
     public StagedResource(long threshold, File directory, File file, StagingManager stagingManager) {
         this.threshold = threshold;
         this.directory = directory;
@@ -94,10 +108,21 @@ public class StagedResource implements IStagedResource {
     }
 
     public StagedResource(long threshold, File directory, String path, StagingManager stagingManager) {
+        this(threshold, directory, path, stagingManager, null);
+    }
+
+    /**
+     * @param codec
+     *            The codec used to compress content written with
+     *            {@link #getWriter()} once it spills to a file. May be null.
+     */
+    public StagedResource(long threshold, File directory, String path,
+            StagingManager stagingManager, IStagingCodec codec) {
         this.threshold = threshold;
         this.directory = directory;
         this.path = path;
         this.stagingManager = stagingManager;
+        this.codec = codec;
         this.file = new File(directory, String.format("%s.%s", path,
                 State.CREATE.getExtensionName()));
         lastUpdateTime = System.currentTimeMillis();
@@ -110,6 +135,46 @@ public class StagedResource implements IStagedResource {
                 outputStream != null;
     }
     
+    public void reference(int referenceCount, long holdTimeInMs) {
+        this.referencedUntil = System.currentTimeMillis() + holdTimeInMs;
+        this.referenceCount.set(referenceCount);
+    }
+
+    public void setReferenceCount(int referenceCount) {
+        this.referenceCount.set(referenceCount);
+    }
+
+    public int dereference() {
+        int count = referenceCount.decrementAndGet();
+        if (count < 0) {
+            referenceCount.compareAndSet(count, 0);
+            count = 0;
+        }
+        return count;
+    }
+
+    public int getReferenceCount() {
+        return referenceCount.get();
+    }
+
+    public boolean isReferenced() {
+        return referenceCount.get() > 0 && System.currentTimeMillis() < referencedUntil;
+    }
+
+    public IStagingCodec getCodec() {
+        if (!file.exists() || writer != null || outputStream != null) {
+            return null;
+        } else if (!fileCodecDetected) {
+            try {
+                fileCodec = StagingCodecs.detect(file);
+                fileCodecDetected = true;
+            } catch (IOException ex) {
+                throw new IoException(ex);
+            }
+        }
+        return fileCodec;
+    }
+
     public boolean isFileResource() {     
         return file != null && file.exists();
     }
@@ -157,7 +222,7 @@ public class StagedResource implements IStagedResource {
                 }
             }
         } else if (memoryBuffer != null && state == State.DONE) {
-            this.memoryBuffer.setLength(0);
+            this.memoryBuffer.release();
             this.memoryBuffer = null;
         }
         refreshLastUpdateTime();
@@ -170,14 +235,15 @@ public class StagedResource implements IStagedResource {
         if (reader == null) {
             if (file.exists()) {
                 try {
-                    reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
-                            IoConstants.ENCODING));
+                    reader = new BufferedReader(new InputStreamReader(
+                            StagingCodecs.openInputStream(file), IoConstants.ENCODING));
                     readers.put(thread, reader);
                 } catch (IOException ex) {
                     throw new IoException(ex);
                 }
             } else if (memoryBuffer != null && memoryBuffer.length() > 0) {
-                reader = new BufferedReader(new StringReader(memoryBuffer.toString()));
+                reader = new BufferedReader(new InputStreamReader(
+                        memoryBuffer.getInputStream(), Charset.forName(IoConstants.ENCODING)));
                 readers.put(thread, reader);
             } else {
                 throw new IllegalStateException(
@@ -224,6 +290,7 @@ public class StagedResource implements IStagedResource {
                     file.delete();
                 }
                 file.getParentFile().mkdirs();
+                fileCodecDetected = false;
                 outputStream = new BufferedOutputStream(new FileOutputStream(file));
             }
             return outputStream;
@@ -234,20 +301,22 @@ public class StagedResource implements IStagedResource {
 
     public InputStream getInputStream() {
         Thread thread = Thread.currentThread();
-        if (inputStreams == null) {
-            inputStreams = new HashMap<Thread, InputStream>();
+        synchronized (this) {
+            if (inputStreams == null) {
+                inputStreams = new ConcurrentHashMap<Thread, InputStream>();
+            }
         }
         InputStream reader = inputStreams.get(thread);
         if (reader == null) {
             if (file.exists()) {
                 try {
-                    reader = new BufferedInputStream(new FileInputStream(file));
+                    reader = StagingCodecs.openInputStream(file);
                     inputStreams.put(thread, reader);
                 } catch (IOException ex) {
                     throw new IoException(ex);
                 }
             } else if (memoryBuffer != null && memoryBuffer.length() > 0) {
-                reader = new ByteArrayInputStream(memoryBuffer.toString().getBytes());
+                reader = memoryBuffer.getInputStream();
                 inputStreams.put(thread, reader);
             } else {
                 throw new IllegalStateException(
@@ -258,6 +327,41 @@ public class StagedResource implements IStagedResource {
         return reader;
     }
     
+    public long transferTo(OutputStream out) {
+        try {
+            if (file.exists() && getCodec() == null) {
+                FileInputStream is = new FileInputStream(file);
+                try {
+                    FileChannel channel = is.getChannel();
+                    WritableByteChannel target = Channels.newChannel(out);
+                    long size = channel.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += channel.transferTo(position, size - position, target);
+                    }
+                    return size;
+                } finally {
+                    IOUtils.closeQuietly(is);
+                }
+            } else if (file.exists()) {
+                InputStream is = StagingCodecs.openInputStream(file);
+                try {
+                    return IOUtils.copyLarge(is, out, new byte[TRANSFER_BUFFER_SIZE]);
+                } finally {
+                    IOUtils.closeQuietly(is);
+                }
+            } else if (memoryBuffer != null && memoryBuffer.length() > 0) {
+                return memoryBuffer.writeTo(out);
+            } else {
+                throw new IllegalStateException(
+                        "There is no content to transfer.  Memory buffer was empty and "
+                                + file.getAbsolutePath() + " was not found.");
+            }
+        } catch (IOException ex) {
+            throw new IoException(ex);
+        }
+    }
+
     public BufferedWriter getWriter() {
         if (writer == null) {
             if (file.exists()) {
@@ -265,11 +369,14 @@ public class StagedResource implements IStagedResource {
                 file.delete();
             } else if (this.memoryBuffer != null) {
                 log.warn("We had to delete the memory buffer for {} because it already existed", getPath());
+                this.memoryBuffer.release();
                 this.memoryBuffer = null;
             }
-            this.memoryBuffer = new StringBuilder();
+            this.memoryBuffer = new StagingMemoryBuffer(stagingManager != null ? stagingManager
+                    .getMemoryPool() : new StagingMemoryPool(0));
+            fileCodecDetected = false;
             writer = new BufferedWriter(new ThresholdFileWriter(threshold, this.memoryBuffer,
-                    this.file));
+                    this.file, codec));
         }
         return writer;
     }
@@ -308,7 +415,7 @@ public class StagedResource implements IStagedResource {
         }
 
         if (memoryBuffer != null) {
-            memoryBuffer.setLength(0);
+            memoryBuffer.release();
             memoryBuffer = null;
         }
         
@@ -0,0 +1,116 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.io.stage;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Looks up the codecs that staged resources can be compressed with.
+ */
+final public class StagingCodecs {
+
+    public static final String NONE = "none";
+
+    private static final IStagingCodec[] KNOWN_CODECS = new IStagingCodec[] {
+            new DeflateStagingCodec(), new LzStagingCodec() };
+
+    /**
+     * The number of leading bytes needed to recognize a staged file that was
+     * compressed
+     */
+    public static final int HEADER_LENGTH = 4;
+
+    private StagingCodecs() {
+    }
+
+    /**
+     * @param level
+     *            the compression level, used by codecs that support one
+     * @return null if the name is blank or {@link #NONE}
+     */
+    public static IStagingCodec create(String name, int level) {
+        if (StringUtils.isBlank(name) || NONE.equalsIgnoreCase(name.trim())) {
+            return null;
+        } else if (DeflateStagingCodec.NAME.equalsIgnoreCase(name.trim())) {
+            return new DeflateStagingCodec(level);
+        } else if (LzStagingCodec.NAME.equalsIgnoreCase(name.trim())) {
+            return new LzStagingCodec();
+        } else {
+            throw new IllegalArgumentException(String.format(
+                    "'%s' is not a supported staging codec.  Use one of %s, %s or %s", name, NONE,
+                    DeflateStagingCodec.NAME, LzStagingCodec.NAME));
+        }
+    }
+
+    /**
+     * @return the codec that wrote the file starting with the passed in
+     *         header, or null if the file is not compressed
+     */
+    public static IStagingCodec detect(byte[] header, int length) {
+        for (IStagingCodec codec : KNOWN_CODECS) {
+            if (codec.isCompressed(header, length)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the codec that wrote the passed in file, or null if the file is
+     *         not compressed
+     */
+    public static IStagingCodec detect(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] header = new byte[HEADER_LENGTH];
+            return detect(header, IOUtils.read(is, header));
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * Open a staged file for reading. If the file was compressed, the returned
+     * stream reads the decompressed content.
+     */
+    public static InputStream openInputStream(File file) throws IOException {
+        InputStream is = new BufferedInputStream(new FileInputStream(file));
+        try {
+            is.mark(HEADER_LENGTH);
+            byte[] header = new byte[HEADER_LENGTH];
+            int length = IOUtils.read(is, header);
+            is.reset();
+            IStagingCodec codec = detect(header, length);
+            return codec != null ? codec.decompress(is) : is;
+        } catch (IOException ex) {
+            IOUtils.closeQuietly(is);
+            throw ex;
+        }
+    }
+
+}
@@ -21,6 +21,7 @@
 package org.jumpmind.symmetric.io.stage;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
@@ -41,13 +42,53 @@ public class StagingManager implements IStagingManager {
 
     protected Map<String, IStagedResource> resourceList = new ConcurrentHashMap<String, IStagedResource>();
 
+    protected IStagingCodec codec;
+
+    protected Set<String> compressedCategories;
+
+    protected StagingMemoryPool memoryPool;
+
     public StagingManager(String directory) {
+        this(directory, null);
+    }
+
+    /**
+     * @param codec
+     *            The codec used to compress the files of text resources that
+     *            are created in one of the passed in categories. May be null.
+     * @param compressedCategories
+     *            The first elements of the paths of resources that should be
+     *            compressed
+     */
+    public StagingManager(String directory, IStagingCodec codec, String... compressedCategories) {
+        this(directory, codec, 0, compressedCategories);
+    }
+
+    /**
+     * @param memoryBudgetInBytes
+     *            The most memory that resources under their threshold can use
+     *            together. Resources are written to files once it is used up.
+     *            Zero or less means there is no limit.
+     */
+    public StagingManager(String directory, IStagingCodec codec, long memoryBudgetInBytes,
+            String... compressedCategories) {
         log.info("The staging directory was initialized at the following location: " + directory);
+        if (codec != null) {
+            log.info("Staged files in the {} categories will be compressed using the {} codec",
+                    Arrays.toString(compressedCategories), codec.getName());
+        }
+        this.codec = codec;
+        this.memoryPool = new StagingMemoryPool(memoryBudgetInBytes);
+        this.compressedCategories = new HashSet<String>(Arrays.asList(compressedCategories));
         this.directory = new File(directory);
         this.directory.mkdirs();
         refreshResourceList();
     }
     
+    public StagingMemoryPool getMemoryPool() {
+        return memoryPool;
+    }
+
     public Collection<String> getResourceReferences() {
         synchronized (StagingManager.class) {
             return resourceList.keySet();
@@ -76,6 +117,8 @@ public class StagingManager implements IStagingManager {
 
     /**
      * Clean up resources that are older than the passed in parameter.
+     * Resources that still have references are kept until their hold time
+     * has passed, unless the time to live is zero.
      * 
      * @param ttlInMs
      *            If resources are older than this number of milliseconds they
@@ -97,7 +140,16 @@ public class StagingManager implements IStagingManager {
                             .getLastUpdateTime()) > ttlInMs;
                     if ((resource.getState() == State.READY || resource.getState() == State.DONE)
                             && (resourceIsOld || !resource.exists())) {
-                        if (!resource.isInUse()) {
+                        if (resource.isReferenced() && ttlInMs > 0 && resource.exists()) {
+                            log.debug(
+                                    "The '{}' staging resource qualified for being cleaned, but is still referenced {} times",
+                                    resource.getPath(), resource.getReferenceCount());
+                        } else if (!resource.isInUse()) {
+                            if (resource.getReferenceCount() > 0 && ttlInMs > 0) {
+                                log.info(
+                                        "The '{}' staging resource is being cleaned because its hold time passed with {} references left",
+                                        resource.getPath(), resource.getReferenceCount());
+                            }
                             boolean file = resource.isFileResource();
                             long size = resource.getSize();
                             if (resource.delete()) {
@@ -148,8 +200,13 @@ public class StagingManager implements IStagingManager {
      */
     public IStagedResource create(long memoryThresholdInBytes, Object... path) {
         String filePath = buildFilePath(path);
+        IStagingCodec resourceCodec = null;
+        if (codec != null && path.length > 0 && path[0] != null
+                && compressedCategories.contains(path[0].toString())) {
+            resourceCodec = codec;
+        }
         StagedResource resource = new StagedResource(memoryThresholdInBytes, directory, filePath,
-                this);
+                this, resourceCodec);
         this.resourceList.put(filePath, resource);
         return resource;
     }
@@ -0,0 +1,219 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.io.stage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The bytes of a staged resource that is held in memory. The bytes are
+ * stored in blocks from a {@link StagingMemoryPool}. Readers get views of the
+ * blocks instead of copies. Blocks go back to the pool for reuse once the
+ * buffer is released and the last view is closed.
+ */
+public class StagingMemoryBuffer {
+
+    private StagingMemoryPool pool;
+
+    private List<byte[]> blocks = new ArrayList<byte[]>();
+
+    private long length;
+
+    private int openViews;
+
+    private boolean released;
+
+    public StagingMemoryBuffer(StagingMemoryPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @return false if the pool did not have the memory for the bytes, in
+     *         which case none of them were written
+     */
+    public synchronized boolean write(byte[] b, int off, int len) {
+        if (released) {
+            throw new IllegalStateException("The memory buffer has already been released");
+        }
+
+        int blockSize = pool.getBlockSize();
+        int blocksNeeded = (int) ((length + len + blockSize - 1) / blockSize) - blocks.size();
+        for (int i = 0; i < blocksNeeded; i++) {
+            byte[] block = pool.allocate();
+            if (block == null) {
+                for (int j = 0; j < i; j++) {
+                    pool.recycle(blocks.remove(blocks.size() - 1));
+                }
+                pool.release(i);
+                return false;
+            }
+            blocks.add(block);
+        }
+
+        while (len > 0) {
+            byte[] block = blocks.get((int) (length / blockSize));
+            int blockOffset = (int) (length % blockSize);
+            int count = Math.min(len, blockSize - blockOffset);
+            System.arraycopy(b, off, block, blockOffset, count);
+            off += count;
+            len -= count;
+            length += count;
+        }
+        return true;
+    }
+
+    public synchronized long length() {
+        return length;
+    }
+
+    /**
+     * @return a stream that reads the bytes that have been written so far
+     *         without copying them. It should be closed so the memory can be
+     *         reused.
+     */
+    public synchronized InputStream getInputStream() {
+        if (released) {
+            throw new IllegalStateException("The memory buffer has already been released");
+        }
+        openViews++;
+        return new View(length);
+    }
+
+    public long writeTo(OutputStream out) throws IOException {
+        InputStream is = getInputStream();
+        try {
+            long count = 0;
+            byte[] block = null;
+            int blockLength = 0;
+            long position = 0;
+            long limit = length();
+            int blockSize = pool.getBlockSize();
+            while (position < limit) {
+                synchronized (this) {
+                    block = blocks.get((int) (position / blockSize));
+                }
+                blockLength = (int) Math.min(blockSize, limit - position);
+                out.write(block, 0, blockLength);
+                position += blockLength;
+                count += blockLength;
+            }
+            return count;
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Give the memory back to the pool. The budget is freed right away. The
+     * blocks are reused once all of the open views have been closed.
+     */
+    public synchronized void release() {
+        if (!released) {
+            released = true;
+            pool.release(blocks.size());
+            if (openViews == 0) {
+                recycleBlocks();
+            }
+        }
+    }
+
+    protected synchronized void closeView() {
+        openViews--;
+        if (released && openViews == 0) {
+            recycleBlocks();
+        }
+    }
+
+    protected void recycleBlocks() {
+        for (byte[] block : blocks) {
+            pool.recycle(block);
+        }
+        blocks.clear();
+        length = 0;
+    }
+
+    protected synchronized byte[] getBlock(int index) {
+        return blocks.get(index);
+    }
+
+    class View extends InputStream {
+
+        private long position;
+
+        private long limit;
+
+        private boolean closed;
+
+        View(long limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (closed || position >= limit) {
+                return -1;
+            }
+            int blockSize = pool.getBlockSize();
+            byte[] block = getBlock((int) (position / blockSize));
+            return block[(int) (position++ % blockSize)] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            } else if (closed || position >= limit) {
+                return -1;
+            }
+            int blockSize = pool.getBlockSize();
+            byte[] block = getBlock((int) (position / blockSize));
+            int blockOffset = (int) (position % blockSize);
+            int count = (int) Math.min(Math.min(len, blockSize - blockOffset), limit - position);
+            System.arraycopy(block, blockOffset, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long count = Math.max(0, Math.min(n, limit - position));
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return closed ? 0 : (int) Math.min(Integer.MAX_VALUE, limit - position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                closeView();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.io.stage;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out the fixed size blocks of memory that staged resources are held
+ * in before they are written to a file. The blocks in use across all
+ * resources are limited to a memory budget. Released blocks are kept for
+ * reuse so that small batches do not keep allocating new arrays.
+ */
+public class StagingMemoryPool {
+
+    public static final int DEFAULT_BLOCK_SIZE = 8192;
+
+    static final int MAX_FREE_BLOCKS = 1024;
+
+    private int blockSize;
+
+    private long budgetInBytes;
+
+    private int maxFreeBlocks;
+
+    private Queue<byte[]> freeBlocks = new ConcurrentLinkedQueue<byte[]>();
+
+    private AtomicInteger freeBlockCount = new AtomicInteger();
+
+    private AtomicLong allocatedBytes = new AtomicLong();
+
+    /**
+     * @param budgetInBytes
+     *            The most memory that can be in use at once. Zero or less
+     *            means there is no limit.
+     */
+    public StagingMemoryPool(long budgetInBytes) {
+        this(budgetInBytes, DEFAULT_BLOCK_SIZE);
+    }
+
+    public StagingMemoryPool(long budgetInBytes, int blockSize) {
+        this.budgetInBytes = budgetInBytes;
+        this.blockSize = blockSize;
+        this.maxFreeBlocks = budgetInBytes > 0 ? (int) Math.min(budgetInBytes / blockSize,
+                MAX_FREE_BLOCKS) : MAX_FREE_BLOCKS;
+    }
+
+    /**
+     * @return a block of {@link #getBlockSize()} bytes or null if the block
+     *         would put the pool over its budget
+     */
+    public byte[] allocate() {
+        long allocated = allocatedBytes.addAndGet(blockSize);
+        if (budgetInBytes > 0 && allocated > budgetInBytes) {
+            allocatedBytes.addAndGet(-blockSize);
+            return null;
+        }
+
+        byte[] block = freeBlocks.poll();
+        if (block != null) {
+            freeBlockCount.decrementAndGet();
+        } else {
+            block = new byte[blockSize];
+        }
+        return block;
+    }
+
+    /**
+     * Give back the budget held by blocks that are no longer needed
+     */
+    public void release(int blockCount) {
+        allocatedBytes.addAndGet(-((long) blockCount * blockSize));
+    }
+
+    /**
+     * Keep a released block for reuse. The block must no longer be
+     * referenced by its previous owner.
+     */
+    public void recycle(byte[] block) {
+        if (block.length == blockSize && freeBlockCount.incrementAndGet() <= maxFreeBlocks) {
+            freeBlocks.offer(block);
+        } else if (block.length == blockSize) {
+            freeBlockCount.decrementAndGet();
+        }
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public long getBudgetInBytes() {
+        return budgetInBytes;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+}
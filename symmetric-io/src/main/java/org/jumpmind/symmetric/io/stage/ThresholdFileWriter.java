@@ -21,96 +21,145 @@
 package org.jumpmind.symmetric.io.stage;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.StringReader;
 import java.io.Writer;
+import java.nio.charset.Charset;
 
 import org.jumpmind.symmetric.io.IoConstants;
 
 /**
  * Write to an internal buffer up until the threshold. When the threshold is
- * reached, flush the buffer to the file and write to the file from that point
- * forward.
+ * reached, or the memory pool backing the buffer has run out of memory, flush
+ * the buffer to the file and write to the file from that point forward.
  */
 public class ThresholdFileWriter extends Writer {
 
-    private File file;    
+    private File file;
 
-    private BufferedWriter fileWriter;
+    private OutputStream fileStream;
 
-    private StringBuilder buffer;
+    private StagingMemoryBuffer buffer;
 
     private long threshhold;
 
+    private IStagingCodec codec;
+
+    private Writer writer;
+
+    private boolean closed;
+
     /**
      * @param threshold The number of bytes at which to start writing to a file
      * @param file The file to write to after the threshold has been reached
      */
-    public ThresholdFileWriter(long threshold, StringBuilder buffer, File file) {
+    public ThresholdFileWriter(long threshold, StagingMemoryBuffer buffer, File file) {
+        this(threshold, buffer, file, null);
+    }
+
+    /**
+     * @param codec The codec used to compress the file.  May be null.
+     */
+    public ThresholdFileWriter(long threshold, StagingMemoryBuffer buffer, File file, IStagingCodec codec) {
         this.file = file;
         this.buffer = buffer;
         this.threshhold = threshold;
+        this.codec = codec;
+        this.writer = new OutputStreamWriter(new ThresholdOutputStream(),
+                Charset.forName(IoConstants.ENCODING));
     }
-    
+
     public File getFile() {
         return file;
     }
-    
+
     public void setFile(File file) {
         this.file = file;
     }
 
     @Override
     public void close() throws IOException {
-        if (fileWriter != null) {
-            fileWriter.close();
-            fileWriter = null;            
+        if (!closed) {
+            closed = true;
+            writer.close();
         }
     }
 
     @Override
     public void flush() throws IOException {
-        if (fileWriter != null) {
-            fileWriter.flush();
+        if (!closed) {
+            writer.flush();
         }
     }
 
     @Override
     public void write(char[] cbuf, int off, int len) throws IOException {
-        if (fileWriter != null) {
-            fileWriter.write(cbuf, off, len);
-        } else if (len + buffer.length() > threshhold) {
-            file.getParentFile().mkdirs();
-            fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), IoConstants.ENCODING));
-            fileWriter.write(buffer.toString());
-            fileWriter.write(cbuf, off, len);
-            fileWriter.flush();
-            buffer.setLength(0);
-        } else {
-            buffer.append(new String(cbuf), off, len);
-        }
+        writer.write(cbuf, off, len);
     }
 
     public BufferedReader getReader() throws IOException {
+        flush();
         if (file != null && file.exists()) {
-            return new BufferedReader(new InputStreamReader(new FileInputStream(file), IoConstants.ENCODING));
+            return new BufferedReader(new InputStreamReader(StagingCodecs.openInputStream(file), IoConstants.ENCODING));
         } else {
-            return new BufferedReader(new StringReader(buffer.toString()));
+            return new BufferedReader(new InputStreamReader(buffer.getInputStream(), IoConstants.ENCODING));
         }
     }
-    
+
     public void delete() {
         if (file != null && file.exists()) {
             file.delete();
         }
         file = null;
-        buffer.setLength(0);
+        buffer.release();
+    }
+
+    /**
+     * Receives the encoded bytes and decides whether they go to memory or to
+     * the file
+     */
+    class ThresholdOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (fileStream != null) {
+                fileStream.write(b, off, len);
+            } else if (len + buffer.length() > threshhold || !buffer.write(b, off, len)) {
+                file.getParentFile().mkdirs();
+                OutputStream os = new FileOutputStream(file);
+                if (codec != null) {
+                    os = codec.compress(os);
+                }
+                fileStream = os;
+                buffer.writeTo(fileStream);
+                buffer.release();
+                fileStream.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (fileStream != null) {
+                fileStream.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileStream != null) {
+                fileStream.close();
+                fileStream = null;
+            }
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -22,6 +22,14 @@ package org.jumpmind.symmetric.io.data.reader;
 
 import static org.junit.Assert.*;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
 import org.jumpmind.db.model.Table;
 import org.jumpmind.db.util.BinaryEncoding;
 import org.jumpmind.symmetric.io.data.Batch;
@@ -29,11 +37,20 @@ import org.jumpmind.symmetric.io.data.CsvConstants;
 import org.jumpmind.symmetric.io.data.CsvData;
 import org.jumpmind.symmetric.io.data.DataContext;
 import org.jumpmind.symmetric.io.data.DataEventType;
+import org.jumpmind.symmetric.io.data.DataProcessor;
 import org.jumpmind.symmetric.io.data.Batch.BatchType;
+import org.jumpmind.symmetric.io.data.writer.ProtocolDataWriter;
+import org.jumpmind.symmetric.io.stage.IStagedResource;
+import org.jumpmind.symmetric.io.stage.IStagedResource.State;
+import org.jumpmind.symmetric.io.stage.StagingManager;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class ProtocolDataReaderTest {
 
+    static final Logger log = LoggerFactory.getLogger(ProtocolDataReaderTest.class);
+
     @Test
     public void testSimpleRead() {
         String nodeId= "055";
@@ -176,6 +193,98 @@ public class ProtocolDataReaderTest {
 
     }
 
+    @Test
+    public void testReuseDataForNonRetainingWriter() {
+        StringBuilder builder = beginCsv("1");
+        beginBatch(builder, 1, "test");
+        putTableN(builder, 1, true);
+        putInsert(builder, 3);
+        builder.append(String.format("%s,%d,%s\n", CsvConstants.OLD, 1, "\"test\""));
+        builder.append(String.format("%s,%d,%s,%d\n", CsvConstants.UPDATE, 1, "\"changed\"", 1));
+        builder.append(String.format("%s,%d,%s\n", CsvConstants.OLD, 2, "\"test\""));
+        builder.append(String.format("%s,%d\n", CsvConstants.DELETE, 2));
+        putInsert(builder, 1);
+        endCsv(builder);
+
+        TestableDataWriter retainingWriter = new TestableDataWriter();
+        new DataProcessor(new ProtocolDataReader(BatchType.LOAD, "test", builder),
+                retainingWriter, "test").process();
+        List<CsvData> datas = retainingWriter.getDatas();
+        assertEquals(6, datas.size());
+        assertNotSame(datas.get(0), datas.get(1));
+        assertEquals("1", datas.get(1).getParsedData(CsvData.ROW_DATA)[0]);
+        assertEquals("changed", datas.get(3).getParsedData(CsvData.ROW_DATA)[1]);
+        assertEquals("2", datas.get(4).getParsedData(CsvData.PK_DATA)[0]);
+        assertEquals("0", datas.get(5).getParsedData(CsvData.ROW_DATA)[0]);
+
+        final List<CsvData> written = new ArrayList<CsvData>();
+        StringWriter output = new StringWriter();
+        new DataProcessor(new ProtocolDataReader(BatchType.LOAD, "test", builder),
+                new ProtocolDataWriter("1", output, false) {
+                    @Override
+                    public void write(CsvData data) {
+                        written.add(data);
+                        super.write(data);
+                    }
+                }, "test").process();
+        assertEquals(6, written.size());
+        assertSame(written.get(0), written.get(5));
+        String csv = output.toString();
+        assertTrue(csv, csv.contains("insert,\"2\",\"test\""));
+        assertTrue(csv, csv.contains("old,\"1\",\"test\""));
+        assertTrue(csv, csv.contains("update,\"1\",\"changed\",\"1\""));
+        assertTrue(csv, csv.contains("old,\"2\",\"test\""));
+        assertTrue(csv, csv.contains("delete,\"2\""));
+    }
+
+    @Test
+    public void testBenchmark() throws Exception {
+        int rowCount = 200000;
+        File directory = new File("target/test/protocol-reader");
+        FileUtils.deleteQuietly(directory);
+        StagingManager stagingManager = new StagingManager(directory.getPath());
+        IStagedResource resource = stagingManager.create(0, "incoming", "1", 1);
+        BufferedWriter writer = resource.getWriter();
+        writer.write(beginBatch(beginCsv("1"), 1, "test").toString());
+        writer.write(putTableN(new StringBuilder(), 1, true).toString());
+        for (int i = 0; i < rowCount; i++) {
+            writer.write(String.format("%s,%d,%s\n", CsvConstants.INSERT, i,
+                    "\"some text for the row that is about as long as a typical column\""));
+        }
+        writer.write(endCsv(new StringBuilder()).toString());
+        resource.close();
+        resource.setState(State.READY);
+
+        readStagedBatch(resource, rowCount);
+
+        long startTime = System.currentTimeMillis();
+        readStagedBatch(resource, rowCount);
+        long millis = Math.max(1, System.currentTimeMillis() - startTime);
+        log.info("Parsed {} rows per second from a staged batch", rowCount * 1000l / millis);
+    }
+
+    protected void readStagedBatch(IStagedResource resource, int expectedRowCount) {
+        final int[] rowCount = new int[1];
+        ProtocolDataWriter writer = new ProtocolDataWriter("1", new Writer() {
+            public void write(char[] cbuf, int off, int len) {
+            }
+
+            public void flush() {
+            }
+
+            public void close() {
+            }
+        }, false) {
+            @Override
+            public void write(CsvData data) {
+                rowCount[0]++;
+            }
+        };
+        new DataProcessor(new ProtocolDataReader(BatchType.LOAD, "test", resource), writer,
+                "benchmark").process();
+        assertEquals(expectedRowCount, rowCount[0]);
+    }
+
     protected StringBuilder beginCsv(String nodeId) {
         StringBuilder builder = new StringBuilder();
         builder.append(String.format("%s,%s\n", CsvConstants.NODEID, nodeId));
@@ -0,0 +1,114 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.io.data.stage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.jumpmind.symmetric.io.stage.DeflateStagingCodec;
+import org.jumpmind.symmetric.io.stage.IStagingCodec;
+import org.jumpmind.symmetric.io.stage.LzStagingCodec;
+import org.jumpmind.symmetric.io.stage.MultiMemberGZIPInputStream;
+import org.jumpmind.symmetric.io.stage.StagingCodecs;
+import org.junit.Test;
+
+public class StagingCodecTest {
+
+    @Test
+    public void testLzRoundTrip() throws Exception {
+        Random random = new Random(42);
+        byte[] noise = new byte[200000];
+        random.nextBytes(noise);
+        assertRoundTrip(new LzStagingCodec(), noise);
+        assertRoundTrip(new LzStagingCodec(), new byte[0]);
+        assertRoundTrip(new LzStagingCodec(), new byte[] { 1, 2, 3 });
+        assertRoundTrip(new LzStagingCodec(), new byte[300000]);
+
+        byte[] text = new byte[150000];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte) (random.nextInt(10) == 0 ? 'a' + random.nextInt(26) : "insert,"
+                    .charAt(i % 7));
+        }
+        assertRoundTrip(new LzStagingCodec(), text);
+    }
+
+    @Test
+    public void testDeflateRoundTrip() throws Exception {
+        assertRoundTrip(new DeflateStagingCodec(1), "update,\"1\",\"2\"\n".getBytes());
+        assertRoundTrip(new DeflateStagingCodec(9), new byte[0]);
+    }
+
+    @Test
+    public void testConcatenatedGzipMembers() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        IStagingCodec codec = new DeflateStagingCodec();
+        for (int i = 0; i < 3; i++) {
+            OutputStream os = codec.compress(bytes);
+            os.write(("batch," + i + "\n").getBytes());
+            os.close();
+        }
+
+        InputStream is = new MultiMemberGZIPInputStream(new ByteArrayInputStream(
+                bytes.toByteArray()) {
+            @Override
+            public synchronized int available() {
+                return 0;
+            }
+        });
+        assertEquals("batch,0\nbatch,1\nbatch,2\n", IOUtils.toString(is));
+    }
+
+    @Test
+    public void testDetect() throws Exception {
+        byte[] plain = "nodeid,00000".getBytes();
+        assertNull(StagingCodecs.detect(plain, plain.length));
+        assertNull(StagingCodecs.create("none", 1));
+        for (String name : new String[] { "deflate", "lz" }) {
+            IStagingCodec codec = StagingCodecs.create(name, 1);
+            byte[] compressed = compress(codec, plain);
+            assertEquals(name, StagingCodecs.detect(compressed, compressed.length).getName());
+        }
+    }
+
+    protected byte[] compress(IStagingCodec codec, byte[] data) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream os = codec.compress(bytes);
+        os.write(data);
+        os.close();
+        return bytes.toByteArray();
+    }
+
+    protected void assertRoundTrip(IStagingCodec codec, byte[] data) throws Exception {
+        byte[] compressed = compress(codec, data);
+        InputStream is = codec.decompress(new ByteArrayInputStream(compressed));
+        assertArrayEquals(data, IOUtils.toByteArray(is));
+        is.close();
+    }
+
+}
@@ -0,0 +1,162 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.io.data.stage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.jumpmind.symmetric.io.IoConstants;
+import org.jumpmind.symmetric.io.stage.DeflateStagingCodec;
+import org.jumpmind.symmetric.io.stage.IStagedResource;
+import org.jumpmind.symmetric.io.stage.IStagedResource.State;
+import org.jumpmind.symmetric.io.stage.IStagingCodec;
+import org.jumpmind.symmetric.io.stage.LzStagingCodec;
+import org.jumpmind.symmetric.io.stage.StagingManager;
+import org.junit.Test;
+
+public class StagingManagerTest {
+
+    @Test
+    public void testCleanKeepsReferencedResources() throws Exception {
+        File directory = new File("target/test/staging");
+        FileUtils.deleteQuietly(directory);
+        StagingManager stagingManager = new StagingManager(directory.getPath());
+
+        IStagedResource resource = stagingManager.create(0, "outgoing", "common", 1);
+        BufferedWriter writer = resource.getWriter();
+        writer.write("batch,1");
+        resource.close();
+        resource.setState(State.READY);
+        resource.reference(2, 60000);
+
+        Thread.sleep(10);
+        assertEquals(0, stagingManager.clean(1));
+        assertNotNull(stagingManager.find("outgoing", "common", 1));
+
+        assertEquals(1, resource.dereference());
+        assertEquals(0, stagingManager.clean(1));
+        assertNotNull(stagingManager.find("outgoing", "common", 1));
+
+        assertEquals(0, resource.dereference());
+        assertEquals(1, stagingManager.clean(1));
+        assertNull(stagingManager.find("outgoing", "common", 1));
+    }
+
+    @Test
+    public void testCleanReleasesReferencesAfterHoldTime() throws Exception {
+        File directory = new File("target/test/staging-hold");
+        FileUtils.deleteQuietly(directory);
+        StagingManager stagingManager = new StagingManager(directory.getPath());
+
+        IStagedResource resource = stagingManager.create(0, "outgoing", "common", 1);
+        resource.getWriter().write("batch,1");
+        resource.close();
+        resource.setState(State.READY);
+        resource.reference(2, 50);
+        assertTrue(resource.isReferenced());
+
+        Thread.sleep(10);
+        assertEquals(0, stagingManager.clean(1));
+        assertNotNull(stagingManager.find("outgoing", "common", 1));
+
+        Thread.sleep(100);
+        assertFalse(resource.isReferenced());
+        assertEquals(1, stagingManager.clean(1));
+        assertNull(stagingManager.find("outgoing", "common", 1));
+    }
+
+    @Test
+    public void testDeflateCompressedStaging() throws Exception {
+        assertCompressedStaging(new DeflateStagingCodec(1));
+    }
+
+    @Test
+    public void testLzCompressedStaging() throws Exception {
+        assertCompressedStaging(new LzStagingCodec());
+    }
+
+    protected String transfer(IStagedResource resource) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long count = resource.transferTo(out);
+        assertEquals(out.size(), count);
+        return new String(out.toByteArray(), IoConstants.ENCODING);
+    }
+
+    protected void assertCompressedStaging(IStagingCodec codec) throws Exception {
+        File directory = new File("target/test/staging-" + codec.getName());
+        FileUtils.deleteQuietly(directory);
+        StagingManager stagingManager = new StagingManager(directory.getPath(), codec, "outgoing");
+
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append("insert,\"").append(i).append("\",\"some repeated text\"\n");
+        }
+
+        IStagedResource compressed = stagingManager.create(100, "outgoing", "common", 1);
+        BufferedWriter writer = compressed.getWriter();
+        writer.write(content.toString());
+        compressed.close();
+        compressed.setState(State.READY);
+        assertTrue(compressed.isFileResource());
+        assertTrue(compressed.getSize() < content.length() / 2);
+        assertEquals(codec.getName(), compressed.getCodec().getName());
+        assertEquals(content.toString(), IOUtils.toString(compressed.getReader()));
+        compressed.close();
+        assertEquals(content.toString(),
+                IOUtils.toString(compressed.getInputStream(), IoConstants.ENCODING));
+        compressed.close();
+        assertEquals(content.toString(), transfer(compressed));
+
+        IStagedResource small = stagingManager.create(100000, "outgoing", "common", 2);
+        small.getWriter().write(content.toString());
+        small.close();
+        small.setState(State.READY);
+        assertNull(small.getCodec());
+        assertEquals(content.toString(), IOUtils.toString(small.getReader()));
+        small.close();
+        assertEquals(content.toString(), transfer(small));
+
+        IStagedResource plain = stagingManager.create(100, "bulkloaddir", "table.csv");
+        plain.getWriter().write(content.toString());
+        plain.close();
+        plain.setState(State.READY);
+        assertNull(plain.getCodec());
+        assertEquals(content.length(), plain.getSize());
+        assertEquals(content.toString(), transfer(plain));
+
+        /* a staging manager without a codec still reads compressed files */
+        stagingManager = new StagingManager(directory.getPath());
+        IStagedResource found = stagingManager.find("outgoing", "common", 1);
+        assertEquals(codec.getName(), found.getCodec().getName());
+        assertEquals(content.toString(), IOUtils.toString(found.getReader()));
+        found.close();
+    }
+
+}
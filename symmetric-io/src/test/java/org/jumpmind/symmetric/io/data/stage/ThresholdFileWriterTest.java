@@ -22,8 +22,12 @@ package org.jumpmind.symmetric.io.data.stage;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.InputStream;
 
 import org.apache.commons.io.IOUtils;
+import org.jumpmind.symmetric.io.IoConstants;
+import org.jumpmind.symmetric.io.stage.StagingMemoryBuffer;
+import org.jumpmind.symmetric.io.stage.StagingMemoryPool;
 import org.jumpmind.symmetric.io.stage.ThresholdFileWriter;
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -35,7 +39,7 @@ public class ThresholdFileWriterTest {
     @Test
     public void testNoWriteToFile() throws Exception {
         File file = getTestFile();
-        ThresholdFileWriter writer = new ThresholdFileWriter(TEST_STR.length() + 1, new StringBuilder(), file);
+        ThresholdFileWriter writer = new ThresholdFileWriter(TEST_STR.length() + 1, new StagingMemoryBuffer(new StagingMemoryPool(0)), file);
         writer.write(TEST_STR);
 
         // File does not exist since we did not meet the threshold
@@ -52,7 +56,7 @@ public class ThresholdFileWriterTest {
         File file = getTestFile();
         assertFalse(file.exists());
 
-        ThresholdFileWriter writer = new ThresholdFileWriter( TEST_STR.length() - 1, new StringBuilder(), file);
+        ThresholdFileWriter writer = new ThresholdFileWriter( TEST_STR.length() - 1, new StagingMemoryBuffer(new StagingMemoryPool(0)), file);
         writer.write(TEST_STR);
         writer.close();
 
@@ -66,6 +70,49 @@ public class ThresholdFileWriterTest {
         assertTrue(file.delete());
     }
 
+    @Test
+    public void testWriteToFileWhenMemoryBudgetIsUsed() throws Exception {
+        File file = getTestFile();
+        StagingMemoryPool pool = new StagingMemoryPool(32, 16);
+        StagingMemoryBuffer otherBuffer = new StagingMemoryBuffer(pool);
+        assertTrue(otherBuffer.write(new byte[10], 0, 10));
+
+        ThresholdFileWriter writer = new ThresholdFileWriter(TEST_STR.length() * 2,
+                new StagingMemoryBuffer(pool), file);
+        writer.write(TEST_STR);
+        writer.close();
+
+        // The pool only had one block left, so the writer had to go to the file
+        assertTrue(file.exists());
+        assertEquals(16, pool.getAllocatedBytes());
+        assertEquals(TEST_STR, IOUtils.toString(writer.getReader()));
+
+        otherBuffer.release();
+        assertEquals(0, pool.getAllocatedBytes());
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void testMemoryIsReusedAfterViewsAreClosed() throws Exception {
+        StagingMemoryPool pool = new StagingMemoryPool(0, 16);
+        StagingMemoryBuffer buffer = new StagingMemoryBuffer(pool);
+        byte[] bytes = TEST_STR.getBytes(IoConstants.ENCODING);
+        assertTrue(buffer.write(bytes, 0, bytes.length));
+        assertEquals(48, pool.getAllocatedBytes());
+
+        InputStream view = buffer.getInputStream();
+        buffer.release();
+        assertEquals(0, pool.getAllocatedBytes());
+
+        // The blocks are not handed out again while the view is open
+        StagingMemoryBuffer otherBuffer = new StagingMemoryBuffer(pool);
+        byte[] other = new byte[bytes.length];
+        assertTrue(otherBuffer.write(other, 0, other.length));
+        assertEquals(TEST_STR, IOUtils.toString(view, IoConstants.ENCODING));
+        view.close();
+        otherBuffer.release();
+    }
+
     private File getTestFile() {
         File file = new File("target/test/buffered.file.writer.tst");
         file.getParentFile().mkdirs();
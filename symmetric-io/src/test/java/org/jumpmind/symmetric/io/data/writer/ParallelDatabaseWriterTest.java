@@ -0,0 +1,332 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.symmetric.io.data.writer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jumpmind.db.DbTestUtils;
+import org.jumpmind.db.model.Table;
+import org.jumpmind.db.platform.IDatabasePlatform;
+import org.jumpmind.db.platform.JdbcDatabasePlatformFactory;
+import org.jumpmind.db.sql.SqlTemplateSettings;
+import org.jumpmind.db.util.BasicDataSourceFactory;
+import org.jumpmind.db.util.BasicDataSourcePropertyConstants;
+import org.jumpmind.db.util.BinaryEncoding;
+import org.jumpmind.properties.EnvironmentSpecificProperties;
+import org.jumpmind.security.SecurityServiceFactory;
+import org.jumpmind.symmetric.io.AbstractWriterTest;
+import org.jumpmind.symmetric.io.data.Batch;
+import org.jumpmind.symmetric.io.data.Batch.BatchType;
+import org.jumpmind.symmetric.io.data.CsvData;
+import org.jumpmind.symmetric.io.data.DataContext;
+import org.jumpmind.symmetric.io.data.DataEventType;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ParallelDatabaseWriterTest extends AbstractWriterTest {
+
+    protected final static String PARENT_TABLE = "test_parallel_parent";
+
+    protected final static String CHILD_TABLE = "test_parallel_child";
+
+    protected final static int THREAD_COUNT = 4;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        EnvironmentSpecificProperties properties = DbTestUtils
+                .getEnvironmentSpecificProperties(DbTestUtils.ROOT);
+        String url = properties.getProperty(BasicDataSourcePropertyConstants.DB_POOL_URL);
+        if (url != null && url.startsWith("jdbc:h2:")) {
+            /*
+             * The lanes insert into the same tables at the same time, which
+             * needs row level locking
+             */
+            properties.setProperty(BasicDataSourcePropertyConstants.DB_POOL_URL,
+                    "jdbc:h2:file:./target/paralleldbs/parallel;MVCC=TRUE");
+            platform = JdbcDatabasePlatformFactory.createNewPlatformInstance(
+                    BasicDataSourceFactory.create(properties, SecurityServiceFactory.create()),
+                    new SqlTemplateSettings(), true);
+        } else {
+            platform = DbTestUtils.createDatabasePlatform(DbTestUtils.ROOT);
+        }
+        platform.createDatabase(
+                platform.readDatabaseFromXml("/testParallelDatabaseWriter.xml", true), true, false);
+    }
+
+    @Before
+    public void cleanTables() {
+        writerSettings.setDefaultConflictSetting(new Conflict());
+        platform.getSqlTemplate().update("delete from " + CHILD_TABLE);
+        platform.getSqlTemplate().update("delete from " + PARENT_TABLE);
+    }
+
+    @Test
+    public void testRowsAreSplitAcrossLanes() {
+        TestWriter writer = new TestWriter(platform, writerSettings);
+        Map<Table, List<CsvData>> batch = new LinkedHashMap<Table, List<CsvData>>();
+        batch.put(buildParentTable(), buildParentRows(1, 200));
+        Assert.assertTrue(writeBatch(writer, batch));
+        Assert.assertFalse(writer.failed);
+        Assert.assertEquals(200, count(PARENT_TABLE));
+        Assert.assertEquals(THREAD_COUNT - 1, countWorkersWithRows(writer));
+        Assert.assertEquals(200, writer.getStatistics().values().iterator().next()
+                .get(DataWriterStatisticConstants.STATEMENTCOUNT));
+    }
+
+    @Test
+    public void testChildRowsAreAppliedWithTheirParent() {
+        TestWriter writer = new TestWriter(platform, writerSettings);
+        Map<Table, List<CsvData>> batch = new LinkedHashMap<Table, List<CsvData>>();
+        batch.put(buildParentTable(), buildParentRows(1, 50));
+        List<CsvData> children = new ArrayList<CsvData>();
+        for (int id = 1; id <= 200; id++) {
+            children.add(new CsvData(DataEventType.INSERT, new String[] { Integer.toString(id),
+                    Integer.toString(id % 50 + 1), "child " + id }));
+        }
+        batch.put(buildChildTable(), children);
+        Assert.assertTrue(writeBatch(writer, batch));
+        Assert.assertEquals(50, count(PARENT_TABLE));
+        Assert.assertEquals(200, count(CHILD_TABLE));
+        Assert.assertEquals(THREAD_COUNT - 1, countWorkersWithRows(writer));
+    }
+
+    @Test
+    public void testFailedLaneRollsBackBatch() {
+        TestWriter writer = new TestWriter(platform, writerSettings);
+        Map<Table, List<CsvData>> batch = new LinkedHashMap<Table, List<CsvData>>();
+        batch.put(buildParentTable(), buildParentRows(1, 200));
+        List<CsvData> children = new ArrayList<CsvData>();
+        children.add(new CsvData(DataEventType.INSERT, new String[] { "1", "999", "orphan" }));
+        batch.put(buildChildTable(), children);
+        Assert.assertFalse(writeBatch(writer, batch));
+        Assert.assertTrue(writer.failed);
+        Assert.assertEquals(0, count(PARENT_TABLE));
+        Assert.assertEquals(0, count(CHILD_TABLE));
+    }
+
+    @Test
+    public void testSqlEventBeforeRowsAppliesBatchOnOneLane() {
+        insertOldParentRows(100);
+        TestWriter writer = new TestWriter(platform, writerSettings);
+        List<CsvData> rows = buildParentRows(1, 100);
+        rows.add(0, new CsvData(DataEventType.SQL, new String[] { "delete from " + PARENT_TABLE }));
+        Map<Table, List<CsvData>> batch = new LinkedHashMap<Table, List<CsvData>>();
+        batch.put(buildParentTable(), rows);
+        Assert.assertTrue(writeBatch(writer, batch));
+        Assert.assertEquals(100, count(PARENT_TABLE));
+        Assert.assertEquals(0, platform.getSqlTemplate().queryForInt(
+                "select count(*) from " + PARENT_TABLE + " where name like 'old%'"));
+        Assert.assertEquals(0, countWorkersWithRows(writer));
+    }
+
+    @Test
+    public void testSqlEventBeforeRowsIsRolledBackWithBatch() {
+        insertOldParentRows(100);
+        TestWriter writer = new TestWriter(platform, writerSettings);
+        List<CsvData> rows = buildParentRows(1, 100);
+        rows.add(0, new CsvData(DataEventType.SQL, new String[] { "delete from " + PARENT_TABLE }));
+        Map<Table, List<CsvData>> batch = new LinkedHashMap<Table, List<CsvData>>();
+        batch.put(buildParentTable(), rows);
+        List<CsvData> children = new ArrayList<CsvData>();
+        children.add(new CsvData(DataEventType.INSERT, new String[] { "1", "999", "orphan" }));
+        batch.put(buildChildTable(), children);
+        Assert.assertFalse(writeBatch(writer, batch));
+        Assert.assertTrue(writer.failed);
+        Assert.assertEquals(100, platform.getSqlTemplate().queryForInt(
+                "select count(*) from " + PARENT_TABLE + " where name like 'old%'"));
+        Assert.assertEquals(0, count(CHILD_TABLE));
+    }
+
+    @Test
+    public void testSqlEventAfterRowsWereSplitFailsBatch() {
+        insertOldParentRows(100);
+        TestWriter writer = new TestWriter(platform, writerSettings);
+        List<CsvData> rows = buildParentRows(101, 200);
+        rows.add(new CsvData(DataEventType.SQL, new String[] { "delete from " + PARENT_TABLE
+                + " where id <= 100" }));
+        rows.addAll(buildParentRows(1, 100));
+        Map<Table, List<CsvData>> batch = new LinkedHashMap<Table, List<CsvData>>();
+        batch.put(buildParentTable(), rows);
+        Assert.assertFalse(writeBatch(writer, batch));
+        Assert.assertTrue(writer.lastError instanceof ParallelApplyException);
+        Assert.assertTrue(writer.failed);
+        Assert.assertEquals(100, count(PARENT_TABLE));
+        Assert.assertEquals(100, platform.getSqlTemplate().queryForInt(
+                "select count(*) from " + PARENT_TABLE + " where name like 'old%'"));
+    }
+
+    @Test
+    public void testMoveToAnotherLaneAfterRowsWereSplitFailsBatch() {
+        TestWriter writer = new TestWriter(platform, writerSettings);
+        List<CsvData> rows = buildParentRows(1, 100);
+        int newId = 101;
+        while (getLane("1") == getLane(Integer.toString(newId))) {
+            newId++;
+        }
+        rows.add(new CsvData(DataEventType.UPDATE, new String[] { "1" }, new String[] {
+                Integer.toString(newId), "moved" }));
+        Map<Table, List<CsvData>> batch = new LinkedHashMap<Table, List<CsvData>>();
+        batch.put(buildParentTable(), rows);
+        Assert.assertFalse(writeBatch(writer, batch));
+        Assert.assertTrue(writer.lastError instanceof ParallelApplyException);
+        Assert.assertTrue(writer.failed);
+        Assert.assertEquals(0, count(PARENT_TABLE));
+    }
+
+    @Test
+    public void testLanesShareTheExecutorAcrossBatches() {
+        ExecutorService laneThreads = new ThreadPoolExecutor(0, THREAD_COUNT - 1, 60,
+                TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        try {
+            for (int i = 0; i < 3; i++) {
+                TestWriter writer = new TestWriter(platform, writerSettings, laneThreads);
+                Map<Table, List<CsvData>> batch = new LinkedHashMap<Table, List<CsvData>>();
+                batch.put(buildParentTable(), buildParentRows(i * 100 + 1, i * 100 + 100));
+                Assert.assertTrue(writeBatch(writer, batch));
+                Assert.assertEquals(THREAD_COUNT - 1, countWorkersWithRows(writer));
+            }
+            Assert.assertEquals(300, count(PARENT_TABLE));
+            Assert.assertTrue(((ThreadPoolExecutor) laneThreads).getLargestPoolSize() <= THREAD_COUNT - 1);
+        } finally {
+            laneThreads.shutdown();
+        }
+    }
+
+    @Test
+    public void testBatchIsAppliedOnOneLaneWhenNoThreadsAreFree() {
+        ExecutorService laneThreads = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>());
+        try {
+            TestWriter writer = new TestWriter(platform, writerSettings, laneThreads);
+            Map<Table, List<CsvData>> batch = new LinkedHashMap<Table, List<CsvData>>();
+            batch.put(buildParentTable(), buildParentRows(1, 200));
+            Assert.assertTrue(writeBatch(writer, batch));
+            Assert.assertNull(writer.workers);
+            Assert.assertFalse(writer.failed);
+            Assert.assertEquals(200, count(PARENT_TABLE));
+        } finally {
+            laneThreads.shutdown();
+        }
+    }
+
+    protected boolean writeBatch(TestWriter writer, Map<Table, List<CsvData>> datas) {
+        DataContext context = new DataContext();
+        Batch batch = new Batch(BatchType.LOAD, getNextBatchId(), "default",
+                BinaryEncoding.BASE64, "00000", "00001", false);
+        context.setBatch(batch);
+        writer.open(context);
+        try {
+            writer.start(batch);
+            for (Map.Entry<Table, List<CsvData>> entry : datas.entrySet()) {
+                if (writer.start(entry.getKey())) {
+                    for (CsvData data : entry.getValue()) {
+                        writer.write(data);
+                    }
+                    writer.end(entry.getKey());
+                }
+            }
+            writer.end(batch, false);
+            return true;
+        } catch (Exception ex) {
+            writer.lastError = ex;
+            writer.end(batch, true);
+            return false;
+        } finally {
+            writer.close();
+        }
+    }
+
+    protected Table buildParentTable() {
+        return buildSourceTable(PARENT_TABLE, new String[] { "id" }, new String[] { "id", "name" });
+    }
+
+    protected Table buildChildTable() {
+        return buildSourceTable(CHILD_TABLE, new String[] { "id" }, new String[] { "id",
+                "parent_id", "name" });
+    }
+
+    protected List<CsvData> buildParentRows(int from, int to) {
+        List<CsvData> rows = new ArrayList<CsvData>();
+        for (int id = from; id <= to; id++) {
+            rows.add(new CsvData(DataEventType.INSERT, new String[] { Integer.toString(id),
+                    "parent " + id }));
+        }
+        return rows;
+    }
+
+    protected void insertOldParentRows(int count) {
+        for (int id = 1; id <= count; id++) {
+            platform.getSqlTemplate().update(
+                    "insert into " + PARENT_TABLE + " (id, name) values (?, ?)", id, "old " + id);
+        }
+    }
+
+    protected int count(String tableName) {
+        return platform.getSqlTemplate().queryForInt("select count(*) from " + tableName);
+    }
+
+    protected int getLane(String id) {
+        return (Arrays.hashCode(new String[] { id }) & Integer.MAX_VALUE) % THREAD_COUNT;
+    }
+
+    protected int countWorkersWithRows(ParallelDatabaseWriter writer) {
+        int count = 0;
+        for (ParallelDatabaseWriter.Worker worker : writer.workers) {
+            if (worker.rowCount > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static class TestWriter extends ParallelDatabaseWriter {
+
+        boolean failed;
+
+        Exception lastError;
+
+        TestWriter(IDatabasePlatform platform, DatabaseWriterSettings settings) {
+            super(platform, null, settings, THREAD_COUNT, 60000);
+        }
+
+        TestWriter(IDatabasePlatform platform, DatabaseWriterSettings settings,
+                ExecutorService laneThreads) {
+            super(platform, null, settings, THREAD_COUNT, 60000, laneThreads);
+        }
+
+        @Override
+        protected void parallelApplyFailed(Batch batch) {
+            failed = true;
+        }
+
+    }
+
+}
@@ -108,6 +108,36 @@ public class TransformWriterTest extends AbstractWriterTest {
 
     }
 
+    @Test
+    public void testTransformPlansAreCompiledOncePerTable() {
+        mockWriter.reset();
+        TransformWriter writer = getTransformWriter();
+        Table table = new Table("s2", new Column("id"));
+        writeData(writer, new TableCsvData(table, new CsvData(DataEventType.INSERT,
+                new String[] { "1" }), new CsvData(DataEventType.INSERT, new String[] { "2" })));
+        Assert.assertEquals(1, writer.transformPlans.size());
+        TransformWriter.TransformPlan[] plans = writer.transformPlans.values().iterator().next();
+        Table targetTable = plans[0].targetTable;
+        Assert.assertEquals("t2", targetTable.getName());
+        Assert.assertEquals(2, targetTable.getColumnCount());
+
+        writeData(writer, new TableCsvData(table, new CsvData(DataEventType.INSERT,
+                new String[] { "3" })));
+        Assert.assertSame(plans, writer.transformPlans.values().iterator().next());
+        Assert.assertSame(targetTable, plans[0].targetTable);
+        Assert.assertEquals(3, mockWriter.writtenDatas.get("t2").size());
+
+        Table changedTable = new Table("s2", new Column("id"), new Column("name"));
+        writeData(writer, new TableCsvData(changedTable, new CsvData(DataEventType.INSERT,
+                new String[] { "4", "four" })));
+        Assert.assertEquals(2, writer.transformPlans.size());
+        List<CsvData> datas = mockWriter.writtenDatas.get("t2");
+        Assert.assertEquals(4, datas.size());
+        Assert.assertEquals("4", datas.get(3).getParsedData(CsvData.ROW_DATA)[0]);
+        Assert.assertEquals("added", datas.get(3).getParsedData(CsvData.ROW_DATA)[1]);
+        Assert.assertEquals("four", datas.get(3).getParsedData(CsvData.ROW_DATA)[2]);
+    }
+
     @Test
     public void testSimpleTableBeanShellMapping() throws Exception {
     }
@@ -41,6 +41,13 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sql.DataSource;
 
@@ -449,7 +456,7 @@ public abstract class AbstractJdbcDdlReader implements IDdlReader {
      * @return The database model
      */
     public Database getDatabase(Connection connection) throws SQLException {
-        return readTables(null, null, null);
+        return readTables(null, (String) null, null);
     }
 
     protected String getResultSetSchemaName() {
@@ -522,7 +529,9 @@ public abstract class AbstractJdbcDdlReader implements IDdlReader {
             String schemaPattern, String[] tableTypes) throws SQLException {
         ResultSet tableData = null;
         try {
-            DatabaseMetaDataWrapper metaData = new DatabaseMetaDataWrapper();
+            boolean bulkRead = platform.isMetadataBulkRead();
+            DatabaseMetaDataWrapper metaData = bulkRead ? new BulkDatabaseMetaDataWrapper()
+                    : new DatabaseMetaDataWrapper();
 
             metaData.setMetaData(connection.getMetaData());
             metaData.setCatalog(catalog == null ? getDefaultCatalogPattern() : catalog);
@@ -531,6 +540,10 @@ public abstract class AbstractJdbcDdlReader implements IDdlReader {
             metaData.setTableTypes((tableTypes == null) || (tableTypes.length == 0) ? getDefaultTableTypes()
                     : tableTypes);
 
+            if (bulkRead) {
+                readBulkMetaData((BulkDatabaseMetaDataWrapper) metaData);
+            }
+
             tableData = metaData.getTables(getDefaultTablePattern());
 
             List<Table> tables = new ArrayList<Table>();
@@ -561,6 +574,113 @@ public abstract class AbstractJdbcDdlReader implements IDdlReader {
         }
     }
 
+    /*
+     * Reads the columns, primary keys and, where the driver allows it, the
+     * foreign keys of all tables matched by the wrapper with one metadata call
+     * each. Tables whose metadata is not found in bulk are read one at a time.
+     */
+    protected void readBulkMetaData(BulkDatabaseMetaDataWrapper metaData) throws SQLException {
+        ResultSet rs = null;
+        try {
+            rs = metaData.getColumns(getDefaultTablePattern(), getDefaultColumnPattern());
+            List<Map<String, Object>> values = new ArrayList<Map<String, Object>>();
+            while (rs.next()) {
+                values.add(readMetaData(rs, getColumnsForColumn()));
+            }
+            metaData.setColumns(values);
+        } finally {
+            close(rs);
+        }
+
+        try {
+            rs = metaData.getPrimaryKeys(null);
+            List<Map<String, Object>> values = new ArrayList<Map<String, Object>>();
+            while (rs.next()) {
+                values.add(readMetaData(rs, getColumnsForPK()));
+            }
+            /*
+             * Drivers that need a table name return nothing, so primary keys
+             * are only used when some were found
+             */
+            if (values.size() > 0) {
+                metaData.setPrimaryKeys(values);
+            }
+        } catch (SQLException ex) {
+            log.debug("Could not read the primary keys of all tables at once.  {}", ex.getMessage());
+        } finally {
+            close(rs);
+        }
+
+        if (getPlatformInfo().isForeignKeysSupported() && isBulkForeignKeysSupported()) {
+            try {
+                rs = metaData.getForeignKeys(null);
+                List<Map<String, Object>> values = new ArrayList<Map<String, Object>>();
+                while (rs.next()) {
+                    values.add(readMetaData(rs, getColumnsForFK()));
+                }
+                metaData.setForeignKeys(values);
+            } finally {
+                close(rs);
+            }
+        }
+    }
+
+    /*
+     * Platforms whose driver returns the foreign keys of every table when the
+     * table name is null should return true. An empty result can not be told
+     * apart from tables without foreign keys, so this is not detected.
+     */
+    protected boolean isBulkForeignKeysSupported() {
+        return false;
+    }
+
+    public List<Database> readTables(final String catalog, List<String> schemas,
+            final String[] tableTypes) {
+        List<Database> databases = new ArrayList<Database>(schemas.size());
+        int threadCount = Math.min(platform.getMetadataReadThreadCount(), schemas.size());
+        if (threadCount <= 1) {
+            for (String schema : schemas) {
+                databases.add(readTables(catalog, schema, tableTypes));
+            }
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount,
+                    new ThreadFactory() {
+                        final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r);
+                            thread.setName("metadata-reader-" + threadNumber.getAndIncrement());
+                            thread.setDaemon(false);
+                            return thread;
+                        }
+                    });
+            try {
+                List<Future<Database>> futures = new ArrayList<Future<Database>>(schemas.size());
+                for (final String schema : schemas) {
+                    futures.add(executor.submit(new Callable<Database>() {
+                        public Database call() {
+                            return readTables(catalog, schema, tableTypes);
+                        }
+                    }));
+                }
+                for (Future<Database> future : futures) {
+                    databases.add(future.get());
+                }
+            } catch (InterruptedException ex) {
+                throw new SqlException(ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                } else {
+                    throw new SqlException(ex.getCause());
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        return databases;
+    }
+
     public Table readTable(final String catalog, final String schema, final String table) {
         try {
             log.debug("reading table: " + table);
@@ -873,29 +993,44 @@ public abstract class AbstractJdbcDdlReader implements IDdlReader {
      */
     protected Collection<Column> readColumns(DatabaseMetaDataWrapper metaData, String tableName)
             throws SQLException {
+        if (metaData instanceof BulkDatabaseMetaDataWrapper) {
+            List<Map<String, Object>> bulkValues = ((BulkDatabaseMetaDataWrapper) metaData)
+                    .getBulkColumns(tableName);
+            if (bulkValues != null) {
+                return readColumns(metaData, bulkValues);
+            }
+        }
+
         ResultSet columnData = null;        
         try {
-            Set<String> columnNames = new HashSet<String>();
             columnData = metaData.getColumns(getTableNamePattern(tableName),
                     getDefaultColumnPattern());
 
-            List<Column> columns = new ArrayList<Column>();
-
+            List<Map<String, Object>> columnValues = new ArrayList<Map<String, Object>>();
             while (columnData.next()) {
-                Map<String, Object> values = readMetaData(columnData, getColumnsForColumn());
-                Column column = readColumn(metaData, values);
-                if (!columnNames.contains(column.getName())) {
-                    columnNames.add(column.getName());
-                    columns.add(column);
-                }
-                
-                genericizeDefaultValuesAndUpdatePlatformColumn(column);
+                columnValues.add(readMetaData(columnData, getColumnsForColumn()));
             }
-            return columns;
+            return readColumns(metaData, columnValues);
         } finally {
             close(columnData);
         }
     }
+
+    protected Collection<Column> readColumns(DatabaseMetaDataWrapper metaData,
+            List<Map<String, Object>> columnValues) throws SQLException {
+        Set<String> columnNames = new HashSet<String>();
+        List<Column> columns = new ArrayList<Column>();
+        for (Map<String, Object> values : columnValues) {
+            Column column = readColumn(metaData, values);
+            if (!columnNames.contains(column.getName())) {
+                columnNames.add(column.getName());
+                columns.add(column);
+            }
+
+            genericizeDefaultValuesAndUpdatePlatformColumn(column);
+        }
+        return columns;
+    }
     
     protected void genericizeDefaultValuesAndUpdatePlatformColumn(Column column) {
         PlatformColumn platformColumn = column.findPlatformColumn(platform.getName());
@@ -999,6 +1134,17 @@ public abstract class AbstractJdbcDdlReader implements IDdlReader {
     protected Collection<String> readPrimaryKeyNames(DatabaseMetaDataWrapper metaData,
             String tableName) throws SQLException {
         List<String> pks = new ArrayList<String>();
+        if (metaData instanceof BulkDatabaseMetaDataWrapper) {
+            List<Map<String, Object>> bulkValues = ((BulkDatabaseMetaDataWrapper) metaData)
+                    .getBulkPrimaryKeys(tableName);
+            if (bulkValues != null) {
+                for (Map<String, Object> values : bulkValues) {
+                    pks.add(readPrimaryKeyName(metaData, values));
+                }
+                return pks;
+            }
+        }
+
         ResultSet pkData = null;
 
         try {
@@ -1042,7 +1188,15 @@ public abstract class AbstractJdbcDdlReader implements IDdlReader {
     protected Collection<ForeignKey> readForeignKeys(Connection connection,
             DatabaseMetaDataWrapper metaData, String tableName) throws SQLException {
         Map<String, ForeignKey> fks = new LinkedHashMap<String, ForeignKey>();
-        if (getPlatformInfo().isForeignKeysSupported()) {
+        List<Map<String, Object>> bulkValues = null;
+        if (metaData instanceof BulkDatabaseMetaDataWrapper) {
+            bulkValues = ((BulkDatabaseMetaDataWrapper) metaData).getBulkForeignKeys(tableName);
+        }
+        if (bulkValues != null) {
+            for (Map<String, Object> values : bulkValues) {
+                readForeignKey(metaData, values, fks);
+            }
+        } else if (getPlatformInfo().isForeignKeysSupported()) {
             ResultSet fkData = null;
     
             try {
@@ -1463,4 +1617,100 @@ public abstract class AbstractJdbcDdlReader implements IDdlReader {
         });
     }
 
+    public Map<String, Long> getTableFingerprints(final String catalog, final String schema) {
+        JdbcSqlTemplate sqlTemplate = (JdbcSqlTemplate) platform.getSqlTemplate();
+        return sqlTemplate.execute(new IConnectionCallback<Map<String, Long>>() {
+            public Map<String, Long> execute(Connection connection) throws SQLException {
+                Map<String, Long> fingerprints = new HashMap<String, Long>();
+                DatabaseMetaData meta = connection.getMetaData();
+                ResultSet rs = null;
+                try {
+                    rs = meta.getTables(catalog, schema, getDefaultTablePattern(),
+                            new String[] { "TABLE" });
+                    while (rs.next()) {
+                        if (isInCatalogAndSchema(rs, catalog, schema)) {
+                            String tableName = rs.getString("TABLE_NAME");
+                            fingerprints.put(tableName, Table.calculateFingerprint(tableName));
+                        }
+                    }
+                } finally {
+                    close(rs);
+                }
+
+                if (fingerprints.size() > 0) {
+                    try {
+                        rs = meta.getColumns(catalog, schema, getDefaultTablePattern(),
+                                getDefaultColumnPattern());
+                        while (rs.next()) {
+                            String tableName = rs.getString("TABLE_NAME");
+                            Long fingerprint = fingerprints.get(tableName);
+                            if (fingerprint != null && isInCatalogAndSchema(rs, catalog, schema)) {
+                                fingerprints.put(tableName, fingerprint
+                                        + Table.calculateFingerprint(rs.getString("COLUMN_NAME"),
+                                                rs.getString("DATA_TYPE"),
+                                                rs.getString("TYPE_NAME"),
+                                                rs.getString("COLUMN_SIZE"),
+                                                rs.getString("DECIMAL_DIGITS"),
+                                                rs.getString("NULLABLE"),
+                                                rs.getString("ORDINAL_POSITION")));
+                            }
+                        }
+                    } finally {
+                        close(rs);
+                    }
+
+                    if (!readPrimaryKeyFingerprints(connection, catalog, schema, fingerprints)) {
+                        log.debug(
+                                "Could not read primary keys for all tables in {}.  Table fingerprints are not available",
+                                Table.getFullyQualifiedTablePrefix(catalog, schema));
+                        return null;
+                    }
+                }
+                return fingerprints;
+            }
+        });
+    }
+
+    /*
+     * Add the primary key columns of all the tables in a catalog and schema
+     * to the table fingerprints with a single metadata call. Not every driver
+     * allows the table name to be left out, so false is returned if no
+     * primary keys could be read.
+     */
+    protected boolean readPrimaryKeyFingerprints(Connection connection, String catalog,
+            String schema, Map<String, Long> fingerprints) throws SQLException {
+        boolean foundPrimaryKeys = false;
+        ResultSet rs = null;
+        try {
+            rs = connection.getMetaData().getPrimaryKeys(catalog, schema, null);
+            while (rs.next()) {
+                String tableName = rs.getString("TABLE_NAME");
+                Long fingerprint = fingerprints.get(tableName);
+                if (fingerprint != null && isInCatalogAndSchema(rs, catalog, schema)) {
+                    fingerprints.put(tableName, fingerprint
+                            + Table.calculateFingerprint("PK", rs.getString("COLUMN_NAME"),
+                                    rs.getString("KEY_SEQ")));
+                    foundPrimaryKeys = true;
+                }
+            }
+        } catch (SQLException ex) {
+            log.debug("Failed to read primary keys without a table name", ex);
+        } finally {
+            close(rs);
+        }
+        return foundPrimaryKeys;
+    }
+
+    /*
+     * Catalog and schema names are patterns in metadata calls, so make sure
+     * a row is from the catalog and schema that was asked for.
+     */
+    protected boolean isInCatalogAndSchema(ResultSet rs, String catalog, String schema)
+            throws SQLException {
+        String rowCatalog = rs.getString("TABLE_CAT");
+        String rowSchema = rs.getString("TABLE_SCHEM");
+        return (catalog == null || rowCatalog == null || catalog.equals(rowCatalog))
+                && (schema == null || rowSchema == null || schema.equals(rowSchema));
+    }
+
 }
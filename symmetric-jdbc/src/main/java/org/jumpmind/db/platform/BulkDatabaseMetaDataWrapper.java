@@ -0,0 +1,146 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.db.platform;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * A {@link DatabaseMetaDataWrapper} that also holds the column, primary key
+ * and foreign key metadata of every table in a catalog and schema after they
+ * were read with one metadata call each. Tables can then be built without a
+ * round trip per table. The bulk values for a table are only handed out when
+ * they came from the catalog and schema the wrapper currently points at, and
+ * the table name was not seen in more than one catalog or schema.
+ */
+public class BulkDatabaseMetaDataWrapper extends DatabaseMetaDataWrapper {
+
+    protected Map<String, String[]> locations = new HashMap<String, String[]>();
+
+    protected Set<String> ambiguousTableNames = new HashSet<String>();
+
+    protected Map<String, List<Map<String, Object>>> columns;
+
+    protected Map<String, List<Map<String, Object>>> primaryKeys;
+
+    protected Map<String, List<Map<String, Object>>> foreignKeys;
+
+    public void setColumns(List<Map<String, Object>> values) {
+        columns = groupByTable(values, "TABLE_CAT", "TABLE_SCHEM", "TABLE_NAME");
+    }
+
+    public void setPrimaryKeys(List<Map<String, Object>> values) {
+        primaryKeys = groupByTable(values, "TABLE_CAT", "TABLE_SCHEM", "TABLE_NAME");
+    }
+
+    public void setForeignKeys(List<Map<String, Object>> values) {
+        foreignKeys = groupByTable(values, "FKTABLE_CAT", "FKTABLE_SCHEM", "FKTABLE_NAME");
+    }
+
+    /**
+     * @return the column metadata of the table, or null if it has to be read
+     *         from the database
+     */
+    public List<Map<String, Object>> getBulkColumns(String tableName) {
+        return get(columns, tableName);
+    }
+
+    /**
+     * @return the primary key metadata of the table, or null if it has to be
+     *         read from the database
+     */
+    public List<Map<String, Object>> getBulkPrimaryKeys(String tableName) {
+        return get(primaryKeys, tableName);
+    }
+
+    /**
+     * @return the foreign key metadata of the table, or null if it has to be
+     *         read from the database
+     */
+    public List<Map<String, Object>> getBulkForeignKeys(String tableName) {
+        return get(foreignKeys, tableName);
+    }
+
+    protected List<Map<String, Object>> get(Map<String, List<Map<String, Object>>> valuesByTable,
+            String tableName) {
+        if (valuesByTable == null || tableName == null || ambiguousTableNames.contains(tableName)) {
+            return null;
+        }
+        String[] location = locations.get(tableName);
+        if (location != null
+                && !(matches(location[0], getCatalog()) && matches(location[1], getSchemaPattern()))) {
+            return null;
+        }
+        List<Map<String, Object>> values = valuesByTable.get(tableName);
+        if (values != null) {
+            return values;
+        } else if (columns != null && columns.containsKey(tableName)) {
+            /* the table was read in bulk and has no keys */
+            return new ArrayList<Map<String, Object>>(0);
+        } else {
+            /* the table was created after the bulk read */
+            return null;
+        }
+    }
+
+    protected Map<String, List<Map<String, Object>>> groupByTable(
+            List<Map<String, Object>> values, String catalogColumn, String schemaColumn,
+            String tableColumn) {
+        Map<String, List<Map<String, Object>>> valuesByTable = new HashMap<String, List<Map<String, Object>>>();
+        for (Map<String, Object> row : values) {
+            String tableName = (String) row.get(tableColumn);
+            if (tableName != null) {
+                String[] location = new String[] { (String) row.get(catalogColumn),
+                        (String) row.get(schemaColumn) };
+                String[] existingLocation = locations.get(tableName);
+                if (existingLocation == null) {
+                    locations.put(tableName, location);
+                } else if (!matches(existingLocation[0], location[0])
+                        || !matches(existingLocation[1], location[1])) {
+                    ambiguousTableNames.add(tableName);
+                }
+                List<Map<String, Object>> tableValues = valuesByTable.get(tableName);
+                if (tableValues == null) {
+                    tableValues = new ArrayList<Map<String, Object>>();
+                    valuesByTable.put(tableName, tableValues);
+                }
+                tableValues.add(row);
+            }
+        }
+        return valuesByTable;
+    }
+
+    /*
+     * Not every driver fills in the catalog or schema, so a blank name
+     * matches any name.
+     */
+    protected boolean matches(String name, String otherName) {
+        return StringUtils.isBlank(name) || StringUtils.isBlank(otherName)
+                || name.equals(otherName);
+    }
+
+}
@@ -22,6 +22,8 @@ package org.jumpmind.db.platform.h2;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
@@ -115,4 +117,48 @@ public class H2DdlReader extends AbstractJdbcDdlReader {
         return name != null && name.startsWith("PRIMARY_KEY_");
     }
 
+    /*
+     * H2 does not return primary keys when the table name is null, so read
+     * them from the information schema instead.
+     */
+    @Override
+    protected boolean readPrimaryKeyFingerprints(Connection connection, String catalog,
+            String schema, Map<String, Long> fingerprints) throws SQLException {
+        StringBuilder sql = new StringBuilder(
+                "select TABLE_NAME, COLUMN_NAME, ORDINAL_POSITION from INFORMATION_SCHEMA.INDEXES where PRIMARY_KEY=true");
+        if (catalog != null) {
+            sql.append(" and TABLE_CATALOG=?");
+        }
+        if (schema != null) {
+            sql.append(" and TABLE_SCHEMA=?");
+        }
+        boolean foundPrimaryKeys = false;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            ps = connection.prepareStatement(sql.toString());
+            int index = 1;
+            if (catalog != null) {
+                ps.setString(index++, catalog);
+            }
+            if (schema != null) {
+                ps.setString(index++, schema);
+            }
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                String tableName = rs.getString(1);
+                Long fingerprint = fingerprints.get(tableName);
+                if (fingerprint != null) {
+                    fingerprints.put(tableName, fingerprint
+                            + Table.calculateFingerprint("PK", rs.getString(2), rs.getString(3)));
+                    foundPrimaryKeys = true;
+                }
+            }
+        } finally {
+            close(rs);
+            close(ps);
+        }
+        return foundPrimaryKeys;
+    }
+
 }
@@ -52,6 +52,15 @@ public class PostgreSqlDdlReader extends AbstractJdbcDdlReader {
         setDefaultTablePattern(null);
     }
 
+    /*
+     * The PostgreSQL driver returns the imported keys of every table in the
+     * schema when the table name is null.
+     */
+    @Override
+    protected boolean isBulkForeignKeysSupported() {
+        return true;
+    }
+
     @Override
     protected Table readTable(Connection connection, DatabaseMetaDataWrapper metaData,
             Map<String, Object> values) throws SQLException {
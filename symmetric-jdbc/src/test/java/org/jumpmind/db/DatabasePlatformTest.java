@@ -22,6 +22,8 @@ package org.jumpmind.db;
 
 import java.io.InputStreamReader;
 import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -295,4 +297,35 @@ public class DatabasePlatformTest {
         platform.createTables(true, false, table);
     }
 
+    @Test
+    public void testBulkReadMatchesTableByTableRead() throws Exception {
+        String catalog = platform.getDefaultCatalog();
+        String schema = platform.getDefaultSchema();
+        boolean oldBulkRead = platform.isMetadataBulkRead();
+        int oldThreadCount = platform.getMetadataReadThreadCount();
+        try {
+            platform.setMetadataBulkRead(false);
+            Database tableByTable = platform.readDatabase(catalog, schema, null);
+            platform.setMetadataBulkRead(true);
+            Database bulk = platform.readDatabase(catalog, schema, null);
+
+            assertTrue(tableByTable.getTableCount() > 0);
+            assertEquals(tableByTable.getTableCount(), bulk.getTableCount());
+            for (Table table : tableByTable.getTables()) {
+                assertEquals(table, bulk.findTable(table.getName()));
+            }
+
+            platform.setMetadataReadThreadCount(2);
+            List<Database> databases = platform.readDatabases(catalog, Arrays.asList(schema, schema),
+                    null);
+            assertEquals(2, databases.size());
+            for (Database database : databases) {
+                assertEquals(bulk.getTableCount(), database.getTableCount());
+            }
+        } finally {
+            platform.setMetadataBulkRead(oldBulkRead);
+            platform.setMetadataReadThreadCount(oldThreadCount);
+        }
+    }
+
 }
@@ -27,7 +27,6 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.zip.GZIPInputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -41,6 +40,7 @@ import org.jumpmind.symmetric.io.data.CsvConstants;
 import org.jumpmind.symmetric.io.data.CsvUtils;
 import org.jumpmind.symmetric.io.stage.IStagedResource;
 import org.jumpmind.symmetric.io.stage.IStagingManager;
+import org.jumpmind.symmetric.io.stage.MultiMemberGZIPInputStream;
 import org.jumpmind.symmetric.model.IncomingBatch;
 import org.jumpmind.symmetric.model.Node;
 import org.jumpmind.symmetric.model.ProcessInfo;
@@ -133,6 +133,11 @@ public class PushUriHandler extends AbstractUriHandler {
             IOUtils.closeQuietly(writer);
         }
 
+        /*
+         * Tells the pushing node it can send batches as concatenated gzip
+         * members next time
+         */
+        res.setHeader(WebConstants.ACCEPT_GZIP_MEMBERS, Boolean.TRUE.toString());
         PrintWriter resWriter = res.getWriter();
         if (worker != null) {
             worker.queueUpLoad(new DataLoaderService.EOM());
@@ -186,7 +191,7 @@ public class PushUriHandler extends AbstractUriHandler {
         boolean useCompression = contentType != null && contentType.equalsIgnoreCase("gzip");
         is = req.getInputStream();
         if (useCompression) {
-            is = new GZIPInputStream(is);
+            is = new MultiMemberGZIPInputStream(is);
         }
         return is;
     }
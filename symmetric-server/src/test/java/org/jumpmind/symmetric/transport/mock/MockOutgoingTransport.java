@@ -45,6 +45,10 @@ public class MockOutgoingTransport implements IOutgoingTransport {
         return bos;
     }
 
+    public OutputStream getByteStream() {
+        return null;
+    }
+
     public void close() {
         try {
             bWriter.flush();
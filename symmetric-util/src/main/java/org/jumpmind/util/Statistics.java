@@ -56,6 +56,12 @@ public class Statistics {
         stats.put(category, value);
     }
 
+    public void add(Statistics statistics) {
+        for (Map.Entry<String, Long> entry : statistics.stats.entrySet()) {
+            increment(entry.getKey(), entry.getValue());
+        }
+    }
+
     public void startTimer(String category) {
         timers.put(category, System.currentTimeMillis());
     }